@@ -42,6 +42,13 @@ public abstract class AbstractBaseController extends HttpServlet {
         String completeRequestURL = request.getRequestURL() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
         request.setAttribute("thispageurl", completeRequestURL);
         request.setAttribute("datalayer", dl);
+        dl.setOwner(request.getMethod() + " " + request.getRequestURI());
+        //dopo una scrittura, la stessa sessione legge dal database principale (vedi DataLayer.getReadConnection)
+        //after a write, the same session reads from the primary database (see DataLayer.getReadConnection)
+        HttpSession s = request.getSession(false);
+        if (s != null) {
+            dl.setConsistencyKey(s.getId());
+        }
     }
 
     //override to enforce your policy and/or change the login url
@@ -0,0 +1,117 @@
+package webengineering.framework.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caricatore a lotti per una richiesta: le chiavi vengono prima accodate
+ * (request/requestAll) e poi risolte tutte insieme con una sola chiamata alla
+ * funzione di caricamento (tipicamente una query WHERE key IN (...)), invece
+ * di una query per elemento. I valori caricati (anche quelli assenti) restano
+ * memorizzati fino a clear().
+ *
+ * Per-request batch loader: keys are first queued (request/requestAll) and
+ * then resolved together with a single call to the load function (typically a
+ * WHERE key IN (...) query), instead of one query per element. Loaded values
+ * (including missing ones) are remembered until clear().
+ */
+public class BatchLoader<K, V> {
+
+    @FunctionalInterface
+    public interface BatchFunction<K, V> {
+
+        //restituisce i valori trovati per le chiavi date; le chiavi senza valore possono mancare dalla mappa
+        //returns the values found for the given keys; keys without a value may be absent from the map
+        Map<K, V> load(Collection<K> keys) throws DataException;
+    }
+
+    //limite al numero di parametri di una singola IN (...)
+    //limit on the number of parameters of a single IN (...)
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final BatchFunction<K, V> function;
+    private final int maxBatchSize;
+    private final Set<K> pending;
+    private final Map<K, V> loaded;
+
+    public BatchLoader(BatchFunction<K, V> function) {
+        this(function, DEFAULT_BATCH_SIZE);
+    }
+
+    public BatchLoader(BatchFunction<K, V> function, int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.function = function;
+        this.maxBatchSize = maxBatchSize;
+        this.pending = new LinkedHashSet<>();
+        this.loaded = new HashMap<>();
+    }
+
+    public BatchLoader<K, V> request(K key) {
+        if (key != null && !loaded.containsKey(key)) {
+            pending.add(key);
+        }
+        return this;
+    }
+
+    public BatchLoader<K, V> requestAll(Collection<? extends K> keys) {
+        for (K key : keys) {
+            request(key);
+        }
+        return this;
+    }
+
+    //il primo get su una chiave non ancora caricata esegue il lotto con tutte le chiavi accodate
+    //the first get on a key not yet loaded runs the batch with all the queued keys
+    public V get(K key) throws DataException {
+        if (!loaded.containsKey(key)) {
+            request(key);
+            dispatch();
+        }
+        return loaded.get(key);
+    }
+
+    public Map<K, V> getAll(Collection<? extends K> keys) throws DataException {
+        requestAll(keys);
+        dispatch();
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            result.put(key, loaded.get(key));
+        }
+        return result;
+    }
+
+    public void dispatch() throws DataException {
+        while (!pending.isEmpty()) {
+            List<K> batch = new ArrayList<>(Math.min(pending.size(), maxBatchSize));
+            Iterator<K> i = pending.iterator();
+            while (i.hasNext() && batch.size() < maxBatchSize) {
+                batch.add(i.next());
+                i.remove();
+            }
+            Map<K, V> values = function.load(batch);
+            for (K key : batch) {
+                loaded.put(key, values.get(key));
+            }
+        }
+    }
+
+    //da chiamare se i dati sottostanti vengono modificati durante la richiesta
+    //to be called if the underlying data are modified during the request
+    public void clear(K key) {
+        loaded.remove(key);
+    }
+
+    public void clear() {
+        pending.clear();
+        loaded.clear();
+    }
+}
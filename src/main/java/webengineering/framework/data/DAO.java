@@ -1,6 +1,20 @@
 package webengineering.framework.data;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  *
@@ -9,19 +23,337 @@ import java.sql.Connection;
 public class DAO {
 
     protected final DataLayer dataLayer;
-    protected final Connection connection;
+
+    //query con nome registrate dalla classe derivata e statement già preparati sulla connessione corrente
+    //named queries registered by the derived class and statements already prepared on the current connection
+    private final Map<String, String> queries;
+    private final Map<String, Integer> keyModes;
+    //tabelle lette dalle query dichiarate con registerCachedQuery e tabella scritta da ciascuno statement
+    //di scrittura registrato (per la QueryCache)
+    //tables read by the queries declared with registerCachedQuery and table written by each registered
+    //write statement (for the QueryCache)
+    private final Map<String, Set<String>> readTables;
+    private final Map<String, String> writtenTables;
+    private final Map<String, PreparedStatement> statements;
+    private Connection preparedOn;
+    //statement preparati sulla connessione di lettura, se questa è una replica
+    //statements prepared on the read connection, if it is a replica
+    private final Map<String, PreparedStatement> readStatements;
+    private Connection readPreparedOn;
 
     public DAO(DataLayer d) {
         this.dataLayer = d;
-        this.connection = d.getConnection();
+        this.queries = new HashMap<>();
+        this.keyModes = new HashMap<>();
+        this.readTables = new HashMap<>();
+        this.writtenTables = new HashMap<>();
+        this.statements = new HashMap<>();
+        this.readStatements = new HashMap<>();
     }
 
     protected DataLayer getDataLayer() {
         return dataLayer;
     }
 
-    protected Connection getConnection() {
-        return connection;
+    //la connessione non viene catturata alla creazione del DAO: il DataLayer la apre solo al primo uso
+    //the connection is not captured when the DAO is created: the DataLayer opens it only on first use
+    protected Connection getConnection() throws SQLException {
+        return dataLayer.getConnection();
+    }
+
+    //da chiamare (tipicamente in init) per associare un nome a una query
+    //to be called (typically in init) to give a name to a query
+    protected void registerStatement(String name, String sql) {
+        registerStatement(name, sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    protected void registerStatement(String name, String sql, int autoGeneratedKeys) {
+        queries.put(name, sql);
+        keyModes.put(name, autoGeneratedKeys);
+        readTables.remove(name);
+        String table = QueryCache.writtenTable(sql);
+        if (table != null) {
+            writtenTables.put(name, table);
+        } else {
+            writtenTables.remove(name);
+        }
+    }
+
+    //come registerStatement, per le SELECT da eseguire con cachedQuery: tables sono tutte le tabelle lette
+    //dalla query (sottoquery comprese), le cui scritture scartano i risultati in cache
+    //as registerStatement, for the SELECTs to be run with cachedQuery: tables are all the tables read by
+    //the query (subqueries included), whose writes discard the cached results
+    protected void registerCachedQuery(String name, String sql, String... tables) {
+        registerStatement(name, sql);
+        if (writtenTables.containsKey(name)) {
+            throw new IllegalArgumentException("Not a read statement: " + name);
+        }
+        Set<String> t = new HashSet<>();
+        for (String table : tables) {
+            t.add(table.toLowerCase(Locale.ROOT));
+        }
+        readTables.put(name, Collections.unmodifiableSet(t));
+    }
+
+    //restituisce lo statement con il nome dato, preparandolo solo al primo uso sulla connessione corrente.
+    //Lo statement resta aperto per tutta la durata della richiesta: NON va chiuso dal chiamante
+    //(solo i ResultSet vanno chiusi) e viene chiuso in destroy()
+    //returns the named statement, preparing it only on its first use on the current connection.
+    //The statement stays open for the whole request: the caller must NOT close it
+    //(only the ResultSets must be closed), it is closed in destroy()
+    protected PreparedStatement getStatement(String name) throws SQLException {
+        Connection c = dataLayer.getConnection();
+        if (c != preparedOn) {
+            closeStatements(statements);
+            preparedOn = c;
+        }
+        return prepare(statements, c, name);
+    }
+
+    //come getStatement, ma per le SELECT che possono essere servite da una replica (vedi
+    //DataLayer.getReadConnection): da usare solo nei metodi che non scrivono
+    //like getStatement, but for the SELECTs that may be served by a replica (see
+    //DataLayer.getReadConnection): to be used only in methods that do not write
+    protected PreparedStatement getReadStatement(String name) throws SQLException {
+        if (writtenTables.containsKey(name)) {
+            throw new SQLException("Not a read statement: " + name);
+        }
+        Connection c = dataLayer.getReadConnection();
+        if (!dataLayer.isReplica(c)) {
+            return getStatement(name);
+        }
+        if (c != readPreparedOn) {
+            closeStatements(readStatements);
+            readPreparedOn = c;
+        }
+        return prepare(readStatements, c, name);
+    }
+
+    private PreparedStatement prepare(Map<String, PreparedStatement> prepared, Connection c, String name) throws SQLException {
+        PreparedStatement s = prepared.get(name);
+        if (s == null || s.isClosed()) {
+            String sql = queries.get(name);
+            if (sql == null) {
+                throw new SQLException("Unknown named statement: " + name);
+            }
+            s = c.prepareStatement(sql, keyModes.get(name));
+            String table = writtenTables.get(name);
+            if (table != null) {
+                s = reportingWrites(s, table);
+            }
+            prepared.put(name, s);
+        } else {
+            s.clearParameters();
+        }
+        return s;
+    }
+
+    //avvolge uno statement di scrittura perché segnali la tabella al DataLayer quando viene davvero
+    //eseguito (anche se l'esecuzione fallisce a metà di un batch), non quando viene solo richiesto
+    //wraps a write statement so that it reports the table to the DataLayer when it is actually
+    //executed (even if the execution fails halfway through a batch), not when it is merely requested
+    private PreparedStatement reportingWrites(PreparedStatement s, String table) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+            boolean execute = method.getName().startsWith("execute");
+            try {
+                return method.invoke(s, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            } finally {
+                if (execute) {
+                    dataLayer.tablesWritten(table);
+                }
+            }
+        });
+    }
+
+    //lista di n segnaposto ("?, ?, ?") per le clausole IN (...) a lunghezza variabile
+    //list of n placeholders ("?, ?, ?") for variable length IN (...) clauses
+    protected static String placeholders(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('?');
+        }
+        return sb.toString();
+    }
+
+    //righe chieste al driver per ogni giro di rete nelle letture in streaming (con useCursorFetch=true
+    //MySQL usa un cursore lato server, quindi il ResultSet non viene caricato tutto in memoria)
+    //rows requested from the driver per network round trip in streaming reads (with useCursorFetch=true
+    //MySQL uses a server side cursor, so the ResultSet is not loaded in memory all at once)
+    protected static final int STREAM_FETCH_SIZE = 100;
+
+    @FunctionalInterface
+    protected interface RowMapper<T> {
+
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    //esegue la query e passa al gestore un elemento per riga, senza costruire liste;
+    //restituisce il numero di righe lette
+    //runs the query and hands one item per row to the handler, without building lists;
+    //returns the number of rows read
+    protected <T> int stream(PreparedStatement stmt, RowMapper<T> mapper, ResultHandler<? super T> handler) throws DataException {
+        int count = 0;
+        try {
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(mapper.map(rs));
+                    ++count;
+                }
+            } finally {
+                stmt.setFetchSize(0);
+            }
+        } catch (DataException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new DataException("Unable to stream query results", ex);
+        }
+        return count;
+    }
+
+    //porta l'insieme delle righe (ownerColumn = owner, targetColumn = t) della tabella di associazione
+    //al contenuto di targets: legge le righe correnti, calcola la differenza e scrive solo le righe
+    //da aggiungere (un solo INSERT multi-riga) e quelle da togliere (un solo DELETE ... IN (...)),
+    //tutto nella stessa transazione (quella del chiamante, se già aperta). La lettura è una SELECT ...
+    //FOR UPDATE: le righe (e gli spazi tra loro) dell'owner restano bloccate fino al commit, quindi due
+    //sincronizzazioni concorrenti dello stesso owner vengono eseguite una dopo l'altra e la seconda vede
+    //le scritture della prima. I valori in targets devono avere lo stesso tipo Java restituito dal
+    //driver per targetColumn (ad esempio Integer o String). Se non cambia nulla non viene eseguita
+    //alcuna scrittura. Restituisce il numero di righe scritte
+    //brings the set of rows (ownerColumn = owner, targetColumn = t) of the association table
+    //to the content of targets: reads the current rows, computes the difference and writes only the rows
+    //to be added (a single multi-row INSERT) and the ones to be removed (a single DELETE ... IN (...)),
+    //all in the same transaction (the caller's one, if already open). The read is a SELECT ... FOR
+    //UPDATE: the owner rows (and the gaps between them) stay locked until the commit, so two concurrent
+    //synchronizations of the same owner run one after the other and the second one sees the writes of
+    //the first one. The values in targets must have the same Java type returned by the driver for
+    //targetColumn (e.g. Integer or String). If nothing changes, no write is issued at all. Returns the
+    //number of written rows
+    protected int syncAssociation(String table, String ownerColumn, Object owner, String targetColumn, Collection<?> targets) throws DataException {
+        Set<Object> desired = new LinkedHashSet<>(targets);
+        Set<Object> toDelete = new LinkedHashSet<>();
+        try {
+            Connection c = getConnection();
+            boolean ownTransaction = c.getAutoCommit();
+            if (ownTransaction) {
+                c.setAutoCommit(false);
+            }
+            try {
+                try (PreparedStatement s = c.prepareStatement("SELECT " + targetColumn + " FROM " + table + " WHERE " + ownerColumn + " = ? FOR UPDATE")) {
+                    s.setObject(1, owner);
+                    try (ResultSet rs = s.executeQuery()) {
+                        while (rs.next()) {
+                            Object current = rs.getObject(1);
+                            //ciò che resta in desired dopo il ciclo manca dal database
+                            //what is left in desired after the loop is missing from the database
+                            if (!desired.remove(current)) {
+                                toDelete.add(current);
+                            }
+                        }
+                    }
+                }
+                if (!toDelete.isEmpty()) {
+                    try (PreparedStatement s = c.prepareStatement("DELETE FROM " + table + " WHERE " + ownerColumn + " = ? AND " + targetColumn + " IN (" + placeholders(toDelete.size()) + ")")) {
+                        int i = 1;
+                        s.setObject(i++, owner);
+                        for (Object t : toDelete) {
+                            s.setObject(i++, t);
+                        }
+                        s.executeUpdate();
+                    }
+                }
+                if (!desired.isEmpty()) {
+                    StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (" + ownerColumn + ", " + targetColumn + ") VALUES ");
+                    for (int i = 0; i < desired.size(); ++i) {
+                        sql.append(i > 0 ? ", (?, ?)" : "(?, ?)");
+                    }
+                    try (PreparedStatement s = c.prepareStatement(sql.toString())) {
+                        int i = 1;
+                        for (Object t : desired) {
+                            s.setObject(i++, owner);
+                            s.setObject(i++, t);
+                        }
+                        s.executeUpdate();
+                    }
+                }
+                //dentro la transazione: la cache viene invalidata solo al commit
+                //inside the transaction: the cache is invalidated only on commit
+                if (!desired.isEmpty() || !toDelete.isEmpty()) {
+                    dataLayer.tablesWritten(table);
+                }
+                //anche senza scritture il commit rilascia i lock della lettura
+                //even without writes the commit releases the read locks
+                if (ownTransaction) {
+                    c.commit();
+                }
+            } catch (SQLException | RuntimeException ex) {
+                if (ownTransaction) {
+                    c.rollback();
+                    dataLayer.transactionEnded(false);
+                }
+                throw ex;
+            } finally {
+                if (ownTransaction) {
+                    c.setAutoCommit(true);
+                }
+            }
+            if (ownTransaction) {
+                dataLayer.transactionEnded(true);
+            }
+        } catch (SQLException ex) {
+            throw new DataException("Unable to synchronize " + table + " for " + ownerColumn + " = " + owner, ex);
+        }
+        return desired.size() + toDelete.size();
+    }
+
+    //esegue la SELECT registrata con registerCachedQuery passando per la QueryCache del DataLayer, se presente:
+    //il risultato è etichettato con le tabelle dichiarate per la query e riusato (anche da altre richieste)
+    //finché una scrittura su una di quelle tabelle non lo invalida. Dentro una transazione la cache
+    //viene ignorata, perché la richiesta potrebbe non vedere le proprie scritture (e così pure quando
+    //la query andrebbe su una replica che potrebbe non aver ancora ricevuto una scrittura recente).
+    //La query viene eseguita sulla connessione di lettura (vedi getReadStatement).
+    //Il ResultSet restituito va chiuso dal chiamante
+    //runs the SELECT registered with registerCachedQuery through the DataLayer QueryCache, if any:
+    //the result is tagged with the tables declared for the query and reused (by other requests too)
+    //until a write on one of those tables invalidates it. Inside a transaction the cache
+    //is bypassed, since the request might not see its own writes (and so it is while the
+    //query would be served by a replica that might not have received a recent write yet).
+    //The query runs on the read connection (see getReadStatement).
+    //The returned ResultSet must be closed by the caller
+    protected ResultSet cachedQuery(String name, Object... params) throws SQLException {
+        String sql = queries.get(name);
+        if (sql == null || !readTables.containsKey(name)) {
+            throw new SQLException("Not a cached query: " + name);
+        }
+        QueryCache queryCache = dataLayer.getQueryCache();
+        if (queryCache == null || !dataLayer.isSharable()) {
+            return executeQuery(name, params);
+        }
+        return queryCache.query(sql, params, readTables.get(name), () -> executeQuery(name, params));
+    }
+
+    private ResultSet executeQuery(String name, Object... params) throws SQLException {
+        PreparedStatement s = getReadStatement(name);
+        for (int i = 0; i < params.length; ++i) {
+            s.setObject(i + 1, params[i]);
+        }
+        return s.executeQuery();
+    }
+
+    private static void closeStatements(Map<String, PreparedStatement> statements) {
+        for (PreparedStatement s : statements.values()) {
+            try {
+                s.close();
+            } catch (SQLException ex) {
+                //
+            }
+        }
+        statements.clear();
     }
 
     public void init() throws DataException {
@@ -29,6 +361,9 @@ public class DAO {
     }
 
     public void destroy() throws DataException {
-
+        closeStatements(statements);
+        closeStatements(readStatements);
+        preparedOn = null;
+        readPreparedOn = null;
     }
 }
@@ -1,7 +1,10 @@
 package webengineering.framework.data;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
 
 /**
  *
@@ -9,49 +12,145 @@ import java.util.Map;
  */
 public class DataCache {
 
-    public Map<Class, Map<Object, Object>> cache;
+    public Map<Class<?>, Map<Object, Object>> cache;
+
+    //cache condivisa di secondo livello (opzionale) e chiavi invalidate durante la richiesta
+    //optional shared second-level cache and keys invalidated during the request
+    private final SharedDataCache secondLevel;
+    private final DataLayer owner;
+    private final BooleanSupplier doNotShare;
+    private final Map<Class<?>, Set<Object>> invalidated;
 
     public DataCache() {
+        this(null, null, () -> false);
+    }
+
+    //owner è il DataLayer a cui collegare le copie prese dal secondo livello; doNotShare dice se
+    //i dati letti in questo momento vanno tenuti fuori dal secondo livello
+    //owner is the DataLayer the copies taken from the second level are linked to; doNotShare
+    //tells whether the data read right now must be kept out of the second level
+    public DataCache(SharedDataCache secondLevel, DataLayer owner, BooleanSupplier doNotShare) {
         this.cache = new HashMap<>();
+        this.secondLevel = secondLevel;
+        this.owner = owner;
+        this.doNotShare = doNotShare;
+        this.invalidated = new HashMap<>();
     }
 
-    public <C extends DataItem> void add(Class<C> c, C o) {
-        //Logger.getLogger("DataCache").log(Level.INFO, "Cache add: object of class {0} with key {1}", new Object[]{c.getName(), o.getKey()});
+    public <C extends DataItem<?>> void add(Class<C> c, C o) {
+        add(c, o.getKey(), o);
+    }
+
+    public void add(Class<?> c, Object key, Object o) {
+        //Logger.getLogger("DataCache").log(Level.INFO, "Cache add: object of class {0} with key {1}", new Object[]{c.getName(), key});
         if (!cache.containsKey(c)) {
             cache.put(c, new HashMap<>());
         }
-        cache.get(c).put(o.getKey(), o);
+        cache.get(c).put(key, o);
+        //i dati letti dentro una transazione non ancora confermata (o da una replica forse in ritardo) non vanno condivisi
+        //data read inside a not yet committed transaction (or from a possibly lagging replica) must not be shared
+        if (secondLevel != null && !doNotShare.getAsBoolean()) {
+            secondLevel.put(c, key, o);
+        }
     }
 
-    public <C extends DataItem> void delete(Class<C> c, C o) {
-        if (has(c, o.getKey())) {
-            cache.get(c).remove(o.getKey());
+    //solo primo livello: per gli oggetti caricati parzialmente (proiezioni), che completano i dati
+    //mancanti usando il DataLayer della richiesta e quindi non possono essere condivisi
+    //first level only: for partially loaded objects (projections), which fetch the missing data
+    //through the request DataLayer and therefore cannot be shared
+    public void addLocal(Class<?> c, Object key, Object o) {
+        if (!cache.containsKey(c)) {
+            cache.put(c, new HashMap<>());
         }
+        cache.get(c).put(key, o);
     }
 
-    public <C extends DataItem> boolean has(Class<C> c, C o) {
+    public <C extends DataItem<?>> void delete(Class<C> c, C o) {
+        delete(c, o.getKey());
+    }
+
+    public <C extends DataItem<?>> boolean has(Class<C> c, C o) {
         //Logger.getLogger("DataCache").log(Level.INFO, "Cache lookup: object of class {0} with key {1}", new Object[]{c.getName(), o.getKey()});
-        return cache.containsKey(c) && cache.get(c).containsKey(o.getKey());
+        return has(c, o.getKey());
     }
 
-    public <C extends DataItem> C get(Class<C> c, Object key) {
-        if (has(c, key)) {
+    public <C> C get(Class<C> c, Object key) {
+        if (cache.containsKey(c) && cache.get(c).containsKey(key)) {
             //Logger.getLogger("DataCache").log(Level.INFO, "Cache hit: object of class {0} with key {1}", new Object[]{c.getName(), key});
-            return (C) cache.get(c).get(key);
+            return c.cast(cache.get(c).get(key));
+        } else if (secondLevel != null) {
+            Object o = secondLevel.get(c, key);
+            if (o != null) {
+                //la copia ricevuta è privata di questa richiesta: i caricamenti differiti passano dal suo DataLayer
+                //the received copy is private to this request: deferred loads go through its DataLayer
+                if (o instanceof DataItemProxy) {
+                    ((DataItemProxy) o).setDataLayer(owner);
+                }
+                //promuoviamo l'oggetto nella cache di primo livello (identity map della richiesta)
+                //promote the object to the first level cache (the request identity map)
+                if (!cache.containsKey(c)) {
+                    cache.put(c, new HashMap<>());
+                }
+                cache.get(c).put(key, o);
+            }
+            return c.cast(o);
         } else {
             return null;
         }
     }
 
-    public boolean has(Class c, Object key) {
+    //solo primo livello: l'istanza già restituita in questa richiesta, se esiste (identity map)
+    //first level only: the instance already handed out during this request, if any (identity map)
+    public <C> C getLocal(Class<C> c, Object key) {
+        if (cache.containsKey(c)) {
+            return c.cast(cache.get(c).get(key));
+        }
+        return null;
+    }
+
+    //svuota il primo livello (le invalidazioni restano registrate): usato dalle letture in streaming
+    //tra un blocco di righe e il successivo, perché l'identity map non cresca con il numero di righe
+    //empties the first level (invalidations stay recorded): used by streaming reads between one
+    //block of rows and the next, so that the identity map does not grow with the number of rows
+    public void clearLocal() {
+        cache.clear();
+    }
+
+    public boolean has(Class<?> c, Object key) {
         //Logger.getLogger("DataCache").log(Level.INFO, "Cache lookup: object of class {0} with key {1}", new Object[]{c.getName(), key});
-        return cache.containsKey(c) && cache.get(c).containsKey(key);
+        return get(c, key) != null;
     }
 
-    public void delete(Class c, Object key) {
-        if (has(c, key)) {
+    public void delete(Class<?> c, Object key) {
+        if (cache.containsKey(c)) {
             cache.get(c).remove(key);
         }
+        if (secondLevel != null) {
+            secondLevel.invalidate(c, key);
+            if (!invalidated.containsKey(c)) {
+                invalidated.put(c, new HashSet<>());
+            }
+            invalidated.get(c).add(key);
+        }
+    }
+
+    //ripete le invalidazioni della richiesta: chiamato dal DataLayer a fine richiesta (dopo l'eventuale commit),
+    //per scartare le copie obsolete rilette da altre richieste mentre la transazione era ancora aperta
+    //repeats the request invalidations: called by the DataLayer at the end of the request (after any commit),
+    //to discard stale copies re-read by other requests while the transaction was still open
+    public void flushInvalidations() {
+        if (secondLevel != null) {
+            for (Map.Entry<Class<?>, Set<Object>> e : invalidated.entrySet()) {
+                for (Object key : e.getValue()) {
+                    secondLevel.invalidate(e.getKey(), key);
+                }
+            }
+        }
+        invalidated.clear();
+    }
+
+    public SharedDataCache getSecondLevel() {
+        return secondLevel;
     }
 
 }
@@ -1,5 +1,7 @@
 package webengineering.framework.data;
 
+import java.util.Set;
+
 /**
  *
  * @author giuse
@@ -10,4 +12,27 @@ public interface DataItemProxy {
 
     void setModified(boolean dirty);
 
+    //DataLayer tramite cui il proxy carica i dati non ancora letti; i proxy che non caricano nulla in
+    //modo differito lo ignorano
+    //DataLayer through which the proxy loads the data not read yet; the proxies loading nothing
+    //lazily ignore it
+    default void setDataLayer(DataLayer dataLayer) {
+    }
+
+    //copia indipendente e non modificata del proxy, senza DataLayer, da tenere nella cache condivisa;
+    //null se il proxy non può essere condiviso tra richieste (è il caso predefinito)
+    //independent, unmodified copy of the proxy, without DataLayer, to be kept in the shared cache;
+    //null if the proxy cannot be shared between requests (the default)
+    default DataItemProxy copy() {
+        return null;
+    }
+
+    //proprietà modificate dall'ultimo caricamento o salvataggio; null (o vuoto con isModified() vero)
+    //se il proxy non le traccia singolarmente: in tal caso vanno scritte tutte
+    //properties modified since the last load or store; null (or empty with isModified() true)
+    //if the proxy does not track them one by one: in that case all of them must be written
+    default Set<String> getModifiedFields() {
+        return null;
+    }
+
 }
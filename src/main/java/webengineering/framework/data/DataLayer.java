@@ -2,8 +2,15 @@ package webengineering.framework.data;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 import javax.sql.DataSource;
 
 /**
@@ -14,31 +21,247 @@ public class DataLayer implements AutoCloseable {
 
     private final DataSource datasource;
     private Connection connection;
-    private final Map<Class, DAO> daos;
+    private final Map<Class<?>, DAO> daos;
+    private final Map<Class<?>, Supplier<? extends DAO>> factories;
+    private final Map<Object, BatchLoader<?, ?>> loaders;
+    private final Map<Class<?>, Supplier<? extends DataWriter<?>>> writers;
     private final DataCache cache;
+    private final QueryCache queryCache;
+    private final Set<String> changedTables;
+    //repliche in sola lettura (opzionali), connessione di lettura e chiave di chi fa la richiesta
+    //read-only replicas (optional), read connection and key of whoever is making the request
+    private ReplicaSet replicas;
+    private Connection readConnection;
+    private Object consistencyKey;
+    private boolean written;
+    //registrazione presso il DataLayerMonitor (tempi, statement, punto di creazione)
+    //registration with the DataLayerMonitor (timings, statements, creation site)
+    private final DataLayerMonitor monitor;
+    private final DataLayerMonitor.Lease lease;
+    private UnitOfWork unitOfWork;
+    private boolean destroyed;
+    //DataLayer derivati ancora aperti (vedi fork): ciascuno viene chiuso dal thread che lo usa,
+    //destroy() attende che lo siano tutti; parent è il DataLayer da cui questo è derivato
+    //derived DataLayers still open (see fork): each one is closed by the thread using it,
+    //destroy() waits for all of them to be closed; parent is the DataLayer this one derives from
+    private final List<DataLayer> forks = new ArrayList<>();
+    private DataLayer parent;
+    //azioni in attesa del commit della transazione in corso (vedi afterCommit)
+    //actions waiting for the commit of the current transaction (see afterCommit)
+    private final List<Runnable> afterCommit = new ArrayList<>();
+    //tabelle scritte nella transazione in corso, invalidate al commit dopo le azioni di afterCommit, e
+    //tabelle dell'ultima scrittura in autocommit, invalidate di nuovo dopo le azioni che la seguono
+    //tables written in the current transaction, invalidated on commit after the afterCommit actions, and
+    //tables of the last autocommit write, invalidated again after the actions following it
+    private final Set<String> pendingTables = new HashSet<>();
+    private Set<String> lastWritten;
 
     public DataLayer(DataSource datasource) throws SQLException {
+        this(datasource, null);
+    }
+
+    //il secondo parametro è l'eventuale cache condivisa da usare come secondo livello della DataCache
+    //the second parameter is the (optional) shared cache used as second level of the DataCache
+    public DataLayer(DataSource datasource, SharedDataCache sharedCache) throws SQLException {
+        this(datasource, sharedCache, null);
+    }
+
+    //il terzo parametro è l'eventuale cache condivisa dei risultati delle query (vedi DAO.cachedQuery)
+    //the third parameter is the (optional) shared query result cache (see DAO.cachedQuery)
+    public DataLayer(DataSource datasource, SharedDataCache sharedCache, QueryCache queryCache) throws SQLException {
         super();
         this.datasource = datasource;
-        this.connection = datasource.getConnection();
+        //la connessione viene richiesta al pool solo al primo utilizzo (vedi getConnection)
+        //the connection is borrowed from the pool only on first use (see getConnection)
+        this.connection = null;
         this.daos = new HashMap<>();
-        this.cache = new DataCache();
+        this.factories = new HashMap<>();
+        this.loaders = new HashMap<>();
+        this.writers = new LinkedHashMap<>();
+        this.cache = new DataCache(sharedCache, this, () -> !isSharable());
+        this.queryCache = queryCache;
+        this.changedTables = new HashSet<>();
+        this.monitor = DataLayerMonitor.getInstance();
+        this.lease = monitor.open(this);
+        monitor.watchPool("primary", datasource);
     }
 
-    public void registerDAO(Class entityClass, DAO dao) throws DataException {
+    public void registerDAO(Class<?> entityClass, DAO dao) throws DataException {
         daos.put(entityClass, dao);
         dao.init();
     }
 
-    public DAO getDAO(Class entityClass) {
-        return daos.get(entityClass);
+    //registra solo il modo di creare il DAO: l'istanza viene creata (e inizializzata) al primo getDAO
+    //registers only how to build the DAO: the instance is created (and initialized) on the first getDAO
+    public void registerDAO(Class<?> entityClass, Supplier<? extends DAO> factory) {
+        factories.put(entityClass, factory);
+    }
+
+    public DAO getDAO(Class<?> entityClass) {
+        DAO dao = daos.get(entityClass);
+        if (dao == null && factories.containsKey(entityClass)) {
+            dao = factories.get(entityClass).get();
+            try {
+                registerDAO(entityClass, dao);
+            } catch (DataException ex) {
+                throw new IllegalStateException("Unable to initialize DAO for " + entityClass.getName(), ex);
+            }
+        }
+        return dao;
+    }
+
+    //restituisce il BatchLoader con il nome dato, creandolo al primo uso: le chiavi accodate
+    //da punti diversi della stessa richiesta vengono così caricate con un'unica query
+    //returns the BatchLoader with the given name, creating it on first use: keys queued
+    //from different places of the same request are thus loaded with a single query
+    //il nome identifica anche i tipi di chiavi e valori: a un nome corrisponde una sola BatchFunction
+    //the name also identifies the key and value types: a name maps to a single BatchFunction
+    @SuppressWarnings("unchecked")
+    public <K, V> BatchLoader<K, V> getBatchLoader(Object name, BatchLoader.BatchFunction<K, V> function) {
+        BatchLoader<K, V> loader = (BatchLoader<K, V>) loaders.get(name);
+        if (loader == null) {
+            loader = new BatchLoader<>(function);
+            loaders.put(name, loader);
+        }
+        return loader;
+    }
+
+    //registra chi scrive gli oggetti della classe data al commit della UnitOfWork: l'ordine di
+    //registrazione è l'ordine delle dipendenze (prima le tabelle referenziate, poi quelle che le referenziano)
+    //registers who writes the objects of the given class on UnitOfWork commit: the registration
+    //order is the dependency order (referenced tables first, then the tables referencing them)
+    public <T> void registerWriter(Class<T> entityClass, Supplier<? extends DataWriter<T>> factory) {
+        writers.put(entityClass, factory);
+    }
+
+    //registerWriter associa a ogni classe solo un DataWriter dello stesso tipo
+    //registerWriter only maps each class to a DataWriter of the same type
+    @SuppressWarnings("unchecked")
+    public <T> DataWriter<T> getWriter(Class<T> entityClass) {
+        Supplier<? extends DataWriter<?>> factory = writers.get(entityClass);
+        return factory != null ? (DataWriter<T>) factory.get() : null;
+    }
+
+    public List<Class<?>> getWriterOrder() {
+        return new ArrayList<>(writers.keySet());
+    }
+
+    //la UnitOfWork della richiesta, creata al primo uso
+    //the request UnitOfWork, created on first use
+    public UnitOfWork getUnitOfWork() {
+        if (unitOfWork == null) {
+            unitOfWork = new UnitOfWork(this);
+        }
+        return unitOfWork;
     }
 
     public void init() throws DataException {
         //call registerDAO for your own DAOs
     }
 
+    //un nuovo DataLayer con la stessa DataSource, le stesse cache e le stesse repliche, ma con una
+    //connessione propria, da usare su un altro thread per letture parallele (vedi ParallelReads).
+    //Eredita la chiave di consistenza e le scritture già fatte (così non legge da una replica in
+    //ritardo). Va chiuso con destroy() dal thread che lo usa, appena finito: destroy() di questo
+    //DataLayer attende che tutti i DataLayer derivati siano chiusi
+    //a new DataLayer with the same DataSource, caches and replicas, but with its own connection,
+    //to be used on another thread for parallel reads (see ParallelReads). It inherits the
+    //consistency key and the writes already made (so it does not read from a lagging replica).
+    //It must be closed with destroy() by the thread using it, as soon as it is done: destroy() of
+    //this DataLayer waits for all the derived DataLayers to be closed
+    public DataLayer fork() throws DataException {
+        DataLayer fork;
+        try {
+            fork = createFork();
+        } catch (SQLException ex) {
+            throw new DataException("Unable to fork the DataLayer", ex);
+        }
+        fork.init();
+        fork.replicas = replicas;
+        fork.consistencyKey = consistencyKey;
+        fork.written = written;
+        fork.parent = this;
+        synchronized (forks) {
+            forks.add(fork);
+        }
+        return fork;
+    }
+
+    //come fork, ma solo se il pool può dare subito una connessione (vedi DataLayerMonitor.hasFreeConnection):
+    //chi tiene già una connessione non deve restare in attesa di un'altra. Restituisce null altrimenti
+    //as fork, but only if the pool can give a connection right away (see DataLayerMonitor.hasFreeConnection):
+    //whoever already holds a connection must not wait for another one. Returns null otherwise
+    public DataLayer tryFork() throws DataException {
+        if (destroyed || !monitor.hasFreeConnection(datasource)) {
+            return null;
+        }
+        return fork();
+    }
+
+    //richiede subito al pool la connessione usata per le letture (vedi getReadConnection)
+    //borrows from the pool right away the connection used for reads (see getReadConnection)
+    public void connect() throws SQLException {
+        getReadConnection();
+    }
+
+    //nuovo DataLayer sulla stessa DataSource e con le stesse cache condivise (vedi fork); le classi derivate
+    //che registrano i loro DAO in init() lo ridefiniscono per creare un'istanza della stessa classe
+    //new DataLayer on the same DataSource and with the same shared caches (see fork); derived classes
+    //registering their DAOs in init() override it to create an instance of the same class
+    protected DataLayer createFork() throws SQLException {
+        return new DataLayer(datasource, cache.getSecondLevel(), queryCache);
+    }
+
     public void destroy() {
+        destroyed = true;
+        afterCommit.clear();
+        pendingTables.clear();
+        //i DataLayer derivati sono in uso su altri thread: si attende che li chiudano (le letture
+        //parallele terminano comunque, un'interruzione non ferma una query già inviata)
+        //the derived DataLayers are in use on other threads: wait for them to be closed (the parallel
+        //reads end anyway, an interrupt does not stop a query already sent)
+        boolean interrupted = false;
+        synchronized (forks) {
+            while (!forks.isEmpty()) {
+                try {
+                    forks.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        //le modifiche non confermate con commit() vanno perse
+        //changes not confirmed with commit() are lost
+        if (unitOfWork != null) {
+            unitOfWork.clear();
+        }
+        cache.flushInvalidations();
+        //come per la DataCache, ripetiamo le invalidazioni delle query dopo l'eventuale commit
+        //as for the DataCache, repeat the query invalidations after any commit
+        if (queryCache != null) {
+            queryCache.invalidate(changedTables);
+        }
+        changedTables.clear();
+        //chiudiamo gli statement preparati dai DAO prima della connessione
+        //close the statements prepared by the DAOs before the connection
+        for (DAO dao : daos.values()) {
+            try {
+                dao.destroy();
+            } catch (DataException ex) {
+                //
+            }
+        }
+        try {
+            if (readConnection != null) {
+                readConnection.close();
+                readConnection = null;
+            }
+        } catch (SQLException ex) {
+            //
+        }
         try {
             if (connection != null) {
                 connection.close();
@@ -47,20 +270,194 @@ public class DataLayer implements AutoCloseable {
         } catch (SQLException ex) {
             //
         }
+        monitor.closed(lease);
+        if (parent != null) {
+            synchronized (parent.forks) {
+                parent.forks.remove(this);
+                parent.forks.notifyAll();
+            }
+        }
     }
 
     public DataSource getDatasource() {
         return datasource;
     }
 
-    public Connection getConnection() {
+    public Connection getConnection() throws SQLException {
+        if (connection == null) {
+            if (destroyed) {
+                throw new SQLException("DataLayer already destroyed");
+            }
+            long start = monitor.borrowing();
+            try {
+                connection = monitor.track(lease, datasource.getConnection());
+            } finally {
+                monitor.borrowed(lease, start, connection != null);
+            }
+        }
         return connection;
     }
 
+    //connessione per le sole letture: una replica, se configurata, altrimenti la connessione principale.
+    //Si resta sul primario dentro una transazione, dopo una scrittura della richiesta e, per la finestra
+    //del ReplicaSet, dopo una scrittura dello stesso utente (vedi setConsistencyKey)
+    //connection for reads only: a replica, if configured, otherwise the main connection.
+    //Reads stay on the primary inside a transaction, after a write of the request and, for the
+    //ReplicaSet window, after a write of the same user (see setConsistencyKey)
+    public Connection getReadConnection() throws SQLException {
+        if (!isReadingFromReplica()) {
+            return getConnection();
+        }
+        if (readConnection == null) {
+            if (destroyed) {
+                throw new SQLException("DataLayer already destroyed");
+            }
+            long start = monitor.borrowing();
+            try {
+                readConnection = monitor.track(lease, replicas.getConnection());
+            } finally {
+                monitor.borrowed(lease, start, readConnection != null);
+            }
+            if (readConnection == null) {
+                //nessuna replica raggiungibile
+                //no replica can be reached
+                return getConnection();
+            }
+        }
+        return readConnection;
+    }
+
+    public boolean isReplica(Connection c) {
+        return c != null && c == readConnection;
+    }
+
+    private boolean isReadingFromReplica() {
+        return replicas != null && !written && !isInTransaction() && !replicas.isRecentWriter(consistencyKey);
+    }
+
+    //chi usa il DataLayer (ad esempio metodo e URI della richiesta), riportato nelle segnalazioni del DataLayerMonitor
+    //who uses the DataLayer (e.g. method and URI of the request), reported in the DataLayerMonitor warnings
+    public void setOwner(String owner) {
+        monitor.setOwner(lease, owner);
+    }
+
+    public void setReplicaSet(ReplicaSet replicas) {
+        this.replicas = replicas;
+    }
+
+    //chiave di chi fa la richiesta (ad esempio l'id della sessione): dopo una sua scrittura, le sue
+    //letture restano sul primario per la finestra del ReplicaSet, così vede sempre le proprie modifiche
+    //key of whoever makes the request (e.g. the session id): after one of their writes, their
+    //reads stay on the primary for the ReplicaSet window, so they always see their own changes
+    public void setConsistencyKey(Object consistencyKey) {
+        this.consistencyKey = consistencyKey;
+    }
+
+    //true se i dati letti ora possono finire nelle cache condivise: non dentro una transazione non ancora
+    //confermata, né da una replica che potrebbe non avere ancora ricevuto una scrittura recente
+    //true if the data read now may go into the shared caches: not inside a not yet committed
+    //transaction, nor from a replica that might not have received a recent write yet
+    public boolean isSharable() {
+        return !isInTransaction() && !(isReadingFromReplica() && !replicas.isSettled());
+    }
+
+    //true se la connessione è già stata richiesta al pool
+    //true if the connection has already been borrowed from the pool
+    public boolean isConnected() {
+        return connection != null;
+    }
+
+    public boolean isInTransaction() {
+        try {
+            return connection != null && !connection.getAutoCommit();
+        } catch (SQLException ex) {
+            return true;
+        }
+    }
+
+    //esegue action subito se non c'è una transazione in corso, altrimenti solo dopo il suo commit (e mai
+    //se viene annullata): serve ad aggiornare le strutture in memoria solo con le scritture confermate.
+    //Le cache dei risultati (e quindi l'output cache) vengono invalidate dopo queste azioni: una pagina
+    //generata mentre una struttura in memoria non è ancora aggiornata non resta in cache
+    //runs action immediately if no transaction is in progress, otherwise only after its commit (and never
+    //if it is rolled back): used to update in-memory structures with confirmed writes only.
+    //The result caches (and thus the output cache) are invalidated after these actions: a page generated
+    //while an in-memory structure is not updated yet does not stay in the cache
+    public void afterCommit(Runnable action) {
+        if (isInTransaction()) {
+            afterCommit.add(action);
+        } else {
+            action.run();
+            if (lastWritten != null) {
+                invalidate(lastWritten);
+                lastWritten = null;
+            }
+        }
+    }
+
+    //da chiamare da chi conclude una transazione (vedi UnitOfWork.commit): esegue o scarta le azioni
+    //registrate con afterCommit, poi invalida le tabelle scritte
+    //to be called by whoever ends a transaction (see UnitOfWork.commit): runs or discards the actions
+    //registered with afterCommit, then invalidates the written tables
+    public void transactionEnded(boolean committed) {
+        List<Runnable> actions = new ArrayList<>(afterCommit);
+        afterCommit.clear();
+        Set<String> tables = new HashSet<>(pendingTables);
+        pendingTables.clear();
+        if (committed) {
+            for (Runnable action : actions) {
+                action.run();
+            }
+            if (!tables.isEmpty()) {
+                invalidate(tables);
+            }
+        }
+    }
+
     public DataCache getCache() {
         return cache;
     }
 
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    //da chiamare dopo ogni scrittura eseguita sulle tabelle date: tiene sul primario le letture successive
+    //e scarta i risultati in cache che le leggono, subito in autocommit (e di nuovo dopo le azioni di
+    //afterCommit che seguono la scrittura) o al commit della transazione, dopo le sue azioni di afterCommit
+    //(mai se viene annullata: fino ad allora gli altri vedono ancora i dati confermati). Le scritture fatte
+    //con gli statement registrati nei DAO sono segnalate automaticamente quando vengono eseguite
+    //to be called after each write executed on the given tables: keeps the following reads on the primary
+    //and discards the cached results reading them, immediately in autocommit (and again after the
+    //afterCommit actions following the write) or on transaction commit, after its afterCommit actions
+    //(never if it is rolled back: until then the others still see the committed data). Writes made with
+    //the statements registered in the DAOs are reported automatically when they are executed
+    public void tablesWritten(String... tables) {
+        written = true;
+        if (replicas != null) {
+            replicas.markWrite(consistencyKey);
+        }
+        if (queryCache != null) {
+            Set<String> t = new HashSet<>();
+            for (String table : tables) {
+                t.add(table.toLowerCase(Locale.ROOT));
+            }
+            if (isInTransaction()) {
+                pendingTables.addAll(t);
+            } else {
+                lastWritten = t;
+                invalidate(t);
+            }
+        }
+    }
+
+    private void invalidate(Set<String> tables) {
+        if (queryCache != null) {
+            changedTables.addAll(tables);
+            queryCache.invalidate(tables);
+        }
+    }
+
     //metodo dell'interfaccia AutoCloseable (permette di usare questa classe nei try-with-resources)
     //method from the Autocloseable interface (allows this class to be used in try-with-resources)
     @Override
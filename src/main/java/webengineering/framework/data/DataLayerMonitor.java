@@ -0,0 +1,432 @@
+package webengineering.framework.data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+/**
+ * Osserva il ciclo di vita di tutti i DataLayer del processo: per ciascuno
+ * registra quando è stato creato e da dove, quanto ha atteso e tenuto la
+ * connessione e quanti statement ha preparato. Un controllo periodico segnala
+ * nel log i DataLayer tenuti aperti più a lungo della soglia e quelli raccolti
+ * dal garbage collector senza essere mai stati chiusi (connessione persa dal
+ * pool), indicando il punto in cui erano stati creati. Le metriche, compreso
+ * lo stato dei pool (connessioni attive, inattive, thread in attesa), sono
+ * esposte via JMX (vedi DataLayerMonitorMXBean).
+ *
+ * Watches the life cycle of all the DataLayers of the process: for each one
+ * it records when and where it was created, how long it waited for and held
+ * the connection and how many statements it prepared. A periodic check logs
+ * the DataLayers held open for longer than the threshold and the ones garbage
+ * collected without ever being closed (connection lost by the pool), along
+ * with the place where they were created. The metrics, including the pool
+ * state (active and idle connections, waiting threads), are exposed via JMX
+ * (see DataLayerMonitorMXBean).
+ */
+public class DataLayerMonitor implements DataLayerMonitorMXBean {
+
+    private static final Logger logger = Logger.getLogger(DataLayerMonitor.class.getName());
+    private static final long DEFAULT_HOLD_THRESHOLD_MILLIS = 30000;
+    private static final int CALL_SITE_FRAMES = 4;
+    private static final String MBEAN_NAME = "webengineering.framework.data:type=DataLayerMonitor";
+
+    private static volatile DataLayerMonitor instance;
+
+    private final Map<Long, Lease> open = new ConcurrentHashMap<>();
+    private final Map<DataSource, String> pools = new IdentityHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder totalHoldNanos = new LongAdder();
+    private final LongAdder longHeld = new LongAdder();
+    private final LongAdder leaked = new LongAdder();
+    private final LongAccumulator maxHoldNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private volatile long holdThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_HOLD_THRESHOLD_MILLIS);
+
+    private final ScheduledExecutorService checker;
+    private ObjectName mbeanName;
+
+    private DataLayerMonitor() {
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "DataLayerMonitor");
+            t.setDaemon(true);
+            return t;
+        });
+        checker.scheduleWithFixedDelay(this::check, 10, 10, TimeUnit.SECONDS);
+        try {
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            //un MBean rimasto da un deploy precedente non chiuso con shutdown() viene sostituito
+            //an MBean left by a previous deploy not closed with shutdown() is replaced
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            mbeanName = name;
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Unable to register the DataLayerMonitor MBean", ex);
+        }
+    }
+
+    public static DataLayerMonitor getInstance() {
+        if (instance == null) {
+            synchronized (DataLayerMonitor.class) {
+                if (instance == null) {
+                    instance = new DataLayerMonitor();
+                }
+            }
+        }
+        return instance;
+    }
+
+    //ferma il controllo periodico e rimuove l'MBean: da chiamare allo spegnimento dell'applicazione
+    //(ServletContextListener.contextDestroyed), altrimenti thread e MBean trattengono il classloader
+    //dell'applicazione dopo il redeploy
+    //stops the periodic check and removes the MBean: to be called when the application shuts down
+    //(ServletContextListener.contextDestroyed), otherwise thread and MBean keep the application
+    //classloader alive after a redeploy
+    public static void shutdown() {
+        synchronized (DataLayerMonitor.class) {
+            DataLayerMonitor m = instance;
+            if (m == null) {
+                return;
+            }
+            instance = null;
+            m.checker.shutdownNow();
+            if (m.mbeanName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(m.mbeanName);
+                } catch (Exception ex) {
+                    logger.log(Level.WARNING, "Unable to unregister the DataLayerMonitor MBean", ex);
+                }
+            }
+        }
+    }
+
+    //stato di un DataLayer aperto; il riferimento al DataLayer è debole, così un DataLayer
+    //abbandonato senza destroy() viene comunque raccolto e lo si può segnalare come perso
+    //state of an open DataLayer; the reference to the DataLayer is weak, so a DataLayer
+    //abandoned without destroy() is collected anyway and can be reported as leaked
+    public static final class Lease {
+
+        private final long id;
+        private final WeakReference<DataLayer> layer;
+        private final long createdAt;
+        private final String callSite;
+        private final AtomicInteger statements = new AtomicInteger();
+        private volatile String owner;
+        private volatile long connectedAt;
+        private volatile boolean flagged;
+
+        private Lease(long id, DataLayer layer, String callSite) {
+            this.id = id;
+            this.layer = new WeakReference<>(layer);
+            this.createdAt = System.nanoTime();
+            this.callSite = callSite;
+        }
+
+        @Override
+        public String toString() {
+            long now = System.nanoTime();
+            return "DataLayer#" + id
+                    + " open for " + TimeUnit.NANOSECONDS.toMillis(now - createdAt) + "ms"
+                    + (connectedAt != 0 ? ", connection held for " + TimeUnit.NANOSECONDS.toMillis(now - connectedAt) + "ms" : ", no connection")
+                    + ", " + statements.get() + " statements"
+                    + (owner != null ? ", owner " + owner : "")
+                    + ", created at " + callSite;
+        }
+    }
+
+    Lease open(DataLayer layer) {
+        Lease lease = new Lease(ids.incrementAndGet(), layer, callSite());
+        open.put(lease.id, lease);
+        opened.increment();
+        return lease;
+    }
+
+    void setOwner(Lease lease, String owner) {
+        lease.owner = owner;
+    }
+
+    //da chiamare attorno a DataSource.getConnection(): conta i thread in attesa e la durata dell'attesa
+    //to be called around DataSource.getConnection(): counts the waiting threads and the wait duration
+    long borrowing() {
+        waiters.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void borrowed(Lease lease, long startedAt, boolean success) {
+        long now = System.nanoTime();
+        waiters.decrementAndGet();
+        maxWaitNanos.accumulate(now - startedAt);
+        if (success && lease.connectedAt == 0) {
+            lease.connectedAt = now;
+        }
+    }
+
+    //avvolge la connessione per contare gli statement creati, compresi quelli preparati fuori dai DAO
+    //wraps the connection to count the created statements, including the ones prepared outside the DAOs
+    Connection track(Lease lease, Connection c) {
+        if (c == null) {
+            return null;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                case "prepareCall":
+                case "createStatement":
+                    lease.statements.incrementAndGet();
+                    statements.increment();
+                    break;
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(c, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        });
+    }
+
+    void closed(Lease lease) {
+        if (open.remove(lease.id) == null) {
+            return;
+        }
+        closed.increment();
+        if (lease.connectedAt != 0) {
+            long held = System.nanoTime() - lease.connectedAt;
+            totalHoldNanos.add(held);
+            maxHoldNanos.accumulate(held);
+            if (held > holdThresholdNanos) {
+                logger.log(Level.WARNING, "DataLayer closed after holding its connection for {0}ms (threshold {1}ms): {2}",
+                        new Object[]{TimeUnit.NANOSECONDS.toMillis(held), getHoldThresholdMillis(), lease});
+            }
+        }
+    }
+
+    //le DataSource osservate per le metriche di saturazione del pool
+    //the DataSources observed for the pool saturation metrics
+    public synchronized void watchPool(String name, DataSource ds) {
+        if (ds != null && !pools.containsKey(ds)) {
+            pools.put(ds, name);
+        }
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (Lease lease : open.values()) {
+            if (lease.layer.get() == null) {
+                //raccolto senza destroy(): la sua connessione non è mai tornata al pool
+                //collected without destroy(): its connection never went back to the pool
+                open.remove(lease.id);
+                leaked.increment();
+                logger.log(Level.SEVERE, "DataLayer garbage collected without being closed: {0}", lease);
+            } else if (!lease.flagged && lease.connectedAt != 0 && now - lease.connectedAt > holdThresholdNanos) {
+                lease.flagged = true;
+                longHeld.increment();
+                logger.log(Level.WARNING, "DataLayer holding its connection longer than {0}ms: {1}",
+                        new Object[]{getHoldThresholdMillis(), lease});
+            }
+        }
+    }
+
+    //i primi frame fuori dal DataLayer (e dalle sue sottoclassi): il codice che lo ha creato
+    //the first frames outside the DataLayer (and its subclasses): the code that created it
+    private static String callSite() {
+        return StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE).walk(frames -> frames
+                .filter(f -> !DataLayer.class.isAssignableFrom(f.getDeclaringClass()) && f.getDeclaringClass() != DataLayerMonitor.class)
+                .limit(CALL_SITE_FRAMES)
+                .map(f -> f.getDeclaringClass().getSimpleName() + "." + f.getMethodName() + ":" + f.getLineNumber())
+                .collect(Collectors.joining(" < ")));
+    }
+
+    @Override
+    public long getOpenedCount() {
+        return opened.sum();
+    }
+
+    @Override
+    public long getClosedCount() {
+        return closed.sum();
+    }
+
+    @Override
+    public int getOpenLayers() {
+        return open.size();
+    }
+
+    @Override
+    public int getHeldConnections() {
+        int n = 0;
+        for (Lease lease : open.values()) {
+            if (lease.connectedAt != 0) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int getWaiters() {
+        return waiters.get();
+    }
+
+    @Override
+    public long getMaxBorrowWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    @Override
+    public long getMaxHoldMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxHoldNanos.get());
+    }
+
+    @Override
+    public double getAverageHoldMillis() {
+        long n = closed.sum();
+        return n == 0 ? 0 : totalHoldNanos.sum() / 1e6 / n;
+    }
+
+    @Override
+    public long getStatementCount() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getLongHeldCount() {
+        return longHeld.sum();
+    }
+
+    @Override
+    public long getLeakedCount() {
+        return leaked.sum();
+    }
+
+    @Override
+    public long getHoldThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(holdThresholdNanos);
+    }
+
+    @Override
+    public void setHoldThresholdMillis(long millis) {
+        holdThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public List<String> getLongHeldLayers() {
+        long now = System.nanoTime();
+        List<String> result = new ArrayList<>();
+        for (Lease lease : open.values()) {
+            if (lease.connectedAt != 0 && now - lease.connectedAt > holdThresholdNanos) {
+                result.add(lease.toString());
+            }
+        }
+        return result;
+    }
+
+    //i pool di Tomcat (DBCP e jdbc-pool) espongono lo stato con metodi diversi, cercati per riflessione
+    //the Tomcat pools (DBCP and jdbc-pool) expose their state with different methods, looked up by reflection
+    @Override
+    public synchronized Map<String, String> getPools() {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Map.Entry<DataSource, String> e : pools.entrySet()) {
+            DataSource ds = e.getKey();
+            result.put(e.getValue(), "active=" + poolValue(ds, "getNumActive", "getActive")
+                    + ", idle=" + poolValue(ds, "getNumIdle", "getIdle")
+                    + ", max=" + poolValue(ds, "getMaxTotal", "getMaxActive")
+                    + ", waiters=" + poolValue(ds, "getNumWaiters", "getWaitCount"));
+        }
+        return result;
+    }
+
+    //true se il pool può dare subito una connessione senza far attendere: nessun thread in attesa e una
+    //connessione inattiva o meno connessioni attive del massimo. Il pool predefinito di Tomcat (DBCP2,
+    //BasicDataSource, vedi context.xml) espone attive, inattive e massimo (getNumActive, getNumIdle,
+    //getMaxTotal) ma non i thread in attesa: in quel caso l'attesa è sconosciuta e si considera libero
+    //il pool solo se ha una connessione inattiva. False se lo stato del pool non è leggibile
+    //true if the pool can give a connection right away without waiting: no waiting threads and an idle
+    //connection or fewer active connections than the maximum. The default Tomcat pool (DBCP2,
+    //BasicDataSource, see context.xml) exposes active, idle and maximum (getNumActive, getNumIdle,
+    //getMaxTotal) but not the waiting threads: in that case waiting is unknown and the pool is
+    //considered free only if it has an idle connection. False if the pool state cannot be read
+    public boolean hasFreeConnection(DataSource ds) {
+        Long idle = poolNumber(ds, "getNumIdle", "getIdle");
+        Long active = poolNumber(ds, "getNumActive", "getActive");
+        Long max = poolNumber(ds, "getMaxTotal", "getMaxActive");
+        if (idle == null || active == null || max == null) {
+            return false;
+        }
+        Long waiters = poolNumber(ds, "getNumWaiters", "getWaitCount");
+        if (waiters == null) {
+            return idle > 0;
+        }
+        //un massimo negativo indica un pool senza limite
+        //a negative maximum means an unbounded pool
+        return waiters == 0 && (idle > 0 || max < 0 || active < max);
+    }
+
+    private static Long poolNumber(DataSource ds, String... getters) {
+        for (String getter : getters) {
+            try {
+                Object value = ds.getClass().getMethod(getter).invoke(ds);
+                if (value instanceof Number) {
+                    return ((Number) value).longValue();
+                }
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                //
+            }
+        }
+        return null;
+    }
+
+    private static String poolValue(DataSource ds, String... getters) {
+        for (String getter : getters) {
+            try {
+                Method m = ds.getClass().getMethod(getter);
+                return String.valueOf(m.invoke(ds));
+            } catch (ReflectiveOperationException | RuntimeException ex) {
+                //
+            }
+        }
+        return "n/a";
+    }
+
+    @Override
+    public String toString() {
+        return "DataLayerMonitor{open=" + getOpenLayers()
+                + ", connections=" + getHeldConnections()
+                + ", waiters=" + getWaiters()
+                + ", opened=" + getOpenedCount()
+                + ", closed=" + getClosedCount()
+                + ", longHeld=" + getLongHeldCount()
+                + ", leaked=" + getLeakedCount()
+                + ", maxHoldMs=" + getMaxHoldMillis()
+                + ", maxWaitMs=" + getMaxBorrowWaitMillis() + "}";
+    }
+}
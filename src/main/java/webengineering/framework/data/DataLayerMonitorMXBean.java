@@ -0,0 +1,54 @@
+package webengineering.framework.data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metriche JMX del DataLayerMonitor (ObjectName
+ * webengineering.framework.data:type=DataLayerMonitor), leggibili ad esempio
+ * con JConsole o con il JMX proxy del manager di Tomcat.
+ *
+ * JMX metrics of the DataLayerMonitor (ObjectName
+ * webengineering.framework.data:type=DataLayerMonitor), readable e.g. with
+ * JConsole or with the Tomcat manager JMX proxy.
+ */
+public interface DataLayerMonitorMXBean {
+
+    long getOpenedCount();
+
+    long getClosedCount();
+
+    //DataLayer aperti e non ancora chiusi, e quanti di questi hanno una connessione
+    //DataLayers opened and not closed yet, and how many of them hold a connection
+    int getOpenLayers();
+
+    int getHeldConnections();
+
+    //thread in attesa di una connessione dal pool in questo momento
+    //threads waiting for a pool connection right now
+    int getWaiters();
+
+    long getMaxBorrowWaitMillis();
+
+    long getMaxHoldMillis();
+
+    double getAverageHoldMillis();
+
+    long getStatementCount();
+
+    long getLongHeldCount();
+
+    long getLeakedCount();
+
+    long getHoldThresholdMillis();
+
+    void setHoldThresholdMillis(long millis);
+
+    //DataLayer aperti da più della soglia, con durata, statement e punto di creazione
+    //DataLayers open for longer than the threshold, with duration, statements and creation site
+    List<String> getLongHeldLayers();
+
+    //stato dei pool osservati (attive, inattive, massimo), per nome della DataSource
+    //state of the observed pools (active, idle, maximum), by DataSource name
+    Map<String, String> getPools();
+}
@@ -0,0 +1,23 @@
+package webengineering.framework.data;
+
+import java.util.List;
+
+/**
+ * Scrittura a lotti degli oggetti di una classe di entità, usata dalla
+ * UnitOfWork al commit. Ogni metodo riceve tutti gli oggetti in attesa di
+ * quella classe e dovrebbe scriverli con un solo batch JDBC.
+ *
+ * Batched writes of the objects of an entity class, used by the UnitOfWork on
+ * commit. Each method receives all the pending objects of that class and
+ * should write them with a single JDBC batch.
+ */
+public interface DataWriter<T> {
+
+    void insert(List<T> items) throws DataException;
+
+    //per i DataItemProxy vanno scritte solo le colonne in getModifiedFields()
+    //for DataItemProxy objects only the columns in getModifiedFields() should be written
+    void update(List<T> items) throws DataException;
+
+    void delete(List<T> items) throws DataException;
+}
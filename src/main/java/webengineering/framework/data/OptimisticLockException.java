@@ -6,24 +6,33 @@ package webengineering.framework.data;
  */
 public class OptimisticLockException extends DataException {
 
-    private DataItem item;
+    private static final long serialVersionUID = 1L;
 
-    public OptimisticLockException(DataItem item) {
+    private DataItem<?> item;
+
+    public OptimisticLockException(DataItem<?> item) {
         super("Version mismatch (optimistic locking) for instance " + item.getKey() + " of class " + item.getClass().getCanonicalName());
         this.item = item;
     }
 
+    //per gli oggetti che non implementano DataItem: la riga è identificata da classe e chiave
+    //for objects not implementing DataItem: the row is identified by class and key
+    public OptimisticLockException(Class<?> c, Object key) {
+        super("Version mismatch (optimistic locking) for instance " + key + " of class " + c.getCanonicalName());
+        this.item = null;
+    }
+
     /**
      * @return the item
      */
-    public DataItem getItem() {
+    public DataItem<?> getItem() {
         return item;
     }
 
     /**
      * @param item the item to set
      */
-    public void setItem(DataItem item) {
+    public void setItem(DataItem<?> item) {
         this.item = item;
     }
 
@@ -0,0 +1,225 @@
+package webengineering.framework.data;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Esegue in parallelo letture indipendenti della stessa richiesta, ciascuna su
+ * un DataLayer derivato (vedi DataLayer.fork) con la propria connessione, e ne
+ * raccoglie i risultati: il tempo di una pagina di dettaglio diventa circa
+ * quello della query più lenta invece della somma di tutte.
+ *
+ * Il parallelismo è limitato per richiesta (al massimo maxParallel letture
+ * sugli altri thread, quindi al massimo maxParallel connessioni in più) e per
+ * processo (un executor condiviso con un numero massimo di thread). Una
+ * lettura parte su un altro thread solo se il pool ha subito una connessione
+ * libera (vedi DataLayer.tryFork): il chiamante tiene già la sua, e non deve
+ * attenderne altre. Oltre questi limiti, e dentro una transazione (le altre
+ * connessioni non vedrebbero le modifiche non ancora confermate), la lettura
+ * viene eseguita subito sul DataLayer del chiamante, come senza questa
+ * classe: conviene quindi inviare per prime le letture più lente. Anche se il
+ * thread della lettura non ha ancora ottenuto la connessione quando il
+ * chiamante ne chiede il risultato, la lettura viene eseguita dal chiamante.
+ *
+ * Le letture non devono scrivere. Ogni DataLayer derivato serve una sola
+ * lettura e viene chiuso (restituendo la connessione) appena questa termina:
+ * i proxy restituiti vengono ricollegati al DataLayer del chiamante, così gli
+ * eventuali caricamenti differiti passano da quello, sul thread del chiamante.
+ *
+ * Runs independent reads of the same request in parallel, each one on a
+ * derived DataLayer (see DataLayer.fork) with its own connection, and collects
+ * their results: the time of a detail page becomes about the one of the
+ * slowest query instead of the sum of all of them.
+ *
+ * Parallelism is bounded per request (at most maxParallel reads on other
+ * threads, thus at most maxParallel more connections) and per process (a
+ * shared executor with a maximum number of threads). A read starts on another
+ * thread only if the pool has a free connection right away (see
+ * DataLayer.tryFork): the caller already holds its own, and must not wait for
+ * more. Beyond these limits, and inside a transaction (other connections
+ * would not see the not yet committed changes), the read runs immediately on
+ * the caller DataLayer, as without this class: the slowest reads should
+ * therefore be submitted first. Also if the read thread has not obtained its
+ * connection yet when the caller asks for the result, the read is run by the
+ * caller.
+ *
+ * Reads must not write. Each derived DataLayer serves a single read and is
+ * closed (returning its connection) as soon as the read ends: the returned
+ * proxies are linked back to the caller DataLayer, so any lazy loading goes
+ * through it, on the caller thread.
+ */
+public class ParallelReads<L extends DataLayer> {
+
+    private static final int MAX_THREADS = 32;
+
+    //stati di una lettura affidata a un altro thread
+    //states of a read handed to another thread
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int TAKEN = 2;
+
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        AtomicInteger count = new AtomicInteger();
+        //nessuna coda: se tutti i thread sono occupati la lettura viene eseguita dal chiamante
+        //no queue: if all the threads are busy the read is run by the caller
+        executor = new ThreadPoolExecutor(0, MAX_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "ParallelReads-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @FunctionalInterface
+    public interface Read<L, T> {
+
+        T read(L dataLayer) throws DataException;
+    }
+
+    //risultato di una lettura: get() attende la fine della lettura e ne restituisce il valore o l'errore
+    //result of a read: get() waits for the read to end and returns its value or error
+    public static final class Result<T> {
+
+        //la lettura sul DataLayer del chiamante, se il thread della lettura non l'ha ancora iniziata
+        //the read on the caller DataLayer, if the read thread has not started it yet
+        private final Read<Void, T> onCaller;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        //null se la lettura è già stata eseguita dal chiamante
+        //null if the read has already been run by the caller
+        private final AtomicInteger state;
+
+        private Result(Read<Void, T> onCaller, AtomicInteger state) {
+            this.onCaller = onCaller;
+            this.state = state;
+        }
+
+        public T get() throws DataException {
+            //il thread della lettura non ha ancora la connessione: la lettura la esegue il chiamante
+            //the read thread has no connection yet: the caller runs the read
+            if (state != null && state.compareAndSet(PENDING, TAKEN)) {
+                complete(onCaller);
+            }
+            //si attende comunque la fine della lettura, anche se interrotti: il DataLayer del
+            //chiamante non va chiuso mentre la lettura è in corso
+            //wait for the read to end anyway, even if interrupted: the caller DataLayer must not
+            //be closed while the read is running
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return future.get();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof DataException) {
+                    throw (DataException) ex.getCause();
+                }
+                throw new DataException("Parallel read failed", ex.getCause());
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void complete(Read<Void, T> r) {
+            try {
+                future.complete(r.read(null));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    private final L dataLayer;
+    private final int maxParallel;
+    private int forks;
+
+    public ParallelReads(L dataLayer, int maxParallel) {
+        this.dataLayer = dataLayer;
+        this.maxParallel = maxParallel;
+    }
+
+    public <T> Result<T> submit(Read<L, T> read) {
+        L fork = dataLayer.isInTransaction() ? null : acquire();
+        if (fork != null) {
+            Result<T> result = new Result<>(v -> read.read(dataLayer), new AtomicInteger(PENDING));
+            try {
+                executor.execute(() -> runOn(fork, read, result));
+                return result;
+            } catch (RejectedExecutionException ex) {
+                fork.destroy();
+            }
+        }
+        //limite raggiunto: la lettura viene eseguita qui, sul DataLayer del chiamante
+        //limit reached: the read runs here, on the caller DataLayer
+        Result<T> result = new Result<>(null, null);
+        result.complete(v -> read.read(dataLayer));
+        return result;
+    }
+
+    //eseguito sul thread della lettura; il DataLayer derivato viene chiuso appena finito
+    //run on the read thread; the derived DataLayer is closed as soon as it is done
+    private <T> void runOn(L fork, Read<L, T> read, Result<T> result) {
+        try {
+            try {
+                fork.connect();
+            } catch (Exception ex) {
+                //nessuna connessione: la lettura resta in attesa e la esegue il chiamante
+                //no connection: the read stays pending and the caller runs it
+                return;
+            }
+            if (result.state.compareAndSet(PENDING, RUNNING)) {
+                result.complete(v -> {
+                    T value = read.read(fork);
+                    relink(value, dataLayer);
+                    return value;
+                });
+            }
+        } finally {
+            fork.destroy();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized L acquire() {
+        if (forks >= maxParallel) {
+            return null;
+        }
+        try {
+            L fork = (L) dataLayer.tryFork();
+            if (fork != null) {
+                ++forks;
+            }
+            return fork;
+        } catch (DataException ex) {
+            return null;
+        }
+    }
+
+    //ricollega al DataLayer del chiamante i proxy restituiti da una lettura (anche dentro liste e mappe)
+    //links the proxies returned by a read (also inside lists and maps) back to the caller DataLayer
+    private static void relink(Object value, DataLayer owner) {
+        if (value instanceof DataItemProxy) {
+            ((DataItemProxy) value).setDataLayer(owner);
+        } else if (value instanceof Collection) {
+            for (Object item : (Collection<?>) value) {
+                relink(item, owner);
+            }
+        } else if (value instanceof Map) {
+            for (Object item : ((Map<?, ?>) value).values()) {
+                relink(item, owner);
+            }
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package webengineering.framework.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cache condivisa dei risultati delle query, indicizzati per SQL + parametri.
+ * Ogni risultato è etichettato con le tabelle lette dalla query, dichiarate
+ * dal chiamante: una scrittura su una di queste tabelle (vedi
+ * DataLayer.tablesWritten) scarta tutti i risultati che ne dipendono. Le righe
+ * vengono lette una sola volta dal ResultSet del driver e conservate come
+ * valori immutabili (le date come java.time); a ogni lettura viene restituito
+ * un cursore in sola lettura su quelle stesse righe, senza copiarle, così i
+ * DAO le leggono con lo stesso codice usato per i ResultSet del driver. La
+ * memoria è limitata (numero massimo di risultati con eviction LRU e numero
+ * massimo di righe per risultato) e ogni risultato scade comunque dopo un TTL,
+ * per le scritture fatte fuori dall'applicazione.
+ *
+ * Shared cache of query results, indexed by SQL + parameters. Each result is
+ * tagged with the tables read by the query, declared by the caller: a write
+ * on one of those tables (see DataLayer.tablesWritten) discards all the
+ * results depending on it. Rows are read only once from the driver ResultSet
+ * and kept as immutable values (dates as java.time); each read returns a
+ * read-only cursor over those same rows, without copying them, so the DAOs
+ * read them with the same code used for the driver ResultSets. Memory is
+ * bounded (maximum number of results with LRU eviction and maximum number of
+ * rows per result) and each result expires after a TTL anyway, because of
+ * writes made outside the application.
+ *
+ * Altre cache derivate dalle stesse tabelle (ad esempio le pagine già
+ * generate, vedi OutputCache) possono ricevere le stesse invalidazioni
+ * registrando un InvalidationListener.
+ *
+ * Other caches derived from the same tables (e.g. already generated pages,
+ * see OutputCache) can receive the same invalidations by registering an
+ * InvalidationListener.
+ */
+public class QueryCache {
+
+    private static final Pattern WRITE_TABLE = Pattern.compile("^\\s*(?:INSERT\\s+(?:IGNORE\\s+)?INTO|REPLACE\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+`?(\\w+)`?", Pattern.CASE_INSENSITIVE);
+
+    private final LinkedHashMap<Key, Entry> map;
+    private final int maxRows;
+    private final long ttlNanos;
+    //incrementato a ogni invalidazione: un risultato letto prima di un'invalidazione non va memorizzato
+    //incremented on each invalidation: a result read before an invalidation must not be stored
+    private long generation;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final Set<InvalidationListener> listeners = new CopyOnWriteArraySet<>();
+
+    public QueryCache(int maxEntries, int maxRows, long ttl, TimeUnit unit) {
+        if (maxEntries <= 0 || maxRows <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxRows must be positive");
+        }
+        this.maxRows = maxRows;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.map = new LinkedHashMap<>(Math.min(maxEntries, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @FunctionalInterface
+    public interface QueryExecutor {
+
+        ResultSet execute() throws SQLException;
+    }
+
+    //riceve le tabelle scritte (o null se tutta la cache è stata svuotata)
+    //receives the written tables (or null if the whole cache has been cleared)
+    @FunctionalInterface
+    public interface InvalidationListener {
+
+        void tablesInvalidated(Set<String> tables);
+    }
+
+    //registrare due volte lo stesso listener non ha effetto
+    //registering the same listener twice has no effect
+    public void addInvalidationListener(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeInvalidationListener(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    //restituisce il risultato in cache o, se manca, esegue la query e lo memorizza; tables sono le
+    //tabelle lette dalla query. Il ResultSet restituito va chiuso dal chiamante come quelli del driver
+    //returns the cached result or, if missing, runs the query and stores it; tables are the tables
+    //read by the query. The returned ResultSet must be closed by the caller like the driver ones
+    public ResultSet query(String sql, Object[] params, Set<String> tables, QueryExecutor executor) throws SQLException {
+        Key k = new Key(sql, params);
+        Rows cached = null;
+        long stamp;
+        synchronized (this) {
+            Entry e = map.get(k);
+            if (e != null && e.expiresAt - System.nanoTime() <= 0) {
+                map.remove(k);
+                expirations.increment();
+                e = null;
+            }
+            if (e != null) {
+                hits.increment();
+                cached = e.rows;
+            } else {
+                misses.increment();
+            }
+            stamp = generation;
+        }
+        //le righe memorizzate sono immutabili: i lettori le condividono, ciascuno con il proprio cursore
+        //the stored rows are immutable: readers share them, each one with its own cursor
+        if (cached != null) {
+            return cached.open();
+        }
+
+        Rows rows;
+        try (ResultSet rs = executor.execute()) {
+            rows = new Rows(rs);
+        }
+        //un risultato troppo grande viene restituito ma non memorizzato
+        //a result that is too large is returned but not stored
+        if (rows.size() <= maxRows) {
+            synchronized (this) {
+                if (stamp == generation) {
+                    map.put(k, new Entry(rows, tables, System.nanoTime() + ttlNanos));
+                }
+            }
+        }
+        return rows.open();
+    }
+
+    //scarta tutti i risultati che leggono almeno una delle tabelle date
+    //discards all the results reading at least one of the given tables
+    public void invalidate(Set<String> tables) {
+        if (tables.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            ++generation;
+            int before = map.size();
+            map.values().removeIf(e -> !Collections.disjoint(e.tables, tables));
+            invalidations.add(before - map.size());
+        }
+        //i listener vengono chiamati fuori dal lock
+        //listeners are called outside the lock
+        for (InvalidationListener l : listeners) {
+            l.tablesInvalidated(tables);
+        }
+    }
+
+    public void clear() {
+        synchronized (this) {
+            ++generation;
+            map.clear();
+        }
+        for (InvalidationListener l : listeners) {
+            l.tablesInvalidated(null);
+        }
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache{size=" + size()
+                + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount()
+                + ", expirations=" + getExpirationCount()
+                + ", invalidations=" + getInvalidationCount() + "}";
+    }
+
+    //tabella scritta da una INSERT, UPDATE o DELETE; null per le altre istruzioni
+    //table written by an INSERT, UPDATE or DELETE; null for the other statements
+    public static String writtenTable(String sql) {
+        Matcher m = WRITE_TABLE.matcher(sql);
+        return m.find() ? m.group(1).toLowerCase(Locale.ROOT) : null;
+    }
+
+    //righe di un risultato, lette una volta dal driver e poi mai più modificate
+    //rows of a result, read once from the driver and never modified afterwards
+    private static final class Rows {
+
+        //indice (da 1) di ogni colonna per etichetta in minuscolo
+        //index (from 1) of each column by lowercase label
+        private final Map<String, Integer> columns;
+        private final List<Object[]> data;
+
+        Rows(ResultSet rs) throws SQLException {
+            ResultSetMetaData md = rs.getMetaData();
+            int n = md.getColumnCount();
+            Map<String, Integer> c = new HashMap<>();
+            for (int i = n; i >= 1; --i) {
+                //come nel driver, a parità di etichetta vale la prima colonna
+                //as in the driver, with equal labels the first column wins
+                c.put(md.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+            }
+            List<Object[]> d = new ArrayList<>();
+            while (rs.next()) {
+                Object[] row = new Object[n];
+                for (int i = 0; i < n; ++i) {
+                    row[i] = immutable(rs.getObject(i + 1));
+                }
+                d.add(row);
+            }
+            this.columns = Collections.unmodifiableMap(c);
+            this.data = Collections.unmodifiableList(d);
+        }
+
+        int size() {
+            return data.size();
+        }
+
+        ResultSet open() {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class}, new Cursor(this));
+        }
+
+        //i tipi data/ora di JDBC sono modificabili: vengono conservati come java.time
+        //the JDBC date/time types are mutable: they are kept as java.time
+        private static Object immutable(Object value) {
+            if (value instanceof Timestamp) {
+                return ((Timestamp) value).toLocalDateTime();
+            } else if (value instanceof java.sql.Date) {
+                return ((java.sql.Date) value).toLocalDate();
+            } else if (value instanceof Time) {
+                return ((Time) value).toLocalTime();
+            } else if (value instanceof java.util.Date) {
+                return new Timestamp(((java.util.Date) value).getTime()).toLocalDateTime();
+            } else if (value instanceof byte[]) {
+                return ((byte[]) value).clone();
+            }
+            return value;
+        }
+    }
+
+    //ResultSet in sola lettura e solo in avanti su righe condivise: sono supportati next, close,
+    //wasNull, findColumn e i getter per indice o etichetta (senza Calendar)
+    //read-only, forward-only ResultSet over shared rows: next, close, wasNull, findColumn and the
+    //getters by index or label (without Calendar) are supported
+    private static final class Cursor implements InvocationHandler {
+
+        private final Rows rows;
+        private int position = -1;
+        private boolean lastWasNull;
+        private boolean closed;
+
+        Cursor(Rows rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            int argc = args == null ? 0 : args.length;
+            switch (name) {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "QueryCache.Cursor{rows=" + rows.size() + ", position=" + position + "}";
+                case "isWrapperFor":
+                    return false;
+                case "getType":
+                    return ResultSet.TYPE_FORWARD_ONLY;
+                case "getConcurrency":
+                    return ResultSet.CONCUR_READ_ONLY;
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("ResultSet closed");
+            }
+            switch (name) {
+                case "next":
+                    if (position < rows.size()) {
+                        ++position;
+                    }
+                    return position < rows.size();
+                case "wasNull":
+                    return lastWasNull;
+                case "findColumn":
+                    return column(args[0]);
+                case "getRow":
+                    return position < rows.size() ? position + 1 : 0;
+                default:
+                    break;
+            }
+            if (name.startsWith("get") && (argc == 1 || (argc == 2 && name.equals("getObject") && args[1] instanceof Class))) {
+                if (position < 0 || position >= rows.size()) {
+                    throw new SQLException("No current row");
+                }
+                Object value = rows.data.get(position)[column(args[0]) - 1];
+                lastWasNull = value == null;
+                return convert(value, argc == 2 ? (Class<?>) args[1] : method.getReturnType(), name);
+            }
+            throw new SQLFeatureNotSupportedException("ResultSet." + name + " is not supported on cached results");
+        }
+
+        private int column(Object c) throws SQLException {
+            if (c instanceof Integer) {
+                int i = (Integer) c;
+                if (i < 1 || i > rows.columns.size()) {
+                    throw new SQLException("Invalid column index: " + i);
+                }
+                return i;
+            }
+            Integer i = rows.columns.get(String.valueOf(c).toLowerCase(Locale.ROOT));
+            if (i == null) {
+                throw new SQLException("Column not found: " + c);
+            }
+            return i;
+        }
+
+        private static Object convert(Object value, Class<?> type, String getter) throws SQLException {
+            if (type == Object.class) {
+                return value instanceof byte[] ? ((byte[]) value).clone() : value;
+            }
+            if (value == null) {
+                if (!type.isPrimitive()) {
+                    return null;
+                }
+                return type == boolean.class ? (Object) false : convert(0, type, getter);
+            }
+            if (type == String.class) {
+                return value.toString();
+            }
+            if (type == byte[].class && value instanceof byte[]) {
+                return ((byte[]) value).clone();
+            }
+            if (type == boolean.class || type == Boolean.class) {
+                if (value instanceof Boolean) {
+                    return value;
+                }
+                if (value instanceof Number) {
+                    return ((Number) value).intValue() != 0;
+                }
+                return "1".equals(value) || "true".equalsIgnoreCase(value.toString());
+            }
+            if (value instanceof Boolean) {
+                value = ((Boolean) value) ? 1 : 0;
+            }
+            if (type.isPrimitive() || Number.class.isAssignableFrom(type)) {
+                Number n;
+                try {
+                    n = (value instanceof Number) ? (Number) value : new BigDecimal(value.toString().trim());
+                } catch (NumberFormatException ex) {
+                    throw new SQLException("Cannot convert " + value + " with " + getter, ex);
+                }
+                if (type == int.class || type == Integer.class) {
+                    return n.intValue();
+                } else if (type == long.class || type == Long.class) {
+                    return n.longValue();
+                } else if (type == double.class || type == Double.class) {
+                    return n.doubleValue();
+                } else if (type == float.class || type == Float.class) {
+                    return n.floatValue();
+                } else if (type == short.class || type == Short.class) {
+                    return n.shortValue();
+                } else if (type == byte.class || type == Byte.class) {
+                    return n.byteValue();
+                } else if (type == BigDecimal.class) {
+                    return (n instanceof BigDecimal) ? n : new BigDecimal(n.toString());
+                }
+            }
+            if (type == Timestamp.class && value instanceof LocalDateTime) {
+                return Timestamp.valueOf((LocalDateTime) value);
+            }
+            if (type == java.sql.Date.class && value instanceof LocalDate) {
+                return java.sql.Date.valueOf((LocalDate) value);
+            }
+            if (type == java.sql.Date.class && value instanceof LocalDateTime) {
+                return java.sql.Date.valueOf(((LocalDateTime) value).toLocalDate());
+            }
+            if (type == Time.class && value instanceof LocalTime) {
+                return Time.valueOf((LocalTime) value);
+            }
+            if (type == LocalDate.class && value instanceof LocalDateTime) {
+                return ((LocalDateTime) value).toLocalDate();
+            }
+            if (type.isInstance(value)) {
+                return value;
+            }
+            throw new SQLFeatureNotSupportedException("Cannot convert " + value.getClass().getName() + " with " + getter);
+        }
+    }
+
+    private static final class Key {
+
+        private final String sql;
+        private final Object[] params;
+        private final int hash;
+
+        Key(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params != null ? params.clone() : new Object[0];
+            this.hash = 31 * sql.hashCode() + Arrays.hashCode(this.params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return sql.equals(other.sql) && Arrays.equals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        private final Rows rows;
+        private final Set<String> tables;
+        private final long expiresAt;
+
+        Entry(Rows rows, Set<String> tables, long expiresAt) {
+            this.rows = rows;
+            this.tables = tables;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package webengineering.framework.data;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+/**
+ * Insieme delle repliche in sola lettura del database principale, condiviso da
+ * tutti i DataLayer del processo. Le connessioni di lettura vengono distribuite
+ * a turno (round robin) sulle repliche; se una replica non risponde si passa
+ * alla successiva e, in mancanza di repliche disponibili, al primario.
+ * Le repliche possono essere in ritardo sul primario: per questo chi scrive
+ * (identificato da una chiave, ad esempio la sessione) continua a leggere dal
+ * primario per una finestra di tempo dopo ogni sua scrittura, e per la stessa
+ * finestra dopo una scrittura qualsiasi i dati letti dalle repliche non vengono
+ * messi nelle cache condivise.
+ *
+ * Set of read-only replicas of the primary database, shared by all the
+ * DataLayers of the process. Read connections are handed out in turn (round
+ * robin) from the replicas; if a replica does not answer the next one is
+ * tried and, when no replica is available, the primary. Replicas may lag
+ * behind the primary: for this reason a writer (identified by a key, e.g. the
+ * session) keeps reading from the primary for a time window after each of its
+ * writes, and for the same window after any write the data read from the
+ * replicas is not put in the shared caches.
+ */
+public class ReplicaSet {
+
+    private static final Logger logger = Logger.getLogger(ReplicaSet.class.getName());
+
+    private final List<DataSource> replicas;
+    private final long windowNanos;
+    private final AtomicInteger next = new AtomicInteger();
+    //istante (System.nanoTime) dell'ultima scrittura, globale e per chiave
+    //time (System.nanoTime) of the last write, global and per key
+    private final AtomicLong lastWrite;
+    private final Map<Object, Long> lastWriteByKey = new ConcurrentHashMap<>();
+
+    public ReplicaSet(List<DataSource> replicas, long window, TimeUnit unit) {
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        for (int i = 0; i < replicas.size(); ++i) {
+            DataLayerMonitor.getInstance().watchPool("replica" + (i + 1), replicas.get(i));
+        }
+        this.windowNanos = unit.toNanos(window);
+        this.lastWrite = new AtomicLong(System.nanoTime() - windowNanos);
+    }
+
+    //cerca nel JNDI (java:comp/env) l'elenco dei nomi delle repliche, separati da virgole, e le relative
+    //DataSource; restituisce null se l'elenco non è configurato o è vuoto
+    //looks up in JNDI (java:comp/env) the comma separated list of replica names, and the related
+    //DataSources; returns null if the list is not configured or is empty
+    public static ReplicaSet lookup(String namesEntry, long window, TimeUnit unit) {
+        String names;
+        try {
+            names = (String) new InitialContext().lookup("java:comp/env/" + namesEntry);
+        } catch (NamingException ex) {
+            return null;
+        }
+        List<DataSource> sources = new ArrayList<>();
+        for (String name : names.split("\\s*,\\s*")) {
+            if (!name.isBlank()) {
+                try {
+                    sources.add((DataSource) new InitialContext().lookup("java:comp/env/" + name.trim()));
+                } catch (NamingException ex) {
+                    logger.log(Level.WARNING, "Replica DataSource not found: {0}", name);
+                }
+            }
+        }
+        return sources.isEmpty() ? null : new ReplicaSet(sources, window, unit);
+    }
+
+    public int size() {
+        return replicas.size();
+    }
+
+    //una connessione verso una replica, o null se nessuna replica è raggiungibile
+    //a connection to a replica, or null if no replica can be reached
+    public Connection getConnection() {
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); ++i) {
+            DataSource ds = replicas.get((start + i) % replicas.size());
+            try {
+                Connection c = ds.getConnection();
+                c.setReadOnly(true);
+                return c;
+            } catch (SQLException ex) {
+                logger.log(Level.WARNING, "Replica not available, trying the next one", ex);
+            }
+        }
+        return null;
+    }
+
+    //da chiamare a ogni scrittura sul primario; key può essere null se lo scrittore non è identificato
+    //to be called on each write on the primary; key may be null if the writer is not identified
+    public void markWrite(Object key) {
+        long now = System.nanoTime();
+        lastWrite.set(now);
+        if (key != null) {
+            lastWriteByKey.put(key, now);
+            //le chiavi di chi non legge più dopo aver scritto vengono rimosse qui
+            //the keys of writers that do not read any more are removed here
+            if (lastWriteByKey.size() > 1000) {
+                lastWriteByKey.values().removeIf(t -> now - t >= windowNanos);
+            }
+        }
+    }
+
+    //true se chi è identificato dalla chiave ha scritto da poco e deve quindi leggere dal primario
+    //true if whoever is identified by the key wrote recently and must therefore read from the primary
+    public boolean isRecentWriter(Object key) {
+        if (key == null) {
+            return false;
+        }
+        Long t = lastWriteByKey.get(key);
+        if (t == null) {
+            return false;
+        }
+        if (System.nanoTime() - t < windowNanos) {
+            return true;
+        }
+        //finestra scaduta: la voce non serve più
+        //window expired: the entry is no longer needed
+        lastWriteByKey.remove(key, t);
+        return false;
+    }
+
+    //true se nessuno ha scritto nell'ultima finestra: le repliche sono (presumibilmente) allineate
+    //true if nobody wrote in the last window: the replicas are (presumably) up to date
+    public boolean isSettled() {
+        return System.nanoTime() - lastWrite.get() >= windowNanos;
+    }
+}
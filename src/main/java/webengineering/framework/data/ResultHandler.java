@@ -0,0 +1,16 @@
+package webengineering.framework.data;
+
+/**
+ * Riceve uno alla volta gli elementi letti da una query in streaming, mentre il
+ * ResultSet è ancora aperto: il chiamante non deve accumularli in una lista.
+ *
+ * Receives one by one the items read by a streaming query, while the ResultSet
+ * is still open: the caller is not required to collect them in a list.
+ */
+@FunctionalInterface
+public interface ResultHandler<T> {
+
+    //un'eccezione interrompe la lettura e viene riportata come DataException
+    //an exception stops the read and is reported as a DataException
+    void handle(T item) throws Exception;
+}
@@ -0,0 +1,246 @@
+package webengineering.framework.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache di secondo livello condivisa tra tutti i DataLayer (e quindi tra tutte
+ * le richieste) del processo. Gli oggetti sono indicizzati per classe
+ * dell'entità + chiave, la memoria è limitata (numero massimo di elementi, con
+ * eviction LRU) e ogni elemento scade dopo un TTL. La mappa è suddivisa in
+ * segmenti (stripe) sincronizzati separatamente, per limitare la contesa tra
+ * thread. La cache non condivide mai le istanze delle richieste: put conserva
+ * una copia del proxy (DataItemProxy.copy, senza DataLayer) e get restituisce
+ * ogni volta una nuova copia, che il chiamante può modificare e collegare al
+ * proprio DataLayer.
+ *
+ * Process-wide second-level cache shared by all the DataLayers (i.e., by all
+ * the requests). Objects are indexed by entity class + key, memory is bounded
+ * (maximum number of entries, LRU eviction) and each entry expires after a
+ * TTL. The map is split in independently synchronized stripes to reduce
+ * contention. The cache never shares the request instances: put keeps a copy
+ * of the proxy (DataItemProxy.copy, without DataLayer) and get returns a new
+ * copy every time, which the caller may modify and link to its own DataLayer.
+ */
+public class SharedDataCache {
+
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public SharedDataCache(int maxEntries, long ttl, TimeUnit unit) {
+        this(maxEntries, ttl, unit, DEFAULT_STRIPES);
+    }
+
+    public SharedDataCache(int maxEntries, long ttl, TimeUnit unit, int stripeCount) {
+        if (maxEntries <= 0 || stripeCount <= 0) {
+            throw new IllegalArgumentException("maxEntries and stripeCount must be positive");
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.stripes = new Stripe[stripeCount];
+        int perStripe = Math.max(1, maxEntries / stripeCount);
+        for (int i = 0; i < stripeCount; ++i) {
+            stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    public Object get(Class<?> c, Object key) {
+        CacheKey k = new CacheKey(c, key);
+        Stripe s = stripeFor(k);
+        Object value;
+        synchronized (s) {
+            Entry e = s.map.get(k);
+            if (e == null) {
+                misses.increment();
+                return null;
+            }
+            if (e.expiresAt - System.nanoTime() <= 0) {
+                s.map.remove(k);
+                expirations.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            value = e.value;
+        }
+        //la copia conservata non esce mai dalla cache
+        //the stored copy never leaves the cache
+        return copy(value);
+    }
+
+    public void put(Class<?> c, Object key, Object value) {
+        if (key == null || value == null) {
+            return;
+        }
+        //i proxy che non sanno copiarsi restano privati della richiesta
+        //proxies that cannot copy themselves stay private to the request
+        Object copy = copy(value);
+        if (copy == null) {
+            return;
+        }
+        CacheKey k = new CacheKey(c, key);
+        Stripe s = stripeFor(k);
+        synchronized (s) {
+            s.map.put(k, new Entry(copy, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    //i valori che non sono proxy (chiavi, valori immutabili) sono condivisi così come sono
+    //values that are not proxies (keys, immutable values) are shared as they are
+    private static Object copy(Object value) {
+        if (value instanceof DataItemProxy) {
+            return ((DataItemProxy) value).copy();
+        }
+        return value;
+    }
+
+    public void invalidate(Class<?> c, Object key) {
+        CacheKey k = new CacheKey(c, key);
+        Stripe s = stripeFor(k);
+        synchronized (s) {
+            if (s.map.remove(k) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public void invalidateAll(Class<?> c) {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                int before = s.map.size();
+                s.map.keySet().removeIf(k -> k.type.equals(c));
+                invalidations.add(before - s.map.size());
+            }
+        }
+    }
+
+    public void clear() {
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                s.map.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                size += s.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return "SharedDataCache{size=" + size()
+                + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount()
+                + ", expirations=" + getExpirationCount()
+                + ", invalidations=" + getInvalidationCount() + "}";
+    }
+
+    private Stripe stripeFor(CacheKey k) {
+        int h = k.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+
+    private static final class CacheKey {
+
+        private final Class<?> type;
+        private final Object key;
+        private final int hash;
+
+        CacheKey(Class<?> type, Object key) {
+            this.type = type;
+            this.key = key;
+            this.hash = 31 * type.hashCode() + Objects.hashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return type.equals(other.type) && Objects.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object value;
+        private final long expiresAt;
+
+        Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    //ogni stripe è una LinkedHashMap in access-order, che scarta l'elemento usato meno di recente
+    //each stripe is an access-ordered LinkedHashMap that drops the least recently used entry
+    private final class Stripe {
+
+        private final LinkedHashMap<CacheKey, Entry> map;
+
+        Stripe(int capacity) {
+            this.map = new LinkedHashMap<>(Math.min(capacity, 1024), 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package webengineering.framework.data;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unità di lavoro di una richiesta: raccoglie gli oggetti nuovi, modificati e
+ * cancellati e li scrive tutti insieme al commit, in una sola transazione e con
+ * un batch JDBC per classe. Le classi vengono scritte nell'ordine di
+ * registrazione dei DataWriter nel DataLayer (inserimenti e aggiornamenti) e
+ * in ordine inverso (cancellazioni), così che le righe referenziate esistano
+ * sempre prima di quelle che le referenziano. Degli oggetti modificati vengono
+ * scritti solo i DataItemProxy con isModified() vero.
+ *
+ * Unit of work of a request: collects the new, modified and deleted objects and
+ * writes them all together on commit, in a single transaction and with one
+ * JDBC batch per class. Classes are written in the order their DataWriters
+ * were registered in the DataLayer (inserts and updates) and in reverse order
+ * (deletes), so that referenced rows always exist before the rows referencing
+ * them. Among the modified objects, only DataItemProxy objects whose
+ * isModified() is true are written.
+ */
+public class UnitOfWork {
+
+    private final DataLayer dataLayer;
+    private final Map<Class<?>, List<Object>> created;
+    private final Map<Class<?>, List<Object>> dirty;
+    private final Map<Class<?>, List<Object>> deleted;
+
+    public UnitOfWork(DataLayer dataLayer) {
+        this.dataLayer = dataLayer;
+        this.created = new LinkedHashMap<>();
+        this.dirty = new LinkedHashMap<>();
+        this.deleted = new LinkedHashMap<>();
+    }
+
+    public <T> void registerNew(Class<T> c, T o) {
+        add(created, c, o);
+    }
+
+    //un oggetto già registrato come nuovo verrà comunque inserito con i suoi valori correnti
+    //an object already registered as new will be inserted anyway with its current values
+    public <T> void registerDirty(Class<T> c, T o) {
+        if (!contains(created, c, o)) {
+            add(dirty, c, o);
+        }
+    }
+
+    public <T> void registerDeleted(Class<T> c, T o) {
+        //un oggetto nuovo cancellato prima del commit non va proprio scritto
+        //a new object deleted before the commit must not be written at all
+        if (remove(created, c, o)) {
+            return;
+        }
+        remove(dirty, c, o);
+        add(deleted, c, o);
+    }
+
+    public boolean hasChanges() {
+        return !created.isEmpty() || !dirty.isEmpty() || !deleted.isEmpty();
+    }
+
+    //scarta le modifiche in attesa
+    //discards the pending changes
+    public void clear() {
+        created.clear();
+        dirty.clear();
+        deleted.clear();
+    }
+
+    //se la connessione è già in una transazione aperta dal chiamante, le scritture ne fanno parte
+    //e il commit (o il rollback) resta a carico del chiamante, che deve poi chiamare
+    //DataLayer.transactionEnded
+    //if the connection is already in a transaction opened by the caller, the writes join it
+    //and the commit (or rollback) is left to the caller, who must then call
+    //DataLayer.transactionEnded
+    public void commit() throws DataException {
+        if (!hasChanges()) {
+            return;
+        }
+        List<Class<?>> order = dataLayer.getWriterOrder();
+        for (Map<Class<?>, List<Object>> m : List.of(created, dirty, deleted)) {
+            for (Class<?> c : m.keySet()) {
+                if (!order.contains(c)) {
+                    throw new DataException("No DataWriter registered for " + c.getName());
+                }
+            }
+        }
+
+        Connection connection;
+        boolean ownTransaction;
+        try {
+            connection = dataLayer.getConnection();
+            ownTransaction = connection.getAutoCommit();
+            if (ownTransaction) {
+                connection.setAutoCommit(false);
+            }
+        } catch (SQLException ex) {
+            throw new DataException("Unable to start the unit of work transaction", ex);
+        }
+
+        try {
+            flush(order);
+            if (ownTransaction) {
+                connection.commit();
+            }
+        } catch (DataException | SQLException | RuntimeException ex) {
+            if (ownTransaction) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rex) {
+                    //
+                }
+                dataLayer.transactionEnded(false);
+            }
+            throw (ex instanceof DataException) ? (DataException) ex : new DataException("Unable to commit the unit of work", ex);
+        } finally {
+            if (ownTransaction) {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException ex) {
+                    //
+                }
+            }
+        }
+
+        if (ownTransaction) {
+            dataLayer.transactionEnded(true);
+        }
+
+        //gli oggetti scritti ora corrispondono al database
+        //the written objects now match the database
+        for (Map<Class<?>, List<Object>> m : List.of(created, dirty)) {
+            for (List<Object> items : m.values()) {
+                for (Object o : items) {
+                    if (o instanceof DataItemProxy) {
+                        ((DataItemProxy) o).setModified(false);
+                    }
+                }
+            }
+        }
+        clear();
+    }
+
+    private void flush(List<Class<?>> order) throws DataException {
+        for (Class<?> c : order) {
+            List<Object> items = created.get(c);
+            if (items != null && !items.isEmpty()) {
+                insert(c, items);
+            }
+        }
+        for (Class<?> c : order) {
+            List<Object> items = modifiedOnly(dirty.get(c));
+            if (!items.isEmpty()) {
+                update(c, items);
+            }
+        }
+        for (int i = order.size() - 1; i >= 0; --i) {
+            Class<?> c = order.get(i);
+            List<Object> items = deleted.get(c);
+            if (items != null && !items.isEmpty()) {
+                delete(c, items);
+            }
+        }
+    }
+
+    private <T> void insert(Class<T> c, List<Object> items) throws DataException {
+        dataLayer.getWriter(c).insert(typed(c, items));
+    }
+
+    private <T> void update(Class<T> c, List<Object> items) throws DataException {
+        dataLayer.getWriter(c).update(typed(c, items));
+    }
+
+    private <T> void delete(Class<T> c, List<Object> items) throws DataException {
+        dataLayer.getWriter(c).delete(typed(c, items));
+    }
+
+    //gli oggetti sono stati registrati con la loro classe (vedi registerNew), quindi il cast riesce sempre
+    //the objects were registered with their class (see registerNew), so the cast always succeeds
+    private static <T> List<T> typed(Class<T> c, List<Object> items) {
+        List<T> result = new ArrayList<>(items.size());
+        for (Object o : items) {
+            result.add(c.cast(o));
+        }
+        return result;
+    }
+
+    private static List<Object> modifiedOnly(List<Object> items) {
+        List<Object> result = new ArrayList<>();
+        if (items != null) {
+            for (Object o : items) {
+                if (!(o instanceof DataItemProxy) || ((DataItemProxy) o).isModified()) {
+                    result.add(o);
+                }
+            }
+        }
+        return result;
+    }
+
+    //gli oggetti sono confrontati per identità (non con equals)
+    //objects are compared by identity (not with equals)
+    private static void add(Map<Class<?>, List<Object>> m, Class<?> c, Object o) {
+        if (!contains(m, c, o)) {
+            m.computeIfAbsent(c, k -> new ArrayList<>()).add(o);
+        }
+    }
+
+    private static boolean contains(Map<Class<?>, List<Object>> m, Class<?> c, Object o) {
+        List<Object> items = m.get(c);
+        if (items != null) {
+            for (Object i : items) {
+                if (i == o) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean remove(Map<Class<?>, List<Object>> m, Class<?> c, Object o) {
+        List<Object> items = m.get(c);
+        if (items != null && items.removeIf(i -> i == o)) {
+            if (items.isEmpty()) {
+                m.remove(c);
+            }
+            return true;
+        }
+        return false;
+    }
+}
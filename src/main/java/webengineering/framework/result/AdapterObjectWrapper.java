@@ -0,0 +1,70 @@
+/*
+ * AdapterObjectWrapper.java
+ *
+ * Object wrapper dei template (vedi TemplateEngine): gli oggetti dei tipi per cui
+ * è stato registrato un BeanAdapter vengono presentati con quello, con accesso
+ * diretto ai getter; tutti gli altri come nel Java8ObjectWrapper standard.
+ * L'adattatore di ogni classe concreta viene cercato una sola volta (il primo
+ * tipo registrato compatibile, nell'ordine di registrazione). Gli adattatori
+ * vanno registrati all'avvio, prima del primo uso.
+ *
+ * Template object wrapper (see TemplateEngine): objects of the types with a
+ * registered BeanAdapter are exposed through it, with direct getter access;
+ * all the other ones as in the standard Java8ObjectWrapper. The adapter of
+ * each concrete class is looked up only once (the first compatible
+ * registered type, in registration order). Adapters must be registered at
+ * startup, before the first use.
+ *
+ */
+package webengineering.framework.result;
+
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.Version;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import no.api.freemarker.java8.Java8ObjectWrapper;
+
+public class AdapterObjectWrapper extends Java8ObjectWrapper {
+
+    private final Map<Class<?>, BeanAdapter<?>> adapters = new LinkedHashMap<>();
+    private final Map<Class<?>, Optional<BeanAdapter<?>>> resolved = new ConcurrentHashMap<>();
+
+    public AdapterObjectWrapper(Version incompatibleImprovements) {
+        super(incompatibleImprovements);
+    }
+
+    public synchronized <T> void register(Class<T> type, BeanAdapter<T> adapter) {
+        adapters.put(type, adapter);
+        resolved.clear();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public TemplateModel wrap(Object obj) throws TemplateModelException {
+        if (obj != null) {
+            Optional<BeanAdapter<?>> adapter = resolved.computeIfAbsent(obj.getClass(), this::find);
+            if (adapter.isPresent()) {
+                return ((BeanAdapter<Object>) adapter.get()).adapt(obj, this);
+            }
+        }
+        return super.wrap(obj);
+    }
+
+    //modello standard (bean) dell'oggetto, per le proprietà non dichiarate nell'adattatore
+    //standard (bean) model of the object, for the properties not declared in the adapter
+    TemplateModel wrapAsBean(Object obj) throws TemplateModelException {
+        return super.wrap(obj);
+    }
+
+    private synchronized Optional<BeanAdapter<?>> find(Class<?> c) {
+        for (Map.Entry<Class<?>, BeanAdapter<?>> e : adapters.entrySet()) {
+            if (e.getKey().isAssignableFrom(c)) {
+                return Optional.of(e.getValue());
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * BeanAdapter.java
+ *
+ * Tabella delle proprietà di un tipo (nome -> getter) usata da AdapterObjectWrapper
+ * per presentare gli oggetti di quel tipo ai template senza introspezione: ogni
+ * accesso a una proprietà è una lookup nella tabella e una chiamata diretta al
+ * getter. Le proprietà non presenti nella tabella vengono cercate nel modello
+ * standard (bean) dell'oggetto, creato solo se serve, così i template continuano
+ * a funzionare come prima anche per metodi o proprietà non dichiarati.
+ *
+ * Property table of a type (name -> getter) used by AdapterObjectWrapper to
+ * expose the objects of that type to the templates without introspection:
+ * each property access is a table lookup and a direct getter call. Properties
+ * missing from the table are looked up in the standard (bean) model of the
+ * object, created only if needed, so that templates keep working as before
+ * also for undeclared methods or properties.
+ *
+ */
+package webengineering.framework.result;
+
+import freemarker.ext.util.WrapperTemplateModel;
+import freemarker.template.AdapterTemplateModel;
+import freemarker.template.SimpleCollection;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class BeanAdapter<T> {
+
+    private final Map<String, Function<? super T, ?>> properties = new LinkedHashMap<>();
+
+    public BeanAdapter<T> property(String name, Function<? super T, ?> getter) {
+        properties.put(name, getter);
+        return this;
+    }
+
+    TemplateModel adapt(T object, AdapterObjectWrapper wrapper) {
+        return new Model<>(object, this, wrapper);
+    }
+
+    private static final class Model<T> implements TemplateHashModelEx, AdapterTemplateModel, WrapperTemplateModel {
+
+        private final T object;
+        private final BeanAdapter<T> adapter;
+        private final AdapterObjectWrapper wrapper;
+        private TemplateHashModel bean;
+
+        private Model(T object, BeanAdapter<T> adapter, AdapterObjectWrapper wrapper) {
+            this.object = object;
+            this.adapter = adapter;
+            this.wrapper = wrapper;
+        }
+
+        @Override
+        public TemplateModel get(String key) throws TemplateModelException {
+            Function<? super T, ?> getter = adapter.properties.get(key);
+            if (getter != null) {
+                return wrapper.wrap(getter.apply(object));
+            }
+            //proprietà non dichiarata: la cerchiamo nel modello standard
+            //undeclared property: we look it up in the standard model
+            if (bean == null) {
+                bean = (TemplateHashModel) wrapper.wrapAsBean(object);
+            }
+            return bean.get(key);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return adapter.properties.isEmpty();
+        }
+
+        @Override
+        public int size() {
+            return adapter.properties.size();
+        }
+
+        @Override
+        public TemplateCollectionModel keys() {
+            return new SimpleCollection(adapter.properties.keySet(), wrapper);
+        }
+
+        @Override
+        public TemplateCollectionModel values() throws TemplateModelException {
+            List<Object> values = new ArrayList<>(adapter.properties.size());
+            for (Function<? super T, ?> getter : adapter.properties.values()) {
+                values.add(getter.apply(object));
+            }
+            return new SimpleCollection(values, wrapper);
+        }
+
+        //l'oggetto originale, ad esempio quando il template lo passa come argomento a un metodo
+        //the original object, e.g. when the template passes it as a method argument
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Object getAdaptedObject(Class hint) {
+            return object;
+        }
+
+        @Override
+        public Object getWrappedObject() {
+            return object;
+        }
+    }
+}
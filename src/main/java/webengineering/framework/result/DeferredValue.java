@@ -0,0 +1,55 @@
+/*
+ * DeferredValue.java
+ *
+ * Valore del data model calcolato solo quando il template lo usa per la prima
+ * volta (e poi riusato). Con TemplateResult.activateStreamed il controller
+ * passa le sue query come DeferredValue: la parte della pagina che precede il
+ * primo uso dei dati (head, header) viene inviata al client prima che le
+ * query vengano eseguite.
+ *
+ * Data model value computed only when the template uses it for the first time
+ * (and then reused). With TemplateResult.activateStreamed the controller
+ * passes its queries as DeferredValues: the part of the page preceding the
+ * first use of the data (head, header) is sent to the client before the
+ * queries are executed.
+ *
+ */
+package webengineering.framework.result;
+
+import java.util.function.Function;
+
+public final class DeferredValue<T> {
+
+    @FunctionalInterface
+    public interface Loader<T> {
+
+        T load() throws Exception;
+    }
+
+    private Loader<T> loader;
+    private T value;
+
+    private DeferredValue(Loader<T> loader) {
+        this.loader = loader;
+    }
+
+    public static <T> DeferredValue<T> of(Loader<T> loader) {
+        return new DeferredValue<>(loader);
+    }
+
+    //calcola il valore al primo uso; un errore non viene memorizzato
+    //computes the value at the first use; an error is not stored
+    public synchronized T get() throws Exception {
+        if (loader != null) {
+            value = loader.load();
+            loader = null;
+        }
+        return value;
+    }
+
+    //valore derivato da questo (ad esempio la dimensione di una lista), che condivide lo stesso calcolo
+    //value derived from this one (e.g. the size of a list), sharing the same computation
+    public <R> DeferredValue<R> map(Function<? super T, ? extends R> f) {
+        return of(() -> f.apply(get()));
+    }
+}
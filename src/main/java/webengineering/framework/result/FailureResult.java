@@ -21,6 +21,7 @@ import java.util.logging.Logger;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import webengineering.framework.data.OptimisticLockException;
 
 /**
  *
@@ -43,7 +44,16 @@ public class FailureResult {
         } else if (exception != null) {
             message = exception.getClass().getName();
         }
-        activate(message, request, response);
+        //una modifica concorrente (optimistic locking) non è un errore del server: la segnaliamo con 409
+        //a concurrent modification (optimistic locking) is not a server error: we report it with 409
+        int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        for (Throwable t = exception; t != null; t = t.getCause()) {
+            if (t instanceof OptimisticLockException) {
+                status = HttpServletResponse.SC_CONFLICT;
+                break;
+            }
+        }
+        activate(message, status, request, response);
     }
 
     public void activate(HttpServletRequest request, HttpServletResponse response) {
@@ -59,10 +69,21 @@ public class FailureResult {
     }
 
     public void activate(String message, HttpServletRequest request, HttpServletResponse response) {
+        activate(message, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, request, response);
+    }
+
+    public void activate(String message, int status, HttpServletRequest request, HttpServletResponse response) {
         try {
             //Scriviamo il messaggio di errore nel log del server
             //Log the error message in the server log
             System.err.println(message);
+            //una pagina inviata in streaming (vedi TemplateResult.activateStreamed) è già partita:
+            //stato e contenuto non si possono più cambiare, la pagina resta troncata
+            //a streamed page (see TemplateResult.activateStreamed) has already been sent:
+            //status and content cannot be changed anymore, the page stays truncated
+            if (response.isCommitted()) {
+                return;
+            }
             // ATTENZIONE: in un ambiente di produzione, i messaggi di errore DEVONO essere limitati a informazioni generiche, non a stringhe di complete di eccezione
             //e.g., potremmo mappare solo la classe dell'eccezione (IOException, SQLException, ecc.) in messaggi come "Errore IO", "Errore database", ecc.
             //WARNING: in a production environment, error messages MUST be limited to generic information, not full exception strings
@@ -73,11 +94,12 @@ public class FailureResult {
             if (context.getInitParameter("view.error_template") != null) {
                 request.setAttribute("error", message);
                 request.setAttribute("outline_tpl", "");
+                response.setStatus(status);
                 template.activate(context.getInitParameter("view.error_template"), request, response);
             } else {
                 //altrimenti, inviamo un errore HTTP
                 //otherwise, use HTTP errors
-                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, message);
+                response.sendError(status, message);
             }
         } catch (Exception ex) {
             //se qualcosa va male inviamo un errore HTTP
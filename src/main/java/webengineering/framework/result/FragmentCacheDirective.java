@@ -0,0 +1,92 @@
+/*
+ * FragmentCacheDirective.java
+ *
+ * Direttiva <@cache_fragment name="..." tables="t1,t2" key=...>...</@cache_fragment>
+ * disponibile in tutti i template (vedi TemplateEngine): il contenuto viene
+ * generato una volta e poi riletto dalla OutputCache finché una scrittura su
+ * una delle tabelle indicate (o il TTL) non lo scarta. Il frammento deve
+ * dipendere solo dal nome, dal valore opzionale key (ad esempio il nome
+ * dell'utente, se compare nel frammento) e dai dati di quelle tabelle: è
+ * condiviso tra tutte le richieste.
+ *
+ * Directive <@cache_fragment name="..." tables="t1,t2" key=...>...</@cache_fragment>
+ * available in all the templates (see TemplateEngine): the content is
+ * generated once and then read back from the OutputCache until a write on one
+ * of the given tables (or the TTL) discards it. The fragment must depend only
+ * on the name, on the optional key value (e.g. the user name, if it appears in
+ * the fragment) and on the data of those tables: it is shared among all the
+ * requests.
+ *
+ */
+package webengineering.framework.result;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class FragmentCacheDirective implements TemplateDirectiveModel {
+
+    //attributo dell'Environment con la chiave della pagina in corso di generazione
+    //Environment attribute with the key of the page being generated
+    static final String PAGE_KEY = OutputCache.Key.class.getName();
+
+    private final OutputCache cache;
+
+    public FragmentCacheDirective(OutputCache cache) {
+        this.cache = cache;
+    }
+
+    //la firma (con Map senza parametri di tipo) è quella di TemplateDirectiveModel
+    //the signature (with a raw Map) is the one of TemplateDirectiveModel
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body) throws TemplateException, IOException {
+        if (body == null) {
+            return;
+        }
+        String name = scalar(params, "name");
+        if (name == null) {
+            throw new TemplateModelException("cache_fragment: the name parameter is required");
+        }
+        String tables = scalar(params, "tables");
+        Set<String> t = tables == null || tables.isBlank()
+                ? Collections.emptySet()
+                : new HashSet<>(Arrays.asList(tables.trim().split("\\s*,\\s*")));
+        //il template fa parte della chiave: frammenti con lo stesso nome in template diversi restano distinti
+        //the template is part of the key: fragments with the same name in different templates stay distinct
+        //se la pagina ha una chiave (vedi TemplateResult) il frammento ne eredita l'istante di creazione
+        //if the page has a key (see TemplateResult) the fragment inherits its creation instant
+        OutputCache.Key page = (OutputCache.Key) env.getCustomAttribute(PAGE_KEY);
+        OutputCache.Key key = cache.key("fragment:" + env.getMainTemplate().getName() + ":" + name, t, page, scalar(params, "key"));
+
+        OutputCache.Entry e = cache.get(key);
+        if (e == null) {
+            StringWriter out = new StringWriter();
+            body.render(out);
+            e = cache.putFragment(key, out.toString());
+        }
+        env.getOut().write(e.getText());
+    }
+
+    private static String scalar(Map<?, ?> params, String name) throws TemplateModelException {
+        Object value = params.get(name);
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof TemplateScalarModel)) {
+            throw new TemplateModelException("cache_fragment: the " + name + " parameter must be a string");
+        }
+        return ((TemplateScalarModel) value).getAsString();
+    }
+}
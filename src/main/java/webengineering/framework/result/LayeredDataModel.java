@@ -0,0 +1,146 @@
+/*
+ * LayeredDataModel.java
+ *
+ * Data model passato a Freemarker da TemplateResult. Invece di copiare in una
+ * nuova mappa i default e gli attributi della request a ogni pagina, cerca
+ * ogni variabile solo quando il template la usa, in questo ordine: variabili
+ * impostate da TemplateResult (content_tpl), data model dell'utente (mappa
+ * esplicita o attributi della request), dati dei data model filler (calcolati
+ * alla prima variabile non trovata nei livelli precedenti), default statici
+ * calcolati una volta sola da TemplateEngine. Come prima, il data model
+ * dell'utente può quindi sovrascrivere i default (anche con null, ad esempio
+ * per disattivare l'outline).
+ *
+ * Data model passed to Freemarker by TemplateResult. Instead of copying the
+ * defaults and the request attributes into a new map for every page, it
+ * looks up each variable only when the template uses it, in this order:
+ * variables set by TemplateResult (content_tpl), user data model (explicit
+ * map or request attributes), data model filler data (computed at the first
+ * variable not found in the previous layers), static defaults computed only
+ * once by TemplateEngine. As before, the user data model can thus overwrite
+ * the defaults (also with null, e.g. to disable the outline).
+ *
+ * I DeferredValue vengono calcolati al primo uso; in modalità streaming (vedi
+ * TemplateResult.activateStreamed) l'output già generato viene prima inviato
+ * al client.
+ *
+ * DeferredValues are computed at their first use; in streaming mode (see
+ * TemplateResult.activateStreamed) the output generated so far is sent to the
+ * client first.
+ *
+ */
+package webengineering.framework.result;
+
+import freemarker.template.ObjectWrapper;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.http.HttpServletRequest;
+
+public class LayeredDataModel implements TemplateHashModel {
+
+    private final ObjectWrapper wrapper;
+    private final Map<String, Object> defaults;
+    private final List<DataModelFiller> fillers;
+    private final ServletContext context;
+    //mappa esplicita dell'utente: se è null il data model sono gli attributi della request
+    //explicit user map: if null the data model is given by the request attributes
+    private final Map<?, ?> datamodel;
+    private final HttpServletRequest request;
+    private final Map<String, Object> local = new HashMap<>(4);
+    private Map<String, Object> filled;
+    //writer della response da svuotare prima di calcolare il primo DeferredValue (solo in streaming)
+    //response writer to flush before computing the first DeferredValue (streaming only)
+    private Writer flushBeforeDeferred;
+
+    LayeredDataModel(TemplateEngine engine, ServletContext context, Map<?, ?> datamodel, HttpServletRequest request) {
+        this.wrapper = engine.getConfiguration().getObjectWrapper();
+        this.defaults = engine.getDefaultDataModel();
+        this.fillers = engine.getFillers();
+        this.context = context;
+        this.datamodel = datamodel;
+        this.request = request;
+    }
+
+    //imposta una variabile che ha la precedenza su tutti i livelli
+    //sets a variable that takes precedence over all the layers
+    public void put(String key, Object value) {
+        local.put(key, value);
+    }
+
+    void setFlushBeforeDeferred(Writer out) {
+        flushBeforeDeferred = out;
+    }
+
+    //valore (non ancora convertito per Freemarker) di una variabile, o null
+    //value (not yet wrapped for Freemarker) of a variable, or null
+    public Object getValue(String key) {
+        if (local.containsKey(key)) {
+            return local.get(key);
+        }
+        if (datamodel != null) {
+            if (datamodel.containsKey(key)) {
+                return datamodel.get(key);
+            }
+        } else if (request != null) {
+            Object value = request.getAttribute(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (!fillers.isEmpty()) {
+            if (filled == null) {
+                filled = new HashMap<>();
+                for (DataModelFiller f : fillers) {
+                    f.fillDataModel(filled, request, context);
+                }
+            }
+            if (filled.containsKey(key)) {
+                return filled.get(key);
+            }
+        }
+        if ("compiled_on".equals(key)) {
+            //data di compilazione del template, calcolata solo se usata
+            //template compilation date, computed only if used
+            Object now = LocalDateTime.now();
+            local.put(key, now);
+            return now;
+        }
+        return defaults.get(key);
+    }
+
+    @Override
+    public TemplateModel get(String key) throws TemplateModelException {
+        Object value = getValue(key);
+        if (value instanceof DeferredValue) {
+            value = resolve(key, (DeferredValue<?>) value);
+        }
+        return value == null ? null : wrapper.wrap(value);
+    }
+
+    private Object resolve(String key, DeferredValue<?> deferred) throws TemplateModelException {
+        try {
+            if (flushBeforeDeferred != null) {
+                //il client riceve subito la parte di pagina che non dipende dai dati
+                //the client immediately receives the part of the page not depending on the data
+                flushBeforeDeferred.flush();
+                flushBeforeDeferred = null;
+            }
+            return deferred.get();
+        } catch (Exception ex) {
+            throw new TemplateModelException("Cannot compute the value of " + key + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+}
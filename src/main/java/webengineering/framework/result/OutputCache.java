@@ -0,0 +1,304 @@
+/*
+ * OutputCache.java
+ *
+ * Cache dell'output già generato dai template: pagine intere (vedi
+ * TemplateResult.activateCached), conservate come byte già codificati pronti
+ * da scrivere sul socket insieme al loro ETag, e frammenti con nome (vedi
+ * FragmentCacheDirective), conservati come testo. Ogni voce è indicizzata per
+ * nome (template o frammento) più gli input dichiarati dal chiamante ed è
+ * etichettata con le tabelle da cui derivano i suoi dati: una scrittura su una
+ * di queste tabelle la scarta. Le invalidazioni arrivano dalla QueryCache dei
+ * DataLayer (questa classe è un suo InvalidationListener), quindi dagli stessi
+ * eventi di scrittura che aggiornano la cache delle query. La memoria è
+ * limitata (numero massimo di byte, con eviction LRU) e ogni voce scade
+ * comunque dopo un TTL.
+ *
+ * Cache of the output already generated by the templates: whole pages (see
+ * TemplateResult.activateCached), kept as already encoded bytes ready to be
+ * written to the socket together with their ETag, and named fragments (see
+ * FragmentCacheDirective), kept as text. Each entry is indexed by name
+ * (template or fragment) plus the inputs declared by the caller and is tagged
+ * with the tables its data comes from: a write on one of those tables
+ * discards it. Invalidations come from the QueryCache of the DataLayers (this
+ * class is one of its InvalidationListeners), thus from the same write events
+ * updating the query cache. Memory is bounded (maximum number of bytes, with
+ * LRU eviction) and each entry expires after a TTL anyway.
+ *
+ */
+package webengineering.framework.result;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import webengineering.framework.data.QueryCache;
+
+public class OutputCache implements QueryCache.InvalidationListener {
+
+    private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<>(64, 0.75f, true);
+    private final long maxBytes;
+    private final long ttlNanos;
+    private long bytes;
+    //incrementato a ogni invalidazione: un output generato da dati letti prima di un'invalidazione non va memorizzato
+    //incremented on each invalidation: an output generated from data read before an invalidation must not be stored
+    private long generation;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public OutputCache(long maxBytes, long ttl, TimeUnit unit) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    //chiave di una voce; va creata prima di leggere i dati da cui deriva l'output
+    //key of an entry; it must be created before reading the data the output derives from
+    public Key key(String name, Set<String> tables, Object... inputs) {
+        return key(name, tables, null, inputs);
+    }
+
+    //come sopra, ma con l'istante (generazione) di un'altra chiave: un frammento generato durante una
+    //pagina dipende dai dati letti per la pagina, quindi prima della creazione della chiave della pagina
+    //as above, but with the instant (generation) of another key: a fragment generated during a page
+    //depends on the data read for the page, thus before the creation of the page key
+    Key key(String name, Set<String> tables, Key since, Object... inputs) {
+        Set<String> t = new HashSet<>();
+        for (String table : tables) {
+            t.add(table.toLowerCase(Locale.ROOT));
+        }
+        synchronized (this) {
+            return new Key(name, inputs, Collections.unmodifiableSet(t), since != null ? since.generation : generation);
+        }
+    }
+
+    public synchronized Entry get(Key key) {
+        Entry e = map.get(key);
+        if (e != null && e.expiresAt - System.nanoTime() <= 0) {
+            remove(key);
+            e = null;
+        }
+        if (e != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return e;
+    }
+
+    //memorizza una pagina codificata; restituisce la voce (con il suo ETag) anche se non è stata memorizzata
+    //stores an encoded page; returns the entry (with its ETag) even if it has not been stored
+    public Entry putPage(Key key, byte[] body, String contentType, String encoding) {
+        Entry e = new Entry(body, null, contentType, encoding, etag(body), System.nanoTime() + ttlNanos);
+        store(key, e);
+        return e;
+    }
+
+    public Entry putFragment(Key key, String text) {
+        Entry e = new Entry(null, text, null, null, null, System.nanoTime() + ttlNanos);
+        store(key, e);
+        return e;
+    }
+
+    //chiamato dalla QueryCache a ogni scrittura: scarta le voci che dipendono dalle tabelle scritte
+    //called by the QueryCache on each write: discards the entries depending on the written tables
+    @Override
+    public synchronized void tablesInvalidated(Set<String> tables) {
+        ++generation;
+        if (tables == null) {
+            clear();
+            return;
+        }
+        int before = map.size();
+        map.entrySet().removeIf(me -> {
+            if (!Collections.disjoint(me.getKey().tables, tables)) {
+                bytes -= me.getValue().size;
+                return true;
+            }
+            return false;
+        });
+        invalidations.add(before - map.size());
+    }
+
+    public synchronized void clear() {
+        ++generation;
+        map.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getNotModifiedCount() {
+        return notModified.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    void notModified() {
+        notModified.increment();
+    }
+
+    @Override
+    public String toString() {
+        return "OutputCache{size=" + size()
+                + ", bytes=" + getBytes()
+                + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", notModified=" + getNotModifiedCount()
+                + ", evictions=" + getEvictionCount()
+                + ", invalidations=" + getInvalidationCount() + "}";
+    }
+
+    private synchronized void store(Key key, Entry e) {
+        //un output più grande di un decimo della cache viene restituito ma non memorizzato
+        //an output larger than a tenth of the cache is returned but not stored
+        if (key.generation != generation || e.size > maxBytes / 10) {
+            return;
+        }
+        remove(key);
+        map.put(key, e);
+        bytes += e.size;
+        //eviction LRU fino a rientrare nel limite di memoria
+        //LRU eviction until the memory limit is respected
+        Iterator<Map.Entry<Key, Entry>> i = map.entrySet().iterator();
+        while (bytes > maxBytes && i.hasNext()) {
+            bytes -= i.next().getValue().size;
+            i.remove();
+            evictions.increment();
+        }
+    }
+
+    private void remove(Key key) {
+        Entry old = map.remove(key);
+        if (old != null) {
+            bytes -= old.size;
+        }
+    }
+
+    //ETag forte: hash del contenuto, quindi uguale per output uguali anche dopo un'invalidazione
+    //strong ETag: content hash, thus equal for equal outputs even after an invalidation
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + "\"";
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static final class Key {
+
+        private final String name;
+        private final Object[] inputs;
+        private final Set<String> tables;
+        private final long generation;
+        private final int hash;
+
+        private Key(String name, Object[] inputs, Set<String> tables, long generation) {
+            this.name = name;
+            this.inputs = inputs != null ? inputs.clone() : new Object[0];
+            this.tables = tables;
+            this.generation = generation;
+            this.hash = 31 * name.hashCode() + Arrays.hashCode(this.inputs);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        //generation e tables non fanno parte dell'identità della voce
+        //generation and tables are not part of the entry identity
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return name.equals(other.name) && Arrays.equals(inputs, other.inputs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public static final class Entry {
+
+        private final byte[] body;
+        private final String text;
+        private final String contentType;
+        private final String encoding;
+        private final String etag;
+        private final long expiresAt;
+        private final long size;
+
+        private Entry(byte[] body, String text, String contentType, String encoding, String etag, long expiresAt) {
+            this.body = body;
+            this.text = text;
+            this.contentType = contentType;
+            this.encoding = encoding;
+            this.etag = etag;
+            this.expiresAt = expiresAt;
+            this.size = body != null ? body.length : (long) text.length() * 2;
+        }
+
+        //pagina codificata: non va modificata
+        //encoded page: must not be modified
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+    }
+}
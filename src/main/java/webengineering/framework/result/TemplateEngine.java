@@ -0,0 +1,295 @@
+/*
+ * TemplateEngine.java
+ *
+ * Motore Freemarker condiviso dall'intera applicazione: la Configuration, l'object
+ * wrapper e i data model filler vengono creati una sola volta all'avvio del
+ * contesto (vedi TemplateEngineListener) invece che a ogni TemplateResult.
+ * All'avvio tutti i template della directory dei template vengono caricati e
+ * analizzati, così un errore di sintassi blocca il deploy invece di emergere
+ * alla prima richiesta. I template analizzati restano in una cache MRU limitata;
+ * il parametro view.template.cache sceglie la modalità: "true" (produzione)
+ * non controlla più i file sorgente, altrimenti (sviluppo) a ogni uso viene
+ * controllata la data di modifica e il template viene rianalizzato solo se è
+ * cambiato.
+ * Il formato di output (e quindi l'escaping) è deciso per ogni template in base
+ * all'estensione del file (.html, .xml, .json), perché la Configuration condivisa
+ * non può più essere modificata durante le richieste.
+ *
+ * Freemarker engine shared by the whole application: the Configuration, the
+ * object wrapper and the data model fillers are created only once at context
+ * startup (see TemplateEngineListener) instead of for every TemplateResult.
+ * At startup all the templates in the template directory are loaded and
+ * parsed, so that a syntax error stops the deploy instead of showing up at
+ * the first request. Parsed templates are kept in a bounded MRU cache; the
+ * view.template.cache parameter selects the mode: "true" (production) never
+ * checks the source files again, otherwise (development) the modification
+ * date is checked on each use and the template is parsed again only if it
+ * changed.
+ * The output format (and thus the escaping) is chosen for each template
+ * based on the file extension (.html, .xml, .json), since the shared
+ * Configuration cannot be modified during requests anymore.
+ *
+ */
+package webengineering.framework.result;
+
+import freemarker.cache.ConditionalTemplateConfigurationFactory;
+import freemarker.cache.FileExtensionMatcher;
+import freemarker.cache.FirstMatchTemplateConfigurationFactory;
+import freemarker.cache.MruCacheStorage;
+import freemarker.core.HTMLOutputFormat;
+import freemarker.core.JSONOutputFormat;
+import freemarker.core.OutputFormat;
+import freemarker.core.TemplateConfiguration;
+import freemarker.core.XMLOutputFormat;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateDateModel;
+import freemarker.template.TemplateExceptionHandler;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jakarta.servlet.ServletContext;
+
+public class TemplateEngine {
+
+    private static final String ATTRIBUTE = TemplateEngine.class.getName();
+
+    //template analizzati tenuti in cache con riferimenti forti (almeno tutti quelli trovati all'avvio)
+    //parsed templates kept in cache with strong references (at least all the ones found at startup)
+    private static final int MIN_STRONG_CACHE_SIZE = 64;
+    private static final int SOFT_CACHE_SIZE = 256;
+
+    //memoria massima (KB) della cache dell'output, se non indicata da view.output_cache.max_kb, e durata delle voci
+    //maximum memory (KB) of the output cache, if not given by view.output_cache.max_kb, and entry lifetime
+    private static final long DEFAULT_OUTPUT_CACHE_KB = 16 * 1024;
+    private static final long OUTPUT_CACHE_TTL_MINUTES = 10;
+
+    private final Configuration cfg;
+    private final List<DataModelFiller> fillers;
+    private final Map<String, Object> defaultDataModel;
+    private final OutputCache outputCache;
+    private final boolean production;
+
+    private TemplateEngine(ServletContext context) {
+        production = "true".equals(context.getInitParameter("view.template.cache"));
+        String directory = context.getInitParameter("view.template_directory") != null
+                ? context.getInitParameter("view.template_directory") : "templates";
+        List<String> templates = findTemplates(context, directory);
+
+        cfg = new Configuration(Configuration.VERSION_2_3_33);
+        //impostiamo l'encoding di default per l'input e l'output
+        //set the default input and outpout encoding
+        String encoding = "utf-8";
+        if (context.getInitParameter("view.encoding") != null) {
+            encoding = context.getInitParameter("view.encoding");
+        }
+        cfg.setOutputEncoding(encoding);
+        cfg.setDefaultEncoding(encoding);
+
+        //impostiamo la directory (relativa al contesto) da cui caricare i templates
+        //set the (context relative) directory for template loading
+        //workaround per l'uso della classe jakarta.servlet.ServletContect con Freemarker 2.3.26
+        //workaround to use class jakarta.servlet.ServletContect with Freemarker 2.3.26
+        cfg.setTemplateLoader(new freemarker.ext.jakarta.servlet.WebappTemplateLoader(context, directory));
+
+        //cache MRU limitata; in produzione i file sorgente non vengono più controllati
+        //bounded MRU cache; in production the source files are never checked again
+        cfg.setCacheStorage(new MruCacheStorage(Math.max(MIN_STRONG_CACHE_SIZE, templates.size()), SOFT_CACHE_SIZE));
+        cfg.setTemplateUpdateDelayMilliseconds(production ? Long.MAX_VALUE : 0);
+
+        //formato di output (escaping) scelto in base all'estensione del template
+        //output format (escaping) chosen based on the template extension
+        cfg.setTemplateConfigurations(new FirstMatchTemplateConfigurationFactory(
+                outputFormat("html", HTMLOutputFormat.INSTANCE),
+                outputFormat("xml", XMLOutputFormat.INSTANCE),
+                outputFormat("json", JSONOutputFormat.INSTANCE))
+                .allowNoMatch(true));
+
+        //impostiamo un handler per gli errori nei template - utile per il debug
+        //set an error handler for debug purposes
+        if (context.getInitParameter("view.debug") != null && context.getInitParameter("view.debug").equals("true")) {
+            cfg.setTemplateExceptionHandler(TemplateExceptionHandler.HTML_DEBUG_HANDLER);
+        } else {
+            cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
+        }
+
+        //formato di default per data/ora
+        //date/time default formatting
+        if (context.getInitParameter("view.date_format") != null) {
+            cfg.setDateTimeFormat(context.getInitParameter("view.date_format"));
+        }
+
+        //versione corretta per gestire i tipi java.time, con gli adattatori dei tipi dell'applicazione
+        //patched version to handle java.time types, with the adapters of the application types
+        AdapterObjectWrapper ow = new AdapterObjectWrapper(Configuration.VERSION_2_3_33);
+        ow.setDefaultDateType(TemplateDateModel.DATETIME);
+        ow.setForceLegacyNonListCollections(false);
+        Enumeration<String> parms = context.getInitParameterNames();
+        while (parms.hasMoreElements()) {
+            String name = parms.nextElement();
+            if (name.startsWith("view.model.adapters.")) {
+                try {
+                    Class<?> adapters = Class.forName(context.getInitParameter(name));
+                    if (TemplateModelAdapters.class.isAssignableFrom(adapters)) {
+                        ((TemplateModelAdapters) adapters.getDeclaredConstructor().newInstance()).registerAdapters(ow);
+                    }
+                } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException | SecurityException | IllegalArgumentException | InvocationTargetException ex) {
+                    Logger.getLogger(TemplateEngine.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+        cfg.setObjectWrapper(ow);
+
+        //cache dell'output (pagine e frammenti), con la direttiva cache_fragment disponibile in tutti i template
+        //output cache (pages and fragments), with the cache_fragment directive available in all the templates
+        long outputCacheKb = DEFAULT_OUTPUT_CACHE_KB;
+        if (context.getInitParameter("view.output_cache.max_kb") != null) {
+            outputCacheKb = Long.parseLong(context.getInitParameter("view.output_cache.max_kb"));
+        }
+        outputCache = new OutputCache(outputCacheKb * 1024, OUTPUT_CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+        cfg.setSharedVariable("cache_fragment", new FragmentCacheDirective(outputCache));
+
+        //classi opzionali che permettono di riempire ogni data model con dati generati dinamicamente
+        //optional classes to automatically fill every data model with dynamically generated data
+        List<DataModelFiller> list = new ArrayList<>();
+        parms = context.getInitParameterNames();
+        while (parms.hasMoreElements()) {
+            String name = parms.nextElement();
+            if (name.startsWith("view.data.filler.")) {
+                try {
+                    Class<?> filler = Class.forName(context.getInitParameter(name));
+                    if (DataModelFiller.class.isAssignableFrom(filler)) {
+                        list.add((DataModelFiller) filler.getDeclaredConstructor().newInstance());
+                    }
+                } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException | SecurityException | IllegalArgumentException | InvocationTargetException ex) {
+                    Logger.getLogger(TemplateEngine.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+        fillers = Collections.unmodifiableList(list);
+
+        //parte statica del data model di base, calcolata una volta sola (vedi LayeredDataModel)
+        //static part of the base data model, computed only once (see LayeredDataModel)
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put("outline_tpl", context.getInitParameter("view.outline_template")); //eventuale template di outline
+        //aggiungiamo altri dati di inizializzazione presi dal web.xml
+        //add other data taken from web.xml
+        Map<String, Object> init_tpl_data = new HashMap<>();
+        parms = context.getInitParameterNames();
+        while (parms.hasMoreElements()) {
+            String name = parms.nextElement();
+            if (name.startsWith("view.data.static.")) {
+                init_tpl_data.put(name.substring(17).replace(".", "_"), context.getInitParameter(name));
+            }
+        }
+        defaults.put("defaults", Collections.unmodifiableMap(init_tpl_data));
+        defaultDataModel = Collections.unmodifiableMap(defaults);
+
+        //carichiamo subito tutti i template: un errore di sintassi fa fallire l'avvio
+        //load all the templates now: a syntax error makes the startup fail
+        for (String name : templates) {
+            try {
+                cfg.getTemplate(name);
+            } catch (IOException ex) {
+                throw new IllegalStateException("Template error in " + name + ": " + ex.getMessage(), ex);
+            }
+        }
+        Logger.getLogger(TemplateEngine.class.getName()).log(Level.INFO, "{0} templates loaded ({1} mode)",
+                new Object[]{templates.size(), production ? "production" : "development"});
+    }
+
+    //crea e registra il motore nel contesto (chiamato all'avvio da TemplateEngineListener)
+    //creates and registers the engine in the context (called at startup by TemplateEngineListener)
+    static synchronized TemplateEngine start(ServletContext context) {
+        TemplateEngine engine = new TemplateEngine(context);
+        context.setAttribute(ATTRIBUTE, engine);
+        return engine;
+    }
+
+    static synchronized void stop(ServletContext context) {
+        TemplateEngine engine = (TemplateEngine) context.getAttribute(ATTRIBUTE);
+        if (engine != null) {
+            engine.cfg.clearTemplateCache();
+            engine.outputCache.clear();
+            context.removeAttribute(ATTRIBUTE);
+        }
+    }
+
+    //il motore del contesto; se il listener non è registrato viene creato al primo uso
+    //the engine of the context; if the listener is not registered it is created at first use
+    public static TemplateEngine getInstance(ServletContext context) {
+        TemplateEngine engine = (TemplateEngine) context.getAttribute(ATTRIBUTE);
+        if (engine == null) {
+            synchronized (TemplateEngine.class) {
+                engine = (TemplateEngine) context.getAttribute(ATTRIBUTE);
+                if (engine == null) {
+                    engine = start(context);
+                }
+            }
+        }
+        return engine;
+    }
+
+    //la configurazione condivisa: va solo letta, mai modificata
+    //the shared configuration: it must only be read, never modified
+    public Configuration getConfiguration() {
+        return cfg;
+    }
+
+    public List<DataModelFiller> getFillers() {
+        return fillers;
+    }
+
+    public Map<String, Object> getDefaultDataModel() {
+        return defaultDataModel;
+    }
+
+    //da registrare come InvalidationListener della QueryCache dell'applicazione (vedi OutputCache)
+    //to be registered as InvalidationListener of the application QueryCache (see OutputCache)
+    public OutputCache getOutputCache() {
+        return outputCache;
+    }
+
+    public Template getTemplate(String name) throws IOException {
+        return cfg.getTemplate(name);
+    }
+
+    private static ConditionalTemplateConfigurationFactory outputFormat(String extension, OutputFormat format) {
+        TemplateConfiguration tc = new TemplateConfiguration();
+        tc.setOutputFormat(format);
+        return new ConditionalTemplateConfigurationFactory(new FileExtensionMatcher(extension), tc);
+    }
+
+    //nomi di tutti i template (file *.ftl*) sotto la directory, anche nelle sottodirectory
+    //names of all the templates (*.ftl* files) under the directory, including subdirectories
+    private static List<String> findTemplates(ServletContext context, String directory) {
+        String root = "/" + directory.replaceAll("^/+|/+$", "") + "/";
+        List<String> templates = new ArrayList<>();
+        collectTemplates(context, root, root, templates);
+        Collections.sort(templates);
+        return templates;
+    }
+
+    private static void collectTemplates(ServletContext context, String root, String path, List<String> templates) {
+        Set<String> paths = context.getResourcePaths(path);
+        if (paths == null) {
+            return;
+        }
+        for (String p : paths) {
+            if (p.endsWith("/")) {
+                collectTemplates(context, root, p, templates);
+            } else if (p.contains(".ftl")) {
+                templates.add(p.substring(root.length()));
+            }
+        }
+    }
+}
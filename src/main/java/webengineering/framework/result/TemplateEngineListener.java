@@ -0,0 +1,26 @@
+package webengineering.framework.result;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+
+/**
+ * Crea il TemplateEngine condiviso all'avvio del contesto (se un template non
+ * è valido il deploy fallisce) e lo rilascia allo spegnimento. Va registrato
+ * nel web.xml.
+ *
+ * Creates the shared TemplateEngine at context startup (if a template is not
+ * valid the deploy fails) and releases it at shutdown. Must be registered in
+ * web.xml.
+ */
+public class TemplateEngineListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        TemplateEngine.start(sce.getServletContext());
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        TemplateEngine.stop(sce.getServletContext());
+    }
+}
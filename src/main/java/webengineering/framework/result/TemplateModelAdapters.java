@@ -0,0 +1,17 @@
+package webengineering.framework.result;
+
+/**
+ * Registra gli adattatori (BeanAdapter) dei tipi dell'applicazione nell'object
+ * wrapper dei template. Le classi che implementano questa interfaccia vengono
+ * indicate nel web.xml con i parametri view.model.adapters.* e chiamate una
+ * volta sola all'avvio da TemplateEngine.
+ *
+ * Registers the adapters (BeanAdapter) of the application types in the
+ * template object wrapper. The classes implementing this interface are
+ * listed in web.xml with the view.model.adapters.* parameters and called
+ * only once at startup by TemplateEngine.
+ */
+public interface TemplateModelAdapters {
+
+    void registerAdapters(AdapterObjectWrapper wrapper);
+}
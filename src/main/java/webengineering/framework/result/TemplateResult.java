@@ -12,35 +12,39 @@
  * automatic page outline, and automatically configures using the context
  * init parameters (see web.xml).
  * 
+ * La configurazione di Freemarker e i template analizzati sono condivisi da
+ * tutta l'applicazione (vedi TemplateEngine): creare un TemplateResult costa
+ * solo una lookup nel contesto.
+ * 
+ * The Freemarker configuration and the parsed templates are shared by the
+ * whole application (see TemplateEngine): creating a TemplateResult only
+ * costs a context lookup.
+ * 
+ * Le pagine possono essere messe in cache (cacheKey, activateCached) o
+ * inviate in streaming (activateStreamed, con i dati passati come
+ * DeferredValue).
+ * 
+ * Pages can be cached (cacheKey, activateCached) or streamed
+ * (activateStreamed, with the data passed as DeferredValues).
+ * 
  */
 package webengineering.framework.result;
 
-import freemarker.core.HTMLOutputFormat;
-import freemarker.core.JSONOutputFormat;
-import freemarker.core.XMLOutputFormat;
+import freemarker.core.Environment;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
-import freemarker.template.TemplateDateModel;
 import freemarker.template.TemplateException;
-import freemarker.template.TemplateExceptionHandler;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.lang.reflect.InvocationTargetException;
-import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.Set;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import no.api.freemarker.java8.Java8ObjectWrapper;
 
 /**
  *
@@ -50,122 +54,21 @@ public class TemplateResult {
 
     protected ServletContext context;
     protected Configuration cfg;
-    protected List<DataModelFiller> fillers;
+    protected TemplateEngine engine;
 
     public TemplateResult(ServletContext context) {
         this.context = context;
-        init();
+        engine = TemplateEngine.getInstance(context);
+        cfg = engine.getConfiguration();
     }
 
-    private void init() {
-        cfg = new Configuration(Configuration.VERSION_2_3_33);
-        //impostiamo l'encoding di default per l'input e l'output
-        //set the default input and outpout encoding
-        String encoding = "utf-8";
-        if (context.getInitParameter("view.encoding") != null) {
-            encoding = context.getInitParameter("view.encoding");
-        }
-        cfg.setOutputEncoding(encoding);
-        cfg.setDefaultEncoding(encoding);
-
-        //impostiamo la directory (relativa al contesto) da cui caricare i templates
-        //set the (context relative) directory for template loading
-        //workaround per l'uso della classe jakarta.servlet.ServletContect con Freemarker 2.3.26
-        //workaround to use class jakarta.servlet.ServletContect with Freemarker 2.3.26
-        if (context.getInitParameter("view.template_directory") != null) {
-            cfg.setTemplateLoader(new freemarker.ext.jakarta.servlet.WebappTemplateLoader(context, context.getInitParameter("view.template_directory")));
-        } else {
-            cfg.setTemplateLoader(new freemarker.ext.jakarta.servlet.WebappTemplateLoader(context, "templates"));
-        }
-
-        // DISABILITA LA CACHE PER SVILUPPO
-        cfg.setCacheStorage(new freemarker.cache.NullCacheStorage());
-        cfg.setTemplateUpdateDelayMilliseconds(0);
-
-        //impostiamo un handler per gli errori nei template - utile per il debug
-        //set an error handler for debug purposes       
-        if (context.getInitParameter("view.debug") != null && context.getInitParameter("view.debug").equals("true")) {
-            cfg.setTemplateExceptionHandler(TemplateExceptionHandler.HTML_DEBUG_HANDLER);
-        } else {
-            cfg.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
-        }
-
-        //formato di default per data/ora
-        //date/time default formatting
-        if (context.getInitParameter("view.date_format") != null) {
-            cfg.setDateTimeFormat(context.getInitParameter("view.date_format"));
-        }
-
-        //versione corretta per gestire i tipi java.time 
-        //patched version to handle java.time types
-        Java8ObjectWrapper ow = new Java8ObjectWrapper(Configuration.VERSION_2_3_33);
-        ow.setDefaultDateType(TemplateDateModel.DATETIME);
-        ow.setForceLegacyNonListCollections(false);
-        cfg.setObjectWrapper(ow);
-
-        //classi opzionali che permettono di riempire ogni data model con dati generati dinamicamente
-        //optional classes to automatically fill every data model with dynamically generated data
-        fillers = new ArrayList<>();
-        Enumeration parms = context.getInitParameterNames();
-        while (parms.hasMoreElements()) {
-            String name = (String) parms.nextElement();
-            if (name.startsWith("view.data.filler.")) {
-                try {
-                    Class filler = Class.forName(context.getInitParameter(name));
-                    if (DataModelFiller.class.isAssignableFrom(filler)) {
-                        fillers.add((DataModelFiller) filler.getDeclaredConstructor().newInstance());
-                    }
-                } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException | SecurityException | IllegalArgumentException | InvocationTargetException ex) {
-                    Logger.getLogger(TemplateResult.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            }
-        }
-    }
-
-    //questo metodo restituisce un data model (hash) di base,
-    //(qui inizializzato anche con informazioni di base utili alla gestione dell'outline)
-    //this method returns a base data model (hash), initialized with
-    //some useful information
-    protected Map getDefaultDataModel(HttpServletRequest request) {
-        //inizializziamo il contenitore per i dati di deafult        
-        //initialize the container for default data
-        Map default_data_model = new HashMap();
-        //iniettiamo alcuni dati di default nel data model
-        //inject some default data in the data model
-        default_data_model.put("compiled_on", LocalDateTime.now()); //data di compilazione del template
-        default_data_model.put("outline_tpl", context.getInitParameter("view.outline_template")); //eventuale template di outline
-
-        //aggiungiamo altri dati di inizializzazione presi dal web.xml
-        //add other data taken from web.xml
-        Map init_tpl_data = new HashMap();
-        default_data_model.put("defaults", init_tpl_data);
-        Enumeration parms = context.getInitParameterNames();
-        while (parms.hasMoreElements()) {
-            String name = (String) parms.nextElement();
-            if (name.startsWith("view.data.static.")) {
-                init_tpl_data.put(name.substring(17).replace(".", "_"), context.getInitParameter(name));
-            }
-        }
-
-        //se sono state specificate delle classi filler, facciamo loro riempire il default data model
-        //if filler classes have been specified, let them fill the default data model
-        for (DataModelFiller f : fillers) {
-            f.fillDataModel(default_data_model, request, context);
-        }
-
-        return default_data_model;
-    }
-
-    //questo metodo restituisce un data model estratto dagli attributi della request
-    //this method returns the data model extracted from the request attributes
-    protected Map getRequestDataModel(HttpServletRequest request) {
-        Map datamodel = new HashMap();
-        Enumeration attrs = request.getAttributeNames();
-        while (attrs.hasMoreElements()) {
-            String attrname = (String) attrs.nextElement();
-            datamodel.put(attrname, request.getAttribute(attrname));
-        }
-        return datamodel;
+    //questo metodo restituisce il data model da passare al template: i dati dell'utente (la mappa
+    //esplicita o, se è null, gli attributi della request) sovrapposti ai dati di base (vedi LayeredDataModel),
+    //senza copiarli
+    //this method returns the data model passed to the template: the user data (the explicit map or,
+    //if null, the request attributes) layered over the base data (see LayeredDataModel), without copying them
+    protected LayeredDataModel getDataModel(Map datamodel, HttpServletRequest request) {
+        return new LayeredDataModel(engine, context, datamodel, request);
     }
 
     //questo metodo principale si occupa di chiamare Freemarker e compilare il template
@@ -174,38 +77,41 @@ public class TemplateResult {
     //this main method calls Freemarker and compiles the template
     //if an outline template has been specified, the requested template is
     //embedded in the outline
-    protected void process(String tplname, Map datamodel, HttpServletRequest request, Writer out) throws TemplateManagerException {
+    protected void process(String tplname, LayeredDataModel datamodel, Writer out) throws TemplateManagerException {
+        process(tplname, datamodel, out, null);
+    }
+
+    //come sopra; pageKey è l'eventuale chiave della OutputCache della pagina, ereditata dai frammenti in cache
+    //as above; pageKey is the (optional) OutputCache key of the page, inherited by the cached fragments
+    protected void process(String tplname, LayeredDataModel datamodel, Writer out, OutputCache.Key pageKey) throws TemplateManagerException {
         Template t;
-        //assicuriamoci di avere sempre un data model da passare al template, che contenga anche tutti i default
-        //ensure we have a data model, initialized with some default data
-        Map<String, Object> localdatamodel = getDefaultDataModel(request);
-        //nota: in questo modo il data model utente può eventualmente sovrascrivere i dati precaricati da getDefaultDataModel
+        //nota: il data model utente può eventualmente sovrascrivere i dati di base
         //ad esempio per disattivare l'outline template basta porre a null la rispettiva chiave
-        //note: in this way, the user data model can possibly overwrite the defaults generated by getDefaultDataModel
+        //note: the user data model can possibly overwrite the base data
         //for example, to disable the outline generation we only need to set null the outline_tpl key
-        if (datamodel != null) {
-            localdatamodel.putAll(datamodel);
-        }
-
-        String outline_name = (String) localdatamodel.get("outline_tpl");
+        String outline_name = (String) datamodel.getValue("outline_tpl");
         try {
             if (outline_name == null || outline_name.isEmpty()) {
                 //se non c'è un outline, carichiamo semplicemente il template specificato
                 //if an outline has not been set, load the specified template
                 t = cfg.getTemplate(tplname);
             } else {
-                //un template di outline è stato specificato: il template da caricare � quindi sempre l'outline...
+                //un template di outline è stato specificato: il template da caricare è quindi sempre l'outline...
                 //if an outline template has been specified, load the outline...
                 t = cfg.getTemplate(outline_name);
                 //...e il template specifico per questa pagina viene indicato all'outline tramite una variabile content_tpl
                 //...and pass the requested template name to the outline using the content_tpl variable
-                localdatamodel.put("content_tpl", tplname);
+                datamodel.put("content_tpl", tplname);
                 //si suppone che l'outline includa questo secondo template
                 //we suppose that the outline template includes this second template somewhere
             }
             //associamo i dati al template e lo mandiamo in output
             //add the data to the template and output the result
-            t.process(localdatamodel, out);
+            Environment env = t.createProcessingEnvironment(datamodel, out);
+            if (pageKey != null) {
+                env.setCustomAttribute(FragmentCacheDirective.PAGE_KEY, pageKey);
+            }
+            env.process();
         } catch (IOException | TemplateException e) {
             throw new TemplateManagerException("Template error: " + e.getMessage(), e);
         }
@@ -214,9 +120,28 @@ public class TemplateResult {
     //questa versione di activate accetta un modello dati esplicito
     //this activate method gets an explicit data model
     public void activate(String tplname, Map datamodel, HttpServletResponse response) throws TemplateManagerException {
-        setupServletResponse(datamodel, response);
+        LayeredDataModel localdatamodel = getDataModel(datamodel, null);
+        setupServletResponse(localdatamodel, response);
         try {
-            process(tplname, datamodel, null, response.getWriter());
+            process(tplname, localdatamodel, response.getWriter());
+        } catch (IOException ex) {
+            throw new TemplateManagerException("Template error: " + ex.getMessage(), ex);
+        }
+    }
+
+    //questa versione di activate invia la pagina man mano che viene generata: tutto ciò che precede il primo
+    //DeferredValue usato dal template (head, header) parte subito, prima che il controller esegua le sue query.
+    //Dopo il primo invio la response è committed: un errore successivo non può più cambiare lo stato HTTP
+    //this activate method sends the page while it is generated: everything preceding the first DeferredValue
+    //used by the template (head, header) is sent immediately, before the controller executes its queries.
+    //After the first send the response is committed: a later error can no longer change the HTTP status
+    public void activateStreamed(String tplname, Map datamodel, HttpServletResponse response) throws TemplateManagerException {
+        LayeredDataModel localdatamodel = getDataModel(datamodel, null);
+        setupServletResponse(localdatamodel, response);
+        try {
+            Writer out = response.getWriter();
+            localdatamodel.setFlushBeforeDeferred(out);
+            process(tplname, localdatamodel, out);
         } catch (IOException ex) {
             throw new TemplateManagerException("Template error: " + ex.getMessage(), ex);
         }
@@ -225,10 +150,10 @@ public class TemplateResult {
     //questa versione di activate estrae un modello dati dagli attributi della request
     //this acivate method extracts the data model from the request attributes
     public void activate(String tplname, HttpServletRequest request, HttpServletResponse response) throws TemplateManagerException {
-        Map datamodel = getRequestDataModel(request);
+        LayeredDataModel datamodel = getDataModel(null, request);
         setupServletResponse(datamodel, response);
         try {
-            process(tplname, datamodel, request, response.getWriter());
+            process(tplname, datamodel, response.getWriter());
         } catch (IOException ex) {
             throw new TemplateManagerException("Template error: " + ex.getMessage(), ex);
         }
@@ -236,39 +161,107 @@ public class TemplateResult {
 
     //metodo interno per il setup della response
     //internal method for response setup
-    private void setupServletResponse(Map datamodel, HttpServletResponse response) {
+    private void setupServletResponse(LayeredDataModel datamodel, HttpServletResponse response) {
         //impostiamo il content type, se specificato dall'utente, o usiamo il default
         //set the output content type, if user-specified, or use the default
-        String contentType = (String) datamodel.get("contentType");
-        if (contentType == null) {
-            contentType = "text/html";
-        }
-        response.setContentType(contentType);
+        response.setContentType(getContentType(datamodel));
 
         //impostiamo l'encoding, se specificato dall'utente, o usiamo il default
         //set the output encoding, if user-specified, or use the default
-        String encoding = (String) datamodel.get("encoding");
-        if (encoding == null) {
-            encoding = cfg.getOutputEncoding();
+        response.setCharacterEncoding(getEncoding(datamodel));
+
+        //il tipo di output (e quindi l'escaping) non si imposta qui: la configurazione è condivisa,
+        //lo sceglie TemplateEngine in base all'estensione del template (.html, .xml, .json)
+        //the output format (and thus the escaping) is not set here: the configuration is shared,
+        //TemplateEngine chooses it based on the template extension (.html, .xml, .json)
+    }
+
+    private String getContentType(LayeredDataModel datamodel) {
+        String contentType = (String) datamodel.getValue("contentType");
+        return contentType != null ? contentType : "text/html";
+    }
+
+    private String getEncoding(LayeredDataModel datamodel) {
+        String encoding = (String) datamodel.getValue("encoding");
+        return encoding != null ? encoding : cfg.getOutputEncoding();
+    }
+
+    //chiave della OutputCache per una pagina generata con tplname: tables sono le tabelle da cui derivano
+    //i dati della pagina, inputs tutti gli altri valori da cui dipende l'output (utente, parametri, ...).
+    //Va creata prima di leggere i dati della pagina
+    //OutputCache key for a page generated with tplname: tables are the tables the page data comes
+    //from, inputs all the other values the output depends on (user, parameters, ...).
+    //It must be created before reading the page data
+    public OutputCache.Key cacheKey(String tplname, Set<String> tables, Object... inputs) {
+        return engine.getOutputCache().key(tplname, tables, inputs);
+    }
+
+    //se la pagina con questa chiave è in cache la invia (o risponde 304 se il client ne ha già la stessa
+    //versione) e restituisce true; altrimenti restituisce false e il chiamante prepara i dati e chiama activate
+    //if the page with this key is cached, sends it (or answers 304 if the client already has the same
+    //version) and returns true; otherwise returns false and the caller prepares the data and calls activate
+    public boolean activateCached(OutputCache.Key key, HttpServletRequest request, HttpServletResponse response) throws TemplateManagerException {
+        OutputCache.Entry e = engine.getOutputCache().get(key);
+        if (e == null) {
+            return false;
         }
-        response.setCharacterEncoding(encoding);
+        send(e, request, response);
+        return true;
+    }
 
-        //impostiamo il tipo di output: in questo modo freemarker abiliterà il necessario escaping
-        //set the output format, so that freemarker will enable the correspondoing escaping
-        switch (contentType) {
-            case "text/html":
-                cfg.setOutputFormat(HTMLOutputFormat.INSTANCE);
-                break;
-            case "text/xml":
-            case "application/xml":
-                cfg.setOutputFormat(XMLOutputFormat.INSTANCE);
-                break;
-            case "application/json":
-                cfg.setOutputFormat(JSONOutputFormat.INSTANCE);
-                break;
-            default:
-                break;
+    //questa versione di activate genera la pagina in memoria, la memorizza nella OutputCache con la chiave
+    //data (vedi cacheKey) e la invia con il suo ETag
+    //this activate method generates the page in memory, stores it in the OutputCache with the given key
+    //(see cacheKey) and sends it with its ETag
+    public void activate(String tplname, Map datamodel, OutputCache.Key key, HttpServletRequest request, HttpServletResponse response) throws TemplateManagerException {
+        LayeredDataModel localdatamodel = getDataModel(datamodel, null);
+        String contentType = getContentType(localdatamodel);
+        String encoding = getEncoding(localdatamodel);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 * 1024);
+        try {
+            Writer out = new OutputStreamWriter(buffer, encoding);
+            process(tplname, localdatamodel, out, key);
+            out.flush();
+        } catch (IOException ex) {
+            throw new TemplateManagerException("Template error: " + ex.getMessage(), ex);
+        }
+        send(engine.getOutputCache().putPage(key, buffer.toByteArray(), contentType, encoding), request, response);
+    }
+
+    //invia una pagina già codificata; il client deve comunque rivalidarla (no-cache) e riceve 304 se ha già quell'ETag
+    //sends an already encoded page; the client must always revalidate it (no-cache) and gets 304 if it already has that ETag
+    private void send(OutputCache.Entry e, HttpServletRequest request, HttpServletResponse response) throws TemplateManagerException {
+        response.setHeader("ETag", e.getETag());
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (matches(request.getHeader("If-None-Match"), e.getETag())) {
+            engine.getOutputCache().notModified();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(e.getContentType());
+        response.setCharacterEncoding(e.getEncoding());
+        response.setContentLength(e.getBody().length);
+        try {
+            response.getOutputStream().write(e.getBody());
+        } catch (IOException ex) {
+            throw new TemplateManagerException("Template error: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
         }
+        return false;
     }
 
     //questa versione di activate può essere usata per generare output non diretto verso il browser, ad esempio
@@ -283,7 +276,7 @@ public class TemplateResult {
         try {
             //notare la gestione dell'encoding, che viene invece eseguita implicitamente tramite il setContentType nel contesto servlet
             //note how we set the output encoding, which is usually handled via setContentType when the output is sent to a browser
-            process(tplname, datamodel, null, new OutputStreamWriter(out, encoding));
+            process(tplname, getDataModel(datamodel, null), new OutputStreamWriter(out, encoding));
         } catch (UnsupportedEncodingException ex) {
             throw new TemplateManagerException("Template error: " + ex.getMessage(), ex);
         }
@@ -0,0 +1,41 @@
+package webengineering.nuovissimosoccorsoweb;
+
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+import webengineering.framework.data.DataException;
+import webengineering.framework.data.DataLayerMonitor;
+import webengineering.nuovissimosoccorsoweb.service.AvailabilityIndex;
+
+/**
+ * Avvio dell'applicazione: costruisce l'indice di disponibilità (vedi
+ * AvailabilityIndex) prima delle richieste, così nessuna richiesta paga la
+ * sua costruzione. Se il database non è raggiungibile il deploy prosegue e
+ * l'indice viene costruito al primo utilizzo. Allo spegnimento ferma il
+ * DataLayerMonitor (thread di controllo e MBean), che altrimenti
+ * tratterrebbe il classloader dopo il redeploy. Va registrato nel web.xml.
+ */
+public class SoccorsoContextListener implements ServletContextListener {
+
+    private static final Logger logger = Logger.getLogger(SoccorsoContextListener.class.getName());
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        String dsname = sce.getServletContext().getInitParameter("data.source");
+        try {
+            DataSource ds = (DataSource) new InitialContext().lookup("java:comp/env/" + dsname);
+            AvailabilityIndex.getInstance().rebuild(ds);
+        } catch (NamingException | DataException ex) {
+            logger.log(Level.WARNING, "Indice di disponibilità non costruito all'avvio: verrà costruito al primo utilizzo", ex);
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        DataLayerMonitor.shutdown();
+    }
+}
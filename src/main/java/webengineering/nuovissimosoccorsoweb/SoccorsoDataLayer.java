@@ -5,33 +5,101 @@ import webengineering.nuovissimosoccorsoweb.dao.impl.*;
 import webengineering.nuovissimosoccorsoweb.dao.*;
 import webengineering.nuovissimosoccorsoweb.model.*;
 
+import webengineering.framework.data.BatchLoader;
 import webengineering.framework.data.DataException;
 import webengineering.framework.data.DataLayer;
+import webengineering.framework.data.ParallelReads;
+import webengineering.framework.data.QueryCache;
+import webengineering.framework.data.ReplicaSet;
+import webengineering.framework.data.SharedDataCache;
 
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
 
 public class SoccorsoDataLayer extends DataLayer {
 
+    // Cache di secondo livello condivisa da tutte le richieste (operatori, mezzi, materiali, ...)
+    private static final SharedDataCache SHARED_CACHE = new SharedDataCache(10000, 5, TimeUnit.MINUTES);
+
+    // Cache dei risultati delle query ripetute spesso su tabelle che cambiano di rado (risorse disponibili,
+    // richieste per stato, patenti, abilità): invalidata dalle scritture sulle tabelle lette
+    private static final QueryCache QUERY_CACHE = new QueryCache(500, 5000, 10, TimeUnit.MINUTES);
+
+    // Repliche in sola lettura, configurate nel web.xml (env-entry data.source.replicas) e cercate al primo uso;
+    // per 5 secondi dopo una scrittura chi ha scritto continua a leggere dal primario
+    private static volatile ReplicaSet replicas;
+    private static volatile boolean replicasLookedUp;
+
+    // Letture parallele delle pagine di dettaglio: al massimo 3 connessioni in più per richiesta
+    private static final int MAX_PARALLEL_READS = 3;
+
     public SoccorsoDataLayer(DataSource datasource) throws SQLException {
-        super(datasource);
+        this(datasource, lookupReplicas());
+    }
+
+    // Primario e repliche espliciti (ad esempio due database locali o embedded nei test); replicas può essere null
+    public SoccorsoDataLayer(DataSource datasource, ReplicaSet replicas) throws SQLException {
+        super(datasource, SHARED_CACHE, QUERY_CACHE);
+        setReplicaSet(replicas);
+    }
+
+    private static ReplicaSet lookupReplicas() {
+        if (!replicasLookedUp) {
+            synchronized (SoccorsoDataLayer.class) {
+                if (!replicasLookedUp) {
+                    replicas = ReplicaSet.lookup("data.source.replicas", 5, TimeUnit.SECONDS);
+                    replicasLookedUp = true;
+                }
+            }
+        }
+        return replicas;
+    }
+
+    // Per le letture parallele (vedi ParallelReads): repliche e chiave di consistenza vengono copiate da fork()
+    @Override
+    protected DataLayer createFork() throws SQLException {
+        return new SoccorsoDataLayer(getDatasource(), null);
+    }
+
+    // Esecutore di letture indipendenti in parallelo per questa richiesta (vedi ParallelReads)
+    public ParallelReads<SoccorsoDataLayer> parallelReads() {
+        return new ParallelReads<>(this, MAX_PARALLEL_READS);
+    }
+
+    public static SharedDataCache getSharedCache() {
+        return SHARED_CACHE;
+    }
+
+    public static QueryCache getSharedQueryCache() {
+        return QUERY_CACHE;
     }
 
     @Override
     public void init() throws DataException {
-        registerDAO(Abilita.class, new AbilitaDAO_MySQL(this));
-        registerDAO(AggiornaMateriale.class, new AggiornaMaterialeDAO_MySQL(this));
-        registerDAO(AggiornaMezzo.class, new AggiornaMezzoDAO_MySQL(this));
-        registerDAO(Amministratore.class, new AmministratoreDAO_MySQL(this));
-        registerDAO(InfoMissione.class, new InfoMissioneDAO_MySQL(this));
-        registerDAO(Materiale.class, new MaterialeDAO_MySQL(this));
-        registerDAO(Mezzo.class, new MezzoDAO_MySQL(this));
-        registerDAO(Missione.class, new MissioneDAO_MySQL(this));
-        registerDAO(Operatore.class, new OperatoreDAO_MySQL(this));
-        registerDAO(OperatoreHaAbilita.class, new OperatoreHaAbilitaDAO_MySQL(this));
-        registerDAO(OperatoreHaPatente.class, new OperatoreHaPatenteDAO_MySQL(this));
-        registerDAO(Patenti.class, new PatenteDAO_MySQL(this));
-        registerDAO(RichiestaSoccorso.class, new RichiestaSoccorsoDAO_MySQL(this));
+        // I DAO vengono creati solo al primo getXXXDAO() della richiesta
+        registerDAO(Abilita.class, () -> new AbilitaDAO_MySQL(this));
+        registerDAO(AggiornaMateriale.class, () -> new AggiornaMaterialeDAO_MySQL(this));
+        registerDAO(AggiornaMezzo.class, () -> new AggiornaMezzoDAO_MySQL(this));
+        registerDAO(Amministratore.class, () -> new AmministratoreDAO_MySQL(this));
+        registerDAO(InfoMissione.class, () -> new InfoMissioneDAO_MySQL(this));
+        registerDAO(Materiale.class, () -> new MaterialeDAO_MySQL(this));
+        registerDAO(Mezzo.class, () -> new MezzoDAO_MySQL(this));
+        registerDAO(Missione.class, () -> new MissioneDAO_MySQL(this));
+        registerDAO(Operatore.class, () -> new OperatoreDAO_MySQL(this));
+        registerDAO(OperatoreHaAbilita.class, () -> new OperatoreHaAbilitaDAO_MySQL(this));
+        registerDAO(OperatoreHaPatente.class, () -> new OperatoreHaPatenteDAO_MySQL(this));
+        registerDAO(Patenti.class, () -> new PatenteDAO_MySQL(this));
+        registerDAO(RichiestaSoccorso.class, () -> new RichiestaSoccorsoDAO_MySQL(this));
+
+        // Writer della UnitOfWork, in ordine di dipendenza: richieste, missioni, poi le tabelle che le referenziano
+        registerWriter(RichiestaSoccorso.class, () -> (RichiestaSoccorsoDAO_MySQL) getDAO(RichiestaSoccorso.class));
+        registerWriter(Missione.class, () -> (MissioneDAO_MySQL) getDAO(Missione.class));
+        registerWriter(PartecipazioneSquadra.class, () -> ((MissioneDAO_MySQL) getDAO(Missione.class)).getSquadraWriter());
+        registerWriter(MissioneUtilizzaMezzo.class, () -> ((MissioneDAO_MySQL) getDAO(Missione.class)).getMezziWriter());
+        registerWriter(MissioneUtilizzaMateriale.class, () -> ((MissioneDAO_MySQL) getDAO(Missione.class)).getMaterialiWriter());
+        registerWriter(InfoMissione.class, () -> (InfoMissioneDAO_MySQL) getDAO(InfoMissione.class));
     }
     
     public AbilitaDAO getAbilitaDAO() {
@@ -39,11 +107,11 @@ public class SoccorsoDataLayer extends DataLayer {
     }
     
     public AggiornaMaterialeDAO getAggiornaMaterialeDAO(){
-        return (AggiornaMaterialeDAO) getDAO(Materiale.class);
+        return (AggiornaMaterialeDAO) getDAO(AggiornaMateriale.class);
     }
     
     public AggiornaMezzoDAO getAggiornaMezzoDAO(){
-        return (AggiornaMezzoDAO) getDAO(Mezzo.class);
+        return (AggiornaMezzoDAO) getDAO(AggiornaMezzo.class);
     }
     
     public AmministratoreDAO getAmministratoreDAO() {
@@ -86,4 +154,30 @@ public class SoccorsoDataLayer extends DataLayer {
         return (RichiestaSoccorsoDAO) getDAO(RichiestaSoccorso.class);
     }
 
+    // ----- Batch loader: le chiavi accodate nella richiesta vengono caricate con una sola query IN -----
+
+    public BatchLoader<Integer, RichiestaSoccorso> getRichiestaLoader() {
+        return getBatchLoader(RichiestaSoccorso.class, codici -> getRichiestaSoccorsoDAO().getRichiesteByCodici(codici));
+    }
+
+    public BatchLoader<Integer, InfoMissione> getInfoMissioneLoader() {
+        return getBatchLoader(InfoMissione.class, codici -> getInfoMissioneDAO().getInfoByCodiciMissione(codici));
+    }
+
+    public BatchLoader<Integer, List<PartecipazioneSquadra>> getSquadraLoader() {
+        return getBatchLoader(PartecipazioneSquadra.class, codici -> getMissioneDAO().getSquadreByMissioni(codici));
+    }
+
+    public BatchLoader<Integer, Operatore> getOperatoreLoader() {
+        return getBatchLoader(Operatore.class, ids -> getOperatoreDAO().getOperatoriByIds(ids));
+    }
+
+    public BatchLoader<Integer, List<TipoPatente>> getPatentiLoader() {
+        return getBatchLoader(OperatoreHaPatente.class, ids -> getOperatoreHaPatenteDAO().getPatentiByOperatori(ids));
+    }
+
+    public BatchLoader<Integer, List<Abilita>> getAbilitaLoader() {
+        return getBatchLoader(OperatoreHaAbilita.class, ids -> getOperatoreHaAbilitaDAO().getAbilitaByOperatori(ids));
+    }
+
 }
@@ -3,15 +3,13 @@ package webengineering.nuovissimosoccorsoweb.controller;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.*;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import webengineering.framework.result.TemplateManagerException;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
-import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
-import webengineering.nuovissimosoccorsoweb.model.InfoMissione;
+import webengineering.nuovissimosoccorsoweb.service.DashboardStatsService;
 
 public class AdminDashboardController extends SoccorsoBaseController {
     
@@ -78,39 +76,26 @@ public class AdminDashboardController extends SoccorsoBaseController {
         return "admin".equals(userRole);
     }
     
-    // Carica SOLO i dati necessari per le statistiche
+    // Carica SOLO i dati necessari per le statistiche: contatori in memoria (vedi DashboardStatsService),
+    // riallineati periodicamente con una query GROUP BY stato e un COUNT su info_missione
     private DashboardData loadDashboardData(SoccorsoDataLayer dataLayer) throws DataException {
+        DashboardStatsService.DashboardStats stats = DashboardStatsService.getInstance().getStats(dataLayer);
         DashboardData data = new DashboardData();
         
-        // Carica richieste per stato
-        data.richiesteConvalidate = dataLayer.getRichiestaSoccorsoDAO().getRichiesteByStato("Convalidata");
-        data.richiesteAttive = dataLayer.getRichiestaSoccorsoDAO().getRichiesteByStato("Attiva");
-        data.richiesteAnnullate = dataLayer.getRichiestaSoccorsoDAO().getRichiesteByStato("Annullata");
+        // Richieste per stato
+        data.countConvalidate = stats.getRichieste("Convalidata");
+        data.countAttive = stats.getRichieste("Attiva");
+        data.countAnnullate = stats.getRichieste("Annullata");
         
-        // NUOVO: Conta le missioni concluse (info_missione)
-        data.countConclusse = countInfoMissioni(dataLayer);
+        // Missioni concluse (info_missione)
+        data.countConclusse = stats.getMissioniConcluse();
         
-        // Calcola statistiche totali
-        data.totaleRichieste = dataLayer.getRichiestaSoccorsoDAO().getAllRichieste().size();
+        // Statistiche totali
+        data.totaleRichieste = stats.getTotaleRichieste();
         
         return data;
     }
     
-    // Metodo per contare le info_missione (missioni concluse)
-    private int countInfoMissioni(SoccorsoDataLayer dataLayer) throws DataException {
-        try {
-            // Per ora uso una query per ottenere tutte le info_missione e conto
-            // Se hai un metodo specifico per il count, usalo
-            List<InfoMissione> allInfoMissioni = dataLayer.getInfoMissioneDAO().getAllInfoMissioni();
-            return allInfoMissioni.size();
-        } catch (Exception ex) {
-            logger.log(Level.WARNING, "Errore nel conteggio info_missione, usando count da richieste chiuse", ex);
-            // Fallback: conta le richieste con stato "Chiusa"
-            List<RichiestaSoccorso> richiesteChiuse = dataLayer.getRichiestaSoccorsoDAO().getRichiesteByStato("Chiusa");
-            return richiesteChiuse.size();
-        }
-    }
-    
     // Mostra la dashboard SENZA link cliccabili
     private void showDashboard(HttpServletRequest request, HttpServletResponse response, 
                               DashboardData dashboardData) throws ServletException {
@@ -138,10 +123,10 @@ public class AdminDashboardController extends SoccorsoBaseController {
             }
             
             // CONTATORI AGGIORNATI
-            dataModel.put("count_convalidate", dashboardData.richiesteConvalidate.size());
-            dataModel.put("count_attive", dashboardData.richiesteAttive.size());
+            dataModel.put("count_convalidate", dashboardData.countConvalidate);
+            dataModel.put("count_attive", dashboardData.countAttive);
             dataModel.put("count_concluse", dashboardData.countConclusse); // NUOVO: da info_missione
-            dataModel.put("count_annullate", dashboardData.richiesteAnnullate.size());
+            dataModel.put("count_annullate", dashboardData.countAnnullate);
             dataModel.put("totale_richieste", dashboardData.totaleRichieste);
             
             // Nome admin
@@ -180,9 +165,9 @@ public class AdminDashboardController extends SoccorsoBaseController {
     
     // Classe di supporto AGGIORNATA
     private static class DashboardData {
-        List<RichiestaSoccorso> richiesteConvalidate;
-        List<RichiestaSoccorso> richiesteAttive;
-        List<RichiestaSoccorso> richiesteAnnullate;
+        int countConvalidate;
+        int countAttive;
+        int countAnnullate;
         int countConclusse; // NUOVO: conteggio da info_missione
         int totaleRichieste;
     }
@@ -6,10 +6,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.sql.*;
+import webengineering.framework.result.OutputCache;
 import webengineering.framework.result.TemplateManagerException;
+import webengineering.framework.result.TemplateResult;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
 import webengineering.nuovissimosoccorsoweb.model.Materiale;
@@ -18,6 +21,9 @@ public class AdminMaterialiController extends SoccorsoBaseController {
     
     private static final Logger logger = Logger.getLogger(AdminMaterialiController.class.getName());
     
+    // Tabelle da cui dipende la pagina della lista (dati e disponibilità)
+    private static final Set<String> LIST_TABLES = Set.of("materiale", "missione", "utilizza_materiale", "richiesta_soccorso");
+    
     @Override
     protected void processRequest(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException {
@@ -66,11 +72,18 @@ public class AdminMaterialiController extends SoccorsoBaseController {
                     response.sendError(HttpServletResponse.SC_BAD_REQUEST, "ID materiale non valido");
                 }
             } else {
+                // La lista generata viene riusata finché una scrittura su materiali o missioni non la invalida
+                TemplateResult result = new TemplateResult(getServletContext());
+                OutputCache.Key cacheKey = result.cacheKey("admin_materiali.ftl.html", LIST_TABLES, pageCacheInputs(request));
+                if (result.activateCached(cacheKey, request, response)) {
+                    return;
+                }
+                
                 // Carica tutti i materiali per la lista
                 List<Materiale> materiali = loadAllMateriali(dataLayer);
                 
                 // Mostra la vista dei materiali
-                showMaterialiView(request, response, materiali, dataLayer);
+                showMaterialiView(request, response, materiali, dataLayer, result, cacheKey);
             }
             
         } catch (DataException ex) {
@@ -118,7 +131,8 @@ public class AdminMaterialiController extends SoccorsoBaseController {
     
     // Mostra la vista con la lista dei materiali
     private void showMaterialiView(HttpServletRequest request, HttpServletResponse response, 
-                                  List<Materiale> materiali, SoccorsoDataLayer dataLayer) throws ServletException {
+                                  List<Materiale> materiali, SoccorsoDataLayer dataLayer,
+                                  TemplateResult result, OutputCache.Key cacheKey) throws ServletException {
         
         logger.info("=== showMaterialiView ===");
         
@@ -146,12 +160,9 @@ public class AdminMaterialiController extends SoccorsoBaseController {
             
             // Crea una mappa dei materiali con il loro stato di disponibilità
             Map<String, Boolean> materialiDisponibilita = new HashMap<>();
-            List<Materiale> materialiDisponibili = dataLayer.getMaterialeDAO().getMaterialiDisponibili();
             
             for (Materiale materiale : materiali) {
-                boolean disponibile = materialiDisponibili.stream()
-                    .anyMatch(matDisp -> matDisp.getId() == materiale.getId());
-                materialiDisponibilita.put(String.valueOf(materiale.getId()), disponibile);
+                materialiDisponibilita.put(String.valueOf(materiale.getId()), dataLayer.getMaterialeDAO().isMaterialeDisponibile(materiale.getId()));
             }
             
             // Aggiungi la lista dei materiali e la loro disponibilità
@@ -177,8 +188,7 @@ public class AdminMaterialiController extends SoccorsoBaseController {
             logger.info("Caricamento template admin_materiali.ftl.html");
             
             // Carica il template
-            new webengineering.framework.result.TemplateResult(getServletContext())
-                    .activate("admin_materiali.ftl.html", dataModel, response);
+            result.activate("admin_materiali.ftl.html", dataModel, cacheKey, request, response);
                     
             logger.info("Template caricato con successo");
                     
@@ -222,16 +232,23 @@ public class AdminMaterialiController extends SoccorsoBaseController {
             
             // Per ogni missione, carica anche le informazioni della richiesta di soccorso e info conclusione
             List<MissioneConDettagli> missioniConDettagli = new ArrayList<>();
+            // Accoda i codici: richieste e info vengono caricate con una query IN ciascuna
+            List<Integer> codici = new ArrayList<>();
+            for (webengineering.nuovissimosoccorsoweb.model.Missione missione : storicoMissioni) {
+                codici.add(missione.getCodiceRichiesta());
+            }
+            dataLayer.getRichiestaLoader().requestAll(codici);
+            dataLayer.getInfoMissioneLoader().requestAll(codici);
             for (webengineering.nuovissimosoccorsoweb.model.Missione missione : storicoMissioni) {
                 try {
                     // Carica richiesta di soccorso collegata
                     webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso richiesta = 
-                        dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(missione.getCodiceRichiesta());
+                        dataLayer.getRichiestaLoader().get(missione.getCodiceRichiesta());
                     
                     // Carica info missione (data fine, successo, commento)
                     webengineering.nuovissimosoccorsoweb.model.InfoMissione infoMissione = null;
                     try {
-                        infoMissione = dataLayer.getInfoMissioneDAO().getInfoByCodiceMissione(missione.getCodiceRichiesta());
+                        infoMissione = dataLayer.getInfoMissioneLoader().get(missione.getCodiceRichiesta());
                     } catch (DataException ex) {
                         logger.log(Level.WARNING, "InfoMissione non trovata per missione " + missione.getCodiceRichiesta(), ex);
                         // infoMissione rimane null se non trovata
@@ -247,9 +264,7 @@ public class AdminMaterialiController extends SoccorsoBaseController {
             }
             
             // Determina se è disponibile
-            List<Materiale> materialiDisponibili = dataLayer.getMaterialeDAO().getMaterialiDisponibili();
-            boolean disponibile = materialiDisponibili.stream()
-                .anyMatch(matDisp -> matDisp.getId() == idMateriale);
+            boolean disponibile = dataLayer.getMaterialeDAO().isMaterialeDisponibile(idMateriale);
             
             Map<String, Object> dataModel = new HashMap<>();
             dataModel.put("thispageurl", request.getAttribute("thispageurl"));
@@ -6,10 +6,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.sql.*;
+import webengineering.framework.result.OutputCache;
 import webengineering.framework.result.TemplateManagerException;
+import webengineering.framework.result.TemplateResult;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
 import webengineering.nuovissimosoccorsoweb.model.Mezzo;
@@ -18,6 +21,9 @@ public class AdminMezziController extends SoccorsoBaseController {
     
     private static final Logger logger = Logger.getLogger(AdminMezziController.class.getName());
     
+    // Tabelle da cui dipende la pagina della lista (dati e disponibilità)
+    private static final Set<String> LIST_TABLES = Set.of("mezzo", "missione", "utilizza_mezzo", "richiesta_soccorso");
+    
     @Override
     protected void processRequest(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException {
@@ -54,11 +60,18 @@ public class AdminMezziController extends SoccorsoBaseController {
                 String targa = pathInfo.substring(1);
                 showDettagliMezzo(request, response, targa, dataLayer);
             } else {
+                // La lista generata viene riusata finché una scrittura su mezzi o missioni non la invalida
+                TemplateResult result = new TemplateResult(getServletContext());
+                OutputCache.Key cacheKey = result.cacheKey("admin_mezzi.ftl.html", LIST_TABLES, pageCacheInputs(request));
+                if (result.activateCached(cacheKey, request, response)) {
+                    return;
+                }
+                
                 // Carica tutti i mezzi per la lista
                 List<Mezzo> mezzi = loadAllMezzi(dataLayer);
                 
                 // Mostra la vista dei mezzi
-                showMezziView(request, response, mezzi, dataLayer);
+                showMezziView(request, response, mezzi, dataLayer, result, cacheKey);
             }
             
         } catch (DataException ex) {
@@ -94,7 +107,8 @@ public class AdminMezziController extends SoccorsoBaseController {
     
     // Mostra la vista con la lista dei mezzi
     private void showMezziView(HttpServletRequest request, HttpServletResponse response, 
-                              List<Mezzo> mezzi, SoccorsoDataLayer dataLayer) throws ServletException {
+                              List<Mezzo> mezzi, SoccorsoDataLayer dataLayer,
+                              TemplateResult result, OutputCache.Key cacheKey) throws ServletException {
         
         try {
             Map<String, Object> dataModel = new HashMap<>();
@@ -120,12 +134,9 @@ public class AdminMezziController extends SoccorsoBaseController {
             
             // Crea una mappa dei mezzi con il loro stato di disponibilità
             Map<String, Boolean> mezziDisponibilita = new HashMap<>();
-            List<Mezzo> mezziDisponibili = dataLayer.getMezzoDAO().getMezziDisponibili();
             
             for (Mezzo mezzo : mezzi) {
-                boolean disponibile = mezziDisponibili.stream()
-                    .anyMatch(mezzoDisp -> mezzoDisp.getTarga().equals(mezzo.getTarga()));
-                mezziDisponibilita.put(mezzo.getTarga(), disponibile);
+                mezziDisponibilita.put(mezzo.getTarga(), dataLayer.getMezzoDAO().isMezzoDisponibile(mezzo.getTarga()));
             }
             
             // Aggiungi la lista dei mezzi e la loro disponibilità
@@ -149,8 +160,7 @@ public class AdminMezziController extends SoccorsoBaseController {
             }
             
             // Carica il template
-            new webengineering.framework.result.TemplateResult(getServletContext())
-                    .activate("admin_mezzi.ftl.html", dataModel, response);
+            result.activate("admin_mezzi.ftl.html", dataModel, cacheKey, request, response);
                     
         } catch (TemplateManagerException ex) {
             logger.log(Level.SEVERE, "Errore nel template dei mezzi", ex);
@@ -189,16 +199,23 @@ public class AdminMezziController extends SoccorsoBaseController {
             
             // Per ogni missione, carica anche le informazioni della richiesta di soccorso e info conclusione
             List<MissioneConDettagli> missioniConDettagli = new ArrayList<>();
+            // Accoda i codici: richieste e info vengono caricate con una query IN ciascuna
+            List<Integer> codici = new ArrayList<>();
+            for (webengineering.nuovissimosoccorsoweb.model.Missione missione : storicoMissioni) {
+                codici.add(missione.getCodiceRichiesta());
+            }
+            dataLayer.getRichiestaLoader().requestAll(codici);
+            dataLayer.getInfoMissioneLoader().requestAll(codici);
             for (webengineering.nuovissimosoccorsoweb.model.Missione missione : storicoMissioni) {
                 try {
                     // Carica richiesta di soccorso collegata
                     webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso richiesta = 
-                        dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(missione.getCodiceRichiesta());
+                        dataLayer.getRichiestaLoader().get(missione.getCodiceRichiesta());
                     
                     // Carica info missione (data fine, successo, commento)
                     webengineering.nuovissimosoccorsoweb.model.InfoMissione infoMissione = null;
                     try {
-                        infoMissione = dataLayer.getInfoMissioneDAO().getInfoByCodiceMissione(missione.getCodiceRichiesta());
+                        infoMissione = dataLayer.getInfoMissioneLoader().get(missione.getCodiceRichiesta());
                     } catch (DataException ex) {
                         logger.log(Level.WARNING, "InfoMissione non trovata per missione " + missione.getCodiceRichiesta(), ex);
                         // infoMissione rimane null se non trovata
@@ -213,9 +230,7 @@ public class AdminMezziController extends SoccorsoBaseController {
             }
             
             // Determina se è disponibile
-            List<Mezzo> mezziDisponibili = dataLayer.getMezzoDAO().getMezziDisponibili();
-            boolean disponibile = mezziDisponibili.stream()
-                .anyMatch(mezzoDisp -> mezzoDisp.getTarga().equals(targa));
+            boolean disponibile = dataLayer.getMezzoDAO().isMezzoDisponibile(targa);
             
             Map<String, Object> dataModel = new HashMap<>();
             dataModel.put("thispageurl", request.getAttribute("thispageurl"));
@@ -11,6 +11,7 @@ import java.util.logging.Logger;
 import webengineering.framework.result.TemplateManagerException;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.ParallelReads;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
 
 public class AdminOperatoriController extends SoccorsoBaseController {
@@ -105,6 +106,16 @@ public class AdminOperatoriController extends SoccorsoBaseController {
                                      int operatoreId, SoccorsoDataLayer dataLayer) throws ServletException {
         
         try {
+            // Storico, patenti e abilità sono letture indipendenti: partono
+            // tutte insieme su connessioni separate, le più lente per prime
+            ParallelReads<SoccorsoDataLayer> reads = dataLayer.parallelReads();
+            ParallelReads.Result<List<webengineering.nuovissimosoccorsoweb.model.Missione>> storicoRead =
+                reads.submit(dl -> dl.getMissioneDAO().getMissioniByOperatore(operatoreId));
+            ParallelReads.Result<List<webengineering.nuovissimosoccorsoweb.model.TipoPatente>> patentiRead =
+                reads.submit(dl -> dl.getOperatoreHaPatenteDAO().getPatentiByOperatore(operatoreId));
+            ParallelReads.Result<List<webengineering.nuovissimosoccorsoweb.model.Abilita>> abilitaRead =
+                reads.submit(dl -> dl.getOperatoreHaAbilitaDAO().getAbilitaByOperatore(operatoreId));
+
             // Carica l'operatore
             Operatore operatore = dataLayer.getOperatoreDAO().getOperatoreById(operatoreId);
             if (operatore == null) {
@@ -113,30 +124,35 @@ public class AdminOperatoriController extends SoccorsoBaseController {
             }
             
             // Carica patenti dell'operatore
-            List<webengineering.nuovissimosoccorsoweb.model.TipoPatente> patenti = 
-                dataLayer.getOperatoreHaPatenteDAO().getPatentiByOperatore(operatoreId);
+            List<webengineering.nuovissimosoccorsoweb.model.TipoPatente> patenti = patentiRead.get();
             
             // Carica abilità dell'operatore
-            List<webengineering.nuovissimosoccorsoweb.model.Abilita> abilita = 
-                dataLayer.getOperatoreHaAbilitaDAO().getAbilitaByOperatore(operatoreId);
+            List<webengineering.nuovissimosoccorsoweb.model.Abilita> abilita = abilitaRead.get();
             
             // Carica storico missioni dell'operatore
-            List<webengineering.nuovissimosoccorsoweb.model.Missione> storicoMissioni = 
-                dataLayer.getMissioneDAO().getMissioniByOperatore(operatoreId);
+            List<webengineering.nuovissimosoccorsoweb.model.Missione> storicoMissioni = storicoRead.get();
             
             logger.info("Trovate " + storicoMissioni.size() + " missioni per operatore " + operatoreId);
             
             // Per ogni missione, carica anche le informazioni della richiesta di soccorso, il ruolo e info conclusione
             List<MissioneConDettagli> missioniConDettagli = new ArrayList<>();
+            // Accoda i codici: richieste, squadre e info vengono caricate con una query IN ciascuna
+            List<Integer> codici = new ArrayList<>();
+            for (webengineering.nuovissimosoccorsoweb.model.Missione missione : storicoMissioni) {
+                codici.add(missione.getCodiceRichiesta());
+            }
+            dataLayer.getRichiestaLoader().requestAll(codici);
+            dataLayer.getSquadraLoader().requestAll(codici);
+            dataLayer.getInfoMissioneLoader().requestAll(codici);
             for (webengineering.nuovissimosoccorsoweb.model.Missione missione : storicoMissioni) {
                 try {
                     // Carica richiesta di soccorso collegata
                     webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso richiesta = 
-                        dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(missione.getCodiceRichiesta());
+                        dataLayer.getRichiestaLoader().get(missione.getCodiceRichiesta());
                     
                     // Carica squadra per trovare il ruolo dell'operatore
                     List<webengineering.nuovissimosoccorsoweb.model.PartecipazioneSquadra> squadra = 
-                        dataLayer.getMissioneDAO().getSquadraByMissione(missione.getCodiceRichiesta());
+                        dataLayer.getSquadraLoader().get(missione.getCodiceRichiesta());
                     
                     webengineering.nuovissimosoccorsoweb.model.RuoloSquadra ruoloOperatore = null;
                     for (webengineering.nuovissimosoccorsoweb.model.PartecipazioneSquadra partecipazione : squadra) {
@@ -149,7 +165,7 @@ public class AdminOperatoriController extends SoccorsoBaseController {
                     // Carica info missione (data fine, successo, commento)
                     webengineering.nuovissimosoccorsoweb.model.InfoMissione infoMissione = null;
                     try {
-                        infoMissione = dataLayer.getInfoMissioneDAO().getInfoByCodiceMissione(missione.getCodiceRichiesta());
+                        infoMissione = dataLayer.getInfoMissioneLoader().get(missione.getCodiceRichiesta());
                     } catch (DataException ex) {
                         logger.log(Level.WARNING, "InfoMissione non trovata per missione " + missione.getCodiceRichiesta(), ex);
                         // infoMissione rimane null se non trovata
@@ -164,9 +180,7 @@ public class AdminOperatoriController extends SoccorsoBaseController {
             }
             
             // Determina se è disponibile
-            List<Operatore> operatoriDisponibili = dataLayer.getOperatoreDAO().getOperatoriDisponibili();
-            boolean disponibile = operatoriDisponibili.stream()
-                .anyMatch(op -> op.getId() == operatoreId);
+            boolean disponibile = dataLayer.getOperatoreDAO().isOperatoreDisponibile(operatoreId);
             
             Map<String, Object> dataModel = new HashMap<>();
             dataModel.put("thispageurl", request.getAttribute("thispageurl"));
@@ -259,12 +273,9 @@ public class AdminOperatoriController extends SoccorsoBaseController {
             
             // Crea una mappa degli operatori con il loro stato di disponibilità
             Map<String, Boolean> operatoriDisponibilita = new HashMap<>();
-            List<Operatore> operatoriDisponibili = dataLayer.getOperatoreDAO().getOperatoriDisponibili();
             
             for (Operatore op : operatori) {
-                boolean disponibile = operatoriDisponibili.stream()
-                    .anyMatch(opDisp -> opDisp.getId() == op.getId());
-                operatoriDisponibilita.put(String.valueOf(op.getId()), disponibile);
+                operatoriDisponibilita.put(String.valueOf(op.getId()), dataLayer.getOperatoreDAO().isOperatoreDisponibile(op.getId()));
             }
             
             // Aggiungi la lista degli operatori e la loro disponibilità
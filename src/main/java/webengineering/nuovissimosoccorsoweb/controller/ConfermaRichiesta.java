@@ -8,7 +8,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import webengineering.framework.result.TemplateManagerException;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
-import webengineering.framework.data.DataException;
 import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
 import webengineering.nuovissimosoccorsoweb.service.ConvalidaService;
 
@@ -63,27 +62,6 @@ protected void processRequest(HttpServletRequest request, HttpServletResponse re
 // Aggiungi questo import all'inizio del file:
 // import webengineering.nuovissimosoccorsoweb.service.ConvalidaService;
     
-    // Aggiorna lo stato della richiesta nel database
-    private void updateRichiestaStato(SoccorsoDataLayer dataLayer, int codiceRichiesta, String nuovoStato) 
-            throws DataException {
-        try {
-            String updateQuery = "UPDATE richiesta_soccorso SET stato = ? WHERE codice = ?";
-            try (java.sql.PreparedStatement stmt = dataLayer.getConnection().prepareStatement(updateQuery)) {
-                stmt.setString(1, nuovoStato);
-                stmt.setInt(2, codiceRichiesta);
-                
-                int rowsAffected = stmt.executeUpdate();
-                if (rowsAffected == 0) {
-                    throw new DataException("Nessuna richiesta aggiornata - Codice: " + codiceRichiesta);
-                }
-                
-                logger.info("Stato richiesta aggiornato: Codice " + codiceRichiesta + " -> " + nuovoStato);
-            }
-        } catch (java.sql.SQLException ex) {
-            throw new DataException("Errore SQL nell'aggiornamento stato richiesta", ex);
-        }
-    }
-    
     // Mostra il risultato della conferma
     private void showConfirmationResult(HttpServletRequest request, HttpServletResponse response, 
                                        String type, String message, RichiestaSoccorso richiesta) 
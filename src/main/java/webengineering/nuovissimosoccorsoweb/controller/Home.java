@@ -3,11 +3,14 @@ package webengineering.nuovissimosoccorsoweb.controller;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.*;
 import java.security.SecureRandom;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import webengineering.framework.result.OutputCache;
 import webengineering.framework.result.TemplateManagerException;
+import webengineering.framework.result.TemplateResult;
 import webengineering.framework.security.SecurityHelpers;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
@@ -26,6 +29,17 @@ public class Home extends SoccorsoBaseController {
             throws ServletException {
 
         try {
+            TemplateResult result = new TemplateResult(getServletContext());
+            // Il form senza parametri (niente messaggi né anteprime) non legge dati dal database:
+            // viene generato una volta per utente e poi inviato dalla cache (scade solo per TTL)
+            OutputCache.Key cacheKey = null;
+            if ("GET".equals(request.getMethod()) && request.getQueryString() == null) {
+                cacheKey = result.cacheKey("emergency_form.ftl.html", Collections.emptySet(), pageCacheInputs(request));
+                if (result.activateCached(cacheKey, request, response)) {
+                    return;
+                }
+            }
+
             Map<String, Object> dataModel = new HashMap<>();
             dataModel.put("thispageurl", request.getAttribute("thispageurl"));
             dataModel.put("outline_tpl", null);
@@ -83,8 +97,11 @@ public class Home extends SoccorsoBaseController {
                 }
             }
 
-            new webengineering.framework.result.TemplateResult(getServletContext())
-                    .activate("emergency_form.ftl.html", dataModel, response);
+            if (cacheKey != null) {
+                result.activate("emergency_form.ftl.html", dataModel, cacheKey, request, response);
+            } else {
+                result.activate("emergency_form.ftl.html", dataModel, response);
+            }
 
         } catch (TemplateManagerException ex) {
             logger.log(Level.SEVERE, "Errore nel template del form emergenza", ex);
@@ -11,6 +11,8 @@ import java.util.logging.Logger;
 import webengineering.framework.result.TemplateManagerException;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.OptimisticLockException;
+import webengineering.framework.data.ParallelReads;
 import webengineering.nuovissimosoccorsoweb.model.InfoMissione;
 import webengineering.nuovissimosoccorsoweb.model.Missione;
 import webengineering.nuovissimosoccorsoweb.model.PartecipazioneSquadra;
@@ -163,16 +165,43 @@ public class MissioneDetailsController extends SoccorsoBaseController {
                 return;
             }
             
-            // Verifica che la missione esista
-            Missione missione = dataLayer.getMissioneDAO().getMissioneByCodice(missioneId);
-            if (missione == null) {
-                logger.warning("Tentativo di aggiornare note per missione inesistente: " + missioneId);
-                response.sendRedirect(request.getContextPath() + "/admin/richieste/attive?error=not_found");
-                return;
+            // Versione della missione mostrata nella pagina: se un altro amministratore l'ha modificata
+            // nel frattempo l'aggiornamento fallisce invece di sovrascrivere le sue modifiche
+            Integer version = null;
+            try {
+                String versionStr = request.getParameter("version");
+                if (versionStr != null && !versionStr.trim().isEmpty()) {
+                    version = Integer.parseInt(versionStr.trim());
+                }
+            } catch (NumberFormatException ex) {
+                logger.warning("Versione missione non valida: " + request.getParameter("version"));
+            }
+            
+            // Senza versione dalla pagina usiamo quella corrente (e verifichiamo che la missione esista)
+            if (version == null) {
+                Missione missione = dataLayer.getMissioneDAO().getMissioneByCodice(missioneId);
+                if (missione == null) {
+                    logger.warning("Tentativo di aggiornare note per missione inesistente: " + missioneId);
+                    response.sendRedirect(request.getContextPath() + "/admin/richieste/attive?error=not_found");
+                    return;
+                }
+                version = missione.getVersion();
             }
             
             // Aggiorna le note
-            dataLayer.getMissioneDAO().updateNoteMissione(missioneId, note);
+            try {
+                dataLayer.getMissioneDAO().updateNoteMissione(missioneId, note, version);
+            } catch (OptimisticLockException ex) {
+                if (!dataLayer.getMissioneDAO().esisteMissione(missioneId)) {
+                    logger.warning("Tentativo di aggiornare note per missione inesistente: " + missioneId);
+                    response.sendRedirect(request.getContextPath() + "/admin/richieste/attive?error=not_found");
+                    return;
+                }
+                // Modificata da un altro amministratore: 409
+                logger.warning("Note della missione " + missioneId + " modificate da un'altra operazione (versione " + version + ")");
+                handleError(ex, request, response);
+                return;
+            }
             
             logger.info("Note aggiornate per missione " + missioneId + " - Lunghezza: " + note.length() + " caratteri");
             
@@ -236,6 +265,14 @@ public class MissioneDetailsController extends SoccorsoBaseController {
                 return;
             }
             
+            // Le letture della pagina sono indipendenti: partono tutte insieme su connessioni separate
+            int codice = missioneId;
+            ParallelReads<SoccorsoDataLayer> reads = dataLayer.parallelReads();
+            ParallelReads.Result<List<PartecipazioneSquadra>> squadraRead = reads.submit(dl -> dl.getMissioneDAO().getSquadraByMissione(codice));
+            ParallelReads.Result<List<Operatore>> operatoriRead = reads.submit(dl -> dl.getMissioneDAO().getOperatoriAssegnati(codice));
+            ParallelReads.Result<List<Mezzo>> mezziRead = reads.submit(dl -> dl.getMissioneDAO().getMezziByMissione(codice));
+            ParallelReads.Result<List<Materiale>> materialiRead = reads.submit(dl -> dl.getMissioneDAO().getMaterialiByMissione(codice));
+
             // Carica missione
             Missione missione = dataLayer.getMissioneDAO().getMissioneByCodice(missioneId);
             
@@ -246,12 +283,21 @@ public class MissioneDetailsController extends SoccorsoBaseController {
             }
             
             // Carica squadra con dettagli operatori
-            List<PartecipazioneSquadra> squadra = dataLayer.getMissioneDAO().getSquadraByMissione(missioneId);
+            List<PartecipazioneSquadra> squadra = squadraRead.get();
             Map<String, Operatore> operatoriDettagli = new HashMap<>();
-            
+
+            // Tutta la squadra letta con una sola query; getOperatoreById solo per chi non vi compare
+            Map<Integer, Operatore> operatoriAssegnati = new HashMap<>();
+            for (Operatore operatore : operatoriRead.get()) {
+                operatoriAssegnati.put(operatore.getId(), operatore);
+            }
+
             for (PartecipazioneSquadra partecipazione : squadra) {
                 try {
-                    Operatore operatore = dataLayer.getOperatoreDAO().getOperatoreById(partecipazione.getIdOperatore());
+                    Operatore operatore = operatoriAssegnati.get(partecipazione.getIdOperatore());
+                    if (operatore == null) {
+                        operatore = dataLayer.getOperatoreDAO().getOperatoreById(partecipazione.getIdOperatore());
+                    }
                     if (operatore != null) {
                         // Usa String come chiave per compatibilità FreeMarker
                         operatoriDettagli.put(String.valueOf(partecipazione.getIdOperatore()), operatore);
@@ -262,10 +308,10 @@ public class MissioneDetailsController extends SoccorsoBaseController {
             }
             
             // Carica mezzi utilizzati
-            List<Mezzo> mezzi = dataLayer.getMissioneDAO().getMezziByMissione(missioneId);
+            List<Mezzo> mezzi = mezziRead.get();
             
             // Carica materiali utilizzati
-            List<Materiale> materiali = dataLayer.getMissioneDAO().getMaterialiByMissione(missioneId);
+            List<Materiale> materiali = materialiRead.get();
             
             logger.info("Dettagli missione " + missioneId + " caricati - Squadra: " + squadra.size() + 
                        ", Mezzi: " + mezzi.size() + ", Materiali: " + materiali.size());
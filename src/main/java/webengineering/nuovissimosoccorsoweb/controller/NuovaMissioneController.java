@@ -9,12 +9,12 @@ import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.time.LocalDateTime;
-import java.sql.Connection;
-import java.sql.SQLException;
 
 import webengineering.framework.result.TemplateManagerException;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.OptimisticLockException;
+import webengineering.framework.data.UnitOfWork;
 import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
 import webengineering.nuovissimosoccorsoweb.model.Mezzo;
@@ -22,7 +22,15 @@ import webengineering.nuovissimosoccorsoweb.model.Materiale;
 import webengineering.nuovissimosoccorsoweb.model.Missione;
 import webengineering.nuovissimosoccorsoweb.model.TipoPatente;
 import webengineering.nuovissimosoccorsoweb.model.TipoAbilita;
+import webengineering.nuovissimosoccorsoweb.model.MissioneUtilizzaMateriale;
+import webengineering.nuovissimosoccorsoweb.model.MissioneUtilizzaMezzo;
+import webengineering.nuovissimosoccorsoweb.model.PartecipazioneSquadra;
+import webengineering.nuovissimosoccorsoweb.model.RuoloSquadra;
 import webengineering.nuovissimosoccorsoweb.model.impl.MissioneImpl;
+import webengineering.nuovissimosoccorsoweb.model.impl.MissioneUtilizzaMaterialeImpl;
+import webengineering.nuovissimosoccorsoweb.model.impl.MissioneUtilizzaMezzoImpl;
+import webengineering.nuovissimosoccorsoweb.model.impl.PartecipazioneSquadraImpl;
+import webengineering.nuovissimosoccorsoweb.model.impl.proxy.RichiestaSoccorsoProxy;
 
 public class NuovaMissioneController extends SoccorsoBaseController {
     
@@ -119,22 +127,30 @@ public class NuovaMissioneController extends SoccorsoBaseController {
             Map<String, List<String>> operatoriPatenti = new HashMap<>();
             Map<String, List<String>> operatoriAbilita = new HashMap<>();
             
+            // Accoda gli id: patenti e abilità di tutti gli operatori vengono caricate con due sole query
+            List<Integer> idOperatori = new ArrayList<>();
+            for (Operatore operatore : operatoriDisponibili) {
+                idOperatori.add(operatore.getId());
+            }
+            dataLayer.getPatentiLoader().requestAll(idOperatori);
+            dataLayer.getAbilitaLoader().requestAll(idOperatori);
+            
             for (Operatore operatore : operatoriDisponibili) {
                 try {
                     // Usa String come chiave invece di Integer per compatibilità FreeMarker
                     String operatoreKey = String.valueOf(operatore.getId());
                     
                     // Carica patenti
-                    List<String> patenti = dataLayer.getOperatoreHaPatenteDAO()
-                        .getPatentiByOperatore(operatore.getId())
+                    List<String> patenti = dataLayer.getPatentiLoader()
+                        .get(operatore.getId())
                         .stream()
                         .map(TipoPatente::toDBString)
                         .collect(java.util.stream.Collectors.toList());
                     operatoriPatenti.put(operatoreKey, patenti);
                     
                     // Carica abilità
-                    List<String> abilita = dataLayer.getOperatoreHaAbilitaDAO()
-                        .getAbilitaByOperatore(operatore.getId())
+                    List<String> abilita = dataLayer.getAbilitaLoader()
+                        .get(operatore.getId())
                         .stream()
                         .map(a -> a.getTipo().toDBString())
                         .collect(java.util.stream.Collectors.toList());
@@ -324,10 +340,8 @@ public class NuovaMissioneController extends SoccorsoBaseController {
             throws ServletException {
         
         try {
-            // Avvia transazione
-            Connection conn = dataLayer.getConnection();
-            boolean autoCommit = conn.getAutoCommit();
-            conn.setAutoCommit(false);
+            // Le scritture vengono accodate nella UnitOfWork e confermate insieme (una transazione, un batch per tabella)
+            UnitOfWork uow = dataLayer.getUnitOfWork();
             
             try {
                 // 1. Crea la missione
@@ -358,8 +372,7 @@ public class NuovaMissioneController extends SoccorsoBaseController {
                 missione.setIdAmministratore(adminId);
                 
                 // Salva la missione
-                dataLayer.getMissioneDAO().storeMissione(missione);
-                logger.info("Missione creata con successo per richiesta " + richiestaId);
+                uow.registerNew(Missione.class, missione);
                 
                 // 2. Assegna operatori alla squadra
                 if (operatori != null && operatori.length > 0) {
@@ -372,7 +385,12 @@ public class NuovaMissioneController extends SoccorsoBaseController {
                                 ruolo = "Standard"; // Default
                             }
                             
-                            dataLayer.getMissioneDAO().assegnaOperatoreAMissione(operatoreId, richiestaId, ruolo);
+                            PartecipazioneSquadra p = new PartecipazioneSquadraImpl();
+                            p.setIdOperatore(operatoreId);
+                            p.setCodiceMissione(richiestaId);
+                            p.setRuolo(RuoloSquadra.valueOf(ruolo));
+                            p.setVersion(1);
+                            uow.registerNew(PartecipazioneSquadra.class, p);
                             logger.info("Operatore " + operatoreId + " assegnato con ruolo " + ruolo);
                             
                         } catch (NumberFormatException ex) {
@@ -385,7 +403,11 @@ public class NuovaMissioneController extends SoccorsoBaseController {
                 if (mezzi != null && mezzi.length > 0) {
                     for (String targa : mezzi) {
                         if (targa != null && !targa.trim().isEmpty()) {
-                            dataLayer.getMissioneDAO().assegnaMezzoAMissione(targa.trim(), richiestaId);
+                            MissioneUtilizzaMezzo u = new MissioneUtilizzaMezzoImpl();
+                            u.setCodiceMissione(richiestaId);
+                            u.setTargaMezzo(targa.trim());
+                            u.setVersion(1);
+                            uow.registerNew(MissioneUtilizzaMezzo.class, u);
                             logger.info("Mezzo " + targa + " assegnato alla missione");
                         }
                     }
@@ -396,7 +418,11 @@ public class NuovaMissioneController extends SoccorsoBaseController {
                     for (String materialeIdStr : materiali) {
                         try {
                             int materialeId = Integer.parseInt(materialeIdStr);
-                            dataLayer.getMissioneDAO().assegnaMaterialeAMissione(materialeId, richiestaId);
+                            MissioneUtilizzaMateriale u = new MissioneUtilizzaMaterialeImpl();
+                            u.setCodiceMissione(richiestaId);
+                            u.setIdMateriale(materialeId);
+                            u.setVersion(1);
+                            uow.registerNew(MissioneUtilizzaMateriale.class, u);
                             logger.info("Materiale " + materialeId + " assegnato alla missione");
                             
                         } catch (NumberFormatException ex) {
@@ -405,8 +431,19 @@ public class NuovaMissioneController extends SoccorsoBaseController {
                     }
                 }
                 
+                // 5. La richiesta passa da "Convalidata" ad "Attiva" nella stessa transazione (come in
+                // MissioniResource), senza caricarla: proxy con la sola chiave e lo stato atteso, l'UPDATE
+                // scrive solo la colonna stato e fallisce (OptimisticLockException) se nel frattempo la
+                // richiesta non è più "Convalidata"
+                RichiestaSoccorsoProxy attiva = new RichiestaSoccorsoProxy();
+                attiva.setCodice(richiestaId);
+                attiva.setStato("Convalidata");
+                attiva.setModified(false);
+                attiva.setStato("Attiva");
+                uow.registerDirty(RichiestaSoccorso.class, attiva);
+                
                 // Commit della transazione
-                conn.commit();
+                uow.commit();
                 logger.info("Missione completa creata con successo per richiesta " + richiestaId);
                 
                 // NUOVO: Raccogli le email degli operatori per la notifica
@@ -443,22 +480,14 @@ public class NuovaMissioneController extends SoccorsoBaseController {
                 showMissionSuccessPage(request, response, nome, emailOperatori);
                 
             } catch (Exception ex) {
-                // Rollback in caso di errore
-                try {
-                    conn.rollback();
-                } catch (SQLException rollbackEx) {
-                    logger.log(Level.SEVERE, "Errore durante rollback", rollbackEx);
-                }
+                // La UnitOfWork ha già annullato la transazione: scartiamo le modifiche ancora in attesa
+                uow.clear();
                 throw ex;
-            } finally {
-                // Ripristina auto-commit
-                try {
-                    conn.setAutoCommit(autoCommit);
-                } catch (SQLException ex) {
-                    logger.log(Level.WARNING, "Errore ripristino auto-commit", ex);
-                }
             }
             
+        } catch (OptimisticLockException ex) {
+            logger.log(Level.WARNING, "Richiesta " + richiestaId + " non più convalidata durante la creazione della missione", ex);
+            redirectWithError(request, response, richiestaId, "La richiesta è stata modificata nel frattempo da un'altra operazione. Riprovare.");
         } catch (DataException ex) {
             logger.log(Level.SEVERE, "Errore database durante creazione missione", ex);
             redirectWithError(request, response, richiestaId, "Errore database: " + ex.getMessage());
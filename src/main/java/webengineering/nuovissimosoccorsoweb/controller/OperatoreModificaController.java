@@ -3,6 +3,7 @@ package webengineering.nuovissimosoccorsoweb.controller;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.*;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -209,25 +210,20 @@ public class OperatoreModificaController extends SoccorsoBaseController {
         // Ottieni le patenti selezionate dal form
         String[] patentiSelezionate = request.getParameterValues("patenti");
         
-        // Rimuovi tutte le patenti attuali
-        dataLayer.getOperatoreHaPatenteDAO().rimuoviTutteLePatenti(operatoreId);
-        logger.info("Rimosse tutte le patenti esistenti");
-        
-        // Aggiungi le nuove patenti selezionate
-        if (patentiSelezionate != null && patentiSelezionate.length > 0) {
+        // Raccogli le patenti valide; il DAO scrive solo quelle aggiunte o tolte
+        List<TipoPatente> patenti = new ArrayList<>();
+        if (patentiSelezionate != null) {
             for (String patenteStr : patentiSelezionate) {
                 try {
-                    TipoPatente tipoPatente = TipoPatente.fromString(patenteStr);
-                    dataLayer.getOperatoreHaPatenteDAO().assegnaPatente(operatoreId, tipoPatente);
-                    logger.info("Aggiunta patente: " + tipoPatente);
+                    patenti.add(TipoPatente.fromString(patenteStr));
                 } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore nell'aggiunta patente: " + patenteStr, e);
+                    logger.log(Level.WARNING, "Patente non valida: " + patenteStr, e);
                 }
             }
-            logger.info("Aggiunte " + patentiSelezionate.length + " nuove patenti");
-        } else {
-            logger.info("Nessuna patente selezionata");
         }
+        
+        int modifiche = dataLayer.getOperatoreHaPatenteDAO().sincronizzaPatenti(operatoreId, patenti);
+        logger.info("Patenti selezionate: " + patenti.size() + ", righe modificate: " + modifiche);
     }
     
     private void updateAbilita(int operatoreId, HttpServletRequest request, SoccorsoDataLayer dataLayer) 
@@ -238,27 +234,20 @@ public class OperatoreModificaController extends SoccorsoBaseController {
         // Ottieni le abilità selezionate dal form
         String[] abilitaSelezionate = request.getParameterValues("abilita");
         
-        // Rimuovi tutte le abilità attuali
-        dataLayer.getOperatoreHaAbilitaDAO().rimuoviTutteLeAbilita(operatoreId);
-        logger.info("Rimosse tutte le abilità esistenti");
-        
-        // Aggiungi le nuove abilità selezionate
-        if (abilitaSelezionate != null && abilitaSelezionate.length > 0) {
+        // Raccogli gli ID validi; il DAO scrive solo le abilità aggiunte o tolte
+        List<Integer> abilita = new ArrayList<>();
+        if (abilitaSelezionate != null) {
             for (String abilitaIdStr : abilitaSelezionate) {
                 try {
-                    int abilitaId = Integer.parseInt(abilitaIdStr);
-                    dataLayer.getOperatoreHaAbilitaDAO().assegnaAbilita(operatoreId, abilitaId);
-                    logger.info("Aggiunta abilità ID: " + abilitaId);
+                    abilita.add(Integer.parseInt(abilitaIdStr));
                 } catch (NumberFormatException e) {
                     logger.log(Level.WARNING, "Errore nel parsing ID abilità: " + abilitaIdStr, e);
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore nell'aggiunta abilità: " + abilitaIdStr, e);
                 }
             }
-            logger.info("Aggiunte " + abilitaSelezionate.length + " nuove abilità");
-        } else {
-            logger.info("Nessuna abilità selezionata");
         }
+        
+        int modifiche = dataLayer.getOperatoreHaAbilitaDAO().sincronizzaAbilita(operatoreId, abilita);
+        logger.info("Abilità selezionate: " + abilita.size() + ", righe modificate: " + modifiche);
     }
     
     private String getOperatoreIdFromSession(HttpSession session) {
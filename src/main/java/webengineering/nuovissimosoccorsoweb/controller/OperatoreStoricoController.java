@@ -162,21 +162,30 @@ public class OperatoreStoricoController extends SoccorsoBaseController {
             
             List<Missione> missioni = getMissioniByOperatore(operatoreIdInt, dataLayer);
             
+            // Accoda i codici: richieste, info e squadre vengono caricate con una query IN ciascuna
+            List<Integer> codici = new ArrayList<>();
+            for (Missione missione : missioni) {
+                codici.add(missione.getCodiceRichiesta());
+            }
+            dataLayer.getRichiestaLoader().requestAll(codici);
+            dataLayer.getInfoMissioneLoader().requestAll(codici);
+            dataLayer.getSquadraLoader().requestAll(codici);
+            
             for (Missione missione : missioni) {
                 try {
                     RichiestaSoccorso richiesta = 
-                        dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(missione.getCodiceRichiesta());
+                        dataLayer.getRichiestaLoader().get(missione.getCodiceRichiesta());
                     
                     InfoMissione infoMissione = null;
                     try {
-                        infoMissione = dataLayer.getInfoMissioneDAO().getInfoByCodiceMissione(missione.getCodiceRichiesta());
+                        infoMissione = dataLayer.getInfoMissioneLoader().get(missione.getCodiceRichiesta());
                     } catch (DataException ex) {
                         logger.log(Level.WARNING, "InfoMissione non trovata per missione " + missione.getCodiceRichiesta(), ex);
                     }
                     
                     String ruoloSquadra = null;
                     try {
-                        List<PartecipazioneSquadra> squadra = dataLayer.getMissioneDAO().getSquadraByMissione(missione.getCodiceRichiesta());
+                        List<PartecipazioneSquadra> squadra = dataLayer.getSquadraLoader().get(missione.getCodiceRichiesta());
                         for (PartecipazioneSquadra partecipazione : squadra) {
                             if (partecipazione.getIdOperatore() == operatoreIdInt) {
                                 ruoloSquadra = partecipazione.getRuolo().toString();
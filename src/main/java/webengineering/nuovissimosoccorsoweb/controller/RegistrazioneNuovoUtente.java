@@ -298,22 +298,24 @@ public class RegistrazioneNuovoUtente extends SoccorsoBaseController {
             return patentiAssegnate;
         }
         
-        try {
-            for (String patenteStr : patentiSelezionate) {
-                try {
-                    // Converti la stringa nel TipoPatente enum
-                    TipoPatente tipoPatente = TipoPatente.fromString(patenteStr);
-                    dataLayer.getOperatoreHaPatenteDAO().assegnaPatente(operatoreId, tipoPatente);
-                    patentiAssegnate.add(patenteStr);
-                    logger.info("Patente " + patenteStr + " assegnata all'operatore ID: " + operatoreId);
-                } catch (IllegalArgumentException ex) {
-                    logger.warning("Tipo patente non valido: " + patenteStr + " per operatore ID: " + operatoreId);
-                } catch (DataException ex) {
-                    logger.log(Level.WARNING, "Errore nell'assegnazione patente " + patenteStr + " all'operatore ID: " + operatoreId, ex);
-                }
+        List<TipoPatente> patenti = new ArrayList<>();
+        for (String patenteStr : patentiSelezionate) {
+            try {
+                // Converti la stringa nel TipoPatente enum
+                patenti.add(TipoPatente.fromString(patenteStr));
+                patentiAssegnate.add(patenteStr);
+            } catch (IllegalArgumentException ex) {
+                logger.warning("Tipo patente non valido: " + patenteStr + " per operatore ID: " + operatoreId);
             }
-        } catch (Exception ex) {
-            logger.log(Level.SEVERE, "Errore generico nell'assegnazione patenti all'operatore ID: " + operatoreId, ex);
+        }
+        
+        // Tutte le patenti valide vengono scritte insieme, con un solo INSERT
+        try {
+            dataLayer.getOperatoreHaPatenteDAO().sincronizzaPatenti(operatoreId, patenti);
+            logger.info("Patenti " + patentiAssegnate + " assegnate all'operatore ID: " + operatoreId);
+        } catch (DataException ex) {
+            logger.log(Level.WARNING, "Errore nell'assegnazione patenti all'operatore ID: " + operatoreId, ex);
+            patentiAssegnate.clear();
         }
         
         return patentiAssegnate;
@@ -328,30 +330,35 @@ public class RegistrazioneNuovoUtente extends SoccorsoBaseController {
             return abilitaAssegnate;
         }
         
-        try {
-            for (String abilitaStr : abilitaSelezionate) {
-                try {
-                    // Converti la stringa nel TipoAbilita enum
-                    TipoAbilita tipoAbilita = TipoAbilita.fromString(abilitaStr);
-                    
-                    // Ottieni l'ID dell'abilità
-                    int abilitaId = getAbilitaIdByTipo(dataLayer, tipoAbilita);
-                    if (abilitaId > 0) {
-                        dataLayer.getOperatoreHaAbilitaDAO().assegnaAbilita(operatoreId, abilitaId);
-                        abilitaAssegnate.add(abilitaStr);
-                        logger.info("Abilità " + abilitaStr + " (ID: " + abilitaId + ") assegnata all'operatore ID: " + operatoreId);
-                    } else {
-                        logger.warning("Abilità non trovata nel database: " + abilitaStr);
-                    }
-                    
-                } catch (IllegalArgumentException ex) {
-                    logger.warning("Tipo abilità non valido: " + abilitaStr + " per operatore ID: " + operatoreId);
-                } catch (DataException ex) {
-                    logger.log(Level.WARNING, "Errore nell'assegnazione abilità " + abilitaStr + " all'operatore ID: " + operatoreId, ex);
+        List<Integer> abilitaIds = new ArrayList<>();
+        for (String abilitaStr : abilitaSelezionate) {
+            try {
+                // Converti la stringa nel TipoAbilita enum
+                TipoAbilita tipoAbilita = TipoAbilita.fromString(abilitaStr);
+                
+                // Ottieni l'ID dell'abilità
+                int abilitaId = getAbilitaIdByTipo(dataLayer, tipoAbilita);
+                if (abilitaId > 0) {
+                    abilitaIds.add(abilitaId);
+                    abilitaAssegnate.add(abilitaStr);
+                } else {
+                    logger.warning("Abilità non trovata nel database: " + abilitaStr);
                 }
+                
+            } catch (IllegalArgumentException ex) {
+                logger.warning("Tipo abilità non valido: " + abilitaStr + " per operatore ID: " + operatoreId);
+            } catch (DataException ex) {
+                logger.log(Level.WARNING, "Errore nel recupero abilità " + abilitaStr + " per operatore ID: " + operatoreId, ex);
             }
-        } catch (Exception ex) {
-            logger.log(Level.SEVERE, "Errore generico nell'assegnazione abilità all'operatore ID: " + operatoreId, ex);
+        }
+        
+        // Tutte le abilità trovate vengono scritte insieme, con un solo INSERT
+        try {
+            dataLayer.getOperatoreHaAbilitaDAO().sincronizzaAbilita(operatoreId, abilitaIds);
+            logger.info("Abilità " + abilitaAssegnate + " assegnate all'operatore ID: " + operatoreId);
+        } catch (DataException ex) {
+            logger.log(Level.WARNING, "Errore nell'assegnazione abilità all'operatore ID: " + operatoreId, ex);
+            abilitaAssegnate.clear();
         }
         
         return abilitaAssegnate;
@@ -387,6 +394,7 @@ public class RegistrazioneNuovoUtente extends SoccorsoBaseController {
             try (java.sql.PreparedStatement stmt = dataLayer.getConnection().prepareStatement(insertQuery, java.sql.Statement.RETURN_GENERATED_KEYS)) {
                 stmt.setString(1, tipo.toDBString());
                 int affectedRows = stmt.executeUpdate();
+                dataLayer.tablesWritten("abilita");
                 
                 if (affectedRows > 0) {
                     try (java.sql.ResultSet generatedKeys = stmt.getGeneratedKeys()) {
@@ -9,6 +9,7 @@ import java.util.logging.Logger;
 import webengineering.framework.result.TemplateManagerException;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.OptimisticLockException;
 import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
 
 public class RichiestaDetailsController extends SoccorsoBaseController {
@@ -191,7 +192,7 @@ public class RichiestaDetailsController extends SoccorsoBaseController {
                 }
                 
                 // Aggiorna stato a "Attiva"
-                dataLayer.getRichiestaSoccorsoDAO().updateStato(richiestaId, "Attiva");
+                dataLayer.getRichiestaSoccorsoDAO().updateStato(richiestaId, "Convalidata", "Attiva");
                 
                 // Log operazione
                 HttpSession session = request.getSession(false);
@@ -212,7 +213,7 @@ public class RichiestaDetailsController extends SoccorsoBaseController {
                 successMessage = "Richiesta annullata";
                 
                 // Aggiorna stato e redirect normale per annullamento
-                dataLayer.getRichiestaSoccorsoDAO().updateStato(richiestaId, nuovoStato);
+                dataLayer.getRichiestaSoccorsoDAO().updateStato(richiestaId, "Convalidata", nuovoStato);
                 
                 // Log operazione
                 HttpSession session2 = request.getSession(false);
@@ -229,6 +230,10 @@ public class RichiestaDetailsController extends SoccorsoBaseController {
                 return;
             }
             
+        } catch (OptimisticLockException ex) {
+            // Un altro amministratore ha cambiato lo stato della richiesta nel frattempo: 409
+            logger.log(Level.WARNING, "Richiesta modificata da un'altra operazione", ex);
+            handleError(ex, request, response);
         } catch (DataException ex) {
             logger.log(Level.SEVERE, "Errore database azione", ex);
             try {
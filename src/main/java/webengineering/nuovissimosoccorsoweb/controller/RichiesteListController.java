@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import webengineering.framework.result.DeferredValue;
 import webengineering.framework.result.TemplateManagerException;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
@@ -105,25 +106,9 @@ public class RichiesteListController extends SoccorsoBaseController {
                                    SoccorsoDataLayer dataLayer) 
             throws ServletException, DataException {
         
-        // 1. Recupera tutte le richieste con stato "Attiva"
-        List<RichiestaSoccorso> richiesteAttive = dataLayer.getRichiestaSoccorsoDAO().getRichiesteByStato("Attiva");
-        
-        // 2. Per ogni richiesta attiva, verifica se esiste una missione corrispondente
-        List<Missione> missioniAttive = new ArrayList<>();
-        for (RichiestaSoccorso richiesta : richiesteAttive) {
-            try {
-                Missione missione = dataLayer.getMissioneDAO().getMissioneByCodice(richiesta.getCodice());
-                if (missione != null) {
-                    missioniAttive.add(missione);
-                }
-            } catch (DataException ex) {
-                logger.log(Level.WARNING, "Errore nel recupero missione per richiesta " + richiesta.getCodice(), ex);
-                // Continua con le altre richieste
-            }
-        }
-        
-        logger.info("Trovate " + richiesteAttive.size() + " richieste attive, " + 
-                   missioniAttive.size() + " missioni corrispondenti");
+        // Le query vengono eseguite solo quando il template arriva alla lista: head e header
+        // sono già stati inviati al browser (vedi activateStreamed)
+        DeferredValue<List<Missione>> missioniAttive = DeferredValue.of(() -> loadMissioniAttive(dataLayer));
         
         // Prepara i dati per il template
         Map<String, Object> dataModel = new HashMap<>();
@@ -137,7 +122,7 @@ public class RichiesteListController extends SoccorsoBaseController {
         
         // Dati specifici della lista missioni
         dataModel.put("missioni", missioniAttive);
-        dataModel.put("count_missioni", missioniAttive.size());
+        dataModel.put("count_missioni", missioniAttive.map(List::size));
         dataModel.put("is_missioni_view", true); // Flag per distinguere nel template
         
         // Informazioni per il template
@@ -159,7 +144,7 @@ public class RichiesteListController extends SoccorsoBaseController {
         
         try {
             new webengineering.framework.result.TemplateResult(getServletContext())
-                    .activate("missioni_list.ftl.html", dataModel, response);
+                    .activateStreamed("missioni_list.ftl.html", dataModel, response);
         } catch (TemplateManagerException ex) {
             logger.log(Level.SEVERE, "Errore nel template della lista missioni", ex);
             try {
@@ -170,28 +155,39 @@ public class RichiesteListController extends SoccorsoBaseController {
         }
     }
     
-    // Mostra le missioni concluse (info_missione)
-    private void showMissioniConcluse(HttpServletRequest request, HttpServletResponse response, 
-                                     SoccorsoDataLayer dataLayer) 
-            throws ServletException, DataException {
-        
-        // Carica tutte le info_missione
-        List<InfoMissione> infoMissioni = dataLayer.getInfoMissioneDAO().getAllInfoMissioni();
+    // Carica le missioni corrispondenti alle richieste attive
+    private List<Missione> loadMissioniAttive(SoccorsoDataLayer dataLayer) throws DataException {
+        // 1. Recupera tutte le richieste con stato "Attiva"
+        List<RichiestaSoccorso> richiesteAttive = dataLayer.getRichiestaSoccorsoDAO().getRichiesteByStato("Attiva");
         
-        // Per ogni info_missione, carica anche i dati della missione corrispondente
-        Map<Integer, Missione> missioniMap = new HashMap<>();
-        for (InfoMissione info : infoMissioni) {
+        // 2. Per ogni richiesta attiva, verifica se esiste una missione corrispondente
+        List<Missione> missioniAttive = new ArrayList<>();
+        for (RichiestaSoccorso richiesta : richiesteAttive) {
             try {
-                Missione missione = dataLayer.getMissioneDAO().getMissioneByCodice(info.getCodiceMissione());
+                Missione missione = dataLayer.getMissioneDAO().getMissioneByCodice(richiesta.getCodice());
                 if (missione != null) {
-                    missioniMap.put(info.getCodiceMissione(), missione);
+                    missioniAttive.add(missione);
                 }
             } catch (DataException ex) {
-                logger.log(Level.WARNING, "Errore nel recupero missione per info " + info.getCodiceMissione(), ex);
+                logger.log(Level.WARNING, "Errore nel recupero missione per richiesta " + richiesta.getCodice(), ex);
+                // Continua con le altre richieste
             }
         }
         
-        logger.info("Trovate " + infoMissioni.size() + " missioni concluse");
+        logger.info("Trovate " + richiesteAttive.size() + " richieste attive, " + 
+                   missioniAttive.size() + " missioni corrispondenti");
+        
+        return missioniAttive;
+    }
+    
+    // Mostra le missioni concluse (info_missione)
+    private void showMissioniConcluse(HttpServletRequest request, HttpServletResponse response, 
+                                     SoccorsoDataLayer dataLayer) 
+            throws ServletException, DataException {
+        
+        // Caricate solo quando il template le usa, dopo l'invio di head e header (vedi activateStreamed)
+        DeferredValue<List<InfoMissione>> infoMissioni = DeferredValue.of(() -> dataLayer.getInfoMissioneDAO().getAllInfoMissioni());
+        DeferredValue<Map<Integer, Missione>> missioniMap = DeferredValue.of(() -> loadMissioniMap(dataLayer, infoMissioni.get()));
         
         // Prepara i dati per il template
         Map<String, Object> dataModel = new HashMap<>();
@@ -204,7 +200,7 @@ public class RichiesteListController extends SoccorsoBaseController {
         // Dati specifici delle missioni concluse
         dataModel.put("info_missioni", infoMissioni);
         dataModel.put("missioni_map", missioniMap);
-        dataModel.put("count_concluse", infoMissioni.size());
+        dataModel.put("count_concluse", infoMissioni.map(List::size));
         dataModel.put("is_concluse_view", true); // Flag per il template
         
         // Informazioni per il template
@@ -226,7 +222,7 @@ public class RichiesteListController extends SoccorsoBaseController {
         
         try {
             new webengineering.framework.result.TemplateResult(getServletContext())
-                    .activate("missioni_concluse.ftl.html", dataModel, response);
+                    .activateStreamed("missioni_concluse.ftl.html", dataModel, response);
         } catch (TemplateManagerException ex) {
             logger.log(Level.SEVERE, "Errore nel template delle missioni concluse", ex);
             try {
@@ -236,6 +232,26 @@ public class RichiesteListController extends SoccorsoBaseController {
             }
         }
     }
+    
+    // Per ogni info_missione, carica i dati della missione corrispondente
+    private Map<Integer, Missione> loadMissioniMap(SoccorsoDataLayer dataLayer, List<InfoMissione> infoMissioni) {
+        Map<Integer, Missione> missioniMap = new HashMap<>();
+        for (InfoMissione info : infoMissioni) {
+            try {
+                Missione missione = dataLayer.getMissioneDAO().getMissioneByCodice(info.getCodiceMissione());
+                if (missione != null) {
+                    missioniMap.put(info.getCodiceMissione(), missione);
+                }
+            } catch (DataException ex) {
+                logger.log(Level.WARNING, "Errore nel recupero missione per info " + info.getCodiceMissione(), ex);
+            }
+        }
+        
+        logger.info("Trovate " + infoMissioni.size() + " missioni concluse");
+        
+        return missioniMap;
+    }
+    
     private void showRichiesteList(HttpServletRequest request, HttpServletResponse response, 
                                   SoccorsoDataLayer dataLayer, String tipoRichieste) 
             throws ServletException, DataException {
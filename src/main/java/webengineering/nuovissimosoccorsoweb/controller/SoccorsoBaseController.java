@@ -1,5 +1,6 @@
 package webengineering.nuovissimosoccorsoweb.controller;
 
+import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpSession;
@@ -11,9 +12,19 @@ import java.sql.SQLException;
 import java.util.Map;
 import java.util.logging.Logger;
 import webengineering.framework.controller.AbstractBaseController;
+import webengineering.framework.result.TemplateEngine;
 
 public abstract class SoccorsoBaseController extends AbstractBaseController {
 
+    @Override
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        // Le scritture che invalidano la cache delle query scartano anche le pagine e i frammenti
+        // generati da quelle tabelle (la registrazione ripetuta da più servlet non ha effetto)
+        SoccorsoDataLayer.getSharedQueryCache().addInvalidationListener(
+                TemplateEngine.getInstance(getServletContext()).getOutputCache());
+    }
+
     @Override
     protected DataLayer createDataLayer(DataSource ds) throws ServletException {
         try {
@@ -90,4 +101,20 @@ public abstract class SoccorsoBaseController extends AbstractBaseController {
 
         logger.info("=== END DEBUG addUserInfoToModel ===");
     }
+
+    /**
+     * Valori da cui dipende una pagina oltre ai dati delle tabelle, da passare a
+     * TemplateResult.cacheKey: l'URL completo (con i parametri) e le informazioni
+     * dell'utente che addUserInfoToModel mette nel data model.
+     */
+    protected Object[] pageCacheInputs(HttpServletRequest request) {
+        HttpSession session = request.getSession(false);
+        boolean isLoggedIn = (session != null && session.getAttribute("userid") != null);
+        if (!isLoggedIn) {
+            return new Object[]{request.getAttribute("thispageurl"), request.getContextPath()};
+        }
+        return new Object[]{request.getAttribute("thispageurl"), request.getContextPath(),
+            session.getAttribute("username"), session.getAttribute("full_name"),
+            session.getAttribute("user_role"), session.getAttribute("user_type")};
+    }
 }
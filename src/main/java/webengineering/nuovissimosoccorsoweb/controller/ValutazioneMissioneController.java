@@ -9,8 +9,12 @@ import java.util.logging.Logger;
 import webengineering.framework.result.TemplateManagerException;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.OptimisticLockException;
+import webengineering.framework.data.UnitOfWork;
 import webengineering.nuovissimosoccorsoweb.model.Missione;
 import webengineering.nuovissimosoccorsoweb.model.InfoMissione;
+import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
+import webengineering.nuovissimosoccorsoweb.model.impl.proxy.RichiestaSoccorsoProxy;
 
 public class ValutazioneMissioneController extends SoccorsoBaseController {
     
@@ -261,6 +265,15 @@ public class ValutazioneMissioneController extends SoccorsoBaseController {
                 return;
             }
             
+            // La richiesta dev'essere ancora aperta: "Attiva", oppure "Convalidata" per le missioni
+            // create prima che la creazione passasse la richiesta ad "Attiva"
+            RichiestaSoccorso richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(missione.getCodiceRichiesta());
+            if (richiesta == null || !("Attiva".equals(richiesta.getStato()) || "Convalidata".equals(richiesta.getStato()))) {
+                logger.warning("Tentativo di valutare missione con richiesta non aperta: " + missioneId);
+                response.sendRedirect(request.getContextPath() + "/admin/valutazione/" + missioneId + "/?error=invalid_state");
+                return;
+            }
+            
             // Crea oggetto InfoMissione
             InfoMissione infoMissione = new webengineering.nuovissimosoccorsoweb.model.impl.InfoMissioneImpl();
             infoMissione.setCodiceMissione(missioneId);
@@ -269,17 +282,29 @@ public class ValutazioneMissioneController extends SoccorsoBaseController {
             infoMissione.setDataOraFine(java.time.LocalDateTime.now()); // Timestamp corrente
             infoMissione.setVersion(1);
             
-            // Salva nel database
-            dataLayer.getInfoMissioneDAO().storeInfoMissione(infoMissione);
-            
-            // Cambia lo stato della richiesta da "Attiva" a "Conclusa"
+            // Valutazione e chiusura della richiesta nella stessa transazione: l'UPDATE scrive solo
+            // la colonna stato e fallisce (OptimisticLockException) se nel frattempo lo stato è cambiato
+            UnitOfWork uow = dataLayer.getUnitOfWork();
+            RichiestaSoccorsoProxy chiusa = new RichiestaSoccorsoProxy();
+            chiusa.setCodice(richiesta.getCodice());
+            chiusa.setStato(richiesta.getStato());
+            chiusa.setModified(false);
+            chiusa.setStato("Chiusa");
             try {
-                dataLayer.getRichiestaSoccorsoDAO().updateStato(missione.getCodiceRichiesta(), "Chiusa");
-                logger.info("Stato richiesta " + missione.getCodiceRichiesta() + " cambiato da 'Attiva' a 'Chiusa'");
+                uow.registerNew(InfoMissione.class, infoMissione);
+                uow.registerDirty(RichiestaSoccorso.class, chiusa);
+                uow.commit();
+            } catch (OptimisticLockException ex) {
+                // la UnitOfWork ha già annullato la transazione: né valutazione né cambio di stato
+                uow.clear();
+                logger.log(Level.WARNING, "Stato della richiesta " + richiesta.getCodice() + " cambiato durante la valutazione", ex);
+                response.sendRedirect(request.getContextPath() + "/admin/valutazione/" + missioneId + "/?error=state_conflict");
+                return;
             } catch (DataException ex) {
-                logger.log(Level.WARNING, "Errore nel cambio stato richiesta " + missione.getCodiceRichiesta(), ex);
-                // Non bloccare il processo - la valutazione è comunque salvata
+                uow.clear();
+                throw ex;
             }
+            logger.info("Stato richiesta " + richiesta.getCodice() + " cambiato da '" + chiusa.getStatoOriginale() + "' a 'Chiusa'");
             
             logger.info("Valutazione salvata per missione " + missioneId + " - Successo: " + successo + 
                        ", Commento: " + commento.length() + " caratteri");
@@ -355,6 +380,10 @@ public class ValutazioneMissioneController extends SoccorsoBaseController {
                 return "Valutazione non valida. Seleziona un valore da 1 a 5.";
             case "invalid_request":
                 return "Richiesta non valida.";
+            case "invalid_state":
+                return "La richiesta della missione non è più aperta: impossibile valutarla.";
+            case "state_conflict":
+                return "La richiesta è stata modificata nel frattempo da un'altra operazione. Riprovare.";
             case "database_error":
                 return "Errore nel database. Riprova più tardi.";
             case "system_error":
@@ -3,7 +3,9 @@ package webengineering.nuovissimosoccorsoweb.dao;
 import webengineering.framework.data.DataException;
 import webengineering.nuovissimosoccorsoweb.model.Abilita;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface AbilitaDAO {
 
@@ -13,6 +15,8 @@ public interface AbilitaDAO {
 
     List<Abilita> getAbilitaByOperatore(int idOperatore) throws DataException;
 
+    Map<Integer, List<Abilita>> getAbilitaByOperatori(Collection<Integer> idOperatori) throws DataException;
+
     void aggiungiAbilitaAOperatore(int idOperatore, int idAbilita) throws DataException;
 
     void rimuoviAbilitaDaOperatore(int idOperatore, int idAbilita) throws DataException;
@@ -11,7 +11,11 @@ public interface AmministratoreDAO {
 
     Amministratore getAmministratoreByEmail(String email) throws DataException;
 
+    // Lista con la proiezione di riepilogo (senza password, letta al primo accesso)
     List<Amministratore> getAllAmministratori() throws DataException;
+
+    // Legge le colonne escluse dalla proiezione di riepilogo
+    void completeAmministratore(Amministratore amministratore) throws DataException;
     
     Amministratore getAmministratoreByCf(String cf) throws DataException;
 
@@ -1,15 +1,23 @@
 package webengineering.nuovissimosoccorsoweb.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import webengineering.framework.data.DataException;
 import webengineering.nuovissimosoccorsoweb.model.InfoMissione;
 
 public interface InfoMissioneDAO {
 
     InfoMissione getInfoByCodiceMissione(int codiceMissione) throws DataException;
+
+    // Carica le info di più missioni con una sola query (le missioni non concluse non compaiono)
+    Map<Integer, InfoMissione> getInfoByCodiciMissione(Collection<Integer> codiciMissione) throws DataException;
     
     List<InfoMissione> getAllInfoMissioni() throws DataException;
 
+    // Numero di missioni concluse (righe di info_missione), senza caricarle
+    int countInfoMissioni() throws DataException;
+
     void storeInfoMissione(InfoMissione info) throws DataException;
 
     void deleteInfoMissione(int codiceMissione) throws DataException;
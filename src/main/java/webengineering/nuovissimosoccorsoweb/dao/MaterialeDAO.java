@@ -15,7 +15,10 @@ public interface MaterialeDAO {
 
     void deleteMateriale(int id) throws DataException;
 
+    // Materiali non assegnati a missioni attive (vedi AvailabilityIndex)
     List<Materiale> getMaterialiDisponibili() throws DataException;
 
+    boolean isMaterialeDisponibile(int id) throws DataException;
+
     List<Materiale> getMaterialiByMissione(int codiceMissione) throws DataException;
 }
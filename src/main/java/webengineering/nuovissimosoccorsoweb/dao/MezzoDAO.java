@@ -11,8 +11,11 @@ public interface MezzoDAO {
 
     List<Mezzo> getAllMezzi() throws DataException;
 
+    // Mezzi non assegnati a missioni attive (vedi AvailabilityIndex)
     List<Mezzo> getMezziDisponibili() throws DataException;
 
+    boolean isMezzoDisponibile(String targa) throws DataException;
+
     List<Mezzo> getMezziByMissione(int codiceMissione) throws DataException;
 
     void storeMezzo(Mezzo mezzo) throws DataException;
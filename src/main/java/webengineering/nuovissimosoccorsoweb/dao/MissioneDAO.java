@@ -1,12 +1,16 @@
 package webengineering.nuovissimosoccorsoweb.dao;
 
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.ResultHandler;
 import webengineering.nuovissimosoccorsoweb.model.Missione;
 import webengineering.nuovissimosoccorsoweb.model.Mezzo;
 import webengineering.nuovissimosoccorsoweb.model.Materiale;
 import webengineering.nuovissimosoccorsoweb.model.PartecipazioneSquadra;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public interface MissioneDAO {
 
@@ -18,15 +22,22 @@ public interface MissioneDAO {
 
     List<Missione> getMissioniByOperatore(int idOperatore) throws DataException;
 
+    // Come getMissioniByOperatore, ma una missione alla volta e senza passare dalla cache
+    int streamMissioniByOperatore(int idOperatore, ResultHandler<Missione> handler) throws DataException;
+
     void storeMissione(Missione missione) throws DataException;
 
     void deleteMissione(int codiceRichiesta) throws DataException;
     
-    void updateNoteMissione(int codiceRichiesta, String nota) throws DataException;
+    // version è la versione letta dal chiamante: se nel frattempo è cambiata viene lanciata OptimisticLockException
+    void updateNoteMissione(int codiceRichiesta, String nota, int version) throws DataException;
 
     // ----- Gestione operatori (squadra) -----
     List<PartecipazioneSquadra> getSquadraByMissione(int codiceMissione) throws DataException;
 
+    // Squadre di più missioni con una sola query (lista vuota per le missioni senza squadra)
+    Map<Integer, List<PartecipazioneSquadra>> getSquadreByMissioni(Collection<Integer> codiciMissione) throws DataException;
+
     void assegnaOperatoreAMissione(int idOperatore, int codiceMissione, String ruolo) throws DataException;
 
     void rimuoviOperatoreDaMissione(int idOperatore, int codiceMissione) throws DataException;
@@ -64,4 +75,12 @@ public interface MissioneDAO {
     List<Integer> getIdMaterialiAssegnati(int codiceMissione) throws DataException;
     
     boolean esisteMissione(int codice) throws DataException;
+
+    // ----- Risorse delle missioni aperte (richiesta "Convalidata" o "Attiva"), per l'indice di disponibilità -----
+
+    Map<Integer, Set<Integer>> getOperatoriMissioniAperte() throws DataException;
+
+    Map<Integer, Set<String>> getMezziMissioniAperte() throws DataException;
+
+    Map<Integer, Set<Integer>> getMaterialiMissioniAperte() throws DataException;
 }
@@ -1,22 +1,43 @@
 package webengineering.nuovissimosoccorsoweb.dao;
 
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.ResultHandler;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public interface OperatoreDAO {
 
     Operatore getOperatoreById(int id) throws DataException;
 
+    // Carica più operatori con una sola query (chiave: id)
+    Map<Integer, Operatore> getOperatoriByIds(Collection<Integer> ids) throws DataException;
+
     Operatore getOperatoreByEmail(String email) throws DataException;
 
     List<Operatore> getAllOperatori() throws DataException;
     
     Operatore getOperatoreByCf (String cf) throws DataException;
 
+    // Operatori non assegnati a missioni attive (vedi AvailabilityIndex)
     List<Operatore> getOperatoriDisponibili() throws DataException;
 
+    boolean isOperatoreDisponibile(int id) throws DataException;
+
+    // Solo gli id degli operatori disponibili, per verificare la disponibilità senza caricare gli operatori
+    Set<Integer> getIdOperatoriDisponibili() throws DataException;
+
+    // Versioni in streaming (un operatore alla volta, senza passare dalla cache) di getAllOperatori e getOperatoriDisponibili
+    int streamAllOperatori(ResultHandler<Operatore> handler) throws DataException;
+
+    int streamOperatoriDisponibili(ResultHandler<Operatore> handler) throws DataException;
+
+    // Legge le colonne escluse dalla proiezione di riepilogo usata dalle liste (la password)
+    void completeOperatore(Operatore operatore) throws DataException;
+
     void storeOperatore(Operatore operatore) throws DataException;
 
     void deleteOperatore(int id) throws DataException;
@@ -4,17 +4,25 @@ import webengineering.framework.data.DataException;
 import webengineering.nuovissimosoccorsoweb.model.Abilita;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface OperatoreHaAbilitaDAO {
 
     List<Abilita> getAbilitaByOperatore(int idOperatore) throws DataException;
 
+    Map<Integer, List<Abilita>> getAbilitaByOperatori(Collection<Integer> idOperatori) throws DataException;
+
     void assegnaAbilita(int idOperatore, int idAbilita) throws DataException;
 
     void rimuoviAbilita(int idOperatore, int idAbilita) throws DataException;
 
     void rimuoviTutteLeAbilita(int idOperatore) throws DataException;
 
+    // Porta le abilità dell'operatore esattamente a quelle date, scrivendo solo le differenze;
+    // restituisce il numero di righe inserite o cancellate (0 se non cambia nulla)
+    int sincronizzaAbilita(int idOperatore, Collection<Integer> idAbilita) throws DataException;
+
     List<Operatore> getOperatoriByAbilita(int idAbilita) throws DataException;
 }
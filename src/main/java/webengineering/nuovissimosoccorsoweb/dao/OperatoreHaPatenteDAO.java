@@ -3,12 +3,16 @@ package webengineering.nuovissimosoccorsoweb.dao;
 import webengineering.framework.data.DataException;
 import webengineering.nuovissimosoccorsoweb.model.TipoPatente;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
 
 public interface OperatoreHaPatenteDAO {
 
     List<TipoPatente> getPatentiByOperatore(int idOperatore) throws DataException;
+
+    Map<Integer, List<TipoPatente>> getPatentiByOperatori(Collection<Integer> idOperatori) throws DataException;
     
     List<Operatore> getOperatoriByPatente(TipoPatente tipo) throws DataException;
 
@@ -17,4 +21,8 @@ public interface OperatoreHaPatenteDAO {
     void rimuoviPatente(int idOperatore, TipoPatente tipo) throws DataException;
 
     void rimuoviTutteLePatenti(int idOperatore) throws DataException;
+
+    // Porta le patenti dell'operatore esattamente a quelle date, scrivendo solo le differenze;
+    // restituisce il numero di righe inserite o cancellate (0 se non cambia nulla)
+    int sincronizzaPatenti(int idOperatore, Collection<TipoPatente> patenti) throws DataException;
 }
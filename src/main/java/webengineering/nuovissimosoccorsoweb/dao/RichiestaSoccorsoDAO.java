@@ -1,14 +1,40 @@
 package webengineering.nuovissimosoccorsoweb.dao;
 
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.ResultHandler;
 import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface RichiestaSoccorsoDAO {
 
+    /**
+     * Recupera una richiesta completa (tutte le colonne). Le liste usano
+     * invece una proiezione di riepilogo senza foto, stringa e ip, che
+     * vengono letti al primo accesso.
+     *
+     * @param codice Codice della richiesta
+     * @return La richiesta o null
+     */
     RichiestaSoccorso getRichiestaByCodice(int codice) throws DataException;
 
+    /**
+     * Legge le colonne escluse dalla proiezione di riepilogo.
+     *
+     * @param richiesta Richiesta caricata parzialmente
+     */
+    void completeRichiesta(RichiestaSoccorso richiesta) throws DataException;
+
+    /**
+     * Recupera più richieste con una sola query.
+     *
+     * @param codici Codici delle richieste
+     * @return Mappa codice -> richiesta (i codici inesistenti non compaiono)
+     */
+    Map<Integer, RichiestaSoccorso> getRichiesteByCodici(Collection<Integer> codici) throws DataException;
+
     List<RichiestaSoccorso> getAllRichieste() throws DataException;
 
     List<RichiestaSoccorso> getRichiesteByStato(String stato) throws DataException;
@@ -17,7 +43,9 @@ public interface RichiestaSoccorsoDAO {
 
     List<RichiestaSoccorso> getRichiesteConvalidateNonGestite() throws DataException;
 
-    void updateStato(int codice, String nuovoStato) throws DataException;
+    // La tabella non ha una colonna version: lo stato fa da versione. L'aggiornamento riesce solo se
+    // la richiesta è ancora in statoAtteso, altrimenti viene lanciata OptimisticLockException
+    void updateStato(int codice, String statoAtteso, String nuovoStato) throws DataException;
 
     void storeRichiesta(RichiestaSoccorso richiesta) throws DataException;
 
@@ -43,6 +71,21 @@ public interface RichiestaSoccorsoDAO {
      */
     int countRichiesteByStato(String stato) throws DataException;
 
+    /**
+     * Conta le richieste di tutti gli stati con una sola query (GROUP BY stato).
+     *
+     * @return Numero di richieste per ciascuno stato presente nella tabella
+     */
+    Map<String, Integer> countRichiestePerStato() throws DataException;
+
+    /**
+     * Stato delle richieste aperte ("Convalidata" e "Attiva"), letto dal
+     * primario: serve a costruire l'indice di disponibilità delle risorse.
+     *
+     * @return Stato per codice richiesta
+     */
+    Map<Integer, String> getStatiRichiesteAperte() throws DataException;
+
     /**
      * Recupera richieste chiuse con livello di successo specifico. Questo
      * metodo è per la specifica "richieste non totalmente positive".
@@ -59,4 +102,60 @@ public interface RichiestaSoccorsoDAO {
      */
     int countRichiesteChiuseByLivelloSuccesso(int maxLivelloSuccesso) throws DataException;
 
+    /**
+     * Recupera una pagina delle richieste visibili nelle liste, cioè tutte
+     * tranne quelle 'Inviata' (non ancora convalidate dal segnalante), in
+     * ordine di codice decrescente.
+     *
+     * @param stato Stato delle richieste (null per tutte)
+     * @param offset Offset per la paginazione (0-based)
+     * @param limit Numero massimo di risultati
+     * @return Lista delle richieste
+     */
+    List<RichiestaSoccorso> getRichiesteVisibili(String stato, int offset, int limit) throws DataException;
+
+    /**
+     * Conta le richieste visibili nelle liste (vedi getRichiesteVisibili).
+     *
+     * @param stato Stato delle richieste (null per tutte)
+     * @return Numero totale di richieste
+     */
+    int countRichiesteVisibili(String stato) throws DataException;
+
+    /**
+     * Scorre tutte le richieste visibili nelle liste (vedi
+     * getRichiesteVisibili) passandole una alla volta al gestore, senza
+     * caricarle tutte in memoria. Le richieste lette non entrano nella cache.
+     *
+     * @param stato Stato delle richieste (null per tutte)
+     * @param handler Gestore chiamato per ogni richiesta
+     * @return Numero di richieste lette
+     */
+    int streamRichiesteVisibili(String stato, ResultHandler<RichiestaSoccorso> handler) throws DataException;
+
+    /**
+     * Paginazione a chiave (keyset): restituisce le richieste con codice
+     * minore di afterCodice, in ordine di codice decrescente, senza scorrere le
+     * pagine precedenti. Come nelle liste, sono escluse le richieste 'Inviata'
+     * (non ancora convalidate dal segnalante).
+     *
+     * @param stato Stato delle richieste (null per tutte)
+     * @param afterCodice Codice dell'ultima richiesta della pagina precedente
+     * (null per la prima pagina)
+     * @param limit Numero massimo di risultati
+     * @return Lista delle richieste
+     */
+    List<RichiestaSoccorso> getRichiesteVisibiliAfter(String stato, Integer afterCodice, int limit) throws DataException;
+
+    /**
+     * Versione a chiave (keyset) di getRichiesteChiuseByLivelloSuccesso.
+     *
+     * @param maxLivelloSuccesso Livello massimo di successo (esclusivo)
+     * @param afterCodice Codice dell'ultima richiesta della pagina precedente
+     * (null per la prima pagina)
+     * @param limit Numero massimo di risultati
+     * @return Lista delle richieste
+     */
+    List<RichiestaSoccorso> getRichiesteChiuseByLivelloSuccessoAfter(int maxLivelloSuccesso, Integer afterCodice, int limit) throws DataException;
+
 }
@@ -2,13 +2,17 @@ package webengineering.nuovissimosoccorsoweb.dao.impl;
 
 import webengineering.framework.data.DataException;
 import webengineering.framework.data.DataLayer;
+import webengineering.framework.data.OptimisticLockException;
 import webengineering.nuovissimosoccorsoweb.dao.AbilitaDAO;
 import webengineering.nuovissimosoccorsoweb.model.Abilita;
 import webengineering.nuovissimosoccorsoweb.model.impl.proxy.AbilitaProxy;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import webengineering.framework.data.DAO;
 import webengineering.nuovissimosoccorsoweb.model.TipoAbilita;
 
@@ -18,12 +22,27 @@ public class AbilitaDAO_MySQL extends DAO implements AbilitaDAO {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getAbilitaById", "SELECT * FROM abilita WHERE id = ?");
+        registerCachedQuery("getAllAbilita", "SELECT * FROM abilita", "abilita");
+        registerStatement("getAbilitaByOperatore", "SELECT a.* FROM abilita a JOIN ha_abilita ha ON a.id = ha.id_abilita WHERE ha.id_op = ?");
+        registerStatement("aggiungiAbilitaAOperatore", "INSERT IGNORE INTO ha_abilita (id_op, id_abilita) VALUES (?, ?)");
+        registerStatement("rimuoviAbilitaDaOperatore", "DELETE FROM ha_abilita WHERE id_op = ? AND id_abilita = ?");
+        registerStatement("storeAbilita.update", "UPDATE abilita SET tipo = ?, version = version + 1 WHERE id = ? AND version = ?");
+        registerStatement("storeAbilita.insert", "INSERT INTO abilita (tipo) VALUES (?)", Statement.RETURN_GENERATED_KEYS);
+    }
+
     @Override
     public Abilita getAbilitaById(int id) throws DataException {
-        Abilita abilita = null;
+        Abilita abilita = dataLayer.getCache().get(Abilita.class, id);
+        if (abilita != null) {
+            return abilita;
+        }
 
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM abilita WHERE id = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getAbilitaById");
             stmt.setInt(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -41,8 +60,7 @@ public class AbilitaDAO_MySQL extends DAO implements AbilitaDAO {
     public List<Abilita> getAllAbilita() throws DataException {
         List<Abilita> abilita = new ArrayList<>();
 
-        try (Statement stmt = dataLayer.getConnection().createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT * FROM abilita")) {
+        try (ResultSet rs = cachedQuery("getAllAbilita")) {
             while (rs.next()) {
                 abilita.add(makeAbilita(rs));
             }
@@ -57,8 +75,8 @@ public class AbilitaDAO_MySQL extends DAO implements AbilitaDAO {
     public List<Abilita> getAbilitaByOperatore(int idOperatore) throws DataException {
         List<Abilita> abilita = new ArrayList<>();
 
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT a.* FROM abilita a JOIN ha_abilita ha ON a.id = ha.id_abilita WHERE ha.id_op = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getAbilitaByOperatore");
             stmt.setInt(1, idOperatore);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -72,10 +90,39 @@ public class AbilitaDAO_MySQL extends DAO implements AbilitaDAO {
         return abilita;
     }
 
+    @Override
+    public Map<Integer, List<Abilita>> getAbilitaByOperatori(Collection<Integer> idOperatori) throws DataException {
+        Map<Integer, List<Abilita>> result = new HashMap<>();
+        for (Integer id : idOperatori) {
+            result.put(id, new ArrayList<>());
+        }
+        if (result.isEmpty()) {
+            return result;
+        }
+
+        try (PreparedStatement stmt = dataLayer.getReadConnection().prepareStatement(
+                "SELECT a.*, ha.id_op FROM abilita a JOIN ha_abilita ha ON a.id = ha.id_abilita WHERE ha.id_op IN ("
+                + placeholders(result.size()) + ")")) {
+            int i = 1;
+            for (Integer id : result.keySet()) {
+                stmt.setInt(i++, id);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.get(rs.getInt("id_op")).add(makeAbilita(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero delle abilità degli operatori", e);
+        }
+
+        return result;
+    }
+
     @Override
     public void aggiungiAbilitaAOperatore(int idOperatore, int idAbilita) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT IGNORE INTO ha_abilita (id_op, id_abilita) VALUES (?, ?)")) {
+        try {
+            PreparedStatement stmt = getStatement("aggiungiAbilitaAOperatore");
             stmt.setInt(1, idOperatore);
             stmt.setInt(2, idAbilita);
             stmt.executeUpdate();
@@ -86,8 +133,8 @@ public class AbilitaDAO_MySQL extends DAO implements AbilitaDAO {
 
     @Override
     public void rimuoviAbilitaDaOperatore(int idOperatore, int idAbilita) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM ha_abilita WHERE id_op = ? AND id_abilita = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("rimuoviAbilitaDaOperatore");
             stmt.setInt(1, idOperatore);
             stmt.setInt(2, idAbilita);
             stmt.executeUpdate();
@@ -100,19 +147,25 @@ public class AbilitaDAO_MySQL extends DAO implements AbilitaDAO {
     public void storeAbilita(Abilita abilita) throws DataException {
         if (abilita.getId() > 0) {
             // UPDATE
-            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                    "UPDATE abilita SET tipo = ?, version = ? WHERE id = ?")) {
+            try {
+                PreparedStatement stmt = getStatement("storeAbilita.update");
                 stmt.setString(1, abilita.getTipo().name());
-                stmt.setInt(2, abilita.getVersion());
-                stmt.setInt(3, abilita.getId());
-                stmt.executeUpdate();
+                stmt.setInt(2, abilita.getId());
+                stmt.setInt(3, abilita.getVersion());
+                int rowsAffected = stmt.executeUpdate();
+                dataLayer.getCache().delete(Abilita.class, abilita.getId());
+                // nessuna riga: l'abilità è stata modificata (o cancellata) da un'altra richiesta
+                if (rowsAffected == 0) {
+                    throw new OptimisticLockException(Abilita.class, abilita.getId());
+                }
+                abilita.setVersion(abilita.getVersion() + 1);
             } catch (SQLException e) {
                 throw new DataException("Errore nell'aggiornamento dell'abilità", e);
             }
         } else {
             // INSERT
-            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                    "INSERT INTO abilita (tipo) VALUES (?)", Statement.RETURN_GENERATED_KEYS)) {
+            try {
+                PreparedStatement stmt = getStatement("storeAbilita.insert");
                 stmt.setString(1, abilita.getTipo().name());
                 stmt.executeUpdate();
 
@@ -128,7 +181,12 @@ public class AbilitaDAO_MySQL extends DAO implements AbilitaDAO {
     }
 
     private Abilita makeAbilita(ResultSet rs) throws SQLException {
-        Abilita abilita = new AbilitaProxy();
+        // Identity map: riusa l'istanza già caricata in questa richiesta
+        Abilita cached = dataLayer.getCache().getLocal(Abilita.class, rs.getInt("id"));
+        if (cached != null) {
+            return cached;
+        }
+        AbilitaProxy abilita = new AbilitaProxy();
         abilita.setId(rs.getInt("id"));
 
         // Usa il metodo fromString di TipoAbilita che gestisce spazi -> underscore
@@ -142,6 +200,8 @@ public class AbilitaDAO_MySQL extends DAO implements AbilitaDAO {
         }
 
         abilita.setVersion(rs.getInt("version"));
+        abilita.setModified(false);
+        dataLayer.getCache().add(Abilita.class, abilita.getId(), abilita);
         return abilita;
     }
 }
@@ -17,11 +17,20 @@ public class AggiornaMaterialeDAO_MySQL extends DAO implements AggiornaMateriale
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getAggiornamentiByMateriale", "SELECT * FROM aggiorna_materiale WHERE id_materiale = ?");
+        registerStatement("getAggiornamentiByAmministratore", "SELECT * FROM aggiorna_materiale WHERE id_am = ?");
+        registerStatement("storeAggiornamento", "INSERT INTO aggiorna_materiale (id_materiale, nota, id_am) VALUES (?, ?, ?)");
+        registerStatement("deleteAggiornamento", "DELETE FROM aggiorna_materiale WHERE id_materiale = ? AND id_am = ? AND nota = ?");
+    }
+
     @Override
     public List<AggiornaMateriale> getAggiornamentiByMateriale(int idMateriale) throws DataException {
         List<AggiornaMateriale> list = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM aggiorna_materiale WHERE id_materiale = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getAggiornamentiByMateriale");
             stmt.setInt(1, idMateriale);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -37,8 +46,8 @@ public class AggiornaMaterialeDAO_MySQL extends DAO implements AggiornaMateriale
     @Override
     public List<AggiornaMateriale> getAggiornamentiByAmministratore(int idAmministratore) throws DataException {
         List<AggiornaMateriale> list = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM aggiorna_materiale WHERE id_am = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getAggiornamentiByAmministratore");
             stmt.setInt(1, idAmministratore);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -53,8 +62,8 @@ public class AggiornaMaterialeDAO_MySQL extends DAO implements AggiornaMateriale
 
     @Override
     public void storeAggiornamento(AggiornaMateriale agg) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT INTO aggiorna_materiale (id_materiale, nota, id_am) VALUES (?, ?, ?)")) {
+        try {
+            PreparedStatement stmt = getStatement("storeAggiornamento");
             stmt.setInt(1, agg.getIdMateriale());
             stmt.setString(2, agg.getNota());
             stmt.setInt(3, agg.getIdAmministratore());
@@ -66,8 +75,8 @@ public class AggiornaMaterialeDAO_MySQL extends DAO implements AggiornaMateriale
 
     @Override
     public void deleteAggiornamento(int idMateriale, int idAmministratore, String nota) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM aggiorna_materiale WHERE id_materiale = ? AND id_am = ? AND nota = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deleteAggiornamento");
             stmt.setInt(1, idMateriale);
             stmt.setInt(2, idAmministratore);
             stmt.setString(3, nota);
@@ -17,11 +17,20 @@ public class AggiornaMezzoDAO_MySQL extends DAO implements AggiornaMezzoDAO {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getAggiornamentiByTarga", "SELECT * FROM aggiorna_mezzo WHERE targa = ?");
+        registerStatement("getAggiornamentiByAmministratore", "SELECT * FROM aggiorna_mezzo WHERE id_am = ?");
+        registerStatement("storeAggiornamento", "INSERT INTO aggiorna_mezzo (targa, nota, id_am) VALUES (?, ?, ?)");
+        registerStatement("deleteAggiornamento", "DELETE FROM aggiorna_mezzo WHERE targa = ? AND id_am = ? AND nota = ?");
+    }
+
     @Override
     public List<AggiornaMezzo> getAggiornamentiByTarga(String targa) throws DataException {
         List<AggiornaMezzo> list = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM aggiorna_mezzo WHERE targa = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getAggiornamentiByTarga");
             stmt.setString(1, targa);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -37,8 +46,8 @@ public class AggiornaMezzoDAO_MySQL extends DAO implements AggiornaMezzoDAO {
     @Override
     public List<AggiornaMezzo> getAggiornamentiByAmministratore(int idAmministratore) throws DataException {
         List<AggiornaMezzo> list = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM aggiorna_mezzo WHERE id_am = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getAggiornamentiByAmministratore");
             stmt.setInt(1, idAmministratore);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -53,8 +62,8 @@ public class AggiornaMezzoDAO_MySQL extends DAO implements AggiornaMezzoDAO {
 
     @Override
     public void storeAggiornamento(AggiornaMezzo agg) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT INTO aggiorna_mezzo (targa, nota, id_am) VALUES (?, ?, ?)")) {
+        try {
+            PreparedStatement stmt = getStatement("storeAggiornamento");
             stmt.setString(1, agg.getTarga());
             stmt.setString(2, agg.getNota());
             stmt.setInt(3, agg.getIdAmministratore());
@@ -66,8 +75,8 @@ public class AggiornaMezzoDAO_MySQL extends DAO implements AggiornaMezzoDAO {
 
     @Override
     public void deleteAggiornamento(String targa, int idAmministratore, String nota) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM aggiorna_mezzo WHERE targa = ? AND id_am = ? AND nota = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deleteAggiornamento");
             stmt.setString(1, targa);
             stmt.setInt(2, idAmministratore);
             stmt.setString(3, nota);
@@ -13,16 +13,33 @@ import java.util.List;
 
 public class AmministratoreDAO_MySQL extends DAO implements AmministratoreDAO {
 
+    // Proiezione di riepilogo per le liste: tutto tranne la password, letta al primo accesso (vedi AmministratoreProxy)
+    private static final String SUMMARY = "id, nome, cognome, cf, email, id_creatore, version";
+
     public AmministratoreDAO_MySQL(DataLayer dataLayer) {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getAmministratoreById", "SELECT * FROM amministratore WHERE id = ?");
+        registerStatement("getAmministratoreByEmail", "SELECT * FROM amministratore WHERE email = ?");
+        registerStatement("getAmministratoreByCf", "SELECT * FROM amministratore WHERE cf = ?");
+        registerStatement("completeAmministratore", "SELECT password FROM amministratore WHERE id = ?");
+        registerStatement("deleteAmministratore", "DELETE FROM amministratore WHERE id = ?");
+        registerStatement("storeAmministratore", "INSERT INTO amministratore (nome, cognome, cf, email, password, id_creatore, version) VALUES (?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+    }
+
     @Override
     public Amministratore getAmministratoreById(int id) throws DataException {
-        Amministratore a = null;
+        Amministratore a = dataLayer.getCache().get(Amministratore.class, id);
+        if (a != null) {
+            return a;
+        }
 
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM amministratore WHERE id = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getAmministratoreById");
             stmt.setInt(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -40,8 +57,8 @@ public class AmministratoreDAO_MySQL extends DAO implements AmministratoreDAO {
     public Amministratore getAmministratoreByEmail(String email) throws DataException {
         Amministratore a = null;
 
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM amministratore WHERE email = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getAmministratoreByEmail");
             stmt.setString(1, email);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -59,10 +76,10 @@ public class AmministratoreDAO_MySQL extends DAO implements AmministratoreDAO {
     public List<Amministratore> getAllAmministratori() throws DataException {
         List<Amministratore> result = new ArrayList<>();
 
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT * FROM amministratore")) {
+        try (Statement stmt = dataLayer.getReadConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT " + SUMMARY + " FROM amministratore")) {
             while (rs.next()) {
-                result.add(makeAmministratore(rs));
+                result.add(makeAmministratoreSummary(rs));
             }
         } catch (SQLException e) {
             throw new DataException("Errore nel recupero della lista degli amministratori", e);
@@ -75,8 +92,8 @@ public class AmministratoreDAO_MySQL extends DAO implements AmministratoreDAO {
     public Amministratore getAmministratoreByCf(String cf) throws DataException {
         Amministratore a = null;
 
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM amministratore WHERE cf = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getAmministratoreByCf");
             stmt.setString(1, cf);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -90,12 +107,32 @@ public class AmministratoreDAO_MySQL extends DAO implements AmministratoreDAO {
         return a;
     }
 
+    @Override
+    public void completeAmministratore(Amministratore amministratore) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("completeAmministratore");
+            stmt.setInt(1, amministratore.getId());
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    if (amministratore instanceof AmministratoreProxy) {
+                        ((AmministratoreProxy) amministratore).loadPassword(rs.getString("password"));
+                    } else {
+                        amministratore.setPassword(rs.getString("password"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel caricamento dei dettagli dell'amministratore", e);
+        }
+    }
+
     @Override
     public void deleteAmministratore(int id) throws DataException {
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "DELETE FROM amministratore WHERE id = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deleteAmministratore");
             stmt.setInt(1, id);
             stmt.executeUpdate();
+            dataLayer.getCache().delete(Amministratore.class, id);
         } catch (SQLException e) {
             throw new DataException("Errore nella cancellazione dell'amministratore", e);
         }
@@ -103,9 +140,8 @@ public class AmministratoreDAO_MySQL extends DAO implements AmministratoreDAO {
 
     @Override
     public void storeAmministratore(Amministratore amministratore) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT INTO amministratore (nome, cognome, cf, email, password, id_creatore, version) VALUES (?, ?, ?, ?, ?, ?, ?)",
-                Statement.RETURN_GENERATED_KEYS)) {
+        try {
+            PreparedStatement stmt = getStatement("storeAmministratore");
 
             stmt.setString(1, amministratore.getNome());
             stmt.setString(2, amministratore.getCognome());
@@ -130,7 +166,39 @@ public class AmministratoreDAO_MySQL extends DAO implements AmministratoreDAO {
         }
     }
 
+    // Amministratore completo (tutte le colonne)
     private Amministratore makeAmministratore(ResultSet rs) throws SQLException {
+        // Identity map: riusa l'istanza già caricata in questa richiesta
+        Amministratore cached = dataLayer.getCache().getLocal(Amministratore.class, rs.getInt("id"));
+        if (cached != null) {
+            // se era stato caricato con la proiezione di riepilogo lo completiamo con questa riga
+            if (cached instanceof AmministratoreProxy && ((AmministratoreProxy) cached).isPartial()) {
+                ((AmministratoreProxy) cached).loadPassword(rs.getString("password"));
+            }
+            return cached;
+        }
+
+        Amministratore admin = buildAmministratore(rs, true);
+        dataLayer.getCache().add(Amministratore.class, admin.getId(), admin);
+
+        return admin;
+    }
+
+    // Amministratore con la sola proiezione di riepilogo (SUMMARY)
+    private Amministratore makeAmministratoreSummary(ResultSet rs) throws SQLException {
+        Amministratore cached = dataLayer.getCache().getLocal(Amministratore.class, rs.getInt("id"));
+        if (cached != null) {
+            return cached;
+        }
+
+        Amministratore admin = buildAmministratore(rs, false);
+        // gli amministratori parziali restano nella cache della richiesta: non vanno condivisi
+        dataLayer.getCache().addLocal(Amministratore.class, admin.getId(), admin);
+
+        return admin;
+    }
+
+    private Amministratore buildAmministratore(ResultSet rs, boolean full) throws SQLException {
         // Usa lo stesso pattern dell'OperatoreProxy
         AmministratoreProxy admin = new AmministratoreProxy();
         admin.setDataLayer(dataLayer); // Imposta il DataLayer separatamente
@@ -140,11 +208,16 @@ public class AmministratoreDAO_MySQL extends DAO implements AmministratoreDAO {
         admin.setCognome(rs.getString("cognome"));
         admin.setCf(rs.getString("cf"));
         admin.setEmail(rs.getString("email"));
-        admin.setPassword(rs.getString("password"));
+        if (full) {
+            admin.setPassword(rs.getString("password"));
+        } else {
+            admin.setPartial(true);
+        }
         admin.setIdCreatore(rs.getInt("id_creatore"));
         admin.setVersion(rs.getInt("version"));
 
         admin.setRuolo("amministratore");
+        admin.setModified(false);
 
         return admin;
     }
@@ -2,27 +2,47 @@ package webengineering.nuovissimosoccorsoweb.dao.impl;
 
 import webengineering.framework.data.DataException;
 import webengineering.framework.data.DataLayer;
+import webengineering.framework.data.DataWriter;
 import webengineering.nuovissimosoccorsoweb.dao.InfoMissioneDAO;
 import webengineering.nuovissimosoccorsoweb.model.InfoMissione;
 import webengineering.nuovissimosoccorsoweb.model.impl.proxy.InfoMissioneProxy;
+import webengineering.nuovissimosoccorsoweb.service.DashboardStatsService;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import webengineering.framework.data.DAO;
 
-public class InfoMissioneDAO_MySQL extends DAO implements InfoMissioneDAO {
+public class InfoMissioneDAO_MySQL extends DAO implements InfoMissioneDAO, DataWriter<InfoMissione> {
 
     public InfoMissioneDAO_MySQL(DataLayer dataLayer) {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getInfoByCodiceMissione", "SELECT * FROM info_missione WHERE codice_missione = ?");
+        registerStatement("storeInfoMissione.update", "UPDATE info_missione SET successo = ?, commento = ?, data_ora_fine = ? WHERE codice_missione = ?");
+        registerStatement("storeInfoMissione.insert", "INSERT INTO info_missione (codice_missione, successo, commento, data_ora_fine) VALUES (?, ?, ?, ?)");
+        registerStatement("deleteInfoMissione", "DELETE FROM info_missione WHERE codice_missione = ?");
+        registerStatement("countInfoMissioni", "SELECT COUNT(*) FROM info_missione");
+    }
+
     @Override
     public InfoMissione getInfoByCodiceMissione(int codiceMissione) throws DataException {
-        InfoMissione info = null;
+        InfoMissione info = dataLayer.getCache().get(InfoMissione.class, codiceMissione);
+        if (info != null) {
+            return info;
+        }
 
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM info_missione WHERE codice_missione = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getInfoByCodiceMissione");
             stmt.setInt(1, codiceMissione);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -35,11 +55,45 @@ public class InfoMissioneDAO_MySQL extends DAO implements InfoMissioneDAO {
 
         return info;
     }
+
+    @Override
+    public Map<Integer, InfoMissione> getInfoByCodiciMissione(Collection<Integer> codiciMissione) throws DataException {
+        Map<Integer, InfoMissione> result = new HashMap<>();
+        // Prima la cache, poi una sola query (IN) per le chiavi mancanti
+        Set<Integer> mancanti = new LinkedHashSet<>();
+        for (Integer k : codiciMissione) {
+            InfoMissione cached = dataLayer.getCache().get(InfoMissione.class, k);
+            if (cached != null) {
+                result.put(k, cached);
+            } else {
+                mancanti.add(k);
+            }
+        }
+        if (mancanti.isEmpty()) {
+            return result;
+        }
+        try (PreparedStatement stmt = dataLayer.getReadConnection().prepareStatement(
+                "SELECT * FROM info_missione WHERE codice_missione IN (" + placeholders(mancanti.size()) + ")")) {
+            int i = 1;
+            for (Integer k : mancanti) {
+                stmt.setInt(i++, k);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    InfoMissione info = makeInfo(rs);
+                    result.put(info.getCodiceMissione(), info);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero di info_missione", e);
+        }
+        return result;
+    }
     
     @Override
     public List<InfoMissione> getAllInfoMissioni() throws DataException {
         List<InfoMissione> list = new ArrayList<>();
-        try (Statement stmt = dataLayer.getConnection().createStatement(); ResultSet rs = stmt.executeQuery("SELECT * FROM info_missione ORDER BY data_ora_fine DESC")) {
+        try (Statement stmt = dataLayer.getReadConnection().createStatement(); ResultSet rs = stmt.executeQuery("SELECT * FROM info_missione ORDER BY data_ora_fine DESC")) {
             while (rs.next()) {
                 list.add(makeInfo(rs));
             }
@@ -49,29 +103,46 @@ public class InfoMissioneDAO_MySQL extends DAO implements InfoMissioneDAO {
         return list;
     }
 
+    @Override
+    public int countInfoMissioni() throws DataException {
+        try {
+            PreparedStatement stmt = getReadStatement("countInfoMissioni");
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel conteggio di info_missione", e);
+        }
+        return 0;
+    }
+
     @Override
     public void storeInfoMissione(InfoMissione info) throws DataException {
         if (getInfoByCodiceMissione(info.getCodiceMissione()) != null) {
             // UPDATE
-            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                    "UPDATE info_missione SET successo = ?, commento = ?, data_ora_fine = ? WHERE codice_missione = ?")) {
+            try {
+                PreparedStatement stmt = getStatement("storeInfoMissione.update");
                 stmt.setInt(1, info.getSuccesso());
                 stmt.setString(2, info.getCommento());
                 stmt.setTimestamp(3, Timestamp.valueOf(info.getDataOraFine()));
                 stmt.setInt(4, info.getCodiceMissione());
                 stmt.executeUpdate();
+                dataLayer.getCache().delete(InfoMissione.class, info.getCodiceMissione());
             } catch (SQLException e) {
                 throw new DataException("Errore nell'aggiornamento di info_missione", e);
             }
         } else {
             // INSERT
-            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                    "INSERT INTO info_missione (codice_missione, successo, commento, data_ora_fine) VALUES (?, ?, ?, ?)")) {
+            try {
+                PreparedStatement stmt = getStatement("storeInfoMissione.insert");
                 stmt.setInt(1, info.getCodiceMissione());
                 stmt.setInt(2, info.getSuccesso());
                 stmt.setString(3, info.getCommento());
                 stmt.setTimestamp(4, Timestamp.valueOf(info.getDataOraFine()));
                 stmt.executeUpdate();
+                dataLayer.afterCommit(() -> DashboardStatsService.getInstance().missioneConclusa());
             } catch (SQLException e) {
                 throw new DataException("Errore nell'inserimento di info_missione", e);
             }
@@ -80,22 +151,91 @@ public class InfoMissioneDAO_MySQL extends DAO implements InfoMissioneDAO {
 
     @Override
     public void deleteInfoMissione(int codiceMissione) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM info_missione WHERE codice_missione = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deleteInfoMissione");
             stmt.setInt(1, codiceMissione);
             stmt.executeUpdate();
+            dataLayer.getCache().delete(InfoMissione.class, codiceMissione);
+        } catch (SQLException e) {
+            throw new DataException("Errore nella cancellazione di info_missione", e);
+        }
+    }
+
+    // ----- DataWriter: scritture a lotti della UnitOfWork -----
+
+    @Override
+    public void insert(List<InfoMissione> infos) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("storeInfoMissione.insert");
+            for (InfoMissione info : infos) {
+                stmt.setInt(1, info.getCodiceMissione());
+                stmt.setInt(2, info.getSuccesso());
+                stmt.setString(3, info.getCommento());
+                stmt.setTimestamp(4, Timestamp.valueOf(info.getDataOraFine()));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            dataLayer.afterCommit(() -> {
+                for (int i = 0; i < infos.size(); ++i) {
+                    DashboardStatsService.getInstance().missioneConclusa();
+                }
+            });
+        } catch (SQLException e) {
+            throw new DataException("Errore nell'inserimento di info_missione", e);
+        }
+    }
+
+    @Override
+    public void update(List<InfoMissione> infos) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("storeInfoMissione.update");
+            for (InfoMissione info : infos) {
+                stmt.setInt(1, info.getSuccesso());
+                stmt.setString(2, info.getCommento());
+                stmt.setTimestamp(3, Timestamp.valueOf(info.getDataOraFine()));
+                stmt.setInt(4, info.getCodiceMissione());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            for (InfoMissione info : infos) {
+                dataLayer.getCache().delete(InfoMissione.class, info.getCodiceMissione());
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nell'aggiornamento di info_missione", e);
+        }
+    }
+
+    @Override
+    public void delete(List<InfoMissione> infos) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("deleteInfoMissione");
+            for (InfoMissione info : infos) {
+                stmt.setInt(1, info.getCodiceMissione());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            for (InfoMissione info : infos) {
+                dataLayer.getCache().delete(InfoMissione.class, info.getCodiceMissione());
+            }
         } catch (SQLException e) {
             throw new DataException("Errore nella cancellazione di info_missione", e);
         }
     }
 
     private InfoMissione makeInfo(ResultSet rs) throws SQLException {
-        InfoMissione info = new InfoMissioneProxy();
+        // Identity map: riusa l'istanza già caricata in questa richiesta
+        InfoMissione cached = dataLayer.getCache().getLocal(InfoMissione.class, rs.getInt("codice_missione"));
+        if (cached != null) {
+            return cached;
+        }
+        InfoMissioneProxy info = new InfoMissioneProxy();
         info.setCodiceMissione(rs.getInt("codice_missione"));
         info.setSuccesso(rs.getInt("successo"));
         info.setCommento(rs.getString("commento"));
         info.setDataOraFine(rs.getTimestamp("data_ora_fine").toLocalDateTime());
         info.setVersion(1); // oppure leggi da colonna se esistente
+        info.setModified(false);
+        dataLayer.getCache().add(InfoMissione.class, info.getCodiceMissione(), info);
         return info;
     }
 }
@@ -2,28 +2,48 @@ package webengineering.nuovissimosoccorsoweb.dao.impl;
 
 import webengineering.framework.data.DataException;
 import webengineering.framework.data.DataLayer;
+import webengineering.framework.data.OptimisticLockException;
 import webengineering.nuovissimosoccorsoweb.dao.MaterialeDAO;
 import webengineering.nuovissimosoccorsoweb.model.Materiale;
 import webengineering.nuovissimosoccorsoweb.model.impl.proxy.MaterialeProxy;
+import webengineering.nuovissimosoccorsoweb.service.AvailabilityIndex;
+import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import webengineering.framework.data.DAO;
 
 public class MaterialeDAO_MySQL extends DAO implements MaterialeDAO {
 
+    // Colonne lette da makeMateriale
+    private static final String COLUMNS = "id, nome, descrizione, version";
+
 
     public MaterialeDAO_MySQL(DataLayer dataLayer) {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getMaterialeById", "SELECT * FROM materiale WHERE id = ?");
+        registerStatement("storeMateriale.update", "UPDATE materiale SET nome = ?, descrizione = ?, version = version + 1 WHERE id = ? AND version = ?");
+        registerStatement("storeMateriale.insert", "INSERT INTO materiale (nome, descrizione, version) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+        registerStatement("deleteMateriale", "DELETE FROM materiale WHERE id = ?");
+        registerStatement("getMaterialiByMissione", "SELECT m.* FROM materiale m JOIN utilizza_materiale um ON m.id = um.id_materiale WHERE um.codice_missione = ?");
+    }
+
     @Override
     public Materiale getMaterialeById(int id) throws DataException {
-        Materiale materiale = null;
+        Materiale materiale = dataLayer.getCache().get(Materiale.class, id);
+        if (materiale != null) {
+            return materiale;
+        }
 
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM materiale WHERE id = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getMaterialeById");
             stmt.setInt(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -41,7 +61,7 @@ public class MaterialeDAO_MySQL extends DAO implements MaterialeDAO {
     public List<Materiale> getAllMateriali() throws DataException {
         List<Materiale> result = new ArrayList<>();
 
-        try (Statement stmt = dataLayer.getConnection().createStatement();
+        try (Statement stmt = dataLayer.getReadConnection().createStatement();
              ResultSet rs = stmt.executeQuery("SELECT * FROM materiale")) {
             while (rs.next()) {
                 result.add(makeMateriale(rs));
@@ -57,21 +77,26 @@ public class MaterialeDAO_MySQL extends DAO implements MaterialeDAO {
     public void storeMateriale(Materiale materiale) throws DataException {
         if (materiale.getId() > 0) {
             // UPDATE
-            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                    "UPDATE materiale SET nome = ?, descrizione = ?, version = ? WHERE id = ?")) {
+            try {
+                PreparedStatement stmt = getStatement("storeMateriale.update");
                 stmt.setString(1, materiale.getNome());
                 stmt.setString(2, materiale.getDescrizione());
-                stmt.setInt(3, materiale.getVersion());
-                stmt.setInt(4, materiale.getId());
-                stmt.executeUpdate();
+                stmt.setInt(3, materiale.getId());
+                stmt.setInt(4, materiale.getVersion());
+                int rowsAffected = stmt.executeUpdate();
+                dataLayer.getCache().delete(Materiale.class, materiale.getId());
+                // nessuna riga: il materiale è stato modificato (o cancellato) da un'altra richiesta
+                if (rowsAffected == 0) {
+                    throw new OptimisticLockException(Materiale.class, materiale.getId());
+                }
+                materiale.setVersion(materiale.getVersion() + 1);
             } catch (SQLException e) {
                 throw new DataException("Errore nell'aggiornamento del materiale", e);
             }
         } else {
             // INSERT
-            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                    "INSERT INTO materiale (nome, descrizione, version) VALUES (?, ?, ?)",
-                    Statement.RETURN_GENERATED_KEYS)) {
+            try {
+                PreparedStatement stmt = getStatement("storeMateriale.insert");
                 stmt.setString(1, materiale.getNome());
                 stmt.setString(2, materiale.getDescrizione());
                 stmt.setInt(3, materiale.getVersion());
@@ -90,10 +115,11 @@ public class MaterialeDAO_MySQL extends DAO implements MaterialeDAO {
 
     @Override
     public void deleteMateriale(int id) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM materiale WHERE id = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deleteMateriale");
             stmt.setInt(1, id);
             stmt.executeUpdate();
+            dataLayer.getCache().delete(Materiale.class, id);
         } catch (SQLException e) {
             throw new DataException("Errore nella cancellazione del materiale", e);
         }
@@ -102,15 +128,18 @@ public class MaterialeDAO_MySQL extends DAO implements MaterialeDAO {
     @Override
     public List<Materiale> getMaterialiDisponibili() throws DataException {
         List<Materiale> result = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT ma.* FROM materiale ma WHERE ma.id NOT IN ("
-                + "SELECT DISTINCT uma.id_materiale FROM utilizza_materiale uma "
-                + "INNER JOIN missione mi ON uma.codice_missione = mi.codice_richiesta "
-                + "INNER JOIN richiesta_soccorso r ON mi.codice_richiesta = r.codice "
-                + "WHERE r.stato = 'Attiva')")) {
+        // solo le righe dei materiali liberi: l'indice conosce quelli impegnati nelle missioni attive
+        Set<Integer> impegnati = disponibilita().getMaterialiImpegnati();
+        String sql = "SELECT " + COLUMNS + " FROM materiale"
+                + (impegnati.isEmpty() ? "" : " WHERE id NOT IN (" + placeholders(impegnati.size()) + ")");
+        try (PreparedStatement stmt = dataLayer.getReadConnection().prepareStatement(sql)) {
+            int i = 1;
+            for (Integer id : impegnati) {
+                stmt.setInt(i++, id);
+            }
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    result.add(makeMateriale(rs)); 
+                    result.add(makeMateriale(rs));
                 }
             }
         } catch (SQLException e) {
@@ -118,12 +147,25 @@ public class MaterialeDAO_MySQL extends DAO implements MaterialeDAO {
         }
         return result;
     }
+
+    @Override
+    public boolean isMaterialeDisponibile(int id) throws DataException {
+        return disponibilita().isMaterialeDisponibile(id);
+    }
+
+    // Indice di disponibilità, costruito al primo utilizzo (vedi AvailabilityIndex)
+    private AvailabilityIndex disponibilita() throws DataException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        index.ensureLoaded((SoccorsoDataLayer) dataLayer);
+        return index;
+    }
+
     @Override
     public List<Materiale> getMaterialiByMissione(int codiceMissione) throws DataException {
         List<Materiale> result = new ArrayList<>();
 
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT m.* FROM materiale m JOIN utilizza_materiale um ON m.id = um.id_materiale WHERE um.codice_missione = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getMaterialiByMissione");
             stmt.setInt(1, codiceMissione);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -138,11 +180,18 @@ public class MaterialeDAO_MySQL extends DAO implements MaterialeDAO {
     }
 
     private Materiale makeMateriale(ResultSet rs) throws SQLException {
-        Materiale materiale = new MaterialeProxy();
+        // Identity map: riusa l'istanza già caricata in questa richiesta
+        Materiale cached = dataLayer.getCache().getLocal(Materiale.class, rs.getInt("id"));
+        if (cached != null) {
+            return cached;
+        }
+        MaterialeProxy materiale = new MaterialeProxy();
         materiale.setId(rs.getInt("id"));
         materiale.setNome(rs.getString("nome"));
         materiale.setDescrizione(rs.getString("descrizione"));
         materiale.setVersion(rs.getInt("version"));
+        materiale.setModified(false);
+        dataLayer.getCache().add(Materiale.class, materiale.getId(), materiale);
         return materiale;
     }
 }
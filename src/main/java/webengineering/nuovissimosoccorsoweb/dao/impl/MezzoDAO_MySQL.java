@@ -1,28 +1,49 @@
 package webengineering.nuovissimosoccorsoweb.dao.impl;
 
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.DataItemProxy;
 import webengineering.framework.data.DataLayer;
+import webengineering.framework.data.OptimisticLockException;
 import webengineering.nuovissimosoccorsoweb.dao.MezzoDAO;
 import webengineering.nuovissimosoccorsoweb.model.Mezzo;
 import webengineering.nuovissimosoccorsoweb.model.impl.proxy.MezzoProxy;
+import webengineering.nuovissimosoccorsoweb.service.AvailabilityIndex;
+import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import webengineering.framework.data.DAO;
 
 public class MezzoDAO_MySQL extends DAO implements MezzoDAO {
 
+    // Colonne lette da makeMezzo
+    private static final String COLUMNS = "targa, nome, descrizione, version";
+
     public MezzoDAO_MySQL(DataLayer dataLayer) {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getMezzoByTarga", "SELECT * FROM mezzo WHERE targa = ?");
+        registerStatement("getMezziByMissione", "SELECT m.* FROM mezzo m JOIN utilizza_mezzo um ON m.targa = um.targa_mezzo WHERE um.codice_missione = ?");
+        registerStatement("storeMezzo.update", "UPDATE mezzo SET nome = ?, descrizione = ?, version = version + 1 WHERE targa = ? AND version = ?");
+        registerStatement("storeMezzo.insert", "INSERT INTO mezzo (targa, nome, descrizione, version) VALUES (?, ?, ?, ?)");
+        registerStatement("deleteMezzo", "DELETE FROM mezzo WHERE targa = ?");
+    }
+
     @Override
     public Mezzo getMezzoByTarga(String targa) throws DataException {
-        Mezzo mezzo = null;
+        Mezzo mezzo = dataLayer.getCache().get(Mezzo.class, targa);
+        if (mezzo != null) {
+            return mezzo;
+        }
 
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM mezzo WHERE targa = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getMezzoByTarga");
             stmt.setString(1, targa);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -40,7 +61,7 @@ public class MezzoDAO_MySQL extends DAO implements MezzoDAO {
     public List<Mezzo> getAllMezzi() throws DataException {
         List<Mezzo> mezzi = new ArrayList<>();
 
-        try (Statement stmt = dataLayer.getConnection().createStatement();
+        try (Statement stmt = dataLayer.getReadConnection().createStatement();
              ResultSet rs = stmt.executeQuery("SELECT * FROM mezzo")) {
             while (rs.next()) {
                 mezzi.add(makeMezzo(rs));
@@ -55,15 +76,18 @@ public class MezzoDAO_MySQL extends DAO implements MezzoDAO {
     @Override
     public List<Mezzo> getMezziDisponibili() throws DataException {
         List<Mezzo> result = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT m.* FROM mezzo m WHERE m.targa NOT IN ("
-                + "SELECT DISTINCT um.targa_mezzo FROM utilizza_mezzo um "
-                + "INNER JOIN missione mi ON um.codice_missione = mi.codice_richiesta "
-                + "INNER JOIN richiesta_soccorso r ON mi.codice_richiesta = r.codice "
-                + "WHERE r.stato = 'Attiva')")) {
+        // solo le righe dei mezzi liberi: l'indice conosce quelli impegnati nelle missioni attive
+        Set<String> impegnati = disponibilita().getMezziImpegnati();
+        String sql = "SELECT " + COLUMNS + " FROM mezzo"
+                + (impegnati.isEmpty() ? "" : " WHERE targa NOT IN (" + placeholders(impegnati.size()) + ")");
+        try (PreparedStatement stmt = dataLayer.getReadConnection().prepareStatement(sql)) {
+            int i = 1;
+            for (String targa : impegnati) {
+                stmt.setString(i++, targa);
+            }
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    result.add(makeMezzo(rs)); // Assumendo che esista questo metodo
+                    result.add(makeMezzo(rs));
                 }
             }
         } catch (SQLException e) {
@@ -71,13 +95,25 @@ public class MezzoDAO_MySQL extends DAO implements MezzoDAO {
         }
         return result;
     }
+
+    @Override
+    public boolean isMezzoDisponibile(String targa) throws DataException {
+        return disponibilita().isMezzoDisponibile(targa);
+    }
+
+    // Indice di disponibilità, costruito al primo utilizzo (vedi AvailabilityIndex)
+    private AvailabilityIndex disponibilita() throws DataException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        index.ensureLoaded((SoccorsoDataLayer) dataLayer);
+        return index;
+    }
     
     @Override
     public List<Mezzo> getMezziByMissione(int codiceMissione) throws DataException {
         List<Mezzo> mezzi = new ArrayList<>();
 
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT m.* FROM mezzo m JOIN utilizza_mezzo um ON m.targa = um.targa_mezzo WHERE um.codice_missione = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getMezziByMissione");
             stmt.setInt(1, codiceMissione);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -93,22 +129,32 @@ public class MezzoDAO_MySQL extends DAO implements MezzoDAO {
 
     @Override
     public void storeMezzo(Mezzo mezzo) throws DataException {
-        if (getMezzoByTarga(mezzo.getTarga()) != null) {
+        // La targa è una chiave naturale, quindi non dice se la riga esiste: un mezzo letto dal
+        // database è un proxy (vedi makeMezzo) e va aggiornato, uno creato dall'applicazione va
+        // inserito. Nessuna lettura preliminare: un conflitto lo rileva il numero di righe
+        // dell'UPDATE con la versione, una targa già esistente la chiave primaria dell'INSERT
+        if (mezzo instanceof DataItemProxy) {
             // UPDATE - Aggiornato per includere il nome
-            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                    "UPDATE mezzo SET nome = ?, descrizione = ?, version = ? WHERE targa = ?")) {
+            try {
+                PreparedStatement stmt = getStatement("storeMezzo.update");
                 stmt.setString(1, mezzo.getNome());
                 stmt.setString(2, mezzo.getDescrizione());
-                stmt.setInt(3, mezzo.getVersion());
-                stmt.setString(4, mezzo.getTarga());
-                stmt.executeUpdate();
+                stmt.setString(3, mezzo.getTarga());
+                stmt.setInt(4, mezzo.getVersion());
+                int rowsAffected = stmt.executeUpdate();
+                dataLayer.getCache().delete(Mezzo.class, mezzo.getTarga());
+                // nessuna riga: il mezzo è stato modificato (o cancellato) da un'altra richiesta
+                if (rowsAffected == 0) {
+                    throw new OptimisticLockException(Mezzo.class, mezzo.getTarga());
+                }
+                mezzo.setVersion(mezzo.getVersion() + 1);
             } catch (SQLException e) {
                 throw new DataException("Errore nell'aggiornamento del mezzo", e);
             }
         } else {
             // INSERT - Corretto per includere il nome
-            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                    "INSERT INTO mezzo (targa, nome, descrizione, version) VALUES (?, ?, ?, ?)")) {
+            try {
+                PreparedStatement stmt = getStatement("storeMezzo.insert");
                 stmt.setString(1, mezzo.getTarga());
                 stmt.setString(2, mezzo.getNome()); // <- Campo mancante aggiunto
                 stmt.setString(3, mezzo.getDescrizione());
@@ -122,10 +168,11 @@ public class MezzoDAO_MySQL extends DAO implements MezzoDAO {
 
     @Override
     public void deleteMezzo(String targa) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM mezzo WHERE targa = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deleteMezzo");
             stmt.setString(1, targa);
             stmt.executeUpdate();
+            dataLayer.getCache().delete(Mezzo.class, targa);
         } catch (SQLException e) {
             throw new DataException("Errore nella cancellazione del mezzo", e);
         }
@@ -133,11 +180,18 @@ public class MezzoDAO_MySQL extends DAO implements MezzoDAO {
 
     // Aggiornato il metodo makeMezzo per includere il nome
     private Mezzo makeMezzo(ResultSet rs) throws SQLException {
-        Mezzo m = new MezzoProxy();
+        // Identity map: riusa l'istanza già caricata in questa richiesta
+        Mezzo cached = dataLayer.getCache().getLocal(Mezzo.class, rs.getString("targa"));
+        if (cached != null) {
+            return cached;
+        }
+        MezzoProxy m = new MezzoProxy();
         m.setTarga(rs.getString("targa"));
         m.setNome(rs.getString("nome")); // <- Campo mancante aggiunto
         m.setDescrizione(rs.getString("descrizione"));
         m.setVersion(rs.getInt("version"));
+        m.setModified(false);
+        dataLayer.getCache().add(Mezzo.class, m.getTarga(), m);
         return m;
     }
 }
\ No newline at end of file
@@ -1,7 +1,11 @@
 package webengineering.nuovissimosoccorsoweb.dao.impl;
 
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.DataItemProxy;
 import webengineering.framework.data.DataLayer;
+import webengineering.framework.data.DataWriter;
+import webengineering.framework.data.OptimisticLockException;
+import webengineering.framework.data.ResultHandler;
 import webengineering.nuovissimosoccorsoweb.dao.MissioneDAO;
 import webengineering.nuovissimosoccorsoweb.model.Missione;
 import webengineering.nuovissimosoccorsoweb.model.impl.proxy.MissioneProxy;
@@ -10,31 +14,85 @@ import webengineering.nuovissimosoccorsoweb.model.RuoloSquadra;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import webengineering.framework.data.DAO;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.nuovissimosoccorsoweb.model.Materiale;
 import webengineering.nuovissimosoccorsoweb.model.Mezzo;
+import webengineering.nuovissimosoccorsoweb.model.MissioneUtilizzaMateriale;
+import webengineering.nuovissimosoccorsoweb.model.MissioneUtilizzaMezzo;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
 import webengineering.nuovissimosoccorsoweb.model.PartecipazioneSquadra;
-import webengineering.nuovissimosoccorsoweb.model.impl.proxy.MaterialeProxy;
-import webengineering.nuovissimosoccorsoweb.model.impl.proxy.MezzoProxy;
 import webengineering.nuovissimosoccorsoweb.model.impl.proxy.PartecipazioneSquadraProxy;
+import webengineering.nuovissimosoccorsoweb.service.AvailabilityIndex;
 
 
-public class MissioneDAO_MySQL extends DAO implements MissioneDAO {
+public class MissioneDAO_MySQL extends DAO implements MissioneDAO, DataWriter<Missione> {
+
+    // Colonna scritta per ciascuna proprietà tracciata da MissioneProxy (esclusa la chiave)
+    private static final Map<String, String> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("nome", "nome");
+        COLUMNS.put("obiettivo", "obiettivo");
+        COLUMNS.put("posizione", "posizione");
+        COLUMNS.put("idAmministratore", "id_am");
+        COLUMNS.put("nota", "nota");
+        COLUMNS.put("dataOraInizio", "data_ora_inizio");
+        COLUMNS.put("version", "version");
+    }
 
     public MissioneDAO_MySQL(DataLayer dataLayer) {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getMissioneByCodice", "SELECT * FROM missione WHERE codice_richiesta = ?");
+        registerStatement("getMissioniInCorso", "SELECT m.* FROM missione m INNER JOIN richiesta_soccorso r ON m.codice_richiesta = r.codice WHERE r.stato = 'Attiva'");
+        registerStatement("getMissioniByOperatore", "SELECT m.* FROM missione m JOIN squadra s ON m.codice_richiesta = s.codice_missione_assegnata WHERE s.id_op = ?");
+        registerStatement("streamMissioniByOperatore", "SELECT m.* FROM missione m JOIN squadra s ON m.codice_richiesta = s.codice_missione_assegnata WHERE s.id_op = ? ORDER BY m.codice_richiesta DESC");
+        registerStatement("storeMissione", "INSERT INTO missione (codice_richiesta, nome, obiettivo, posizione, id_am, nota, data_ora_inizio, version) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        registerStatement("deleteMissione", "DELETE FROM missione WHERE codice_richiesta = ?");
+        registerStatement("updateNoteMissione", "UPDATE missione SET nota = ?, version = version + 1 WHERE codice_richiesta = ? AND version = ?");
+        registerStatement("getSquadraByMissione", "SELECT * FROM squadra WHERE codice_missione_assegnata = ?");
+        registerStatement("assegnaOperatoreAMissione", "INSERT INTO squadra (id_op, codice_missione_assegnata, ruolo) VALUES (?, ?, ?)");
+        registerStatement("updateRuoloSquadra", "UPDATE squadra SET ruolo = ? WHERE id_op = ? AND codice_missione_assegnata = ?");
+        registerStatement("rimuoviOperatoreDaMissione", "DELETE FROM squadra WHERE id_op = ? AND codice_missione_assegnata = ?");
+        registerStatement("assegnaMezzoAMissione", "INSERT INTO utilizza_mezzo (codice_missione, targa_mezzo) VALUES (?, ?)");
+        registerStatement("rimuoviMezzoDaMissione", "DELETE FROM utilizza_mezzo WHERE codice_missione = ? AND targa_mezzo = ?");
+        registerStatement("assegnaMaterialeAMissione", "INSERT INTO utilizza_materiale (codice_missione, id_materiale) VALUES (?, ?)");
+        registerStatement("rimuoviMaterialeDaMissione", "DELETE FROM utilizza_materiale WHERE codice_missione = ? AND id_materiale = ?");
+        registerStatement("getMissioniInCorsoByOperatore", "SELECT m.* FROM missione m JOIN squadra s ON m.codice_richiesta = s.codice_missione_assegnata JOIN richiesta_soccorso r ON m.codice_richiesta = r.codice WHERE s.id_op = ? AND r.stato = 'Attiva'");
+        registerStatement("countMissioniInCorsoByOperatore", "SELECT COUNT(*) FROM missione m JOIN squadra s ON m.codice_richiesta = s.codice_missione_assegnata JOIN richiesta_soccorso r ON m.codice_richiesta = r.codice WHERE s.id_op = ? AND r.stato = 'Attiva'");
+        registerStatement("countMissioniCompletateByOperatore", "SELECT COUNT(*) FROM info_missione im JOIN missione m ON im.codice_missione = m.codice_richiesta JOIN squadra s ON m.codice_richiesta = s.codice_missione_assegnata WHERE s.id_op = ?");
+        registerStatement("getRuoloOperatoreInMissione", "SELECT ruolo FROM squadra WHERE id_op = ? AND codice_missione_assegnata = ?");
+        registerStatement("getTargheMezziAssegnati", "SELECT targa_mezzo FROM utilizza_mezzo WHERE codice_missione = ? ORDER BY targa_mezzo");
+        registerStatement("getIdMaterialiAssegnati", "SELECT id_materiale FROM utilizza_materiale WHERE codice_missione = ? ORDER BY id_materiale");
+        registerStatement("esisteMissione", "SELECT 1 FROM missione WHERE codice_richiesta = ? LIMIT 1");
+        registerStatement("getOperatoriMissioniAperte", "SELECT s.codice_missione_assegnata, s.id_op FROM squadra s INNER JOIN richiesta_soccorso r ON s.codice_missione_assegnata = r.codice WHERE r.stato IN ('Convalidata', 'Attiva')");
+        registerStatement("getMezziMissioniAperte", "SELECT um.codice_missione, um.targa_mezzo FROM utilizza_mezzo um INNER JOIN richiesta_soccorso r ON um.codice_missione = r.codice WHERE r.stato IN ('Convalidata', 'Attiva')");
+        registerStatement("getMaterialiMissioniAperte", "SELECT uma.codice_missione, uma.id_materiale FROM utilizza_materiale uma INNER JOIN richiesta_soccorso r ON uma.codice_missione = r.codice WHERE r.stato IN ('Convalidata', 'Attiva')");
+        registerStatement("getOperatoriAssegnati", "SELECT " + OperatoreDAO_MySQL.SUMMARY_O + " FROM operatore o INNER JOIN squadra s ON o.id = s.id_op WHERE s.codice_missione_assegnata = ? ORDER BY s.ruolo DESC, o.cognome, o.nome");
+    }
+
     @Override
     public Missione getMissioneByCodice(int codiceRichiesta) throws DataException {
-        Missione m = null;
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM missione WHERE codice_richiesta = ?")) {
+        Missione m = dataLayer.getCache().get(Missione.class, codiceRichiesta);
+        if (m != null) {
+            return m;
+        }
+        try {
+            PreparedStatement stmt = getStatement("getMissioneByCodice");
             stmt.setInt(1, codiceRichiesta);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -50,7 +108,7 @@ public class MissioneDAO_MySQL extends DAO implements MissioneDAO {
     @Override
     public List<Missione> getAllMissioni() throws DataException {
         List<Missione> list = new ArrayList<>();
-        try (Statement stmt = dataLayer.getConnection().createStatement();
+        try (Statement stmt = dataLayer.getReadConnection().createStatement();
              ResultSet rs = stmt.executeQuery("SELECT * FROM missione")) {
             while (rs.next()) {
                 list.add(makeMissione(rs));
@@ -64,8 +122,8 @@ public class MissioneDAO_MySQL extends DAO implements MissioneDAO {
     @Override
     public List<Missione> getMissioniInCorso() throws DataException {
         List<Missione> list = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT m.* FROM missione m INNER JOIN richiesta_soccorso r ON m.codice_richiesta = r.codice WHERE r.stato = 'Attiva'")) {
+        try {
+            PreparedStatement stmt = getStatement("getMissioniInCorso");
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
                     list.add(makeMissione(rs));
@@ -79,8 +137,8 @@ public class MissioneDAO_MySQL extends DAO implements MissioneDAO {
     @Override
     public List<Missione> getMissioniByOperatore(int idOperatore) throws DataException {
         List<Missione> list = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT m.* FROM missione m JOIN squadra s ON m.codice_richiesta = s.codice_missione_assegnata WHERE s.id_op = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getMissioniByOperatore");
             stmt.setInt(1, idOperatore);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -93,10 +151,21 @@ public class MissioneDAO_MySQL extends DAO implements MissioneDAO {
         return list;
     }
 
+    @Override
+    public int streamMissioniByOperatore(int idOperatore, ResultHandler<Missione> handler) throws DataException {
+        try {
+            PreparedStatement stmt = getReadStatement("streamMissioniByOperatore");
+            stmt.setInt(1, idOperatore);
+            return stream(stmt, this::buildMissione, handler);
+        } catch (SQLException e) {
+            throw new DataException("Errore nella lettura in streaming delle missioni per operatore", e);
+        }
+    }
+
     @Override
     public void storeMissione(Missione missione) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT INTO missione (codice_richiesta, nome, obiettivo, posizione, id_am, nota, data_ora_inizio, version) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+        try {
+            PreparedStatement stmt = getStatement("storeMissione");
             stmt.setInt(1, missione.getCodiceRichiesta());
             stmt.setString(2, missione.getNome());
             stmt.setString(3, missione.getObiettivo());
@@ -106,6 +175,9 @@ public class MissioneDAO_MySQL extends DAO implements MissioneDAO {
             stmt.setTimestamp(7, Timestamp.valueOf(missione.getDataOraInizio()));
             stmt.setInt(8, missione.getVersion());
             stmt.executeUpdate();
+            dataLayer.getCache().delete(Missione.class, missione.getCodiceRichiesta());
+            int codice = missione.getCodiceRichiesta();
+            dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().missioneCreata(codice));
         } catch (SQLException e) {
             throw new DataException("Errore nell'inserimento della missione", e);
         }
@@ -113,24 +185,29 @@ public class MissioneDAO_MySQL extends DAO implements MissioneDAO {
 
     @Override
     public void deleteMissione(int codiceRichiesta) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM missione WHERE codice_richiesta = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deleteMissione");
             stmt.setInt(1, codiceRichiesta);
             stmt.executeUpdate();
+            dataLayer.getCache().delete(Missione.class, codiceRichiesta);
+            dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().missioneEliminata(codiceRichiesta));
         } catch (SQLException e) {
             throw new DataException("Errore nella cancellazione della missione", e);
         }
     }
     
     @Override
-    public void updateNoteMissione(int codiceRichiesta, String nota) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "UPDATE missione SET nota = ? WHERE codice_richiesta = ?")) {
+    public void updateNoteMissione(int codiceRichiesta, String nota, int version) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("updateNoteMissione");
             stmt.setString(1, nota);
             stmt.setInt(2, codiceRichiesta);
+            stmt.setInt(3, version);
             int rowsAffected = stmt.executeUpdate();
+            dataLayer.getCache().delete(Missione.class, codiceRichiesta);
+            // nessuna riga: la missione non esiste più o è stata modificata da un'altra richiesta
             if (rowsAffected == 0) {
-                throw new DataException("Nessuna missione trovata con codice: " + codiceRichiesta);
+                throw new OptimisticLockException(Missione.class, codiceRichiesta);
             }
         } catch (SQLException e) {
             throw new DataException("Errore nell'aggiornamento delle note della missione", e);
@@ -138,7 +215,19 @@ public class MissioneDAO_MySQL extends DAO implements MissioneDAO {
     }
 
     private Missione makeMissione(ResultSet rs) throws SQLException {
-        Missione m = new MissioneProxy();
+        // Identity map: riusa l'istanza già caricata in questa richiesta
+        Missione cached = dataLayer.getCache().getLocal(Missione.class, rs.getInt("codice_richiesta"));
+        if (cached != null) {
+            return cached;
+        }
+        Missione m = buildMissione(rs);
+        dataLayer.getCache().add(Missione.class, m.getCodiceRichiesta(), m);
+        return m;
+    }
+
+    // Costruisce il proxy senza registrarlo nella cache (usato direttamente dalle letture in streaming)
+    private Missione buildMissione(ResultSet rs) throws SQLException {
+        MissioneProxy m = new MissioneProxy();
         m.setCodiceRichiesta(rs.getInt("codice_richiesta"));
         m.setNome(rs.getString("nome"));
         m.setObiettivo(rs.getString("obiettivo"));
@@ -156,35 +245,30 @@ public class MissioneDAO_MySQL extends DAO implements MissioneDAO {
         }
 
         m.setVersion(rs.getInt("version"));
+        m.setModified(false);
         return m;
     }
 
 /**
- * Crea un oggetto Operatore dal ResultSet.
- * Basato sui nomi dei campi usati nell'OperatoreDAO_MySQL esistente.
+ * Crea un oggetto Operatore dal ResultSet, con la proiezione di riepilogo
+ * di OperatoreDAO_MySQL (la password viene letta al primo accesso).
  */
-private webengineering.nuovissimosoccorsoweb.model.Operatore makeOperatore(ResultSet rs) throws SQLException {
-    webengineering.nuovissimosoccorsoweb.model.impl.proxy.OperatoreProxy op = 
-        new webengineering.nuovissimosoccorsoweb.model.impl.proxy.OperatoreProxy();
-    
-    // Usa gli stessi nomi di campo dell'OperatoreDAO_MySQL esistente
-    op.setId(rs.getInt("id"));
-    op.setNome(rs.getString("nome"));
-    op.setCognome(rs.getString("cognome"));
-    op.setEmail(rs.getString("email"));
-    op.setPassword(rs.getString("password"));
-    op.setCodiceFiscale(rs.getString("cf"));
-    op.setIdAmministratore(rs.getInt("id_creatore")); 
-    op.setVersion(rs.getInt("version"));
-    
+private Operatore makeOperatore(ResultSet rs) throws SQLException {
+    // Identity map condivisa con OperatoreDAO_MySQL (stessa classe e stessa chiave)
+    Operatore cached = dataLayer.getCache().getLocal(Operatore.class, rs.getInt("id"));
+    if (cached != null) {
+        return cached;
+    }
+    Operatore op = OperatoreDAO_MySQL.buildOperatore(rs, false, dataLayer);
+    dataLayer.getCache().addLocal(Operatore.class, op.getId(), op);
     return op;
 }
 
 @Override
 public List<PartecipazioneSquadra> getSquadraByMissione(int codiceMissione) throws DataException {
     List<PartecipazioneSquadra> squadra = new ArrayList<>();
-    try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-            "SELECT * FROM squadra WHERE codice_missione_assegnata = ?")) {
+    try {
+        PreparedStatement stmt = getStatement("getSquadraByMissione");
         stmt.setInt(1, codiceMissione);
         try (ResultSet rs = stmt.executeQuery()) {
             while (rs.next()) {
@@ -202,6 +286,37 @@ public List<PartecipazioneSquadra> getSquadraByMissione(int codiceMissione) thro
     return squadra;
 }
 
+@Override
+public Map<Integer, List<PartecipazioneSquadra>> getSquadreByMissioni(Collection<Integer> codiciMissione) throws DataException {
+    Map<Integer, List<PartecipazioneSquadra>> squadre = new HashMap<>();
+    for (Integer codice : codiciMissione) {
+        squadre.put(codice, new ArrayList<>());
+    }
+    if (squadre.isEmpty()) {
+        return squadre;
+    }
+    try (PreparedStatement stmt = dataLayer.getReadConnection().prepareStatement(
+            "SELECT * FROM squadra WHERE codice_missione_assegnata IN (" + placeholders(squadre.size()) + ")")) {
+        int i = 1;
+        for (Integer codice : squadre.keySet()) {
+            stmt.setInt(i++, codice);
+        }
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                PartecipazioneSquadra p = new PartecipazioneSquadraProxy();
+                p.setIdOperatore(rs.getInt("id_op"));
+                p.setCodiceMissione(rs.getInt("codice_missione_assegnata"));
+                p.setRuolo(RuoloSquadra.valueOf(rs.getString("ruolo")));
+                p.setVersion(1);
+                squadre.get(p.getCodiceMissione()).add(p);
+            }
+        }
+    } catch (SQLException e) {
+        throw new DataException("Errore nel recupero delle squadre per missioni", e);
+    }
+    return squadre;
+}
+
 @Override
 public void assegnaOperatoreAMissione(int idOperatore, int codiceMissione, String ruolo) throws DataException {
     // Controllo che ci sia almeno un Caposquadra se si aggiunge uno Standard
@@ -213,12 +328,13 @@ public void assegnaOperatoreAMissione(int idOperatore, int codiceMissione, Strin
         }
     }
 
-    try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-            "INSERT INTO squadra (id_op, codice_missione_assegnata, ruolo) VALUES (?, ?, ?)")) {
+    try {
+        PreparedStatement stmt = getStatement("assegnaOperatoreAMissione");
         stmt.setInt(1, idOperatore);
         stmt.setInt(2, codiceMissione);
         stmt.setString(3, ruolo);
         stmt.executeUpdate();
+        dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().operatoreAssegnato(codiceMissione, idOperatore));
     } catch (SQLException e) {
         throw new DataException("Errore nell'assegnazione dell'operatore alla missione", e);
     }
@@ -226,11 +342,12 @@ public void assegnaOperatoreAMissione(int idOperatore, int codiceMissione, Strin
 
 @Override
 public void rimuoviOperatoreDaMissione(int idOperatore, int codiceMissione) throws DataException {
-    try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-            "DELETE FROM squadra WHERE id_op = ? AND codice_missione_assegnata = ?")) {
+    try {
+        PreparedStatement stmt = getStatement("rimuoviOperatoreDaMissione");
         stmt.setInt(1, idOperatore);
         stmt.setInt(2, codiceMissione);
         stmt.executeUpdate();
+        dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().operatoreRimosso(codiceMissione, idOperatore));
     } catch (SQLException e) {
         throw new DataException("Errore nella rimozione dell'operatore dalla missione", e);
     }
@@ -238,32 +355,18 @@ public void rimuoviOperatoreDaMissione(int idOperatore, int codiceMissione) thro
 
 @Override
 public List<Mezzo> getMezziByMissione(int codiceMissione) throws DataException {
-    List<Mezzo> mezzi = new ArrayList<>();
-    try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-            "SELECT m.* FROM mezzo m JOIN utilizza_mezzo um ON m.targa = um.targa_mezzo WHERE um.codice_missione = ?")) {
-        stmt.setInt(1, codiceMissione);
-        try (ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                Mezzo m = new MezzoProxy();
-                m.setTarga(rs.getString("targa"));
-                m.setDescrizione(rs.getString("descrizione"));
-                m.setVersion(rs.getInt("version"));
-                mezzi.add(m);
-            }
-        }
-    } catch (SQLException e) {
-        throw new DataException("Errore nel recupero dei mezzi per missione", e);
-    }
-    return mezzi;
+    // Delega al MezzoDAO, che registra i mezzi nell'identity map
+    return ((SoccorsoDataLayer) dataLayer).getMezzoDAO().getMezziByMissione(codiceMissione);
 }
 
 @Override
 public void assegnaMezzoAMissione(String targa, int codiceMissione) throws DataException {
-    try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-            "INSERT INTO utilizza_mezzo (codice_missione, targa_mezzo) VALUES (?, ?)")) {
+    try {
+        PreparedStatement stmt = getStatement("assegnaMezzoAMissione");
         stmt.setInt(1, codiceMissione);
         stmt.setString(2, targa);
         stmt.executeUpdate();
+        dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().mezzoAssegnato(codiceMissione, targa));
     } catch (SQLException e) {
         throw new DataException("Errore nell'assegnazione del mezzo alla missione", e);
     }
@@ -271,11 +374,12 @@ public void assegnaMezzoAMissione(String targa, int codiceMissione) throws DataE
 
 @Override
 public void rimuoviMezzoDaMissione(String targa, int codiceMissione) throws DataException {
-    try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-            "DELETE FROM utilizza_mezzo WHERE codice_missione = ? AND targa_mezzo = ?")) {
+    try {
+        PreparedStatement stmt = getStatement("rimuoviMezzoDaMissione");
         stmt.setInt(1, codiceMissione);
         stmt.setString(2, targa);
         stmt.executeUpdate();
+        dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().mezzoRimosso(codiceMissione, targa));
     } catch (SQLException e) {
         throw new DataException("Errore nella rimozione del mezzo dalla missione", e);
     }
@@ -283,33 +387,18 @@ public void rimuoviMezzoDaMissione(String targa, int codiceMissione) throws Data
 
 @Override
 public List<Materiale> getMaterialiByMissione(int codiceMissione) throws DataException {
-    List<Materiale> materiali = new ArrayList<>();
-    try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-            "SELECT m.* FROM materiale m JOIN utilizza_materiale um ON m.id = um.id_materiale WHERE um.codice_missione = ?")) {
-        stmt.setInt(1, codiceMissione);
-        try (ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                Materiale m = new MaterialeProxy();
-                m.setId(rs.getInt("id"));
-                m.setNome(rs.getString("nome"));
-                m.setDescrizione(rs.getString("descrizione"));
-                m.setVersion(rs.getInt("version"));
-                materiali.add(m);
-            }
-        }
-    } catch (SQLException e) {
-        throw new DataException("Errore nel recupero dei materiali per missione", e);
-    }
-    return materiali;
+    // Delega al MaterialeDAO, che registra i materiali nell'identity map
+    return ((SoccorsoDataLayer) dataLayer).getMaterialeDAO().getMaterialiByMissione(codiceMissione);
 }
 
 @Override
 public void assegnaMaterialeAMissione(int idMateriale, int codiceMissione) throws DataException {
-    try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-            "INSERT INTO utilizza_materiale (codice_missione, id_materiale) VALUES (?, ?)")) {
+    try {
+        PreparedStatement stmt = getStatement("assegnaMaterialeAMissione");
         stmt.setInt(1, codiceMissione);
         stmt.setInt(2, idMateriale);
         stmt.executeUpdate();
+        dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().materialeAssegnato(codiceMissione, idMateriale));
     } catch (SQLException e) {
         throw new DataException("Errore nell'assegnazione del materiale alla missione", e);
     }
@@ -317,11 +406,12 @@ public void assegnaMaterialeAMissione(int idMateriale, int codiceMissione) throw
 
 @Override
 public void rimuoviMaterialeDaMissione(int idMateriale, int codiceMissione) throws DataException {
-    try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-            "DELETE FROM utilizza_materiale WHERE codice_missione = ? AND id_materiale = ?")) {
+    try {
+        PreparedStatement stmt = getStatement("rimuoviMaterialeDaMissione");
         stmt.setInt(1, codiceMissione);
         stmt.setInt(2, idMateriale);
         stmt.executeUpdate();
+        dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().materialeRimosso(codiceMissione, idMateriale));
     } catch (SQLException e) {
         throw new DataException("Errore nella rimozione del materiale dalla missione", e);
     }
@@ -331,11 +421,8 @@ public void rimuoviMaterialeDaMissione(int idMateriale, int codiceMissione) thro
     public List<Missione> getMissioniInCorsoByOperatore
     (int idOperatore) throws DataException {
         List<Missione> list = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT m.* FROM missione m "
-                + "JOIN squadra s ON m.codice_richiesta = s.codice_missione_assegnata "
-                + "JOIN richiesta_soccorso r ON m.codice_richiesta = r.codice "
-                + "WHERE s.id_op = ? AND r.stato = 'Attiva'")) {
+        try {
+            PreparedStatement stmt = getStatement("getMissioniInCorsoByOperatore");
             stmt.setInt(1, idOperatore);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -350,11 +437,8 @@ public void rimuoviMaterialeDaMissione(int idMateriale, int codiceMissione) thro
     @Override
     public int countMissioniInCorsoByOperatore
     (int idOperatore) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT COUNT(*) FROM missione m "
-                + "JOIN squadra s ON m.codice_richiesta = s.codice_missione_assegnata "
-                + "JOIN richiesta_soccorso r ON m.codice_richiesta = r.codice "
-                + "WHERE s.id_op = ? AND r.stato = 'Attiva'")) {
+        try {
+            PreparedStatement stmt = getStatement("countMissioniInCorsoByOperatore");
             stmt.setInt(1, idOperatore);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -370,11 +454,8 @@ public void rimuoviMaterialeDaMissione(int idMateriale, int codiceMissione) thro
     @Override
     public int countMissioniCompletateByOperatore
     (int idOperatore) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT COUNT(*) FROM info_missione im "
-                + "JOIN missione m ON im.codice_missione = m.codice_richiesta "
-                + "JOIN squadra s ON m.codice_richiesta = s.codice_missione_assegnata "
-                + "WHERE s.id_op = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("countMissioniCompletateByOperatore");
             stmt.setInt(1, idOperatore);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -392,9 +473,8 @@ public void rimuoviMaterialeDaMissione(int idMateriale, int codiceMissione) thro
  */
 @Override
 public String getRuoloOperatoreInMissione(int codiceOperatore, int codiceMissione) throws DataException {
-    try (PreparedStatement ps = dataLayer.getConnection().prepareStatement(
-        "SELECT ruolo FROM squadra " +
-        "WHERE id_op = ? AND codice_missione_assegnata = ?")) {
+    try {
+        PreparedStatement ps = getStatement("getRuoloOperatoreInMissione");
         
         ps.setInt(1, codiceOperatore);
         ps.setInt(2, codiceMissione);
@@ -420,10 +500,8 @@ public String getRuoloOperatoreInMissione(int codiceOperatore, int codiceMission
 public List<String> getTargheMezziAssegnati(int codiceMissione) throws DataException {
     List<String> targhe = new ArrayList<>();
     
-    try (PreparedStatement ps = dataLayer.getConnection().prepareStatement(
-        "SELECT targa_mezzo FROM utilizza_mezzo " +
-        "WHERE codice_missione = ? " +
-        "ORDER BY targa_mezzo")) {
+    try {
+        PreparedStatement ps = getStatement("getTargheMezziAssegnati");
         
         ps.setInt(1, codiceMissione);
         
@@ -447,10 +525,8 @@ public List<String> getTargheMezziAssegnati(int codiceMissione) throws DataExcep
 public List<Integer> getIdMaterialiAssegnati(int codiceMissione) throws DataException {
     List<Integer> materialiIds = new ArrayList<>();
     
-    try (PreparedStatement ps = dataLayer.getConnection().prepareStatement(
-        "SELECT id_materiale FROM utilizza_materiale " +
-        "WHERE codice_missione = ? " +
-        "ORDER BY id_materiale")) {
+    try {
+        PreparedStatement ps = getStatement("getIdMaterialiAssegnati");
         
         ps.setInt(1, codiceMissione);
         
@@ -472,8 +548,8 @@ public List<Integer> getIdMaterialiAssegnati(int codiceMissione) throws DataExce
  */
 @Override
 public boolean esisteMissione(int codice) throws DataException {
-    try (PreparedStatement ps = dataLayer.getConnection().prepareStatement(
-        "SELECT 1 FROM missione WHERE codice_richiesta = ? LIMIT 1")) {
+    try {
+        PreparedStatement ps = getStatement("esisteMissione");
         
         ps.setInt(1, codice);
         
@@ -490,23 +566,15 @@ public boolean esisteMissione(int codice) throws DataException {
 public List<Operatore> getOperatoriAssegnati(int codiceMissione) throws DataException {
     List<Operatore> operatori = new ArrayList<>();
     
-    try (PreparedStatement ps = dataLayer.getConnection().prepareStatement(
-        "SELECT o.id FROM operatore o " +
-        "INNER JOIN squadra s ON o.id = s.id_op " +
-        "WHERE s.codice_missione_assegnata = ? " +
-        "ORDER BY s.ruolo DESC, o.cognome, o.nome")) {
+    // Una sola query: le righe complete vengono risolte tramite l'identity map (niente query per membro)
+    try {
+        PreparedStatement ps = getStatement("getOperatoriAssegnati");
         
         ps.setInt(1, codiceMissione);
         
         try (ResultSet rs = ps.executeQuery()) {
             while (rs.next()) {
-                int operatoreId = rs.getInt("id");
-                // Cast del dataLayer a SoccorsoDataLayer
-                SoccorsoDataLayer soccorsoDataLayer = (SoccorsoDataLayer) dataLayer;
-                Operatore op = soccorsoDataLayer.getOperatoreDAO().getOperatoreById(operatoreId);
-                if (op != null) {
-                    operatori.add(op);
-                }
+                operatori.add(makeOperatore(rs));
             }
         }
         
@@ -516,4 +584,360 @@ public List<Operatore> getOperatoriAssegnati(int codiceMissione) throws DataExce
     
     return operatori;
     }
+
+    // Le tre query leggono dal primario: l'indice di disponibilità costruito con questi dati resta in uso a lungo
+
+    @Override
+    public Map<Integer, Set<Integer>> getOperatoriMissioniAperte() throws DataException {
+        Map<Integer, Set<Integer>> result = new HashMap<>();
+        try (ResultSet rs = getStatement("getOperatoriMissioniAperte").executeQuery()) {
+            while (rs.next()) {
+                result.computeIfAbsent(rs.getInt(1), k -> new HashSet<>()).add(rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero degli operatori delle missioni aperte", e);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Integer, Set<String>> getMezziMissioniAperte() throws DataException {
+        Map<Integer, Set<String>> result = new HashMap<>();
+        try (ResultSet rs = getStatement("getMezziMissioniAperte").executeQuery()) {
+            while (rs.next()) {
+                result.computeIfAbsent(rs.getInt(1), k -> new HashSet<>()).add(rs.getString(2));
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero dei mezzi delle missioni aperte", e);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Integer, Set<Integer>> getMaterialiMissioniAperte() throws DataException {
+        Map<Integer, Set<Integer>> result = new HashMap<>();
+        try (ResultSet rs = getStatement("getMaterialiMissioniAperte").executeQuery()) {
+            while (rs.next()) {
+                result.computeIfAbsent(rs.getInt(1), k -> new HashSet<>()).add(rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero dei materiali delle missioni aperte", e);
+        }
+        return result;
+    }
+
+    // ----- DataWriter: scritture a lotti della UnitOfWork -----
+
+    @Override
+    public void insert(List<Missione> missioni) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("storeMissione");
+            for (Missione missione : missioni) {
+                stmt.setInt(1, missione.getCodiceRichiesta());
+                int i = 2;
+                for (String field : COLUMNS.keySet()) {
+                    setColumn(stmt, i++, missione, field);
+                }
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            throw new DataException("Errore nell'inserimento delle missioni", e);
+        }
+        for (Missione missione : missioni) {
+            dataLayer.getCache().delete(Missione.class, missione.getCodiceRichiesta());
+            int codice = missione.getCodiceRichiesta();
+            dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().missioneCreata(codice));
+        }
+    }
+
+    @Override
+    public void update(List<Missione> missioni) throws DataException {
+        // un batch per ciascun insieme di colonne modificate; la versione viene sempre controllata e incrementata
+        Map<List<String>, List<Missione>> gruppi = new LinkedHashMap<>();
+        for (Missione missione : missioni) {
+            gruppi.computeIfAbsent(modifiedColumns(missione), k -> new ArrayList<>()).add(missione);
+        }
+        for (Map.Entry<List<String>, List<Missione>> gruppo : gruppi.entrySet()) {
+            List<String> fields = gruppo.getKey();
+            StringBuilder sql = new StringBuilder("UPDATE missione SET ");
+            for (String field : fields) {
+                sql.append(COLUMNS.get(field)).append(" = ?, ");
+            }
+            sql.append("version = version + 1 WHERE codice_richiesta = ? AND version = ?");
+            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(sql.toString())) {
+                for (Missione missione : gruppo.getValue()) {
+                    int i = 1;
+                    for (String field : fields) {
+                        setColumn(stmt, i++, missione, field);
+                    }
+                    stmt.setInt(i++, missione.getCodiceRichiesta());
+                    stmt.setInt(i, missione.getVersion());
+                    stmt.addBatch();
+                }
+                int[] counts;
+                try {
+                    counts = stmt.executeBatch();
+                } finally {
+                    dataLayer.tablesWritten("missione");
+                }
+                for (int i = 0; i < counts.length; ++i) {
+                    dataLayer.getCache().delete(Missione.class, gruppo.getValue().get(i).getCodiceRichiesta());
+                    if (counts[i] == 0) {
+                        throw new OptimisticLockException(Missione.class, gruppo.getValue().get(i).getCodiceRichiesta());
+                    }
+                }
+            } catch (SQLException e) {
+                throw new DataException("Errore nell'aggiornamento delle missioni", e);
+            }
+        }
+        // le versioni in memoria cambiano solo se tutto il lotto è stato scritto
+        for (Missione missione : missioni) {
+            missione.setVersion(missione.getVersion() + 1);
+        }
+    }
+
+    @Override
+    public void delete(List<Missione> missioni) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("deleteMissione");
+            for (Missione missione : missioni) {
+                stmt.setInt(1, missione.getCodiceRichiesta());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            throw new DataException("Errore nella cancellazione delle missioni", e);
+        }
+        for (Missione missione : missioni) {
+            dataLayer.getCache().delete(Missione.class, missione.getCodiceRichiesta());
+            int codice = missione.getCodiceRichiesta();
+            dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().missioneEliminata(codice));
+        }
+    }
+
+    // Proprietà da scrivere: quelle tracciate dal proxy o, se non disponibili, tutte.
+    // La versione è esclusa: è la versione letta, usata per il controllo (optimistic locking)
+    private static List<String> modifiedColumns(Missione missione) {
+        Set<String> fields = null;
+        if (missione instanceof DataItemProxy) {
+            fields = ((DataItemProxy) missione).getModifiedFields();
+        }
+        List<String> result = new ArrayList<>();
+        for (String field : COLUMNS.keySet()) {
+            if (!"version".equals(field) && (fields == null || fields.isEmpty() || fields.contains(field))) {
+                result.add(field);
+            }
+        }
+        return result;
+    }
+
+    private static void setColumn(PreparedStatement stmt, int i, Missione missione, String field) throws SQLException {
+        switch (field) {
+            case "nome":
+                stmt.setString(i, missione.getNome());
+                break;
+            case "obiettivo":
+                stmt.setString(i, missione.getObiettivo());
+                break;
+            case "posizione":
+                stmt.setString(i, missione.getPosizione());
+                break;
+            case "idAmministratore":
+                stmt.setInt(i, missione.getIdAmministratore());
+                break;
+            case "nota":
+                stmt.setString(i, missione.getNota());
+                break;
+            case "dataOraInizio":
+                stmt.setTimestamp(i, Timestamp.valueOf(missione.getDataOraInizio()));
+                break;
+            case "version":
+                stmt.setInt(i, missione.getVersion());
+                break;
+            default:
+                throw new IllegalArgumentException("Proprietà sconosciuta: " + field);
+        }
+    }
+
+    // Writer delle tabelle di associazione della missione, registrati in SoccorsoDataLayer
+    // dopo quello delle missioni
+
+    public DataWriter<PartecipazioneSquadra> getSquadraWriter() {
+        return new DataWriter<PartecipazioneSquadra>() {
+            @Override
+            public void insert(List<PartecipazioneSquadra> partecipazioni) throws DataException {
+                // Uno Standard richiede almeno un Caposquadra, nel lotto stesso o già assegnato
+                Set<Integer> conStandard = new HashSet<>();
+                Set<Integer> conCaposquadra = new HashSet<>();
+                for (PartecipazioneSquadra p : partecipazioni) {
+                    if (p.getRuolo() == RuoloSquadra.Caposquadra) {
+                        conCaposquadra.add(p.getCodiceMissione());
+                    } else {
+                        conStandard.add(p.getCodiceMissione());
+                    }
+                }
+                conStandard.removeAll(conCaposquadra);
+                if (!conStandard.isEmpty()) {
+                    for (List<PartecipazioneSquadra> squadra : getSquadreByMissioni(conStandard).values()) {
+                        if (squadra.stream().noneMatch(p -> p.getRuolo() == RuoloSquadra.Caposquadra)) {
+                            throw new DataException("Impossibile assegnare operatore Standard senza almeno un Caposquadra.");
+                        }
+                    }
+                }
+                try {
+                    PreparedStatement stmt = getStatement("assegnaOperatoreAMissione");
+                    for (PartecipazioneSquadra p : partecipazioni) {
+                        stmt.setInt(1, p.getIdOperatore());
+                        stmt.setInt(2, p.getCodiceMissione());
+                        stmt.setString(3, p.getRuolo().name());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } catch (SQLException e) {
+                    throw new DataException("Errore nell'assegnazione degli operatori alle missioni", e);
+                }
+                dataLayer.afterCommit(() -> {
+                    for (PartecipazioneSquadra p : partecipazioni) {
+                        AvailabilityIndex.getInstance().operatoreAssegnato(p.getCodiceMissione(), p.getIdOperatore());
+                    }
+                });
+            }
+
+            @Override
+            public void update(List<PartecipazioneSquadra> partecipazioni) throws DataException {
+                // l'unica colonna fuori dalla chiave è il ruolo
+                try {
+                    PreparedStatement stmt = getStatement("updateRuoloSquadra");
+                    for (PartecipazioneSquadra p : partecipazioni) {
+                        stmt.setString(1, p.getRuolo().name());
+                        stmt.setInt(2, p.getIdOperatore());
+                        stmt.setInt(3, p.getCodiceMissione());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } catch (SQLException e) {
+                    throw new DataException("Errore nell'aggiornamento dei ruoli nelle squadre", e);
+                }
+            }
+
+            @Override
+            public void delete(List<PartecipazioneSquadra> partecipazioni) throws DataException {
+                try {
+                    PreparedStatement stmt = getStatement("rimuoviOperatoreDaMissione");
+                    for (PartecipazioneSquadra p : partecipazioni) {
+                        stmt.setInt(1, p.getIdOperatore());
+                        stmt.setInt(2, p.getCodiceMissione());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } catch (SQLException e) {
+                    throw new DataException("Errore nella rimozione degli operatori dalle missioni", e);
+                }
+                dataLayer.afterCommit(() -> {
+                    for (PartecipazioneSquadra p : partecipazioni) {
+                        AvailabilityIndex.getInstance().operatoreRimosso(p.getCodiceMissione(), p.getIdOperatore());
+                    }
+                });
+            }
+        };
+    }
+
+    public DataWriter<MissioneUtilizzaMezzo> getMezziWriter() {
+        return new DataWriter<MissioneUtilizzaMezzo>() {
+            @Override
+            public void insert(List<MissioneUtilizzaMezzo> utilizzi) throws DataException {
+                try {
+                    PreparedStatement stmt = getStatement("assegnaMezzoAMissione");
+                    for (MissioneUtilizzaMezzo u : utilizzi) {
+                        stmt.setInt(1, u.getCodiceMissione());
+                        stmt.setString(2, u.getTargaMezzo());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } catch (SQLException e) {
+                    throw new DataException("Errore nell'assegnazione dei mezzi alle missioni", e);
+                }
+                dataLayer.afterCommit(() -> {
+                    for (MissioneUtilizzaMezzo u : utilizzi) {
+                        AvailabilityIndex.getInstance().mezzoAssegnato(u.getCodiceMissione(), u.getTargaMezzo());
+                    }
+                });
+            }
+
+            @Override
+            public void update(List<MissioneUtilizzaMezzo> utilizzi) {
+                // la tabella contiene solo la chiave: non c'è nulla da aggiornare
+            }
+
+            @Override
+            public void delete(List<MissioneUtilizzaMezzo> utilizzi) throws DataException {
+                try {
+                    PreparedStatement stmt = getStatement("rimuoviMezzoDaMissione");
+                    for (MissioneUtilizzaMezzo u : utilizzi) {
+                        stmt.setInt(1, u.getCodiceMissione());
+                        stmt.setString(2, u.getTargaMezzo());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } catch (SQLException e) {
+                    throw new DataException("Errore nella rimozione dei mezzi dalle missioni", e);
+                }
+                dataLayer.afterCommit(() -> {
+                    for (MissioneUtilizzaMezzo u : utilizzi) {
+                        AvailabilityIndex.getInstance().mezzoRimosso(u.getCodiceMissione(), u.getTargaMezzo());
+                    }
+                });
+            }
+        };
+    }
+
+    public DataWriter<MissioneUtilizzaMateriale> getMaterialiWriter() {
+        return new DataWriter<MissioneUtilizzaMateriale>() {
+            @Override
+            public void insert(List<MissioneUtilizzaMateriale> utilizzi) throws DataException {
+                try {
+                    PreparedStatement stmt = getStatement("assegnaMaterialeAMissione");
+                    for (MissioneUtilizzaMateriale u : utilizzi) {
+                        stmt.setInt(1, u.getCodiceMissione());
+                        stmt.setInt(2, u.getIdMateriale());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } catch (SQLException e) {
+                    throw new DataException("Errore nell'assegnazione dei materiali alle missioni", e);
+                }
+                dataLayer.afterCommit(() -> {
+                    for (MissioneUtilizzaMateriale u : utilizzi) {
+                        AvailabilityIndex.getInstance().materialeAssegnato(u.getCodiceMissione(), u.getIdMateriale());
+                    }
+                });
+            }
+
+            @Override
+            public void update(List<MissioneUtilizzaMateriale> utilizzi) {
+                // la tabella contiene solo la chiave: non c'è nulla da aggiornare
+            }
+
+            @Override
+            public void delete(List<MissioneUtilizzaMateriale> utilizzi) throws DataException {
+                try {
+                    PreparedStatement stmt = getStatement("rimuoviMaterialeDaMissione");
+                    for (MissioneUtilizzaMateriale u : utilizzi) {
+                        stmt.setInt(1, u.getCodiceMissione());
+                        stmt.setInt(2, u.getIdMateriale());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                } catch (SQLException e) {
+                    throw new DataException("Errore nella rimozione dei materiali dalle missioni", e);
+                }
+                dataLayer.afterCommit(() -> {
+                    for (MissioneUtilizzaMateriale u : utilizzi) {
+                        AvailabilityIndex.getInstance().materialeRimosso(u.getCodiceMissione(), u.getIdMateriale());
+                    }
+                });
+            }
+        };
+    }
 }
@@ -2,26 +2,54 @@ package webengineering.nuovissimosoccorsoweb.dao.impl;
 
 import webengineering.framework.data.DataException;
 import webengineering.framework.data.DataLayer;
+import webengineering.framework.data.ResultHandler;
 import webengineering.nuovissimosoccorsoweb.dao.OperatoreDAO;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
 import webengineering.nuovissimosoccorsoweb.model.impl.proxy.OperatoreProxy;
+import webengineering.nuovissimosoccorsoweb.service.AvailabilityIndex;
+import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import webengineering.framework.data.DAO;
 
 public class OperatoreDAO_MySQL extends DAO implements OperatoreDAO {
 
+    // Proiezione di riepilogo per le liste: tutto tranne la password, letta al primo accesso (vedi OperatoreProxy)
+    static final String SUMMARY = "id, nome, cognome, email, cf, id_creatore, version";
+    static final String SUMMARY_O = "o.id, o.nome, o.cognome, o.email, o.cf, o.id_creatore, o.version";
+
     public OperatoreDAO_MySQL(DataLayer dataLayer) {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getOperatoreById", "SELECT * FROM operatore WHERE id = ?");
+        registerStatement("getOperatoreByEmail", "SELECT * FROM operatore WHERE email = ?");
+        registerStatement("getOperatoreByCf", "SELECT * FROM operatore WHERE cf = ?");
+        registerStatement("streamAllOperatori", "SELECT " + SUMMARY + " FROM operatore ORDER BY id");
+        registerStatement("completeOperatore", "SELECT password FROM operatore WHERE id = ?");
+        registerStatement("storeOperatore", "INSERT INTO operatore (nome, cognome, email, password, cf, id_creatore, version) VALUES (?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+        registerStatement("deleteOperatore", "DELETE FROM operatore WHERE id = ?");
+    }
+
     @Override
     public Operatore getOperatoreById(int id) throws DataException {
-        Operatore o = null;
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM operatore WHERE id = ?")) {
+        Operatore o = dataLayer.getCache().get(Operatore.class, id);
+        if (o != null) {
+            return o;
+        }
+        try {
+            PreparedStatement stmt = getStatement("getOperatoreById");
             stmt.setInt(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -34,11 +62,45 @@ public class OperatoreDAO_MySQL extends DAO implements OperatoreDAO {
         return o;
     }
 
+    @Override
+    public Map<Integer, Operatore> getOperatoriByIds(Collection<Integer> ids) throws DataException {
+        Map<Integer, Operatore> result = new HashMap<>();
+        // Prima la cache, poi una sola query (IN) per le chiavi mancanti
+        Set<Integer> mancanti = new LinkedHashSet<>();
+        for (Integer k : ids) {
+            Operatore cached = dataLayer.getCache().get(Operatore.class, k);
+            if (cached != null) {
+                result.put(k, cached);
+            } else {
+                mancanti.add(k);
+            }
+        }
+        if (mancanti.isEmpty()) {
+            return result;
+        }
+        try (PreparedStatement stmt = dataLayer.getReadConnection().prepareStatement(
+                "SELECT " + SUMMARY + " FROM operatore WHERE id IN (" + placeholders(mancanti.size()) + ")")) {
+            int i = 1;
+            for (Integer k : mancanti) {
+                stmt.setInt(i++, k);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Operatore o = makeOperatoreSummary(rs);
+                    result.put(o.getId(), o);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero degli operatori per ID", e);
+        }
+        return result;
+    }
+
     @Override
     public Operatore getOperatoreByEmail(String email) throws DataException {
         Operatore o = null;
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM operatore WHERE email = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getOperatoreByEmail");
             stmt.setString(1, email);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -54,10 +116,10 @@ public class OperatoreDAO_MySQL extends DAO implements OperatoreDAO {
     @Override
     public List<Operatore> getAllOperatori() throws DataException {
         List<Operatore> list = new ArrayList<>();
-        try (Statement stmt = dataLayer.getConnection().createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT * FROM operatore")) {
+        try (Statement stmt = dataLayer.getReadConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT " + SUMMARY + " FROM operatore")) {
             while (rs.next()) {
-                list.add(makeOperatore(rs));
+                list.add(makeOperatoreSummary(rs));
             }
         } catch (SQLException e) {
             throw new DataException("Errore nel recupero di tutti gli operatori", e);
@@ -69,8 +131,8 @@ public class OperatoreDAO_MySQL extends DAO implements OperatoreDAO {
     public Operatore getOperatoreByCf (String cf) throws DataException {
         Operatore o = null;
 
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT * FROM operatore WHERE cf = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getOperatoreByCf");
             stmt.setString(1, cf);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -87,27 +149,100 @@ public class OperatoreDAO_MySQL extends DAO implements OperatoreDAO {
     @Override
     public List<Operatore> getOperatoriDisponibili() throws DataException {
         List<Operatore> result = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT o.* FROM operatore o WHERE o.id NOT IN ("
-                + "SELECT DISTINCT s.id_op FROM squadra s "
-                + "INNER JOIN missione m ON s.codice_missione_assegnata = m.codice_richiesta "
-                + "INNER JOIN richiesta_soccorso r ON m.codice_richiesta = r.codice "
-                + "WHERE r.stato = 'Attiva')")) {
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    result.add(makeOperatore(rs)); // Assumendo che esista questo metodo
-                }
+        Set<Integer> impegnati = disponibilita().getOperatoriImpegnati();
+        try (PreparedStatement stmt = prepareDisponibili(SUMMARY, "", impegnati);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                result.add(makeOperatoreSummary(rs));
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero degli operatori disponibili", e);
+        }
+        return result;
+    }
+
+    @Override
+    public Set<Integer> getIdOperatoriDisponibili() throws DataException {
+        Set<Integer> result = new HashSet<>();
+        Set<Integer> impegnati = disponibilita().getOperatoriImpegnati();
+        try (PreparedStatement stmt = prepareDisponibili("id", "", impegnati);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                result.add(rs.getInt(1));
             }
         } catch (SQLException e) {
             throw new DataException("Errore nel recupero degli operatori disponibili", e);
         }
         return result;
     }
+
+    // Solo le righe degli operatori liberi: l'indice conosce quelli impegnati nelle missioni attive
+    private PreparedStatement prepareDisponibili(String columns, String suffix, Set<Integer> impegnati) throws SQLException {
+        String sql = "SELECT " + columns + " FROM operatore"
+                + (impegnati.isEmpty() ? "" : " WHERE id NOT IN (" + placeholders(impegnati.size()) + ")")
+                + suffix;
+        PreparedStatement stmt = dataLayer.getReadConnection().prepareStatement(sql);
+        int i = 1;
+        for (Integer id : impegnati) {
+            stmt.setInt(i++, id);
+        }
+        return stmt;
+    }
+
+    @Override
+    public boolean isOperatoreDisponibile(int id) throws DataException {
+        return disponibilita().isOperatoreDisponibile(id);
+    }
+
+    // Indice di disponibilità, costruito al primo utilizzo (vedi AvailabilityIndex)
+    private AvailabilityIndex disponibilita() throws DataException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        index.ensureLoaded((SoccorsoDataLayer) dataLayer);
+        return index;
+    }
+
+    @Override
+    public int streamAllOperatori(ResultHandler<Operatore> handler) throws DataException {
+        try {
+            return stream(getReadStatement("streamAllOperatori"), rs -> buildOperatore(rs, false), handler);
+        } catch (SQLException e) {
+            throw new DataException("Errore nella lettura in streaming degli operatori", e);
+        }
+    }
+
+    @Override
+    public int streamOperatoriDisponibili(ResultHandler<Operatore> handler) throws DataException {
+        Set<Integer> impegnati = disponibilita().getOperatoriImpegnati();
+        try (PreparedStatement stmt = prepareDisponibili(SUMMARY, " ORDER BY id", impegnati)) {
+            return stream(stmt, rs -> buildOperatore(rs, false), handler);
+        } catch (SQLException e) {
+            throw new DataException("Errore nella lettura in streaming degli operatori disponibili", e);
+        }
+    }
+
+    @Override
+    public void completeOperatore(Operatore operatore) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("completeOperatore");
+            stmt.setInt(1, operatore.getId());
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    if (operatore instanceof OperatoreProxy) {
+                        ((OperatoreProxy) operatore).loadPassword(rs.getString("password"));
+                    } else {
+                        operatore.setPassword(rs.getString("password"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel caricamento dei dettagli dell'operatore", e);
+        }
+    }
+
     @Override
     public void storeOperatore(Operatore operatore) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT INTO operatore (nome, cognome, email, password, cf, id_creatore, version) VALUES (?, ?, ?, ?, ?, ?, ?)", 
-                Statement.RETURN_GENERATED_KEYS)) {
+        try {
+            PreparedStatement stmt = getStatement("storeOperatore");
             stmt.setString(1, operatore.getNome());
             stmt.setString(2, operatore.getCognome());
             stmt.setString(3, operatore.getEmail());
@@ -133,25 +268,65 @@ public class OperatoreDAO_MySQL extends DAO implements OperatoreDAO {
 
     @Override
     public void deleteOperatore(int id) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM operatore WHERE id = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deleteOperatore");
             stmt.setInt(1, id);
             stmt.executeUpdate();
+            dataLayer.getCache().delete(Operatore.class, id);
         } catch (SQLException e) {
             throw new DataException("Errore nella cancellazione dell'operatore", e);
         }
     }
 
+    // Operatore completo (tutte le colonne)
     private Operatore makeOperatore(ResultSet rs) throws SQLException {
-        Operatore op = new OperatoreProxy();
+        // Identity map: se l'operatore è già stato caricato in questa richiesta riusa la stessa istanza
+        Operatore op = dataLayer.getCache().getLocal(Operatore.class, rs.getInt("id"));
+        if (op != null) {
+            // se era stato caricato con la proiezione di riepilogo lo completiamo con questa riga
+            if (op instanceof OperatoreProxy && ((OperatoreProxy) op).isPartial()) {
+                ((OperatoreProxy) op).loadPassword(rs.getString("password"));
+            }
+            return op;
+        }
+        op = buildOperatore(rs, true);
+        dataLayer.getCache().add(Operatore.class, op.getId(), op);
+        return op;
+    }
+
+    // Operatore con la sola proiezione di riepilogo (SUMMARY)
+    private Operatore makeOperatoreSummary(ResultSet rs) throws SQLException {
+        Operatore op = dataLayer.getCache().getLocal(Operatore.class, rs.getInt("id"));
+        if (op != null) {
+            return op;
+        }
+        op = buildOperatore(rs, false);
+        // gli operatori parziali restano nella cache della richiesta: non vanno condivisi
+        dataLayer.getCache().addLocal(Operatore.class, op.getId(), op);
+        return op;
+    }
+
+    // Costruisce il proxy senza registrarlo nella cache (usato direttamente dalle letture in streaming)
+    static Operatore buildOperatore(ResultSet rs, boolean full, DataLayer dataLayer) throws SQLException {
+        OperatoreProxy op = new OperatoreProxy();
+        op.setDataLayer(dataLayer);
         op.setId(rs.getInt("id"));
         op.setNome(rs.getString("nome"));
         op.setCognome(rs.getString("cognome"));
         op.setEmail(rs.getString("email"));
-        op.setPassword(rs.getString("password"));
+        if (full) {
+            op.setPassword(rs.getString("password"));
+        } else {
+            op.setPartial(true);
+        }
         op.setCodiceFiscale(rs.getString("cf"));
         op.setIdAmministratore(rs.getInt("id_creatore")); 
         op.setVersion(rs.getInt("version"));
+        op.setModified(false);
         return op;
     }
-}
\ No newline at end of file
+
+    private Operatore buildOperatore(ResultSet rs, boolean full) throws SQLException {
+        return buildOperatore(rs, full, dataLayer);
+    }
+}
@@ -5,14 +5,15 @@ import webengineering.framework.data.DataLayer;
 import webengineering.nuovissimosoccorsoweb.dao.OperatoreHaAbilitaDAO;
 import webengineering.nuovissimosoccorsoweb.model.Abilita;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
-import webengineering.nuovissimosoccorsoweb.model.impl.proxy.AbilitaProxy;
 import webengineering.nuovissimosoccorsoweb.model.impl.proxy.OperatoreProxy;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import webengineering.framework.data.DAO;
-import webengineering.nuovissimosoccorsoweb.model.TipoAbilita;
+import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 
 public class OperatoreHaAbilitaDAO_MySQL extends DAO implements OperatoreHaAbilitaDAO {
 
@@ -21,30 +22,30 @@ public class OperatoreHaAbilitaDAO_MySQL extends DAO implements OperatoreHaAbili
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("assegnaAbilita", "INSERT INTO ha_abilita (id_op, id_abilita) VALUES (?, ?)");
+        registerStatement("rimuoviAbilita", "DELETE FROM ha_abilita WHERE id_op = ? AND id_abilita = ?");
+        registerStatement("rimuoviTutteLeAbilita", "DELETE FROM ha_abilita WHERE id_op = ?");
+        registerStatement("getOperatoriByAbilita", "SELECT o.* FROM operatore o JOIN ha_abilita ha ON o.id = ha.id_op WHERE ha.id_abilita = ?");
+    }
+
     @Override
     public List<Abilita> getAbilitaByOperatore(int idOperatore) throws DataException {
-        List<Abilita> abilita = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT a.* FROM abilita a JOIN ha_abilita ha ON a.id = ha.id_abilita WHERE ha.id_op = ?")) {
-            stmt.setInt(1, idOperatore);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    Abilita ab = new AbilitaProxy();
-                    ab.setId(rs.getInt("id"));
-                    ab.setTipo(TipoAbilita.fromString(rs.getString("tipo")));
-                    abilita.add(ab);
-                }
-            }
-        } catch (SQLException e) {
-            throw new DataException("Errore nel recupero delle abilità dell'operatore", e);
-        }
-        return abilita;
+        // Delega all'AbilitaDAO, che registra le abilità nell'identity map
+        return ((SoccorsoDataLayer) dataLayer).getAbilitaDAO().getAbilitaByOperatore(idOperatore);
+    }
+
+    @Override
+    public Map<Integer, List<Abilita>> getAbilitaByOperatori(Collection<Integer> idOperatori) throws DataException {
+        return ((SoccorsoDataLayer) dataLayer).getAbilitaDAO().getAbilitaByOperatori(idOperatori);
     }
 
     @Override
     public void assegnaAbilita(int idOperatore, int idAbilita) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT INTO ha_abilita (id_op, id_abilita) VALUES (?, ?)")) {
+        try {
+            PreparedStatement stmt = getStatement("assegnaAbilita");
             stmt.setInt(1, idOperatore);
             stmt.setInt(2, idAbilita);
             stmt.executeUpdate();
@@ -55,8 +56,8 @@ public class OperatoreHaAbilitaDAO_MySQL extends DAO implements OperatoreHaAbili
 
     @Override
     public void rimuoviAbilita(int idOperatore, int idAbilita) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM ha_abilita WHERE id_op = ? AND id_abilita = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("rimuoviAbilita");
             stmt.setInt(1, idOperatore);
             stmt.setInt(2, idAbilita);
             stmt.executeUpdate();
@@ -67,8 +68,8 @@ public class OperatoreHaAbilitaDAO_MySQL extends DAO implements OperatoreHaAbili
 
     @Override
     public void rimuoviTutteLeAbilita(int idOperatore) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM ha_abilita WHERE id_op = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("rimuoviTutteLeAbilita");
             stmt.setInt(1, idOperatore);
             stmt.executeUpdate();
         } catch (SQLException e) {
@@ -76,15 +77,20 @@ public class OperatoreHaAbilitaDAO_MySQL extends DAO implements OperatoreHaAbili
         }
     }
 
+    @Override
+    public int sincronizzaAbilita(int idOperatore, Collection<Integer> idAbilita) throws DataException {
+        return syncAssociation("ha_abilita", "id_op", idOperatore, "id_abilita", idAbilita);
+    }
+
     @Override
     public List<Operatore> getOperatoriByAbilita(int idAbilita) throws DataException {
         List<Operatore> list = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT o.* FROM operatore o JOIN ha_abilita ha ON o.id = ha.id_op WHERE ha.id_abilita = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getOperatoriByAbilita");
             stmt.setInt(1, idAbilita);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    Operatore op = new OperatoreProxy();
+                    OperatoreProxy op = new OperatoreProxy();
                     op.setId(rs.getInt("id"));
                     op.setNome(rs.getString("nome"));
                     op.setCognome(rs.getString("cognome"));
@@ -93,6 +99,7 @@ public class OperatoreHaAbilitaDAO_MySQL extends DAO implements OperatoreHaAbili
                     op.setCodiceFiscale(rs.getString("cf"));
                     op.setIdAmministratore(rs.getInt("id_am"));
                     op.setVersion(rs.getInt("version"));
+                    op.setModified(false);
                     list.add(op);
                 }
             }
@@ -9,7 +9,10 @@ import webengineering.nuovissimosoccorsoweb.model.impl.proxy.OperatoreProxy;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import webengineering.framework.data.DAO;
 
 public class OperatoreHaPatenteDAO_MySQL extends DAO implements OperatoreHaPatenteDAO {
@@ -18,11 +21,21 @@ public class OperatoreHaPatenteDAO_MySQL extends DAO implements OperatoreHaPaten
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getPatentiByOperatore", "SELECT tipo FROM ha_patente WHERE id_op = ?");
+        registerStatement("assegnaPatente", "INSERT INTO ha_patente (id_op, tipo) VALUES (?, ?)");
+        registerStatement("rimuoviPatente", "DELETE FROM ha_patente WHERE id_op = ? AND tipo = ?");
+        registerStatement("rimuoviTutteLePatenti", "DELETE FROM ha_patente WHERE id_op = ?");
+        registerStatement("getOperatoriByPatente", "SELECT o.* FROM operatore o JOIN ha_patente hp ON o.id = hp.id_op WHERE hp.tipo = ?");
+    }
+
     @Override
     public List<TipoPatente> getPatentiByOperatore(int idOperatore) throws DataException {
         List<TipoPatente> lista = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT tipo FROM ha_patente WHERE id_op = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getPatentiByOperatore");
             stmt.setInt(1, idOperatore);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -35,10 +48,36 @@ public class OperatoreHaPatenteDAO_MySQL extends DAO implements OperatoreHaPaten
         return lista;
     }
 
+    @Override
+    public Map<Integer, List<TipoPatente>> getPatentiByOperatori(Collection<Integer> idOperatori) throws DataException {
+        Map<Integer, List<TipoPatente>> result = new HashMap<>();
+        for (Integer id : idOperatori) {
+            result.put(id, new ArrayList<>());
+        }
+        if (result.isEmpty()) {
+            return result;
+        }
+        try (PreparedStatement stmt = dataLayer.getReadConnection().prepareStatement(
+                "SELECT id_op, tipo FROM ha_patente WHERE id_op IN (" + placeholders(result.size()) + ")")) {
+            int i = 1;
+            for (Integer id : result.keySet()) {
+                stmt.setInt(i++, id);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.get(rs.getInt("id_op")).add(TipoPatente.fromString(rs.getString("tipo")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero delle patenti degli operatori", e);
+        }
+        return result;
+    }
+
     @Override
     public void assegnaPatente(int idOperatore, TipoPatente tipo) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT INTO ha_patente (id_op, tipo) VALUES (?, ?)")) {
+        try {
+            PreparedStatement stmt = getStatement("assegnaPatente");
             stmt.setInt(1, idOperatore);
             stmt.setString(2, tipo.toDBString());
             stmt.executeUpdate();
@@ -49,8 +88,8 @@ public class OperatoreHaPatenteDAO_MySQL extends DAO implements OperatoreHaPaten
 
     @Override
     public void rimuoviPatente(int idOperatore, TipoPatente tipo) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM ha_patente WHERE id_op = ? AND tipo = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("rimuoviPatente");
             stmt.setInt(1, idOperatore);
             stmt.setString(2, tipo.toDBString());
             stmt.executeUpdate();
@@ -61,8 +100,8 @@ public class OperatoreHaPatenteDAO_MySQL extends DAO implements OperatoreHaPaten
 
     @Override
     public void rimuoviTutteLePatenti(int idOperatore) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM ha_patente WHERE id_op = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("rimuoviTutteLePatenti");
             stmt.setInt(1, idOperatore);
             stmt.executeUpdate();
         } catch (SQLException e) {
@@ -70,17 +109,25 @@ public class OperatoreHaPatenteDAO_MySQL extends DAO implements OperatoreHaPaten
         }
     }
 
+    @Override
+    public int sincronizzaPatenti(int idOperatore, Collection<TipoPatente> patenti) throws DataException {
+        // Il confronto con le righe esistenti avviene sulla rappresentazione salvata nel database
+        List<String> tipi = new ArrayList<>();
+        for (TipoPatente tipo : patenti) {
+            tipi.add(tipo.toDBString());
+        }
+        return syncAssociation("ha_patente", "id_op", idOperatore, "tipo", tipi);
+    }
+
     @Override
     public List<Operatore> getOperatoriByPatente(TipoPatente tipo) throws DataException {
         List<Operatore> list = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT o.* FROM operatore o " +
-                "JOIN ha_patente hp ON o.id = hp.id_op " +
-                "WHERE hp.tipo = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getOperatoriByPatente");
             stmt.setString(1, tipo.toDBString());
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    Operatore op = new OperatoreProxy();
+                    OperatoreProxy op = new OperatoreProxy();
                     op.setId(rs.getInt("id"));
                     op.setNome(rs.getString("nome"));
                     op.setCognome(rs.getString("cognome"));
@@ -89,6 +136,7 @@ public class OperatoreHaPatenteDAO_MySQL extends DAO implements OperatoreHaPaten
                     op.setCodiceFiscale(rs.getString("cf"));
                     op.setIdAmministratore(rs.getInt("id_am"));
                     op.setVersion(rs.getInt("version"));
+                    op.setModified(false);
                     list.add(op);
                 }
             }
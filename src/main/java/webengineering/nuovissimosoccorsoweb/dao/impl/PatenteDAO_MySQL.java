@@ -16,11 +16,20 @@ public class PatenteDAO_MySQL extends DAO implements PatenteDAO {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getPatenteByTipo", "SELECT tipo FROM patente WHERE tipo = ?");
+        registerCachedQuery("getAllPatenti", "SELECT tipo FROM patente", "patente");
+        registerStatement("storePatente", "INSERT INTO patente (tipo) VALUES (?)");
+        registerStatement("deletePatente", "DELETE FROM patente WHERE tipo = ?");
+    }
+
     @Override
     public TipoPatente getPatenteByTipo(String tipo) throws DataException {
         TipoPatente patente = null;
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT tipo FROM patente WHERE tipo = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getPatenteByTipo");
             stmt.setString(1, tipo);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -36,8 +45,7 @@ public class PatenteDAO_MySQL extends DAO implements PatenteDAO {
     @Override
     public List<TipoPatente> getAllPatenti() throws DataException {
         List<TipoPatente> lista = new ArrayList<>();
-        try (Statement stmt = dataLayer.getConnection().createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT tipo FROM patente")) {
+        try (ResultSet rs = cachedQuery("getAllPatenti")) {
             while (rs.next()) {
                 lista.add(TipoPatente.fromString(rs.getString("tipo")));
             }
@@ -49,8 +57,8 @@ public class PatenteDAO_MySQL extends DAO implements PatenteDAO {
 
     @Override
     public void storePatente(TipoPatente tipo) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT INTO patente (tipo) VALUES (?)")) {
+        try {
+            PreparedStatement stmt = getStatement("storePatente");
             stmt.setString(1, tipo.toDBString());
             stmt.executeUpdate();
         } catch (SQLException e) {
@@ -60,8 +68,8 @@ public class PatenteDAO_MySQL extends DAO implements PatenteDAO {
 
     @Override
     public void deletePatente(TipoPatente tipo) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM patente WHERE tipo = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deletePatente");
             stmt.setString(1, tipo.toDBString());
             stmt.executeUpdate();
         } catch (SQLException e) {
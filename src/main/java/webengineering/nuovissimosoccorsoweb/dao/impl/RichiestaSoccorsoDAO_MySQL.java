@@ -1,44 +1,176 @@
 package webengineering.nuovissimosoccorsoweb.dao.impl;
 
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.DataItemProxy;
 import webengineering.framework.data.DataLayer;
+import webengineering.framework.data.DataWriter;
+import webengineering.framework.data.OptimisticLockException;
+import webengineering.framework.data.ResultHandler;
 import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
 import webengineering.nuovissimosoccorsoweb.model.impl.proxy.RichiestaSoccorsoProxy;
+import webengineering.nuovissimosoccorsoweb.service.AvailabilityIndex;
+import webengineering.nuovissimosoccorsoweb.service.DashboardStatsService;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import webengineering.framework.data.DAO;
 import webengineering.nuovissimosoccorsoweb.dao.RichiestaSoccorsoDAO;
 
-public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorsoDAO {
+public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorsoDAO, DataWriter<RichiestaSoccorso> {
+
+    // Proiezione di riepilogo per le liste: tutto tranne foto (il payload più pesante), stringa e ip,
+    // che vengono letti al primo accesso (vedi RichiestaSoccorsoProxy)
+    private static final String SUMMARY = "codice, stato, coordinate, indirizzo, descrizione, nome, email_s, nome_s, id_am";
+    private static final String SUMMARY_R = "r.codice, r.stato, r.coordinate, r.indirizzo, r.descrizione, r.nome, r.email_s, r.nome_s, r.id_am";
+
+    // Colonna scritta per ciascuna proprietà tracciata da RichiestaSoccorsoProxy (esclusa la chiave)
+    private static final Map<String, String> COLUMNS = new LinkedHashMap<>();
+
+    static {
+        COLUMNS.put("stato", "stato");
+        COLUMNS.put("coordinate", "coordinate");
+        COLUMNS.put("indirizzo", "indirizzo");
+        COLUMNS.put("descrizione", "descrizione");
+        COLUMNS.put("stringa", "stringa");
+        COLUMNS.put("nome", "nome");
+        COLUMNS.put("foto", "foto");
+        COLUMNS.put("ip", "ip");
+        COLUMNS.put("emailSegnalante", "email_s");
+        COLUMNS.put("nomeSegnalante", "nome_s");
+        COLUMNS.put("idAmministratore", "id_am");
+    }
 
     public RichiestaSoccorsoDAO_MySQL(DataLayer dataLayer) {
         super(dataLayer);
     }
 
+    @Override
+    public void init() throws DataException {
+        super.init();
+        registerStatement("getRichiestaByCodice", "SELECT * FROM richiesta_soccorso WHERE codice = ?");
+        registerCachedQuery("getRichiesteByStato", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato = ?", "richiesta_soccorso");
+        registerStatement("getRichiesteByAmministratore", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE id_am = ?");
+        registerStatement("getRichiesteConvalidateNonGestite", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato = 'Convalidata' AND codice NOT IN (SELECT codice_richiesta FROM missione)");
+        registerStatement("completeRichiesta", "SELECT foto, stringa, ip FROM richiesta_soccorso WHERE codice = ?");
+        registerStatement("getRichiestaByStringaValidazione", "SELECT * FROM richiesta_soccorso WHERE stringa = ?");
+        registerStatement("updateStato", "UPDATE richiesta_soccorso SET stato = ? WHERE codice = ? AND stato = ?");
+        registerStatement("storeRichiesta", "INSERT INTO richiesta_soccorso (stato, coordinate, indirizzo, descrizione, stringa, nome, foto, ip, email_s, nome_s, id_am) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+        registerStatement("deleteRichiesta", "DELETE FROM richiesta_soccorso WHERE codice = ?");
+        registerStatement("getRichiesteWithPagination", "SELECT " + SUMMARY + " FROM richiesta_soccorso ORDER BY codice DESC LIMIT ? OFFSET ?");
+        registerStatement("getRichiesteWithPagination.stato", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato = ? ORDER BY codice DESC LIMIT ? OFFSET ?");
+        registerStatement("countRichiesteByStato", "SELECT COUNT(*) FROM richiesta_soccorso");
+        registerStatement("countRichiesteByStato.stato", "SELECT COUNT(*) FROM richiesta_soccorso WHERE stato = ?");
+        registerStatement("countRichiestePerStato", "SELECT stato, COUNT(*) FROM richiesta_soccorso GROUP BY stato");
+        registerStatement("getStatiRichiesteAperte", "SELECT codice, stato FROM richiesta_soccorso WHERE stato IN ('Convalidata', 'Attiva')");
+        registerStatement("getRichiesteChiuseByLivelloSuccesso", """
+            SELECT %s FROM richiesta_soccorso r
+            INNER JOIN info_missione im ON r.codice = im.codice_missione
+            WHERE r.stato = 'Chiusa' AND im.successo < ?
+            ORDER BY r.codice DESC
+            LIMIT ? OFFSET ?
+            """.formatted(SUMMARY_R));
+        registerStatement("countRichiesteChiuseByLivelloSuccesso", """
+            SELECT COUNT(*) FROM richiesta_soccorso r
+            INNER JOIN info_missione im ON r.codice = im.codice_missione
+            WHERE r.stato = 'Chiusa' AND im.successo < ?
+            """);
+        registerStatement("getRichiesteVisibili", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato <> 'Inviata' ORDER BY codice DESC LIMIT ? OFFSET ?");
+        registerStatement("getRichiesteVisibili.stato", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato <> 'Inviata' AND stato = ? ORDER BY codice DESC LIMIT ? OFFSET ?");
+        registerStatement("streamRichiesteVisibili", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato <> 'Inviata' ORDER BY codice DESC");
+        registerStatement("streamRichiesteVisibili.stato", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato <> 'Inviata' AND stato = ? ORDER BY codice DESC");
+        registerStatement("countRichiesteVisibili", "SELECT COUNT(*) FROM richiesta_soccorso WHERE stato <> 'Inviata'");
+        registerStatement("countRichiesteVisibili.stato", "SELECT COUNT(*) FROM richiesta_soccorso WHERE stato <> 'Inviata' AND stato = ?");
+        // Paginazione keyset: "codice < ?" usa la chiave primaria invece di scartare le righe con OFFSET
+        registerStatement("getRichiesteVisibiliAfter", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato <> 'Inviata' ORDER BY codice DESC LIMIT ?");
+        registerStatement("getRichiesteVisibiliAfter.codice", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato <> 'Inviata' AND codice < ? ORDER BY codice DESC LIMIT ?");
+        registerStatement("getRichiesteVisibiliAfter.stato", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato <> 'Inviata' AND stato = ? ORDER BY codice DESC LIMIT ?");
+        registerStatement("getRichiesteVisibiliAfter.stato.codice", "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE stato <> 'Inviata' AND stato = ? AND codice < ? ORDER BY codice DESC LIMIT ?");
+        registerStatement("getRichiesteChiuseByLivelloSuccessoAfter", """
+            SELECT %s FROM richiesta_soccorso r
+            INNER JOIN info_missione im ON r.codice = im.codice_missione
+            WHERE r.stato = 'Chiusa' AND im.successo < ?
+            ORDER BY r.codice DESC
+            LIMIT ?
+            """.formatted(SUMMARY_R));
+        registerStatement("getRichiesteChiuseByLivelloSuccessoAfter.codice", """
+            SELECT %s FROM richiesta_soccorso r
+            INNER JOIN info_missione im ON r.codice = im.codice_missione
+            WHERE r.stato = 'Chiusa' AND im.successo < ? AND r.codice < ?
+            ORDER BY r.codice DESC
+            LIMIT ?
+            """.formatted(SUMMARY_R));
+    }
+
+    // Richiesta completa (tutte le colonne)
     private RichiestaSoccorso makeRichiesta(ResultSet rs) throws SQLException {
-        RichiestaSoccorso r = new RichiestaSoccorsoProxy();
+        // Identity map: riusa l'istanza già caricata in questa richiesta
+        RichiestaSoccorso cached = dataLayer.getCache().getLocal(RichiestaSoccorso.class, rs.getInt("codice"));
+        if (cached != null) {
+            // se era stata caricata con la proiezione di riepilogo la completiamo con questa riga
+            if (cached instanceof RichiestaSoccorsoProxy && ((RichiestaSoccorsoProxy) cached).isPartial()) {
+                fillDettagli((RichiestaSoccorsoProxy) cached, rs);
+            }
+            return cached;
+        }
+        RichiestaSoccorso r = buildRichiesta(rs, true);
+        dataLayer.getCache().add(RichiestaSoccorso.class, r.getCodice(), r);
+        return r;
+    }
+
+    // Richiesta con la sola proiezione di riepilogo (SUMMARY)
+    private RichiestaSoccorso makeRichiestaSummary(ResultSet rs) throws SQLException {
+        RichiestaSoccorso cached = dataLayer.getCache().getLocal(RichiestaSoccorso.class, rs.getInt("codice"));
+        if (cached != null) {
+            return cached;
+        }
+        RichiestaSoccorso r = buildRichiesta(rs, false);
+        // le richieste parziali restano nella cache della richiesta: non vanno condivise
+        dataLayer.getCache().addLocal(RichiestaSoccorso.class, r.getCodice(), r);
+        return r;
+    }
+
+    // Costruisce il proxy senza registrarlo nella cache (usato direttamente dalle letture in streaming)
+    private RichiestaSoccorso buildRichiesta(ResultSet rs, boolean full) throws SQLException {
+        RichiestaSoccorsoProxy r = new RichiestaSoccorsoProxy();
+        r.setDataLayer(dataLayer);
         r.setCodice(rs.getInt("codice"));
         r.setStato(rs.getString("stato"));
         r.setCoordinate(rs.getString("coordinate"));
         r.setIndirizzo(rs.getString("indirizzo"));
         r.setDescrizione(rs.getString("descrizione"));
-        r.setStringa(rs.getString("stringa"));
         r.setNome(rs.getString("nome"));
-        r.setFoto(rs.getString("foto"));
-        r.setIp(rs.getString("ip"));
         r.setEmailSegnalante(rs.getString("email_s"));
         r.setNomeSegnalante(rs.getString("nome_s"));
         r.setIdAmministratore(rs.getInt("id_am"));
+        if (full) {
+            fillDettagli(r, rs);
+        } else {
+            r.setPartial(true);
+        }
+        r.setModified(false);
         return r;
     }
 
+    // Colonne escluse dalla proiezione di riepilogo; non cambia lo stato "modified" del proxy
+    private void fillDettagli(RichiestaSoccorsoProxy r, ResultSet rs) throws SQLException {
+        r.loadDettagli(rs.getString("stringa"), rs.getString("foto"), rs.getString("ip"));
+    }
+
     @Override
     public RichiestaSoccorso getRichiestaByCodice(int codice) throws DataException {
-        RichiestaSoccorso r = null;
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM richiesta_soccorso WHERE codice = ?")) {
+        RichiestaSoccorso r = dataLayer.getCache().get(RichiestaSoccorso.class, codice);
+        if (r != null) {
+            return r;
+        }
+        try {
+            PreparedStatement stmt = getStatement("getRichiestaByCodice");
             stmt.setInt(1, codice);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -51,12 +183,67 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
         return r;
     }
 
+    @Override
+    public void completeRichiesta(RichiestaSoccorso richiesta) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("completeRichiesta");
+            stmt.setInt(1, richiesta.getCodice());
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    if (richiesta instanceof RichiestaSoccorsoProxy) {
+                        fillDettagli((RichiestaSoccorsoProxy) richiesta, rs);
+                    } else {
+                        richiesta.setStringa(rs.getString("stringa"));
+                        richiesta.setFoto(rs.getString("foto"));
+                        richiesta.setIp(rs.getString("ip"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel caricamento dei dettagli della richiesta", e);
+        }
+    }
+
+    @Override
+    public Map<Integer, RichiestaSoccorso> getRichiesteByCodici(Collection<Integer> codici) throws DataException {
+        Map<Integer, RichiestaSoccorso> result = new HashMap<>();
+        // Prima la cache, poi una sola query (IN) per le chiavi mancanti
+        Set<Integer> mancanti = new LinkedHashSet<>();
+        for (Integer k : codici) {
+            RichiestaSoccorso cached = dataLayer.getCache().get(RichiestaSoccorso.class, k);
+            if (cached != null) {
+                result.put(k, cached);
+            } else {
+                mancanti.add(k);
+            }
+        }
+        if (mancanti.isEmpty()) {
+            return result;
+        }
+        try (PreparedStatement stmt = dataLayer.getReadConnection().prepareStatement(
+                "SELECT " + SUMMARY + " FROM richiesta_soccorso WHERE codice IN (" + placeholders(mancanti.size()) + ")")) {
+            int i = 1;
+            for (Integer k : mancanti) {
+                stmt.setInt(i++, k);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    RichiestaSoccorso r = makeRichiestaSummary(rs);
+                    result.put(r.getCodice(), r);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero delle richieste", e);
+        }
+        return result;
+    }
+
     @Override
     public List<RichiestaSoccorso> getAllRichieste() throws DataException {
         List<RichiestaSoccorso> result = new ArrayList<>();
-        try (Statement stmt = dataLayer.getConnection().createStatement(); ResultSet rs = stmt.executeQuery("SELECT * FROM richiesta_soccorso")) {
+        try (Statement stmt = dataLayer.getReadConnection().createStatement(); ResultSet rs = stmt.executeQuery("SELECT " + SUMMARY + " FROM richiesta_soccorso")) {
             while (rs.next()) {
-                result.add(makeRichiesta(rs));
+                result.add(makeRichiestaSummary(rs));
             }
         } catch (SQLException e) {
             throw new DataException("Errore nel recupero delle richieste", e);
@@ -67,12 +254,11 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
     @Override
     public List<RichiestaSoccorso> getRichiesteByStato(String stato) throws DataException {
         List<RichiestaSoccorso> result = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM richiesta_soccorso WHERE stato = ?")) {
-            stmt.setString(1, stato);
-            try (ResultSet rs = stmt.executeQuery()) {
+        try {
+            // risultato condiviso tra le richieste finché richiesta_soccorso non viene modificata
+            try (ResultSet rs = cachedQuery("getRichiesteByStato", stato)) {
                 while (rs.next()) {
-                    result.add(makeRichiesta(rs));
+                    result.add(makeRichiestaSummary(rs));
                 }
             }
         } catch (SQLException e) {
@@ -84,12 +270,12 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
     @Override
     public List<RichiestaSoccorso> getRichiesteByAmministratore(int idAmministratore) throws DataException {
         List<RichiestaSoccorso> result = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM richiesta_soccorso WHERE id_am = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getRichiesteByAmministratore");
             stmt.setInt(1, idAmministratore);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    result.add(makeRichiesta(rs));
+                    result.add(makeRichiestaSummary(rs));
                 }
             }
         } catch (SQLException e) {
@@ -101,11 +287,11 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
     @Override
     public List<RichiestaSoccorso> getRichiesteConvalidateNonGestite() throws DataException {
         List<RichiestaSoccorso> result = new ArrayList<>();
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM richiesta_soccorso WHERE stato = 'Convalidata' AND codice NOT IN (SELECT codice_richiesta FROM missione)")) {
+        try {
+            PreparedStatement stmt = getStatement("getRichiesteConvalidateNonGestite");
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    result.add(makeRichiesta(rs));
+                    result.add(makeRichiestaSummary(rs));
                 }
             }
         } catch (SQLException e) {
@@ -117,8 +303,8 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
     @Override
     public RichiestaSoccorso getRichiestaByStringaValidazione(String stringa) throws DataException {
         RichiestaSoccorso r = null;
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "SELECT * FROM richiesta_soccorso WHERE stringa = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("getRichiestaByStringaValidazione");
             stmt.setString(1, stringa);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -132,27 +318,215 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
     }
 
     @Override
-    public void updateStato(int codice, String nuovoStato) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "UPDATE richiesta_soccorso SET stato = ? WHERE codice = ?")) {
+    public void updateStato(int codice, String statoAtteso, String nuovoStato) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("updateStato");
             stmt.setString(1, nuovoStato);
             stmt.setInt(2, codice);
+            stmt.setString(3, statoAtteso);
 
             int rowsAffected = stmt.executeUpdate();
+            dataLayer.getCache().delete(RichiestaSoccorso.class, codice);
+            // nessuna riga: la richiesta non esiste o non è più in statoAtteso
             if (rowsAffected == 0) {
-                throw new DataException("Nessuna richiesta trovata con codice: " + codice);
+                throw new OptimisticLockException(RichiestaSoccorso.class, codice);
             }
+            // contatori e indice di disponibilità vengono aggiornati solo a scrittura confermata
+            dataLayer.afterCommit(() -> {
+                DashboardStatsService.getInstance().statoCambiato(statoAtteso, nuovoStato);
+                AvailabilityIndex.getInstance().statoCambiato(codice, statoAtteso, nuovoStato);
+            });
 
         } catch (SQLException e) {
             throw new DataException("Errore nell'aggiornamento dello stato della richiesta", e);
         }
     }
 
+    // ----- DataWriter: scritture a lotti della UnitOfWork -----
+
+    @Override
+    public void insert(List<RichiestaSoccorso> richieste) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("storeRichiesta");
+            for (RichiestaSoccorso richiesta : richieste) {
+                int i = 1;
+                for (String field : COLUMNS.keySet()) {
+                    setColumn(stmt, i++, richiesta, field);
+                }
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            // le chiavi generate arrivano nello stesso ordine delle righe del batch
+            try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                for (RichiestaSoccorso richiesta : richieste) {
+                    if (generatedKeys.next()) {
+                        richiesta.setCodice(generatedKeys.getInt(1));
+                    }
+                }
+            }
+            dataLayer.afterCommit(() -> {
+                for (RichiestaSoccorso richiesta : richieste) {
+                    DashboardStatsService.getInstance().richiestaInserita(richiesta.getStato());
+                }
+            });
+        } catch (SQLException e) {
+            throw new DataException("Errore nel salvataggio delle richieste", e);
+        }
+    }
+
+    @Override
+    public void update(List<RichiestaSoccorso> richieste) throws DataException {
+        // un batch per ciascun insieme di colonne modificate (e per la presenza del controllo sullo stato)
+        Map<String, List<RichiestaSoccorso>> gruppi = new LinkedHashMap<>();
+        for (RichiestaSoccorso richiesta : richieste) {
+            String key = String.join(",", modifiedColumns(richiesta)) + (statoAtteso(richiesta) != null ? "|stato" : "");
+            gruppi.computeIfAbsent(key, k -> new ArrayList<>()).add(richiesta);
+        }
+        for (List<RichiestaSoccorso> gruppo : gruppi.values()) {
+            List<String> fields = modifiedColumns(gruppo.get(0));
+            boolean controlloStato = statoAtteso(gruppo.get(0)) != null;
+            StringBuilder sql = new StringBuilder("UPDATE richiesta_soccorso SET ");
+            for (int i = 0; i < fields.size(); ++i) {
+                sql.append(i > 0 ? ", " : "").append(COLUMNS.get(fields.get(i))).append(" = ?");
+            }
+            sql.append(" WHERE codice = ?");
+            if (controlloStato) {
+                sql.append(" AND stato = ?");
+            }
+            try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(sql.toString())) {
+                for (RichiestaSoccorso richiesta : gruppo) {
+                    int i = 1;
+                    for (String field : fields) {
+                        setColumn(stmt, i++, richiesta, field);
+                    }
+                    stmt.setInt(i++, richiesta.getCodice());
+                    if (controlloStato) {
+                        stmt.setString(i, statoAtteso(richiesta));
+                    }
+                    stmt.addBatch();
+                }
+                int[] counts;
+                try {
+                    counts = stmt.executeBatch();
+                } finally {
+                    dataLayer.tablesWritten("richiesta_soccorso");
+                }
+                for (int i = 0; i < counts.length; ++i) {
+                    dataLayer.getCache().delete(RichiestaSoccorso.class, gruppo.get(i).getCodice());
+                    if (counts[i] == 0) {
+                        throw new OptimisticLockException(RichiestaSoccorso.class, gruppo.get(i).getCodice());
+                    }
+                    if (controlloStato) {
+                        int codice = gruppo.get(i).getCodice();
+                        String da = statoAtteso(gruppo.get(i));
+                        String a = gruppo.get(i).getStato();
+                        dataLayer.afterCommit(() -> {
+                            DashboardStatsService.getInstance().statoCambiato(da, a);
+                            AvailabilityIndex.getInstance().statoCambiato(codice, da, a);
+                        });
+                    }
+                }
+            } catch (SQLException e) {
+                throw new DataException("Errore nell'aggiornamento delle richieste", e);
+            }
+        }
+    }
+
+    @Override
+    public void delete(List<RichiestaSoccorso> richieste) throws DataException {
+        try {
+            PreparedStatement stmt = getStatement("deleteRichiesta");
+            for (RichiestaSoccorso richiesta : richieste) {
+                stmt.setInt(1, richiesta.getCodice());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            throw new DataException("Errore nella cancellazione delle richieste", e);
+        }
+        for (RichiestaSoccorso richiesta : richieste) {
+            dataLayer.getCache().delete(RichiestaSoccorso.class, richiesta.getCodice());
+            int codice = richiesta.getCodice();
+            dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().richiestaEliminata(codice));
+        }
+    }
+
+    // Stato che la riga deve avere perché l'UPDATE riesca: quello letto, se lo stato è stato modificato
+    private static String statoAtteso(RichiestaSoccorso richiesta) {
+        if (richiesta instanceof RichiestaSoccorsoProxy) {
+            RichiestaSoccorsoProxy proxy = (RichiestaSoccorsoProxy) richiesta;
+            if (proxy.getModifiedFields().contains("stato")) {
+                return proxy.getStatoOriginale();
+            }
+        }
+        return null;
+    }
+
+    // Proprietà da scrivere: quelle tracciate dal proxy o, se non disponibili, tutte
+    private static List<String> modifiedColumns(RichiestaSoccorso richiesta) {
+        if (richiesta instanceof DataItemProxy) {
+            Set<String> fields = ((DataItemProxy) richiesta).getModifiedFields();
+            if (fields != null && !fields.isEmpty()) {
+                List<String> result = new ArrayList<>();
+                for (String field : COLUMNS.keySet()) {
+                    if (fields.contains(field)) {
+                        result.add(field);
+                    }
+                }
+                return result;
+            }
+        }
+        return new ArrayList<>(COLUMNS.keySet());
+    }
+
+    private static void setColumn(PreparedStatement stmt, int i, RichiestaSoccorso richiesta, String field) throws SQLException {
+        switch (field) {
+            case "stato":
+                stmt.setString(i, richiesta.getStato());
+                break;
+            case "coordinate":
+                stmt.setString(i, richiesta.getCoordinate());
+                break;
+            case "indirizzo":
+                stmt.setString(i, richiesta.getIndirizzo());
+                break;
+            case "descrizione":
+                stmt.setString(i, richiesta.getDescrizione());
+                break;
+            case "stringa":
+                stmt.setString(i, richiesta.getStringa());
+                break;
+            case "nome":
+                stmt.setString(i, richiesta.getNome());
+                break;
+            case "foto":
+                stmt.setString(i, richiesta.getFoto());
+                break;
+            case "ip":
+                stmt.setString(i, richiesta.getIp());
+                break;
+            case "emailSegnalante":
+                stmt.setString(i, richiesta.getEmailSegnalante());
+                break;
+            case "nomeSegnalante":
+                stmt.setString(i, richiesta.getNomeSegnalante());
+                break;
+            case "idAmministratore":
+                if (richiesta.getIdAmministratore() > 0) {
+                    stmt.setInt(i, richiesta.getIdAmministratore());
+                } else {
+                    stmt.setNull(i, Types.INTEGER);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Proprietà sconosciuta: " + field);
+        }
+    }
+
     @Override
     public void storeRichiesta(RichiestaSoccorso richiesta) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "INSERT INTO richiesta_soccorso (stato, coordinate, indirizzo, descrizione, stringa, nome, foto, ip, email_s, nome_s, id_am) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
-                Statement.RETURN_GENERATED_KEYS)) {
+        try {
+            PreparedStatement stmt = getStatement("storeRichiesta");
 
             stmt.setString(1, richiesta.getStato());
             stmt.setString(2, richiesta.getCoordinate());
@@ -175,6 +549,8 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
 
             // Recupera l'ID generato automaticamente
             if (rowsAffected > 0) {
+                String stato = richiesta.getStato();
+                dataLayer.afterCommit(() -> DashboardStatsService.getInstance().richiestaInserita(stato));
                 try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
                     if (generatedKeys.next()) {
                         richiesta.setCodice(generatedKeys.getInt(1));
@@ -189,10 +565,12 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
 
     @Override
     public void deleteRichiesta(int codice) throws DataException {
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(
-                "DELETE FROM richiesta_soccorso WHERE codice = ?")) {
+        try {
+            PreparedStatement stmt = getStatement("deleteRichiesta");
             stmt.setInt(1, codice);
             stmt.executeUpdate();
+            dataLayer.getCache().delete(RichiestaSoccorso.class, codice);
+            dataLayer.afterCommit(() -> AvailabilityIndex.getInstance().richiestaEliminata(codice));
         } catch (SQLException e) {
             throw new DataException("Errore nell'eliminazione richiesta", e);
         }
@@ -202,14 +580,15 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
     public List<RichiestaSoccorso> getRichiesteWithPagination(String stato, int offset, int limit) throws DataException {
         List<RichiestaSoccorso> result = new ArrayList<>();
 
-        String sql;
+        String name;
         if (stato != null && !stato.trim().isEmpty()) {
-            sql = "SELECT * FROM richiesta_soccorso WHERE stato = ? ORDER BY codice DESC LIMIT ? OFFSET ?";
+            name = "getRichiesteWithPagination.stato";
         } else {
-            sql = "SELECT * FROM richiesta_soccorso ORDER BY codice DESC LIMIT ? OFFSET ?";
+            name = "getRichiesteWithPagination";
         }
 
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(sql)) {
+        try {
+            PreparedStatement stmt = getReadStatement(name);
             int paramIndex = 1;
 
             if (stato != null && !stato.trim().isEmpty()) {
@@ -220,7 +599,7 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    result.add(makeRichiesta(rs));
+                    result.add(makeRichiestaSummary(rs));
                 }
             }
         } catch (SQLException e) {
@@ -232,14 +611,15 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
 
     @Override
     public int countRichiesteByStato(String stato) throws DataException {
-        String sql;
+        String name;
         if (stato != null && !stato.trim().isEmpty()) {
-            sql = "SELECT COUNT(*) FROM richiesta_soccorso WHERE stato = ?";
+            name = "countRichiesteByStato.stato";
         } else {
-            sql = "SELECT COUNT(*) FROM richiesta_soccorso";
+            name = "countRichiesteByStato";
         }
 
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(sql)) {
+        try {
+            PreparedStatement stmt = getReadStatement(name);
             if (stato != null && !stato.trim().isEmpty()) {
                 stmt.setString(1, stato);
             }
@@ -256,27 +636,53 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
         return 0;
     }
 
+    @Override
+    public Map<String, Integer> countRichiestePerStato() throws DataException {
+        Map<String, Integer> result = new HashMap<>();
+        try {
+            PreparedStatement stmt = getReadStatement("countRichiestePerStato");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.put(rs.getString(1), rs.getInt(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel conteggio richieste per stato", e);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Integer, String> getStatiRichiesteAperte() throws DataException {
+        Map<Integer, String> result = new HashMap<>();
+        try {
+            // primario e non replica: l'indice costruito con questi dati resta in uso a lungo
+            PreparedStatement stmt = getStatement("getStatiRichiesteAperte");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.put(rs.getInt(1), rs.getString(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero delle richieste aperte", e);
+        }
+        return result;
+    }
+
     @Override
     public List<RichiestaSoccorso> getRichiesteChiuseByLivelloSuccesso(int maxLivelloSuccesso, int offset, int limit) throws DataException {
         List<RichiestaSoccorso> result = new ArrayList<>();
 
         // Query che fa JOIN con info_missione per ottenere il livello di successo
-        String sql = """
-        SELECT r.* FROM richiesta_soccorso r 
-        INNER JOIN info_missione im ON r.codice = im.codice_missione 
-        WHERE r.stato = 'Chiusa' AND im.livello_successo < ? 
-        ORDER BY r.codice DESC 
-        LIMIT ? OFFSET ?
-        """;
-
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(sql)) {
+        try {
+            PreparedStatement stmt = getReadStatement("getRichiesteChiuseByLivelloSuccesso");
             stmt.setInt(1, maxLivelloSuccesso);
             stmt.setInt(2, limit);
             stmt.setInt(3, offset);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    result.add(makeRichiesta(rs));
+                    result.add(makeRichiestaSummary(rs));
                 }
             }
         } catch (SQLException e) {
@@ -288,13 +694,8 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
 
     @Override
     public int countRichiesteChiuseByLivelloSuccesso(int maxLivelloSuccesso) throws DataException {
-        String sql = """
-        SELECT COUNT(*) FROM richiesta_soccorso r 
-        INNER JOIN info_missione im ON r.codice = im.codice_missione 
-        WHERE r.stato = 'Chiusa' AND im.livello_successo < ?
-        """;
-
-        try (PreparedStatement stmt = dataLayer.getConnection().prepareStatement(sql)) {
+        try {
+            PreparedStatement stmt = getReadStatement("countRichiesteChiuseByLivelloSuccesso");
             stmt.setInt(1, maxLivelloSuccesso);
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -308,4 +709,130 @@ public class RichiestaSoccorsoDAO_MySQL extends DAO implements RichiestaSoccorso
 
         return 0;
     }
+
+    @Override
+    public List<RichiestaSoccorso> getRichiesteVisibili(String stato, int offset, int limit) throws DataException {
+        List<RichiestaSoccorso> result = new ArrayList<>();
+        boolean conStato = stato != null && !stato.trim().isEmpty();
+
+        try {
+            PreparedStatement stmt = getReadStatement(conStato ? "getRichiesteVisibili.stato" : "getRichiesteVisibili");
+            int paramIndex = 1;
+            if (conStato) {
+                stmt.setString(paramIndex++, stato);
+            }
+            stmt.setInt(paramIndex++, limit);
+            stmt.setInt(paramIndex, offset);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(makeRichiestaSummary(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero richieste con paginazione", e);
+        }
+
+        return result;
+    }
+
+    @Override
+    public int countRichiesteVisibili(String stato) throws DataException {
+        boolean conStato = stato != null && !stato.trim().isEmpty();
+
+        try {
+            PreparedStatement stmt = getReadStatement(conStato ? "countRichiesteVisibili.stato" : "countRichiesteVisibili");
+            if (conStato) {
+                stmt.setString(1, stato);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel conteggio richieste", e);
+        }
+
+        return 0;
+    }
+
+    @Override
+    public int streamRichiesteVisibili(String stato, ResultHandler<RichiestaSoccorso> handler) throws DataException {
+        boolean conStato = stato != null && !stato.trim().isEmpty();
+
+        try {
+            PreparedStatement stmt = getReadStatement(conStato ? "streamRichiesteVisibili.stato" : "streamRichiesteVisibili");
+            if (conStato) {
+                stmt.setString(1, stato);
+            }
+            return stream(stmt, rs -> buildRichiesta(rs, false), handler);
+        } catch (SQLException e) {
+            throw new DataException("Errore nella lettura in streaming delle richieste", e);
+        }
+    }
+
+    @Override
+    public List<RichiestaSoccorso> getRichiesteVisibiliAfter(String stato, Integer afterCodice, int limit) throws DataException {
+        List<RichiestaSoccorso> result = new ArrayList<>();
+        boolean conStato = stato != null && !stato.trim().isEmpty();
+
+        String name = "getRichiesteVisibiliAfter";
+        if (conStato) {
+            name += ".stato";
+        }
+        if (afterCodice != null) {
+            name += ".codice";
+        }
+
+        try {
+            PreparedStatement stmt = getReadStatement(name);
+            int paramIndex = 1;
+            if (conStato) {
+                stmt.setString(paramIndex++, stato);
+            }
+            if (afterCodice != null) {
+                stmt.setInt(paramIndex++, afterCodice);
+            }
+            stmt.setInt(paramIndex, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(makeRichiestaSummary(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero richieste con paginazione a chiave", e);
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<RichiestaSoccorso> getRichiesteChiuseByLivelloSuccessoAfter(int maxLivelloSuccesso, Integer afterCodice, int limit) throws DataException {
+        List<RichiestaSoccorso> result = new ArrayList<>();
+
+        try {
+            PreparedStatement stmt = getReadStatement(afterCodice != null
+                    ? "getRichiesteChiuseByLivelloSuccessoAfter.codice"
+                    : "getRichiesteChiuseByLivelloSuccessoAfter");
+            int paramIndex = 1;
+            stmt.setInt(paramIndex++, maxLivelloSuccesso);
+            if (afterCodice != null) {
+                stmt.setInt(paramIndex++, afterCodice);
+            }
+            stmt.setInt(paramIndex, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(makeRichiestaSummary(rs));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DataException("Errore nel recupero richieste chiuse per livello successo", e);
+        }
+
+        return result;
+    }
 }
@@ -40,4 +40,15 @@ public class AbilitaProxy extends AbilitaImpl implements DataItemProxy {
         super.setVersion(version);
         this.modified = true;
     }
-} 
+
+    // Copia per la cache condivisa
+    @Override
+    public AbilitaProxy copy() {
+        AbilitaProxy copy = new AbilitaProxy();
+        copy.setId(getId());
+        copy.setTipo(getTipo());
+        copy.setVersion(getVersion());
+        copy.setModified(false);
+        return copy;
+    }
+}
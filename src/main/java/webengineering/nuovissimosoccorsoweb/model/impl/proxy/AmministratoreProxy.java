@@ -1,13 +1,21 @@
 package webengineering.nuovissimosoccorsoweb.model.impl.proxy;
 
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import webengineering.nuovissimosoccorsoweb.model.impl.AmministratoreImpl;
+import webengineering.framework.data.DataException;
 import webengineering.framework.data.DataItemProxy;
 import webengineering.framework.data.DataLayer;
+import webengineering.nuovissimosoccorsoweb.dao.AmministratoreDAO;
+import webengineering.nuovissimosoccorsoweb.model.Amministratore;
 
 public class AmministratoreProxy extends AmministratoreImpl implements DataItemProxy {
     
     private boolean modified;
     private DataLayer dataLayer;
+    // Caricato con la proiezione di riepilogo: la password viene letta al primo accesso
+    private boolean partial;
     
     // Costruttore di default (come OperatoreProxy)
     public AmministratoreProxy() {
@@ -40,5 +48,107 @@ public class AmministratoreProxy extends AmministratoreImpl implements DataItemP
         this.dataLayer = dataLayer;
     }
     
-    // Override setter se vuoi tracciare modifiche in futuro
+    public boolean isPartial() {
+        return partial;
+    }
+    
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+    
+    @Override
+    public String getPassword() {
+        if (partial && dataLayer != null) {
+            partial = false;
+            try {
+                ((AmministratoreDAO) dataLayer.getDAO(Amministratore.class)).completeAmministratore(this);
+            } catch (DataException ex) {
+                partial = true;
+                Logger.getLogger(AmministratoreProxy.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        return super.getPassword();
+    }
+    
+    @Override
+    public void setPassword(String password) {
+        partial = false;
+        super.setPassword(password);
+        this.modified = true;
+    }
+
+    // Imposta la password letta dal database (completamento della proiezione) senza segnarla come modificata
+    public void loadPassword(String password) {
+        partial = false;
+        super.setPassword(password);
+    }
+
+    @Override
+    public void setId(int id) {
+        super.setId(id);
+        this.modified = true;
+    }
+
+    @Override
+    public void setNome(String nome) {
+        super.setNome(nome);
+        this.modified = true;
+    }
+
+    @Override
+    public void setCognome(String cognome) {
+        super.setCognome(cognome);
+        this.modified = true;
+    }
+
+    @Override
+    public void setEmail(String email) {
+        super.setEmail(email);
+        this.modified = true;
+    }
+
+    @Override
+    public void setCf(String cf) {
+        super.setCf(cf);
+        this.modified = true;
+    }
+
+    @Override
+    public void setRuolo(String ruolo) {
+        super.setRuolo(ruolo);
+        this.modified = true;
+    }
+
+    @Override
+    public void setIdCreatore(int idCreatore) {
+        super.setIdCreatore(idCreatore);
+        this.modified = true;
+    }
+
+    @Override
+    public void setVersion(int version) {
+        super.setVersion(version);
+        this.modified = true;
+    }
+
+    // Copia per la cache condivisa: la password non viene mai condivisa tra richieste,
+    // la copia la rilegge al primo accesso tramite il DataLayer della richiesta che la usa
+    @Override
+    public AmministratoreProxy copy() {
+        AmministratoreProxy copy = new AmministratoreProxy();
+        copy.setId(getId());
+        copy.setNome(getNome());
+        copy.setCognome(getCognome());
+        copy.setEmail(getEmail());
+        copy.setCf(getCf());
+        copy.setRuolo(getRuolo());
+        copy.setIdCreatore(getIdCreatore());
+        copy.setPatenti(getPatenti() == null ? null : new ArrayList<>(getPatenti()));
+        copy.setAbilita(getAbilita() == null ? null : new ArrayList<>(getAbilita()));
+        copy.setVersion(getVersion());
+        copy.setPartial(true);
+        copy.setModified(false);
+        return copy;
+    }
+    
 }
\ No newline at end of file
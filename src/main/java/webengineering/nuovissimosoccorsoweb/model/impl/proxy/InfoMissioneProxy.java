@@ -58,4 +58,17 @@ public class InfoMissioneProxy extends InfoMissioneImpl implements DataItemProxy
         super.setVersion(version);
         this.modified = true;
     }
+
+    // Copia per la cache condivisa
+    @Override
+    public InfoMissioneProxy copy() {
+        InfoMissioneProxy copy = new InfoMissioneProxy();
+        copy.setCodiceMissione(getCodiceMissione());
+        copy.setSuccesso(getSuccesso());
+        copy.setCommento(getCommento());
+        copy.setDataOraFine(getDataOraFine());
+        copy.setVersion(getVersion());
+        copy.setModified(false);
+        return copy;
+    }
 }
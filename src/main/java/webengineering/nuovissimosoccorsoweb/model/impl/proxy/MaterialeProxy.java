@@ -44,4 +44,16 @@ public class MaterialeProxy extends MaterialeImpl implements DataItemProxy {
         super.setVersion(version);
         this.modified = true;
     }
-} 
+
+    // Copia per la cache condivisa
+    @Override
+    public MaterialeProxy copy() {
+        MaterialeProxy copy = new MaterialeProxy();
+        copy.setId(getId());
+        copy.setNome(getNome());
+        copy.setDescrizione(getDescrizione());
+        copy.setVersion(getVersion());
+        copy.setModified(false);
+        return copy;
+    }
+}
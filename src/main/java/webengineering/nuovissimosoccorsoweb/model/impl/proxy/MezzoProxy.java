@@ -50,4 +50,16 @@ public class MezzoProxy extends MezzoImpl implements DataItemProxy {
         super.setVersion(version);
         this.modified = true;
     }
-} 
+
+    // Copia per la cache condivisa
+    @Override
+    public MezzoProxy copy() {
+        MezzoProxy copy = new MezzoProxy();
+        copy.setTarga(getTarga());
+        copy.setNome(getNome());
+        copy.setDescrizione(getDescrizione());
+        copy.setVersion(getVersion());
+        copy.setModified(false);
+        return copy;
+    }
+}
@@ -1,11 +1,15 @@
 package webengineering.nuovissimosoccorsoweb.model.impl.proxy;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
 import webengineering.nuovissimosoccorsoweb.model.impl.MissioneImpl;
 import webengineering.framework.data.DataItemProxy;
 
 public class MissioneProxy extends MissioneImpl implements DataItemProxy {
 
     private boolean modified;
+    // Proprietà cambiate dall'ultimo caricamento/salvataggio: l'UPDATE scrive solo queste colonne
+    private final Set<String> modifiedFields = new LinkedHashSet<>();
 
     @Override
     public boolean isModified() {
@@ -15,12 +19,26 @@ public class MissioneProxy extends MissioneImpl implements DataItemProxy {
     @Override
     public void setModified(boolean modified) {
         this.modified = modified;
+        if (!modified) {
+            modifiedFields.clear();
+        }
+    }
+
+    @Override
+    public Set<String> getModifiedFields() {
+        return modifiedFields;
+    }
+
+    private void setModified(String field) {
+        modifiedFields.add(field);
+        modified = true;
     }
 
     // Override dei metodi setter per attivare il flag "modified"
 
     @Override
     public void setCodiceRichiesta(int codiceRichiesta) {
+        // la chiave non è una colonna da aggiornare
         super.setCodiceRichiesta(codiceRichiesta);
         setModified(true);
     }
@@ -28,42 +46,58 @@ public class MissioneProxy extends MissioneImpl implements DataItemProxy {
     @Override
     public void setObiettivo(String obiettivo) {
         super.setObiettivo(obiettivo);
-        setModified(true);
+        setModified("obiettivo");
     }
 
     @Override
     public void setPosizione(String posizione) {
         super.setPosizione(posizione);
-        setModified(true);
+        setModified("posizione");
     }
 
     @Override
     public void setDataOraInizio(java.time.LocalDateTime dataInizio) {
         super.setDataOraInizio(dataInizio);
-        setModified(true);
+        setModified("dataOraInizio");
     }
 
     @Override
     public void setVersion(int version) {
         super.setVersion(version);
-        setModified(true);
+        setModified("version");
     }
 
     @Override
     public void setNome(String nome) {
         super.setNome(nome);
-        setModified(true);
+        setModified("nome");
     }
 
     @Override
     public void setNota(String nota) {
         super.setNota(nota);
-        setModified(true);
+        setModified("nota");
     }
 
     @Override
     public void setIdAmministratore(int idAmministratore) {
         super.setIdAmministratore(idAmministratore);
-        setModified(true);
+        setModified("idAmministratore");
+    }
+
+    // Copia per la cache condivisa
+    @Override
+    public MissioneProxy copy() {
+        MissioneProxy copy = new MissioneProxy();
+        copy.setCodiceRichiesta(getCodiceRichiesta());
+        copy.setObiettivo(getObiettivo());
+        copy.setPosizione(getPosizione());
+        copy.setDataOraInizio(getDataOraInizio());
+        copy.setVersion(getVersion());
+        copy.setNome(getNome());
+        copy.setNota(getNota());
+        copy.setIdAmministratore(getIdAmministratore());
+        copy.setModified(false);
+        return copy;
     }
 }
@@ -1,13 +1,21 @@
 package webengineering.nuovissimosoccorsoweb.model.impl.proxy;
 
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import webengineering.nuovissimosoccorsoweb.model.impl.OperatoreImpl;
+import webengineering.framework.data.DataException;
 import webengineering.framework.data.DataItemProxy;
 import webengineering.framework.data.DataLayer;
+import webengineering.nuovissimosoccorsoweb.dao.OperatoreDAO;
+import webengineering.nuovissimosoccorsoweb.model.Operatore;
 
 public class OperatoreProxy extends OperatoreImpl implements DataItemProxy {
 
     private boolean modified;
     private DataLayer dataLayer;
+    // Caricato con la proiezione di riepilogo: la password viene letta al primo accesso
+    private boolean partial;
 
     @Override
     public boolean isModified() {
@@ -27,5 +35,121 @@ public class OperatoreProxy extends OperatoreImpl implements DataItemProxy {
         this.dataLayer = dataLayer;
     }
 
-    // Override setter se vuoi tracciare modifiche in futuro
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    @Override
+    public String getPassword() {
+        if (partial && dataLayer != null) {
+            partial = false;
+            try {
+                ((OperatoreDAO) dataLayer.getDAO(Operatore.class)).completeOperatore(this);
+            } catch (DataException ex) {
+                partial = true;
+                Logger.getLogger(OperatoreProxy.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        return super.getPassword();
+    }
+
+    @Override
+    public void setPassword(String password) {
+        partial = false;
+        super.setPassword(password);
+        this.modified = true;
+    }
+
+    // Imposta la password letta dal database (completamento della proiezione) senza segnarla come modificata
+    public void loadPassword(String password) {
+        partial = false;
+        super.setPassword(password);
+    }
+
+    @Override
+    public void setId(int id) {
+        super.setId(id);
+        this.modified = true;
+    }
+
+    @Override
+    public void setNome(String nome) {
+        super.setNome(nome);
+        this.modified = true;
+    }
+
+    @Override
+    public void setCognome(String cognome) {
+        super.setCognome(cognome);
+        this.modified = true;
+    }
+
+    @Override
+    public void setEmail(String email) {
+        super.setEmail(email);
+        this.modified = true;
+    }
+
+    @Override
+    public void setCf(String cf) {
+        super.setCf(cf);
+        this.modified = true;
+    }
+
+    @Override
+    public void setRuolo(String ruolo) {
+        super.setRuolo(ruolo);
+        this.modified = true;
+    }
+
+    @Override
+    public void setIdCreatore(int idCreatore) {
+        super.setIdCreatore(idCreatore);
+        this.modified = true;
+    }
+
+    @Override
+    public void setVersion(int version) {
+        super.setVersion(version);
+        this.modified = true;
+    }
+
+    @Override
+    public void setCodiceFiscale(String codiceFiscale) {
+        super.setCodiceFiscale(codiceFiscale);
+        this.modified = true;
+    }
+
+    @Override
+    public void setIdAmministratore(int idAmministratore) {
+        super.setIdAmministratore(idAmministratore);
+        this.modified = true;
+    }
+
+    // Copia per la cache condivisa: la password non viene mai condivisa tra richieste,
+    // la copia la rilegge al primo accesso tramite il DataLayer della richiesta che la usa
+    @Override
+    public OperatoreProxy copy() {
+        OperatoreProxy copy = new OperatoreProxy();
+        copy.setId(getId());
+        copy.setNome(getNome());
+        copy.setCognome(getCognome());
+        copy.setEmail(getEmail());
+        copy.setCf(getCf());
+        copy.setRuolo(getRuolo());
+        copy.setIdCreatore(getIdCreatore());
+        copy.setCodiceFiscale(getCodiceFiscale());
+        copy.setIdAmministratore(getIdAmministratore());
+        copy.setPatenti(getPatenti() == null ? null : new ArrayList<>(getPatenti()));
+        copy.setAbilita(getAbilita() == null ? null : new ArrayList<>(getAbilita()));
+        copy.setVersion(getVersion());
+        copy.setPartial(true);
+        copy.setModified(false);
+        return copy;
+    }
+
 }
@@ -1,11 +1,27 @@
 package webengineering.nuovissimosoccorsoweb.model.impl.proxy;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import webengineering.framework.data.DataException;
 import webengineering.framework.data.DataItemProxy;
+import webengineering.framework.data.DataLayer;
+import webengineering.nuovissimosoccorsoweb.dao.RichiestaSoccorsoDAO;
+import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
 import webengineering.nuovissimosoccorsoweb.model.impl.RichiestaSoccorsoImpl;
 
 public class RichiestaSoccorsoProxy extends RichiestaSoccorsoImpl implements DataItemProxy {
 
     private boolean modified;
+    private DataLayer dataLayer;
+    // Caricata con la proiezione di riepilogo: foto, stringa e ip vengono letti al primo accesso
+    private boolean partial;
+    // Proprietà cambiate dall'ultimo caricamento/salvataggio: l'UPDATE scrive solo queste colonne
+    private final Set<String> modifiedFields = new LinkedHashSet<>();
+    // Stato al momento del caricamento/salvataggio: la tabella non ha una colonna version,
+    // quindi l'UPDATE dello stato controlla che nel frattempo non sia cambiato
+    private String statoOriginale;
 
     @Override
     public boolean isModified() {
@@ -15,10 +31,83 @@ public class RichiestaSoccorsoProxy extends RichiestaSoccorsoImpl implements Dat
     @Override
     public void setModified(boolean modified) {
         this.modified = modified;
+        if (!modified) {
+            modifiedFields.clear();
+            statoOriginale = super.getStato();
+        }
+    }
+
+    public String getStatoOriginale() {
+        return statoOriginale;
+    }
+
+    @Override
+    public Set<String> getModifiedFields() {
+        return modifiedFields;
+    }
+
+    private void setModified(String field) {
+        modifiedFields.add(field);
+        modified = true;
+    }
+
+    public DataLayer getDataLayer() {
+        return dataLayer;
+    }
+
+    public void setDataLayer(DataLayer dataLayer) {
+        this.dataLayer = dataLayer;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    private void complete() {
+        if (partial && dataLayer != null) {
+            partial = false;
+            try {
+                ((RichiestaSoccorsoDAO) dataLayer.getDAO(RichiestaSoccorso.class)).completeRichiesta(this);
+            } catch (DataException ex) {
+                partial = true;
+                Logger.getLogger(RichiestaSoccorsoProxy.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    // Imposta le colonne escluse dalla proiezione di riepilogo senza segnarle come modificate
+    public void loadDettagli(String stringa, String foto, String ip) {
+        partial = false;
+        super.setStringa(stringa);
+        super.setFoto(foto);
+        super.setIp(ip);
+    }
+
+    @Override
+    public String getStringa() {
+        complete();
+        return super.getStringa();
+    }
+
+    @Override
+    public String getFoto() {
+        complete();
+        return super.getFoto();
+    }
+
+    @Override
+    public String getIp() {
+        complete();
+        return super.getIp();
     }
 
     @Override
     public void setCodice(int codice) {
+        // la chiave non è una colonna da aggiornare
         super.setCodice(codice);
         setModified(true);
     }
@@ -26,66 +115,93 @@ public class RichiestaSoccorsoProxy extends RichiestaSoccorsoImpl implements Dat
     @Override
     public void setStato(String stato) {
         super.setStato(stato);
-        setModified(true);
+        setModified("stato");
     }
 
     @Override
     public void setCoordinate(String coordinate) {
         super.setCoordinate(coordinate);
-        setModified(true);
+        setModified("coordinate");
     }
 
     @Override
     public void setIndirizzo(String indirizzo) {
         super.setIndirizzo(indirizzo);
-        setModified(true);
+        setModified("indirizzo");
     }
 
     @Override
     public void setDescrizione(String descrizione) {
         super.setDescrizione(descrizione);
-        setModified(true);
+        setModified("descrizione");
     }
 
     @Override
     public void setStringa(String stringa) {
+        // i campi non ancora letti verrebbero poi sovrascritti dal completamento
+        complete();
         super.setStringa(stringa);
-        setModified(true);
+        setModified("stringa");
     }
 
     @Override
     public void setNome(String nome) {
         super.setNome(nome);
-        setModified(true);
+        setModified("nome");
     }
 
     @Override
     public void setFoto(String foto) {
+        // i campi non ancora letti verrebbero poi sovrascritti dal completamento
+        complete();
         super.setFoto(foto);
-        setModified(true);
+        setModified("foto");
     }
 
     @Override
     public void setIp(String ip) {
+        // i campi non ancora letti verrebbero poi sovrascritti dal completamento
+        complete();
         super.setIp(ip);
-        setModified(true);
+        setModified("ip");
     }
 
     @Override
     public void setEmailSegnalante(String emailSegnalante) {
         super.setEmailSegnalante(emailSegnalante);
-        setModified(true);
+        setModified("emailSegnalante");
     }
 
     @Override
     public void setNomeSegnalante(String nomeSegnalante) {
         super.setNomeSegnalante(nomeSegnalante);
-        setModified(true);
+        setModified("nomeSegnalante");
     }
 
     @Override
     public void setIdAmministratore(int idAmministratore) {
         super.setIdAmministratore(idAmministratore);
-        setModified(true);
+        setModified("idAmministratore");
+    }
+
+    // Copia per la cache condivisa; le richieste parziali non vengono condivise
+    @Override
+    public RichiestaSoccorsoProxy copy() {
+        if (partial) {
+            return null;
+        }
+        RichiestaSoccorsoProxy copy = new RichiestaSoccorsoProxy();
+        copy.setCodice(getCodice());
+        copy.setStato(getStato());
+        copy.setCoordinate(getCoordinate());
+        copy.setIndirizzo(getIndirizzo());
+        copy.setDescrizione(getDescrizione());
+        copy.setNome(getNome());
+        copy.setEmailSegnalante(getEmailSegnalante());
+        copy.setNomeSegnalante(getNomeSegnalante());
+        copy.setIdAmministratore(getIdAmministratore());
+        copy.loadDettagli(super.getStringa(), super.getFoto(), super.getIp());
+        copy.setModified(false);
+        return copy;
     }
 }
@@ -0,0 +1,57 @@
+package webengineering.nuovissimosoccorsoweb.rest.config;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Provider;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import org.glassfish.hk2.api.Factory;
+import webengineering.framework.data.DataException;
+import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * Factory HK2 del DataLayer iniettato nelle risorse REST (@Inject
+ * SoccorsoDataLayer), registrata in JerseyConfig con scope di richiesta.
+ *
+ * La DataSource viene cercata nel JNDI una sola volta all'avvio; il DataLayer
+ * creato per la richiesta apre la connessione solo alla prima query e viene
+ * chiuso da Jersey (dispose) quando la risposta è stata scritta, compreso il
+ * corpo delle risposte in streaming: le risorse non devono chiuderlo.
+ */
+public class DataLayerFactory implements Factory<SoccorsoDataLayer> {
+
+    private final DataSource dataSource;
+    private final Provider<ContainerRequestContext> requestContext;
+
+    @Inject
+    public DataLayerFactory(DataSource dataSource, Provider<ContainerRequestContext> requestContext) {
+        this.dataSource = dataSource;
+        this.requestContext = requestContext;
+    }
+
+    @Override
+    public SoccorsoDataLayer provide() {
+        try {
+            SoccorsoDataLayer dataLayer = new SoccorsoDataLayer(dataSource);
+            dataLayer.init();
+
+            ContainerRequestContext request = requestContext.get();
+            dataLayer.setOwner(request.getMethod() + " " + request.getUriInfo().getRequestUri().getPath());
+            // Le risorse vengono create dopo i filtri: per le chiamate @Secured l'utente è già noto
+            // e dopo una sua scrittura le sue letture restano sul primario (vedi ReplicaSet)
+            Object userId = request.getProperty("userId");
+            if (userId != null) {
+                dataLayer.setConsistencyKey("user:" + userId);
+            }
+            return dataLayer;
+        } catch (SQLException | DataException ex) {
+            throw new IllegalStateException("Impossibile creare il DataLayer", ex);
+        }
+    }
+
+    @Override
+    public void dispose(SoccorsoDataLayer dataLayer) {
+        dataLayer.destroy();
+    }
+}
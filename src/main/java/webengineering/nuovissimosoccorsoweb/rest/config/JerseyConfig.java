@@ -1,7 +1,18 @@
 package webengineering.nuovissimosoccorsoweb.rest.config;
 
+import jakarta.inject.Singleton;
 import jakarta.ws.rs.ApplicationPath;
+import org.glassfish.hk2.utilities.binding.AbstractBinder;
+import org.glassfish.jersey.process.internal.RequestScoped;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.spi.AbstractContainerLifecycleListener;
+import org.glassfish.jersey.server.spi.Container;
+import webengineering.nuovissimosoccorsoweb.rest.service.ApiExecutor;
+import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
 
 /**
  * Configurazione semplificata di Jersey.
@@ -10,6 +21,8 @@ import org.glassfish.jersey.server.ResourceConfig;
  * Trova automaticamente:
  * - @Path: AuthResource, RichiesteResource, etc. 
  * - @Provider: JWTAuthenticationFilter, CORSFilter, AppExceptionMapper, JacksonExceptionMapper
+ *
+ * Registra inoltre il DataLayer di richiesta (vedi DataLayerFactory).
  * 
  */
 @ApplicationPath("api")
@@ -26,5 +39,34 @@ public class JerseyConfig extends ResourceConfig {
         
         // Registra il modulo per Java 8 Time (LocalDateTime, etc.)
         register(com.fasterxml.jackson.datatype.jsr310.JavaTimeModule.class);
+        
+        // DataSource cercata una sola volta qui; ogni richiesta riceve il proprio DataLayer
+        // (@Inject SoccorsoDataLayer), chiuso automaticamente a risposta scritta
+        DataSource dataSource = lookupDataSource();
+        register(new AbstractBinder() {
+            @Override
+            protected void configure() {
+                bind(dataSource).to(DataSource.class);
+                bindFactory(DataLayerFactory.class, Singleton.class)
+                        .to(SoccorsoDataLayer.class)
+                        .in(RequestScoped.class);
+            }
+        });
+        
+        // Gli executor delle risorse asincrone (vedi ApiExecutor) vengono fermati con l'applicazione
+        register(new AbstractContainerLifecycleListener() {
+            @Override
+            public void onShutdown(Container container) {
+                ApiExecutor.shutdownAll();
+            }
+        });
+    }
+    
+    private static DataSource lookupDataSource() {
+        try {
+            return (DataSource) new InitialContext().lookup("java:comp/env/jdbc/soccorso");
+        } catch (NamingException ex) {
+            throw new IllegalStateException("DataSource jdbc/soccorso non trovata", ex);
+        }
     }
 }
\ No newline at end of file
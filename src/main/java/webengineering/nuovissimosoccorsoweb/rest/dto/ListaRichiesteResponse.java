@@ -15,6 +15,7 @@ public class ListaRichiesteResponse {
     private int size;   // Elementi per pagina
     private boolean first;
     private boolean last;
+    private String nextCursor; // Cursore per la pagina successiva (null se ultima)
 
     // Costruttori
     public ListaRichiesteResponse() {
@@ -89,6 +90,14 @@ public class ListaRichiesteResponse {
         this.last = last;
     }
 
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
     @Override
     public String toString() {
         return "ListaRichiesteResponse{"
@@ -99,6 +108,7 @@ public class ListaRichiesteResponse {
                 + ", size=" + size
                 + ", first=" + first
                 + ", last=" + last
+                + ", nextCursor=" + nextCursor
                 + '}';
     }
 }
@@ -5,6 +5,7 @@ import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.ext.ExceptionMapper;
 import jakarta.ws.rs.ext.Provider;
 import java.sql.SQLException;
+import webengineering.framework.data.OptimisticLockException;
 
 /**
  * Mapper semplificato per gestire le eccezioni generiche.
@@ -22,7 +23,10 @@ public class AppExceptionMapper implements ExceptionMapper<Exception> {
         String message;
         Response.Status status;
         
-        if (exception instanceof SQLException) {
+        if (exception instanceof OptimisticLockException) {
+            message = "Risorsa modificata da un'altra operazione";
+            status = Response.Status.CONFLICT;
+        } else if (exception instanceof SQLException) {
             message = "Errore nel database";
             status = Response.Status.INTERNAL_SERVER_ERROR;
         } else if (exception instanceof IllegalArgumentException) {
@@ -1,10 +1,15 @@
 package webengineering.nuovissimosoccorsoweb.rest.resources;
 
+import jakarta.inject.Inject;
 import jakarta.servlet.ServletContext;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
+import webengineering.nuovissimosoccorsoweb.rest.service.ApiExecutor;
 import webengineering.nuovissimosoccorsoweb.rest.security.JWTHelper;
 import webengineering.nuovissimosoccorsoweb.rest.security.Secured;
 import webengineering.nuovissimosoccorsoweb.rest.service.AuthService;
@@ -25,6 +30,10 @@ public class AuthResource {
     @Context
     private ServletContext context;
     
+    // DataLayer della richiesta, creato e chiuso da DataLayerFactory (vedi JerseyConfig)
+    @Inject
+    private SoccorsoDataLayer dataLayer;
+    
     /**
      * Endpoint per il login.
      * POST /api/auth/login
@@ -34,7 +43,11 @@ public class AuthResource {
      */
     @POST
     @Path("login")
-    public Response login(LoginRequest loginRequest) {
+    public void login(LoginRequest loginRequest, @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.INTAKE.submit(asyncResponse, () -> login(loginRequest));
+    }
+
+    private Response login(LoginRequest loginRequest) {
         try {
             // DEBUG: Log della richiesta ricevuta
             System.out.println("=== DEBUG LOGIN ===");
@@ -57,7 +70,7 @@ public class AuthResource {
             
             // Usa AuthService che integra con il database reale
             AuthService.UserInfo authResult = AuthService.getInstance()
-                .authenticateUser(loginRequest.getEmail(), loginRequest.getPassword());
+                .authenticateUser(loginRequest.getEmail(), loginRequest.getPassword(), dataLayer);
             
             if (authResult == null) {
                 return Response.status(Response.Status.UNAUTHORIZED)
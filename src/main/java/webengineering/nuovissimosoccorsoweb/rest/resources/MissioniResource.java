@@ -1,30 +1,44 @@
 package webengineering.nuovissimosoccorsoweb.rest.resources;
 
+import jakarta.inject.Inject;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.nuovissimosoccorsoweb.model.Missione;
 import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
+import webengineering.nuovissimosoccorsoweb.model.MissioneUtilizzaMateriale;
+import webengineering.nuovissimosoccorsoweb.model.MissioneUtilizzaMezzo;
+import webengineering.nuovissimosoccorsoweb.model.RuoloSquadra;
 import webengineering.nuovissimosoccorsoweb.model.impl.MissioneImpl;
+import webengineering.nuovissimosoccorsoweb.model.impl.MissioneUtilizzaMaterialeImpl;
+import webengineering.nuovissimosoccorsoweb.model.impl.MissioneUtilizzaMezzoImpl;
+import webengineering.nuovissimosoccorsoweb.model.impl.PartecipazioneSquadraImpl;
+import webengineering.nuovissimosoccorsoweb.model.impl.proxy.RichiestaSoccorsoProxy;
+import webengineering.nuovissimosoccorsoweb.rest.service.ApiExecutor;
 import webengineering.nuovissimosoccorsoweb.rest.dto.MissioneDTO;
 import webengineering.nuovissimosoccorsoweb.rest.dto.MissioneRequest;
 import webengineering.nuovissimosoccorsoweb.rest.dto.MissioneResponse;
 import webengineering.nuovissimosoccorsoweb.rest.dto.RichiestaDTO;
 import webengineering.nuovissimosoccorsoweb.rest.dto.ErrorResponse;
 import webengineering.nuovissimosoccorsoweb.rest.security.Secured;
+import webengineering.nuovissimosoccorsoweb.rest.service.NdjsonStreamer;
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.OptimisticLockException;
+import webengineering.framework.data.ParallelReads;
+import webengineering.framework.data.UnitOfWork;
 
-import javax.naming.InitialContext;
-import javax.sql.DataSource;
-import java.sql.Connection;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import webengineering.nuovissimosoccorsoweb.model.InfoMissione;
@@ -52,12 +66,19 @@ public class MissioniResource {
 
     private static final Logger logger = Logger.getLogger(MissioniResource.class.getName());
 
+    // DataLayer della richiesta, creato e chiuso da DataLayerFactory (vedi JerseyConfig)
+    @Inject
+    private SoccorsoDataLayer dataLayer;
+
     @Context
     private HttpServletRequest httpRequest;
 
     @Context
     private ContainerRequestContext requestContext;
 
+    @Context
+    private HttpHeaders headers;
+
     /**
      * Crea una nuova missione. POST /api/missioni
      *
@@ -69,9 +90,11 @@ public class MissioniResource {
      */
     @POST
     @Secured
-    public Response creaMissione(MissioneRequest missioneRequest) {
-        SoccorsoDataLayer dataLayer = null;
+    public void creaMissione(MissioneRequest missioneRequest, @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.WRITE.submit(asyncResponse, () -> creaMissione(missioneRequest));
+    }
 
+    private Response creaMissione(MissioneRequest missioneRequest) {
         try {
             logger.info("=== CREAZIONE MISSIONE VIA REST (AGGIORNATA) ===");
 
@@ -98,9 +121,6 @@ public class MissioniResource {
                         .build();
             }
 
-            // Crea DataLayer
-            dataLayer = createDataLayer();
-
             // VALIDAZIONE SPECIFICA: Verifica che la richiesta sia in stato "Convalidata"
             RichiestaSoccorso richiesta = dataLayer.getRichiestaSoccorsoDAO()
                     .getRichiestaByCodice(missioneRequest.getRichiestaId());
@@ -161,11 +181,7 @@ public class MissioniResource {
             // DEBUG RIMUOVI
             logger.info("DEBUG: creaMissioneCore completato con successo");
 
-            // NUOVO: Cambia stato della richiesta da "Convalidata" ad "Attiva"
-            logger.info("DEBUG: Cambiando stato richiesta..."); //DEBUG RIMUOVI
-            dataLayer.getRichiestaSoccorsoDAO().updateStato(
-                    missioneRequest.getRichiestaId(), "Attiva");
-
+            // Lo stato della richiesta è già passato da "Convalidata" ad "Attiva" in creaMissioneCore
             logger.info("Stato richiesta " + missioneRequest.getRichiestaId()
                     + " cambiato da 'Convalidata' ad 'Attiva'");
 
@@ -198,6 +214,12 @@ public class MissioniResource {
                     .entity(response)
                     .build();
 
+        } catch (OptimisticLockException e) {
+            logger.warning("Richiesta " + missioneRequest.getRichiestaId() + " modificata da un'altra operazione durante la creazione della missione");
+            return Response.status(Response.Status.CONFLICT)
+                    .entity(new ErrorResponse("La richiesta è stata modificata nel frattempo da un'altra operazione. Ricaricare e riprovare.", "CONFLICT"))
+                    .build();
+
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Errore nell'endpoint creazione missione", e);
 
@@ -209,14 +231,6 @@ public class MissioniResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse(errorMessage, "INTERNAL_ERROR"))
                     .build();
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
 
@@ -303,11 +317,9 @@ public class MissioniResource {
             logger.info("Nessuna missione esistente trovata per richiesta " + richiestaId + " - OK per creare nuova missione");
 
         }
-        // Avvia transazione
-        Connection conn = dataLayer.getConnection();
-        boolean autoCommit = conn.getAutoCommit();
-        conn.setAutoCommit(false);
-
+        // Tutte le scritture vengono accodate nella UnitOfWork e confermate insieme
+        // (in una sola transazione, un batch per tabella)
+        UnitOfWork uow = dataLayer.getUnitOfWork();
         try {
             // 1. Crea la missione
             Missione missione = new MissioneImpl();
@@ -319,51 +331,60 @@ public class MissioniResource {
             missione.setDataOraInizio(LocalDateTime.now());
             missione.setIdAmministratore(adminId);
             missione.setVersion(1);
-
-            // Salva la missione
-            dataLayer.getMissioneDAO().storeMissione(missione);
+            uow.registerNew(Missione.class, missione);
 
             // 2. Assegna operatori con ruoli corretti
             for (OperatoreConRuolo operatore : operatoriConRuoli) {
-                dataLayer.getMissioneDAO().assegnaOperatoreAMissione(
-                        operatore.idOperatore, richiestaId, operatore.ruolo);
+                PartecipazioneSquadra p = new PartecipazioneSquadraImpl();
+                p.setIdOperatore(operatore.idOperatore);
+                p.setCodiceMissione(richiestaId);
+                p.setRuolo(RuoloSquadra.valueOf(operatore.ruolo));
+                p.setVersion(1);
+                uow.registerNew(PartecipazioneSquadra.class, p);
                 logger.info("Operatore " + operatore.idOperatore + " assegnato con ruolo " + operatore.ruolo);
             }
 
             // 3. Assegna mezzi per targa (non più per ID)
             for (String targa : targhe) {
-                dataLayer.getMissioneDAO().assegnaMezzoAMissione(targa, richiestaId);
+                MissioneUtilizzaMezzo u = new MissioneUtilizzaMezzoImpl();
+                u.setCodiceMissione(richiestaId);
+                u.setTargaMezzo(targa);
+                u.setVersion(1);
+                uow.registerNew(MissioneUtilizzaMezzo.class, u);
                 logger.info("Mezzo con targa " + targa + " assegnato alla missione");
             }
 
             // 4. Assegna materiali
             for (Integer materialeId : materialiIds) {
-                dataLayer.getMissioneDAO().assegnaMaterialeAMissione(materialeId, richiestaId);
+                MissioneUtilizzaMateriale u = new MissioneUtilizzaMaterialeImpl();
+                u.setCodiceMissione(richiestaId);
+                u.setIdMateriale(materialeId);
+                u.setVersion(1);
+                uow.registerNew(MissioneUtilizzaMateriale.class, u);
                 logger.info("Materiale " + materialeId + " assegnato alla missione");
             }
 
-            // Commit della transazione
-            conn.commit();
+            // 5. La richiesta passa da "Convalidata" ad "Attiva" nella stessa transazione.
+            // Non serve caricare la richiesta: basta un proxy con la sola chiave e lo stato atteso,
+            // così l'UPDATE scrive solo la colonna stato e fallisce (OptimisticLockException) se
+            // nel frattempo la richiesta non è più "Convalidata"
+            RichiestaSoccorsoProxy attiva = new RichiestaSoccorsoProxy();
+            attiva.setCodice(richiestaId);
+            attiva.setStato("Convalidata");
+            attiva.setModified(false);
+            attiva.setStato("Attiva");
+            uow.registerDirty(RichiestaSoccorso.class, attiva);
+
+            uow.commit();
             logger.info("Missione completa creata con successo per richiesta " + richiestaId);
 
             return missione;
 
         } catch (Exception ex) {
-            // Rollback in caso di errore
-            try {
-                conn.rollback();
-                logger.warning("Rollback eseguito per errore durante creazione missione");
-            } catch (Exception rollbackEx) {
-                logger.log(Level.SEVERE, "Errore durante rollback", rollbackEx);
-            }
+            // la UnitOfWork ha già annullato la transazione: scartiamo le modifiche ancora in attesa
+            uow.clear();
+            logger.warning("Rollback eseguito per errore durante creazione missione");
             throw ex;
-        } finally {
-            // Ripristina auto-commit
-            try {
-                conn.setAutoCommit(autoCommit);
-            } catch (Exception ex) {
-                logger.log(Level.WARNING, "Errore ripristino auto-commit", ex);
-            }
         }
     }
 
@@ -398,12 +419,12 @@ public class MissioniResource {
     @GET
     @Path("richieste-attive")
     @Secured
-    public Response getRichiesteAttive() {
-        SoccorsoDataLayer dataLayer = null;
+    public void getRichiesteAttive(@Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.QUERY.submit(asyncResponse, () -> getRichiesteAttive());
+    }
 
+    private Response getRichiesteAttive() {
         try {
-            dataLayer = createDataLayer();
-
             // Trova le richieste in stato "Convalidata" (disponibili per creare missioni)
             List<RichiestaSoccorso> richieste = dataLayer.getRichiestaSoccorsoDAO()
                     .getRichiesteByStato("Convalidata");
@@ -420,14 +441,6 @@ public class MissioniResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore nel recupero delle richieste", "INTERNAL_ERROR"))
                     .build();
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
 
@@ -443,9 +456,11 @@ public class MissioniResource {
     @GET
     @Path("{id}")
     @Secured
-    public Response getDettagliMissione(@PathParam("id") int id) {
-        SoccorsoDataLayer dataLayer = null;
+    public void getDettagliMissione(@PathParam("id") int id, @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.QUERY.submit(asyncResponse, () -> getDettagliMissione(id));
+    }
 
+    private Response getDettagliMissione(int id) {
         try {
             logger.info("=== DETTAGLI MISSIONE " + id + " ===");
 
@@ -485,9 +500,6 @@ public class MissioniResource {
                         .build();
             }
 
-            // Crea DataLayer
-            dataLayer = createDataLayer();
-
             // Trova la missione
             Missione missione = dataLayer.getMissioneDAO().getMissioneByCodice(id);
             if (missione == null) {
@@ -515,15 +527,6 @@ public class MissioniResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore di sistema", "INTERNAL_ERROR"))
                     .build();
-
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
 
@@ -533,6 +536,16 @@ public class MissioniResource {
      */
     private DettagliMissioneDTO creaDettagliMissioneCompleti(SoccorsoDataLayer dataLayer, Missione missione) throws DataException {
         DettagliMissioneDTO dettagli = new DettagliMissioneDTO();
+        int codice = missione.getCodiceRichiesta();
+
+        // Le letture sono indipendenti: partono tutte insieme su connessioni separate
+        // e il DTO viene composto man mano che si raccolgono i risultati
+        ParallelReads<SoccorsoDataLayer> reads = dataLayer.parallelReads();
+        ParallelReads.Result<List<PartecipazioneSquadra>> squadraRead = reads.submit(dl -> dl.getMissioneDAO().getSquadraByMissione(codice));
+        ParallelReads.Result<List<Mezzo>> mezziRead = reads.submit(dl -> dl.getMissioneDAO().getMezziByMissione(codice));
+        ParallelReads.Result<List<Materiale>> materialiRead = reads.submit(dl -> dl.getMissioneDAO().getMaterialiByMissione(codice));
+        ParallelReads.Result<RichiestaSoccorso> richiestaRead = reads.submit(dl -> dl.getRichiestaSoccorsoDAO().getRichiestaByCodice(codice));
+        ParallelReads.Result<InfoMissione> infoRead = reads.submit(dl -> dl.getInfoMissioneDAO().getInfoByCodiceMissione(codice));
 
         // Dati base della missione
         dettagli.setId(missione.getCodiceRichiesta());
@@ -545,7 +558,7 @@ public class MissioniResource {
         }
         // Data fine - ottienila dalle InfoMissione
         try {
-            InfoMissione infoMissione = dataLayer.getInfoMissioneDAO().getInfoByCodiceMissione(missione.getCodiceRichiesta());
+            InfoMissione infoMissione = infoRead.get();
             if (infoMissione != null) {
                 if (infoMissione.getDataOraFine() != null) {
                     dettagli.setDataOraFine(infoMissione.getDataOraFine().toString());
@@ -562,7 +575,7 @@ public class MissioniResource {
 
         // Richiesta di soccorso associata
         try {
-            RichiestaSoccorso richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(missione.getCodiceRichiesta());
+            RichiestaSoccorso richiesta = richiestaRead.get();
             if (richiesta != null) {
                 RichiestaDTO richiestaDTO = new RichiestaDTO();
                 richiestaDTO.setCodice(richiesta.getCodice());
@@ -581,7 +594,7 @@ public class MissioniResource {
         // Operatori tramite PartecipazioneSquadra
         try {
             List<OperatoreAssegnatoDTO> operatori = new ArrayList<>();
-            List<PartecipazioneSquadra> squadra = dataLayer.getMissioneDAO().getSquadraByMissione(missione.getCodiceRichiesta());
+            List<PartecipazioneSquadra> squadra = squadraRead.get();
 
             for (PartecipazioneSquadra partecipazione : squadra) {
                 try {
@@ -606,7 +619,7 @@ public class MissioniResource {
         }
         List<MezzoAssegnatoDTO> mezzi = new ArrayList<>();
         try {
-            List<Mezzo> mezziAssegnati = dataLayer.getMissioneDAO().getMezziByMissione(missione.getCodiceRichiesta());
+            List<Mezzo> mezziAssegnati = mezziRead.get();
 
             for (Mezzo mezzo : mezziAssegnati) {
                 MezzoAssegnatoDTO mezzoDTO = new MezzoAssegnatoDTO();
@@ -623,7 +636,7 @@ public class MissioniResource {
 
         try {
             List<MaterialeAssegnatoDTO> materiali = new ArrayList<>();
-            List<Materiale> materialiAssegnati = dataLayer.getMissioneDAO().getMaterialiByMissione(missione.getCodiceRichiesta());
+            List<Materiale> materialiAssegnati = materialiRead.get();
 
             for (Materiale materiale : materialiAssegnati) {
                 MaterialeAssegnatoDTO matDTO = new MaterialeAssegnatoDTO();
@@ -640,7 +653,7 @@ public class MissioniResource {
 
         // Informazioni di valutazione (se la missione è stata conclusa)
         try {
-            InfoMissione infoMissione = dataLayer.getInfoMissioneDAO().getInfoByCodiceMissione(missione.getCodiceRichiesta());
+            InfoMissione infoMissione = infoRead.get();
             if (infoMissione != null) {
                 ValutazioneMissioneDTO valutazione = new ValutazioneMissioneDTO();
                 valutazione.setSuccesso(infoMissione.getSuccesso());
@@ -661,15 +674,25 @@ public class MissioniResource {
      * Richiede autenticazione: solo ADMIN può vedere le missioni degli
      * operatori
      *
+     * Con ?stream=true o Accept: application/x-ndjson la risposta è uno
+     * stream NDJSON con una MissioneOperatoreDTO per riga, senza l'oggetto
+     * che le racchiude.
+     *
      * @param idOperatore ID dell'operatore
+     * @param stream Se restituire le missioni in streaming NDJSON
      * @return Lista delle missioni con dettagli
      */
     @GET
     @Path("operatore/{idOperatore}")
     @Secured
-    public Response getMissioniOperatore(@PathParam("idOperatore") int idOperatore) {
-        SoccorsoDataLayer dataLayer = null;
+    @Produces({MediaType.APPLICATION_JSON, NdjsonStreamer.MEDIA_TYPE})
+    public void getMissioniOperatore(@PathParam("idOperatore") int idOperatore,
+            @QueryParam("stream") @DefaultValue("false") boolean stream,
+            @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.QUERY.submit(asyncResponse, () -> getMissioniOperatore(idOperatore, stream));
+    }
 
+    private Response getMissioniOperatore(int idOperatore, boolean stream) {
         try {
             logger.info("=== LISTA MISSIONI OPERATORE " + idOperatore + " ===");
 
@@ -688,9 +711,6 @@ public class MissioniResource {
                         .build();
             }
 
-            // Ottieni il DataLayer
-            dataLayer = createDataLayer();
-
             // Verifica che l'operatore esista
             Operatore operatore = dataLayer.getOperatoreDAO().getOperatoreById(idOperatore);
             if (operatore == null) {
@@ -699,6 +719,17 @@ public class MissioniResource {
                         .build();
             }
 
+            if (NdjsonStreamer.isRequested(headers, stream)) {
+                // Il DataLayer della richiesta resta aperto finché il corpo in streaming non è stato scritto
+                return NdjsonStreamer.stream(out -> {
+                    NdjsonStreamer.Chunked<Missione> chunked
+                            = out.chunked(dataLayer, chunk -> creaMissioniOperatoreDTO(dataLayer, chunk, idOperatore));
+                    dataLayer.getMissioneDAO().streamMissioniByOperatore(idOperatore, chunked);
+                    chunked.finish();
+                    logger.info("Inviate in streaming " + out.getCount() + " missioni per operatore " + idOperatore);
+                });
+            }
+
             // ✅ USA IL METODO ESISTENTE del MissioneDAO
             List<Missione> missioni = dataLayer.getMissioneDAO().getMissioniByOperatore(idOperatore);
 
@@ -733,11 +764,6 @@ public class MissioniResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore interno del server", "INTERNAL_ERROR"))
                     .build();
-
-        } finally {
-            if (dataLayer != null) {
-                dataLayer.destroy();
-            }
         }
     }
 
@@ -746,6 +772,54 @@ public class MissioniResource {
      * specifico.
      */
     private MissioneOperatoreDTO creaMissioneOperatoreDTO(SoccorsoDataLayer dataLayer, Missione missione, int idOperatore) throws DataException {
+        List<PartecipazioneSquadra> squadra = null;
+        try {
+            squadra = dataLayer.getMissioneDAO().getSquadraByMissione(missione.getCodiceRichiesta());
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Errore recupero ruolo operatore " + idOperatore + " in missione " + missione.getCodiceRichiesta(), e);
+        }
+
+        InfoMissione infoMissione = null;
+        try {
+            infoMissione = dataLayer.getInfoMissioneDAO().getInfoByCodiceMissione(missione.getCodiceRichiesta());
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Errore recupero info missione " + missione.getCodiceRichiesta(), e);
+        }
+
+        RichiestaSoccorso richiesta = null;
+        try {
+            richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(missione.getCodiceRichiesta());
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Errore recupero richiesta per missione " + missione.getCodiceRichiesta(), e);
+        }
+
+        return creaMissioneOperatoreDTO(missione, idOperatore, squadra, infoMissione, richiesta);
+    }
+
+    /**
+     * Come creaMissioneOperatoreDTO, ma per un blocco di missioni: squadre,
+     * info e richieste di tutto il blocco vengono caricate con tre query.
+     */
+    private List<MissioneOperatoreDTO> creaMissioniOperatoreDTO(SoccorsoDataLayer dataLayer, List<Missione> missioni, int idOperatore) throws DataException {
+        List<Integer> codici = new ArrayList<>();
+        for (Missione missione : missioni) {
+            codici.add(missione.getCodiceRichiesta());
+        }
+
+        Map<Integer, List<PartecipazioneSquadra>> squadre = dataLayer.getMissioneDAO().getSquadreByMissioni(codici);
+        Map<Integer, InfoMissione> info = dataLayer.getInfoMissioneDAO().getInfoByCodiciMissione(codici);
+        Map<Integer, RichiestaSoccorso> richieste = dataLayer.getRichiestaSoccorsoDAO().getRichiesteByCodici(codici);
+
+        List<MissioneOperatoreDTO> result = new ArrayList<>();
+        for (Missione missione : missioni) {
+            int codice = missione.getCodiceRichiesta();
+            result.add(creaMissioneOperatoreDTO(missione, idOperatore, squadre.get(codice), info.get(codice), richieste.get(codice)));
+        }
+        return result;
+    }
+
+    private MissioneOperatoreDTO creaMissioneOperatoreDTO(Missione missione, int idOperatore,
+            List<PartecipazioneSquadra> squadra, InfoMissione infoMissione, RichiestaSoccorso richiesta) {
         MissioneOperatoreDTO dto = new MissioneOperatoreDTO();
 
         // Dati base della missione
@@ -756,50 +830,32 @@ public class MissioniResource {
         dto.setDataOraInizio(missione.getDataOraInizio().toString());
 
         // Trova il ruolo dell'operatore in questa missione
-        try {
-            List<PartecipazioneSquadra> squadra = dataLayer.getMissioneDAO().getSquadraByMissione(missione.getCodiceRichiesta());
-            String ruolo = "Standard"; // Default
-
+        String ruolo = "Standard"; // Default
+        if (squadra != null) {
             for (PartecipazioneSquadra partecipazione : squadra) {
                 if (partecipazione.getIdOperatore() == idOperatore) {
                     ruolo = partecipazione.getRuolo().toString();
                     break;
                 }
             }
-            dto.setRuoloOperatore(ruolo);
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Errore recupero ruolo operatore " + idOperatore + " in missione " + missione.getCodiceRichiesta(), e);
-            dto.setRuoloOperatore("Standard");
         }
+        dto.setRuoloOperatore(ruolo);
 
         // Stato della missione (conclusa o attiva)
-        try {
-            InfoMissione infoMissione = dataLayer.getInfoMissioneDAO().getInfoByCodiceMissione(missione.getCodiceRichiesta());
-            if (infoMissione != null) {
-                dto.setStato("CONCLUSA");
-                dto.setDataOraFine(infoMissione.getDataOraFine().toString());
-                dto.setLivelloSuccesso(infoMissione.getSuccesso());
-            } else {
-                dto.setStato("ATTIVA");
-                dto.setDataOraFine(null);
-                dto.setLivelloSuccesso(0);
-            }
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Errore recupero info missione " + missione.getCodiceRichiesta(), e);
+        if (infoMissione != null) {
+            dto.setStato("CONCLUSA");
+            dto.setDataOraFine(infoMissione.getDataOraFine().toString());
+            dto.setLivelloSuccesso(infoMissione.getSuccesso());
+        } else {
             dto.setStato("ATTIVA");
             dto.setDataOraFine(null);
             dto.setLivelloSuccesso(0);
         }
 
         // Informazioni richiesta associata
-        try {
-            RichiestaSoccorso richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(missione.getCodiceRichiesta());
-            if (richiesta != null) {
-                dto.setDescrizioneRichiesta(richiesta.getDescrizione());
-                dto.setIndirizzoIntervento(richiesta.getIndirizzo());
-            }
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Errore recupero richiesta per missione " + missione.getCodiceRichiesta(), e);
+        if (richiesta != null) {
+            dto.setDescrizioneRichiesta(richiesta.getDescrizione());
+            dto.setIndirizzoIntervento(richiesta.getIndirizzo());
         }
 
         return dto;
@@ -839,22 +895,6 @@ public class MissioniResource {
         return result;
     }
 
-    /**
-     * Crea il DataLayer per l'accesso al database.
-     */
-    private SoccorsoDataLayer createDataLayer() throws Exception {
-        try {
-            InitialContext ctx = new InitialContext();
-            DataSource ds = (DataSource) ctx.lookup("java:comp/env/jdbc/soccorso");
-            SoccorsoDataLayer dataLayer = new SoccorsoDataLayer(ds);
-            dataLayer.init();
-            return dataLayer;
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Errore nella creazione del DataLayer", e);
-            throw new Exception("Impossibile accedere al database", e);
-        }
-    }
-
     /**
      * Converte Missione in MissioneDTO.
      */
@@ -1,24 +1,30 @@
 package webengineering.nuovissimosoccorsoweb.rest.resources;
 
+import jakarta.inject.Inject;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.nuovissimosoccorsoweb.model.Operatore;
 import webengineering.nuovissimosoccorsoweb.model.TipoPatente;
 import webengineering.nuovissimosoccorsoweb.model.Abilita;
+import webengineering.nuovissimosoccorsoweb.rest.service.ApiExecutor;
 import webengineering.nuovissimosoccorsoweb.rest.dto.OperatoreDTO;
 import webengineering.nuovissimosoccorsoweb.rest.dto.ErrorResponse;
 import webengineering.nuovissimosoccorsoweb.service.OperatoriQueryService;
 import webengineering.nuovissimosoccorsoweb.rest.security.Secured;
+import webengineering.nuovissimosoccorsoweb.rest.service.NdjsonStreamer;
 import webengineering.framework.data.DataException;
 
-import javax.naming.InitialContext;
-import javax.sql.DataSource;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -37,9 +43,16 @@ public class OperatoriQueryResource {
     
     private static final Logger logger = Logger.getLogger(OperatoriQueryResource.class.getName());
     
+    // DataLayer della richiesta, creato e chiuso da DataLayerFactory (vedi JerseyConfig)
+    @Inject
+    private SoccorsoDataLayer dataLayer;
+    
     @Context
     private HttpServletRequest httpRequest;
     
+    @Context
+    private HttpHeaders headers;
+    
     /**
      * Lista degli operatori attualmente liberi.
      * GET /api/operatori/liberi
@@ -51,15 +64,14 @@ public class OperatoriQueryResource {
     @GET
     @Path("liberi")
     @Secured
-    public Response getOperatoriLiberi() {
-        SoccorsoDataLayer dataLayer = null;
-        
+    public void getOperatoriLiberi(@Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.QUERY.submit(asyncResponse, () -> getOperatoriLiberi());
+    }
+
+    private Response getOperatoriLiberi() {
         try {
             logger.info("=== LISTA OPERATORI LIBERI ===");
             
-            // Crea DataLayer
-            dataLayer = createDataLayer();
-            
             // USA IL SERVICE CONDIVISO - riutilizza logica MVC!
             OperatoriQueryService.OperatoriResult result = 
                 OperatoriQueryService.getOperatoriLiberi(dataLayer);
@@ -85,15 +97,6 @@ public class OperatoriQueryResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore di sistema", "INTERNAL_ERROR"))
                     .build();
-                    
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
     
@@ -103,20 +106,45 @@ public class OperatoriQueryResource {
      * 
      * Richiede autenticazione: solo ADMIN
      * 
+     * Con ?stream=true o Accept: application/x-ndjson la lista viene inviata
+     * in streaming NDJSON, una OperatoreDTO per riga.
+     * 
      * @param includeStato Se includere informazioni su disponibilità e missioni
+     * @param stream Se restituire gli operatori in streaming NDJSON
      * @return Lista operatori con stato dettagliato
      */
     @GET
     @Secured
-    public Response getAllOperatori(@QueryParam("includeStato") @DefaultValue("false") boolean includeStato) {
-        SoccorsoDataLayer dataLayer = null;
-        
+    @Produces({MediaType.APPLICATION_JSON, NdjsonStreamer.MEDIA_TYPE})
+    public void getAllOperatori(@QueryParam("includeStato") @DefaultValue("false") boolean includeStato,
+            @QueryParam("stream") @DefaultValue("false") boolean stream,
+            @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.QUERY.submit(asyncResponse, () -> getAllOperatori(includeStato, stream));
+    }
+
+    private Response getAllOperatori(boolean includeStato, boolean stream) {
         try {
             logger.info("=== LISTA TUTTI OPERATORI ===");
             logger.info("Include stato: " + includeStato);
             
-            // Crea DataLayer
-            dataLayer = createDataLayer();
+            if (NdjsonStreamer.isRequested(headers, stream)) {
+                // Il DataLayer della richiesta resta aperto finché il corpo in streaming non è stato scritto
+                return NdjsonStreamer.stream(out -> {
+                    if (includeStato) {
+                        Set<Integer> liberi = dataLayer.getOperatoreDAO().getIdOperatoriDisponibili();
+                        NdjsonStreamer.Chunked<Operatore> chunked
+                                = out.chunked(dataLayer, chunk -> mapToOperatoriDTO(chunk, liberi, true, dataLayer));
+                        dataLayer.getOperatoreDAO().streamAllOperatori(chunked);
+                        chunked.finish();
+                    } else {
+                        NdjsonStreamer.Chunked<Operatore> chunked
+                                = out.chunked(dataLayer, chunk -> mapToOperatoriDTO(chunk, null, false, dataLayer));
+                        dataLayer.getOperatoreDAO().streamOperatoriDisponibili(chunked);
+                        chunked.finish();
+                    }
+                    logger.info("Inviati in streaming " + out.getCount() + " operatori");
+                });
+            }
             
             if (includeStato) {
                 // Lista dettagliata con stato
@@ -165,15 +193,6 @@ public class OperatoriQueryResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore di sistema", "INTERNAL_ERROR"))
                     .build();
-                    
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
     
@@ -189,9 +208,11 @@ public class OperatoriQueryResource {
     @GET
     @Path("{id}")
     @Secured
-    public Response getDettagliOperatore(@PathParam("id") int id) {
-        SoccorsoDataLayer dataLayer = null;
-        
+    public void getDettagliOperatore(@PathParam("id") int id, @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.QUERY.submit(asyncResponse, () -> getDettagliOperatore(id));
+    }
+
+    private Response getDettagliOperatore(int id) {
         try {
             logger.info("=== DETTAGLI OPERATORE ===");
             logger.info("ID operatore: " + id);
@@ -202,9 +223,6 @@ public class OperatoriQueryResource {
                         .build();
             }
             
-            // Crea DataLayer
-            dataLayer = createDataLayer();
-            
             // USA IL SERVICE CONDIVISO
             OperatoriQueryService.OperatoreInfo operatoreInfo = 
                 OperatoriQueryService.getOperatoreById(id, dataLayer);
@@ -241,75 +259,92 @@ public class OperatoriQueryResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore di sistema", "INTERNAL_ERROR"))
                     .build();
-                    
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
     
     // ========== METODI DI UTILITÀ ==========
     
-    /**
-     * Crea DataLayer.
-     */
-    private SoccorsoDataLayer createDataLayer() throws Exception {
-        InitialContext ctx = new InitialContext();
-        DataSource ds = (DataSource) ctx.lookup("java:comp/env/jdbc/soccorso");
-        SoccorsoDataLayer dataLayer = new SoccorsoDataLayer(ds);
-        dataLayer.init();
-        return dataLayer;
-    }
-    
     /**
      * METODO AGGIORNATO: Converte il modello interno in DTO per la risposta 
      * INCLUDENDO patenti e abilità caricate dal database.
      */
     private OperatoreDTO mapToOperatoreDTOWithDetails(Operatore operatore, boolean disponibile, SoccorsoDataLayer dataLayer) {
-        OperatoreDTO dto = new OperatoreDTO();
-        dto.setId(operatore.getId());
-        dto.setNome(operatore.getNome());
-        dto.setCognome(operatore.getCognome());
-        dto.setEmail(operatore.getEmail());
-        dto.setCodiceFiscale(operatore.getCodiceFiscale());
-        dto.setDisponibile(disponibile);
-        
         // NUOVO: Carica patenti dell'operatore
+        List<TipoPatente> patentiObj;
         try {
-            List<TipoPatente> patentiObj = dataLayer.getOperatoreHaPatenteDAO().getPatentiByOperatore(operatore.getId());
-            List<String> patentiString = new ArrayList<>();
-            for (TipoPatente patente : patentiObj) {
-                patentiString.add(patente.toDBString()); // Converte enum in stringa leggibile
-            }
-            dto.setPatenti(patentiString);
-            logger.fine("Caricate " + patentiString.size() + " patenti per operatore " + operatore.getId());
+            patentiObj = dataLayer.getOperatoreHaPatenteDAO().getPatentiByOperatore(operatore.getId());
         } catch (DataException e) {
             logger.log(Level.WARNING, "Errore caricamento patenti per operatore " + operatore.getId(), e);
-            dto.setPatenti(new ArrayList<>()); // Lista vuota in caso di errore
+            patentiObj = new ArrayList<>(); // Lista vuota in caso di errore
         }
         
         // NUOVO: Carica abilità dell'operatore
+        List<Abilita> abilitaObj;
         try {
-            List<Abilita> abilitaObj = dataLayer.getAbilitaDAO().getAbilitaByOperatore(operatore.getId());
-            List<String> abilitaString = new ArrayList<>();
-            for (Abilita abilita : abilitaObj) {
-                abilitaString.add(abilita.getTipo().toDBString()); // Converte enum in stringa leggibile
-            }
-            dto.setAbilita(abilitaString);
-            logger.fine("Caricate " + abilitaString.size() + " abilità per operatore " + operatore.getId());
+            abilitaObj = dataLayer.getAbilitaDAO().getAbilitaByOperatore(operatore.getId());
         } catch (DataException e) {
             logger.log(Level.WARNING, "Errore caricamento abilità per operatore " + operatore.getId(), e);
-            dto.setAbilita(new ArrayList<>()); // Lista vuota in caso di errore
+            abilitaObj = new ArrayList<>(); // Lista vuota in caso di errore
         }
         
+        return mapToOperatoreDTOWithDetails(operatore, disponibile, patentiObj, abilitaObj);
+    }
+    
+    private OperatoreDTO mapToOperatoreDTOWithDetails(Operatore operatore, boolean disponibile, List<TipoPatente> patentiObj, List<Abilita> abilitaObj) {
+        OperatoreDTO dto = new OperatoreDTO();
+        dto.setId(operatore.getId());
+        dto.setNome(operatore.getNome());
+        dto.setCognome(operatore.getCognome());
+        dto.setEmail(operatore.getEmail());
+        dto.setCodiceFiscale(operatore.getCodiceFiscale());
+        dto.setDisponibile(disponibile);
+        
+        List<String> patentiString = new ArrayList<>();
+        for (TipoPatente patente : patentiObj) {
+            patentiString.add(patente.toDBString()); // Converte enum in stringa leggibile
+        }
+        dto.setPatenti(patentiString);
+        
+        List<String> abilitaString = new ArrayList<>();
+        for (Abilita abilita : abilitaObj) {
+            abilitaString.add(abilita.getTipo().toDBString()); // Converte enum in stringa leggibile
+        }
+        dto.setAbilita(abilitaString);
+        
         return dto;
     }
     
+    /**
+     * Converte un blocco di operatori letti in streaming: patenti e abilità di
+     * tutto il blocco vengono caricate con due query.
+     */
+    private List<OperatoreDTO> mapToOperatoriDTO(List<Operatore> operatori, Set<Integer> liberi, boolean includeStato, SoccorsoDataLayer dataLayer) throws DataException {
+        List<Integer> ids = new ArrayList<>();
+        for (Operatore operatore : operatori) {
+            ids.add(operatore.getId());
+        }
+        Map<Integer, List<TipoPatente>> patenti = dataLayer.getOperatoreHaPatenteDAO().getPatentiByOperatori(ids);
+        Map<Integer, List<Abilita>> abilita = dataLayer.getAbilitaDAO().getAbilitaByOperatori(ids);
+        
+        List<OperatoreDTO> result = new ArrayList<>();
+        for (Operatore operatore : operatori) {
+            OperatoreDTO dto = mapToOperatoreDTOWithDetails(operatore,
+                    liberi == null || liberi.contains(operatore.getId()),
+                    patenti.getOrDefault(operatore.getId(), new ArrayList<>()),
+                    abilita.getOrDefault(operatore.getId(), new ArrayList<>()));
+            if (includeStato) {
+                try {
+                    dto.setMissioniInCorso(dataLayer.getMissioneDAO().countMissioniInCorsoByOperatore(operatore.getId()));
+                    dto.setMissioniCompletate(dataLayer.getMissioneDAO().countMissioniCompletateByOperatore(operatore.getId()));
+                } catch (DataException ex) {
+                    logger.log(Level.WARNING, "Errore nel conteggio missioni per operatore " + operatore.getId(), ex);
+                }
+            }
+            result.add(dto);
+        }
+        return result;
+    }
+    
     /**
      * METODO LEGACY: Manteniamo per compatibilità, ma deprecato.
      * @deprecated Usa mapToOperatoreDTOWithDetails invece
@@ -1,22 +1,28 @@
 package webengineering.nuovissimosoccorsoweb.rest.resources;
 
+import jakarta.inject.Inject;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.container.ContainerRequestContext;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
+import webengineering.nuovissimosoccorsoweb.rest.service.ApiExecutor;
 import webengineering.nuovissimosoccorsoweb.rest.dto.RichiestaDTO;
 import webengineering.nuovissimosoccorsoweb.rest.dto.ListaRichiesteResponse;
 import webengineering.nuovissimosoccorsoweb.rest.dto.ErrorResponse;
 import webengineering.nuovissimosoccorsoweb.service.RichiesteQueryService;
 import webengineering.nuovissimosoccorsoweb.rest.security.Secured;
+import webengineering.nuovissimosoccorsoweb.rest.service.NdjsonStreamer;
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.OptimisticLockException;
+import webengineering.framework.data.ParallelReads;
 
-import javax.naming.InitialContext;
-import javax.sql.DataSource;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
@@ -42,38 +48,70 @@ public class RichiesteQueryResource {
 
     private static final Logger logger = Logger.getLogger(RichiesteQueryResource.class.getName());
 
+    // DataLayer della richiesta, creato e chiuso da DataLayerFactory (vedi JerseyConfig)
+    @Inject
+    private SoccorsoDataLayer dataLayer;
+
     @Context
     private HttpServletRequest httpRequest;
 
     @Context
     private ContainerRequestContext requestContext;
 
+    @Context
+    private HttpHeaders headers;
+
     /**
      * Lista (paginata) delle richieste di soccorso, filtrata in base alla
      * tipologia. GET /api/richieste?stato={stato}&page={page}&size={size}
      *
+     * In alternativa a page si può usare la paginazione a cursore:
+     * GET /api/richieste?stato={stato}&after={cursore}&size={size}, dove il
+     * cursore è il nextCursor della pagina precedente (vuoto per la prima).
+     * In questa modalità totalElements, totalPages e number valgono -1.
+     *
+     * Con ?stream=true o Accept: application/x-ndjson tutte le richieste
+     * filtrate vengono inviate in streaming NDJSON, una RichiestaDTO per riga
+     * (page, size e after vengono ignorati).
+     *
      * Richiede autenticazione: solo admin può vedere tutte le richieste
      *
      * @param stato Stato delle richieste (ATTIVA, IN_CORSO, CHIUSA, IGNORATA) -
      * opzionale
      * @param page Numero pagina (1-based, default=1)
      * @param size Elementi per pagina (default=20, max=100)
+     * @param after Cursore della pagina precedente - opzionale
+     * @param stream Se restituire le richieste in streaming NDJSON
      * @return Lista paginata delle richieste
      */
     @GET
     @Secured
-    public Response getListaRichieste(
+    @Produces({MediaType.APPLICATION_JSON, NdjsonStreamer.MEDIA_TYPE})
+    public void getListaRichieste(
             @QueryParam("stato") String stato,
             @QueryParam("page") @DefaultValue("1") int page,
-            @QueryParam("size") @DefaultValue("20") int size) {
+            @QueryParam("size") @DefaultValue("20") int size,
+            @QueryParam("after") String after,
+            @QueryParam("stream") @DefaultValue("false") boolean stream,
+            @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.QUERY.submit(asyncResponse, () -> getListaRichieste(stato, page, size, after, stream));
+    }
 
-        SoccorsoDataLayer dataLayer = null;
+    private Response getListaRichieste(String stato, int page, int size, String after, boolean stream) {
 
         try {
             logger.info("=== LISTA RICHIESTE PAGINATA ===");
             logger.info("Stato: " + stato + ", Pagina: " + page + ", Size: " + size);
             logger.info("Descrizione filtro: " + RichiesteQueryService.getStatoDescription(stato));
 
+            if (NdjsonStreamer.isRequested(headers, stream)) {
+                // Il DataLayer della richiesta resta aperto finché il corpo in streaming non è stato scritto
+                return NdjsonStreamer.stream(out -> {
+                    RichiesteQueryService.streamRichiesteFiltrate(stato, r -> out.write(mapToRichiestaSummaryDTO(r)), dataLayer);
+                    logger.info("Inviate in streaming " + out.getCount() + " richieste");
+                });
+            }
+
             // Validazione parametri di paginazione
             try {
                 RichiesteQueryService.validatePaginationParams(page, size);
@@ -83,8 +121,9 @@ public class RichiesteQueryResource {
                         .build();
             }
 
-            // Crea DataLayer
-            dataLayer = createDataLayer();
+            if (after != null) {
+                return getListaRichiesteAfter(stato, after, size, dataLayer);
+            }
 
             // USA IL SERVICE DEDICATO - zero duplicazione!
             RichiesteQueryService.PaginatedResult<RichiestaSoccorso> result
@@ -93,7 +132,7 @@ public class RichiesteQueryResource {
             // Converte i modelli interni in DTO per la risposta
             List<RichiestaDTO> richiesteDTO = new ArrayList<>();
             for (RichiestaSoccorso richiesta : result.getContent()) {
-                richiesteDTO.add(mapToRichiestaDTO(richiesta));
+                richiesteDTO.add(mapToRichiestaSummaryDTO(richiesta));
             }
 
             // Crea risposta paginata
@@ -106,6 +145,11 @@ public class RichiesteQueryResource {
                     result.isFirst(),
                     result.isLast()
             );
+            // Cursore per proseguire con la paginazione a chiave dopo questa pagina
+            if (!result.isLast() && !result.getContent().isEmpty()) {
+                response.setNextCursor(RichiesteQueryService.encodeCursor(
+                        result.getContent().get(result.getContent().size() - 1).getCodice()));
+            }
 
             logger.info("Restituite " + richiesteDTO.size() + " richieste su "
                     + result.getTotalElements() + " totali");
@@ -123,36 +167,70 @@ public class RichiesteQueryResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore di sistema", "INTERNAL_ERROR"))
                     .build();
+        }
+    }
 
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
+    /**
+     * Pagina della lista richieste con paginazione a cursore.
+     */
+    private Response getListaRichiesteAfter(String stato, String after, int size, SoccorsoDataLayer dataLayer) throws DataException {
+        RichiesteQueryService.CursorResult<RichiestaSoccorso> result;
+        try {
+            result = RichiesteQueryService.getRichiesteFiltrateAfter(stato, after, size, dataLayer);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(new ErrorResponse("Parametri di paginazione non validi", e.getMessage(), "VALIDATION_ERROR"))
+                    .build();
         }
+
+        List<RichiestaDTO> richiesteDTO = new ArrayList<>();
+        for (RichiestaSoccorso richiesta : result.getContent()) {
+            richiesteDTO.add(mapToRichiestaSummaryDTO(richiesta));
+        }
+
+        ListaRichiesteResponse response = new ListaRichiesteResponse(
+                richiesteDTO,
+                -1,
+                -1,
+                -1,
+                result.getPageSize(),
+                after.trim().isEmpty(),
+                result.isLast()
+        );
+        response.setNextCursor(result.getNextCursor());
+
+        logger.info("Restituite " + richiesteDTO.size() + " richieste (cursore)");
+
+        return Response.ok(response).build();
     }
 
     /**
      * Lista delle richieste di soccorso chiuse con risultato non totalmente
      * positivo. GET /api/richieste/non-positive?page={page}&size={size}
      *
+     * Come per la lista delle richieste, in alternativa a page si può usare la
+     * paginazione a cursore: GET /api/richieste/non-positive?after={cursore}&size={size}
+     * (totalElements, totalPages e number valgono -1).
+     *
      * Richiede autenticazione: solo ADMIN
      *
      * @param page Numero pagina (1-based, default=1)
      * @param size Elementi per pagina (default=20, max=100)
+     * @param after Cursore della pagina precedente - opzionale
      * @return Lista paginata delle richieste con livello di successo < 5
      */
     @GET
     @Path("non-positive")
     @Secured
-    public Response getRichiesteNonPositive(
+    public void getRichiesteNonPositive(
             @QueryParam("page") @DefaultValue("1") int page,
-            @QueryParam("size") @DefaultValue("20") int size) {
+            @QueryParam("size") @DefaultValue("20") int size,
+            @QueryParam("after") String after,
+            @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.QUERY.submit(asyncResponse, () -> getRichiesteNonPositive(page, size, after));
+    }
 
-        SoccorsoDataLayer dataLayer = null;
+    private Response getRichiesteNonPositive(int page, int size, String after) {
 
         try {
             logger.info("=== RICHIESTE NON POSITIVE ===");
@@ -167,8 +245,9 @@ public class RichiesteQueryResource {
                         .build();
             }
 
-            // Crea DataLayer
-            dataLayer = createDataLayer();
+            if (after != null) {
+                return getRichiesteNonPositiveAfter(after, size);
+            }
 
             // USA IL SERVICE DEDICATO
             RichiesteQueryService.PaginatedResult<RichiestaSoccorso> result
@@ -177,7 +256,7 @@ public class RichiesteQueryResource {
             // Converte i modelli interni in DTO per la risposta
             List<RichiestaDTO> richiesteDTO = new ArrayList<>();
             for (RichiestaSoccorso richiesta : result.getContent()) {
-                richiesteDTO.add(mapToRichiestaDTO(richiesta));
+                richiesteDTO.add(mapToRichiestaSummaryDTO(richiesta));
             }
 
             // Crea risposta paginata
@@ -190,6 +269,11 @@ public class RichiesteQueryResource {
                     result.isFirst(),
                     result.isLast()
             );
+            // Cursore per proseguire con la paginazione a chiave dopo questa pagina
+            if (!result.isLast() && !result.getContent().isEmpty()) {
+                response.setNextCursor(RichiesteQueryService.encodeCursor(
+                        result.getContent().get(result.getContent().size() - 1).getCodice()));
+            }
 
             logger.info("Restituite " + richiesteDTO.size() + " richieste non positive su "
                     + result.getTotalElements() + " totali");
@@ -207,16 +291,41 @@ public class RichiesteQueryResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore di sistema", "INTERNAL_ERROR"))
                     .build();
+        }
+    }
 
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
+    /**
+     * Pagina delle richieste non positive con paginazione a cursore.
+     */
+    private Response getRichiesteNonPositiveAfter(String after, int size) throws DataException {
+        RichiesteQueryService.CursorResult<RichiestaSoccorso> result;
+        try {
+            result = RichiesteQueryService.getRichiesteNonPositiveAfter(after, size, dataLayer);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(new ErrorResponse("Parametri di paginazione non validi", e.getMessage(), "VALIDATION_ERROR"))
+                    .build();
         }
+
+        List<RichiestaDTO> richiesteDTO = new ArrayList<>();
+        for (RichiestaSoccorso richiesta : result.getContent()) {
+            richiesteDTO.add(mapToRichiestaSummaryDTO(richiesta));
+        }
+
+        ListaRichiesteResponse response = new ListaRichiesteResponse(
+                richiesteDTO,
+                -1,
+                -1,
+                -1,
+                result.getPageSize(),
+                after.trim().isEmpty(),
+                result.isLast()
+        );
+        response.setNextCursor(result.getNextCursor());
+
+        logger.info("Restituite " + richiesteDTO.size() + " richieste non positive (cursore)");
+
+        return Response.ok(response).build();
     }
 
     /**
@@ -230,9 +339,11 @@ public class RichiesteQueryResource {
     @GET
     @Path("{id}")
     @Secured
-    public Response getDettagliRichiesta(@PathParam("id") int id) {
-        SoccorsoDataLayer dataLayer = null;
+    public void getDettagliRichiesta(@PathParam("id") int id, @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.QUERY.submit(asyncResponse, () -> getDettagliRichiesta(id));
+    }
 
+    private Response getDettagliRichiesta(int id) {
         try {
             logger.info("=== DETTAGLI RICHIESTA COMPLETI ===");
             logger.info("ID richiesta: " + id);
@@ -251,9 +362,6 @@ public class RichiesteQueryResource {
                         .build();
             }
 
-            // Crea DataLayer
-            dataLayer = createDataLayer();
-
             // Carica richiesta base
             RichiestaSoccorso richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(id);
 
@@ -282,15 +390,6 @@ public class RichiesteQueryResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore di sistema", "INTERNAL_ERROR"))
                     .build();
-
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
 
@@ -325,9 +424,18 @@ public class RichiesteQueryResource {
             }
         }
 
+        // Missione associata, sua conclusione e squadra hanno lo stesso codice della richiesta:
+        // le tre letture partono insieme su connessioni separate (le ultime due vengono
+        // ignorate se la missione non esiste)
+        int codice = richiesta.getCodice();
+        ParallelReads<SoccorsoDataLayer> reads = dataLayer.parallelReads();
+        ParallelReads.Result<Missione> missioneRead = reads.submit(dl -> dl.getMissioneDAO().getMissioneByCodice(codice));
+        ParallelReads.Result<InfoMissione> infoRead = reads.submit(dl -> dl.getInfoMissioneDAO().getInfoByCodiceMissione(codice));
+        ParallelReads.Result<List<PartecipazioneSquadra>> squadraRead = reads.submit(dl -> dl.getMissioneDAO().getSquadraByMissione(codice));
+
         // Informazioni missione associata (se esistente)
         try {
-            Missione missione = dataLayer.getMissioneDAO().getMissioneByCodice(richiesta.getCodice());
+            Missione missione = missioneRead.get();
             if (missione != null) {
                 MissioneAssociataDTO missioneDTO = new MissioneAssociataDTO();
                 missioneDTO.setId(missione.getCodiceRichiesta());
@@ -338,7 +446,7 @@ public class RichiesteQueryResource {
 
                 // Verifica se la missione è conclusa
                 try {
-                    InfoMissione infoMissione = dataLayer.getInfoMissioneDAO().getInfoByCodiceMissione(missione.getCodiceRichiesta());
+                    InfoMissione infoMissione = infoRead.get();
                     if (infoMissione != null) {
                         missioneDTO.setStato("CONCLUSA");
                         missioneDTO.setDataOraFine(infoMissione.getDataOraFine().toString());
@@ -354,7 +462,7 @@ public class RichiesteQueryResource {
 
                 // Conta operatori assegnati
                 try {
-                    List<PartecipazioneSquadra> squadra = dataLayer.getMissioneDAO().getSquadraByMissione(missione.getCodiceRichiesta());
+                    List<PartecipazioneSquadra> squadra = squadraRead.get();
                     missioneDTO.setNumeroOperatori(squadra.size());
                 } catch (Exception e) {
                     logger.log(Level.WARNING, "Errore conteggio operatori missione " + missione.getCodiceRichiesta(), e);
@@ -382,9 +490,11 @@ public class RichiesteQueryResource {
     @PUT
     @Path("{id}/annulla")
     @Secured
-    public Response annullaRichiesta(@PathParam("id") int id) {
-        SoccorsoDataLayer dataLayer = null;
+    public void annullaRichiesta(@PathParam("id") int id, @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.WRITE.submit(asyncResponse, () -> annullaRichiesta(id));
+    }
 
+    private Response annullaRichiesta(int id) {
         try {
             logger.info("=== ANNULLAMENTO RICHIESTA VIA REST ===");
             logger.info("ID richiesta da annullare: " + id);
@@ -435,43 +545,47 @@ public class RichiesteQueryResource {
             logger.info("DEBUG - ID amministratore per annullamento: " + adminId);
 
             // resto del codice esistente...
-            dataLayer = createDataLayer();
+            // Annulla direttamente: l'UPDATE riesce solo se la richiesta è ancora "Convalidata",
+            // quindi non serve rileggerla prima. La rileggiamo solo se fallisce, per spiegare il motivo
+            String statoOriginale = "Convalidata";
+            try {
+                dataLayer.getRichiestaSoccorsoDAO().updateStato(id, statoOriginale, "Annullata");
+            } catch (OptimisticLockException e) {
+                RichiestaSoccorso richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(id);
+                if (richiesta == null) {
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity(new ErrorResponse("Richiesta non trovata", "NOT_FOUND"))
+                            .build();
+                }
 
-            // Verifica che la richiesta esista
-            RichiestaSoccorso richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(id);
-            if (richiesta == null) {
-                return Response.status(Response.Status.NOT_FOUND)
-                        .entity(new ErrorResponse("Richiesta non trovata", "NOT_FOUND"))
-                        .build();
-            }
+                // Controlla perché la richiesta non può essere annullata
+                String statoAttuale = richiesta.getStato();
+                if ("Annullata".equals(statoAttuale)) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity(new ErrorResponse("La richiesta è già stata annullata", "ALREADY_CANCELLED"))
+                            .build();
+                }
 
-// Controlla se la richiesta può essere annullata
-            String statoAttuale = richiesta.getStato();
-            if ("Annullata".equals(statoAttuale)) {
-                return Response.status(Response.Status.BAD_REQUEST)
-                        .entity(new ErrorResponse("La richiesta è già stata annullata", "ALREADY_CANCELLED"))
-                        .build();
-            }
+                if ("Chiusa".equals(statoAttuale)) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity(new ErrorResponse("Non è possibile annullare una richiesta già chiusa", "CANNOT_CANCEL_CLOSED"))
+                            .build();
+                }
 
-            if ("Chiusa".equals(statoAttuale)) {
-                return Response.status(Response.Status.BAD_REQUEST)
-                        .entity(new ErrorResponse("Non è possibile annullare una richiesta già chiusa", "CANNOT_CANCEL_CLOSED"))
-                        .build();
-            }
+                if (!"Convalidata".equals(statoAttuale)) {
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity(new ErrorResponse("La richiesta selezionata deve avere lo stato \"Convalidata\". Stato attuale: " + statoAttuale, "INVALID_STATE_FOR_CANCELLATION"))
+                            .build();
+                }
 
-// ✅ AGGIUNGI QUESTO CONTROLLO SUBITO DOPO:
-            if (!"Convalidata".equals(statoAttuale)) {
-                return Response.status(Response.Status.BAD_REQUEST)
-                        .entity(new ErrorResponse("La richiesta selezionata deve avere lo stato \"Convalidata\". Stato attuale: " + statoAttuale, "INVALID_STATE_FOR_CANCELLATION"))
+                // Di nuovo "Convalidata": è cambiata e tornata indietro mentre la aggiornavamo
+                return Response.status(Response.Status.CONFLICT)
+                        .entity(new ErrorResponse("La richiesta è stata modificata nel frattempo da un'altra operazione. Riprovare.", "CONFLICT"))
                         .build();
             }
 
-            // Esegui l'annullamento
-            String statoOriginale = richiesta.getStato();
-            dataLayer.getRichiestaSoccorsoDAO().updateStato(id, "Annullata");
-
-            // Ricarica la richiesta aggiornata
-            richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(id);
+            // Carica la richiesta aggiornata per la risposta
+            RichiestaSoccorso richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(id);
 
             // Log dell'operazione
             logger.info("Richiesta " + id + " annullata dall'amministratore " + adminId
@@ -499,15 +613,6 @@ public class RichiesteQueryResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new ErrorResponse("Errore interno del server", "INTERNAL_ERROR"))
                     .build();
-
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
 
@@ -545,22 +650,24 @@ public class RichiesteQueryResource {
     }
 
     // ========== METODI DI UTILITÀ ==========
-    /**
-     * Crea DataLayer.
-     */
-    private SoccorsoDataLayer createDataLayer() throws Exception {
-        InitialContext ctx = new InitialContext();
-        DataSource ds = (DataSource) ctx.lookup("java:comp/env/jdbc/soccorso");
-        SoccorsoDataLayer dataLayer = new SoccorsoDataLayer(ds);
-        dataLayer.init();
-        return dataLayer;
-    }
 
     /**
      * Converte il modello interno in DTO per la risposta. Riutilizza la logica
      * del RichiesteResource esistente.
      */
     private RichiestaDTO mapToRichiestaDTO(RichiestaSoccorso richiesta) {
+        RichiestaDTO dto = mapToRichiestaSummaryDTO(richiesta);
+        dto.setFoto(richiesta.getFoto());
+        dto.setStringaValidazione(richiesta.getStringa());
+        return dto;
+    }
+
+    /**
+     * DTO per le liste: le richieste sono caricate con la proiezione di
+     * riepilogo, quindi foto e stringa di validazione non vengono incluse (si
+     * leggono dai dettagli della singola richiesta).
+     */
+    private RichiestaDTO mapToRichiestaSummaryDTO(RichiestaSoccorso richiesta) {
         RichiestaDTO dto = new RichiestaDTO();
         dto.setCodice(richiesta.getCodice());
         dto.setStato(richiesta.getStato());
@@ -570,8 +677,6 @@ public class RichiesteQueryResource {
         dto.setEmailSegnalante(richiesta.getEmailSegnalante());
         dto.setNomeSegnalante(richiesta.getNomeSegnalante());
         dto.setCoordinate(richiesta.getCoordinate());
-        dto.setFoto(richiesta.getFoto());
-        dto.setStringaValidazione(richiesta.getStringa());
         dto.setIdAmministratore(richiesta.getIdAmministratore() > 0 ? richiesta.getIdAmministratore() : null);
         return dto;
     }
@@ -1,18 +1,20 @@
 package webengineering.nuovissimosoccorsoweb.rest.resources;
 
+import jakarta.inject.Inject;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
+import webengineering.nuovissimosoccorsoweb.rest.service.ApiExecutor;
 import webengineering.nuovissimosoccorsoweb.rest.dto.RichiestaRequest;
 import webengineering.nuovissimosoccorsoweb.rest.dto.RichiestaResponse;
 import webengineering.nuovissimosoccorsoweb.rest.dto.RichiestaDTO;
 import webengineering.nuovissimosoccorsoweb.service.RichiestaService;
 
-import javax.naming.InitialContext;
-import javax.sql.DataSource;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 import webengineering.nuovissimosoccorsoweb.service.ConvalidaService;
@@ -28,6 +30,10 @@ public class RichiesteResource {
     
     private static final Logger logger = Logger.getLogger(RichiesteResource.class.getName());
     
+    // DataLayer della richiesta, creato e chiuso da DataLayerFactory (vedi JerseyConfig)
+    @Inject
+    private SoccorsoDataLayer dataLayer;
+    
     @Context
     private HttpServletRequest httpRequest;
     
@@ -38,9 +44,11 @@ public class RichiesteResource {
      * NON richiede autenticazione (in emergenza non c'è tempo per il login!)
      */
     @POST
-    public Response inserisciRichiesta(RichiestaRequest richiestaRequest) {
-        SoccorsoDataLayer dataLayer = null;
-        
+    public void inserisciRichiesta(RichiestaRequest richiestaRequest, @Suspended AsyncResponse asyncResponse) {
+        ApiExecutor.INTAKE.submit(asyncResponse, () -> inserisciRichiesta(richiestaRequest));
+    }
+
+    private Response inserisciRichiesta(RichiestaRequest richiestaRequest) {
         try {
             logger.info("=== INSERIMENTO RICHIESTA SOCCORSO ===");
             
@@ -51,9 +59,6 @@ public class RichiesteResource {
                         .build();
             }
             
-            // Crea DataLayer
-            dataLayer = createDataLayer();
-            
             // Prepara input per il service
             RichiestaService.RichiestaInput input = new RichiestaService.RichiestaInput(
                 richiestaRequest.getDescrizione(),
@@ -94,27 +99,9 @@ public class RichiesteResource {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                     .entity(new RichiestaResponse(false, "Errore interno del server"))
                     .build();
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
     
-    /**
-     * Crea DataLayer.
-     */
-    private SoccorsoDataLayer createDataLayer() throws Exception {
-        InitialContext ctx = new InitialContext();
-        DataSource ds = (DataSource) ctx.lookup("java:comp/env/jdbc/soccorso");
-        SoccorsoDataLayer dataLayer = new SoccorsoDataLayer(ds);
-        dataLayer.init();
-        return dataLayer;
-    }
     
     /**
      * Mappa errori business a status HTTP.
@@ -181,9 +168,11 @@ public class RichiesteResource {
  */
 @POST
 @Path("{id}/convalida")
-public Response convalidaRichiesta(@PathParam("id") int id, @QueryParam("token") String token) {
-    SoccorsoDataLayer dataLayer = null;
-    
+public void convalidaRichiesta(@PathParam("id") int id, @QueryParam("token") String token, @Suspended AsyncResponse asyncResponse) {
+    ApiExecutor.INTAKE.submit(asyncResponse, () -> convalidaRichiesta(id, token));
+}
+
+private Response convalidaRichiesta(int id, String token) {
     try {
         logger.info("=== CONVALIDA RICHIESTA SOCCORSO ===");
         logger.info("ID: " + id + ", Token: " + (token != null ? token.substring(0, Math.min(token.length(), 10)) + "..." : "null"));
@@ -201,9 +190,6 @@ public Response convalidaRichiesta(@PathParam("id") int id, @QueryParam("token")
                     .build();
         }
         
-        // Crea DataLayer
-        dataLayer = createDataLayer();
-        
         // USA IL SERVICE CONDIVISO - zero duplicazione!
         ConvalidaService.ConvalidaResult result = 
             ConvalidaService.convalidaRichiestaById(id, token, dataLayer);
@@ -246,14 +232,6 @@ public Response convalidaRichiesta(@PathParam("id") int id, @QueryParam("token")
         return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                 .entity(new ConvalidaResponse(false, "Errore interno del server", null))
                 .build();
-    } finally {
-        if (dataLayer != null) {
-            try {
-                dataLayer.destroy();
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-            }
-        }
     }
 }
 
@@ -270,6 +248,8 @@ private Response.Status getHttpStatusFromConvalidaError(String errorCode) {
             return Response.Status.BAD_REQUEST;
         case "TOKEN_NOT_FOUND":
             return Response.Status.NOT_FOUND;
+        case "CONFLICT":
+            return Response.Status.CONFLICT;
         case "DATABASE_ERROR":
         case "INTERNAL_ERROR":
         default:
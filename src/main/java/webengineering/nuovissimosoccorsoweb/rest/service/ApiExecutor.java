@@ -0,0 +1,224 @@
+package webengineering.nuovissimosoccorsoweb.rest.service;
+
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.CompletionCallback;
+import jakarta.ws.rs.container.ConnectionCallback;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import webengineering.nuovissimosoccorsoweb.rest.dto.ErrorResponse;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Esecuzione asincrona delle risorse REST: il metodo della risorsa sospende la
+ * richiesta (@Suspended AsyncResponse) e passa il lavoro a uno di questi
+ * executor, così il thread di Tomcat torna subito libero mentre le query sono
+ * in corso.
+ *
+ * Gli executor sono separati (bulkhead): INTAKE serve le chiamate pubbliche
+ * (inserimento e convalida delle richieste di soccorso, login), QUERY le
+ * letture autenticate (liste, dettagli), WRITE le scritture degli
+ * amministratori (creazione missioni, annullamento richieste). Un picco di
+ * segnalazioni non toglie quindi risorse alle liste degli amministratori, né
+ * le liste alle scritture. Ogni executor ha una coda limitata: a coda piena la
+ * chiamata riceve subito un 503 con Retry-After invece di accumularsi.
+ *
+ * Thread e connessioni sono dimensionati separatamente. I thread sono molti
+ * (le chiamate in corso non occupano thread di Tomcat), mentre l'accesso al
+ * database è limitato da un semaforo per executor con tanti permessi quante
+ * sono le connessioni del pool riservate a quell'executor (maxTotal="100" nel
+ * context.xml, condiviso con le servlet MVC). Ogni chiamata tiene un permesso,
+ * cioè la connessione della sua richiesta, finché la risposta non è stata
+ * scritta (anche in streaming); le letture parallele non hanno bisogno di
+ * permessi perché usano connessioni in più solo se il pool ne ha di libere
+ * (vedi DataLayerMonitor.hasFreeConnection).
+ *
+ * Ogni chiamata ha un timeout, che vale solo per il lavoro non ancora
+ * partito: una chiamata ancora in coda o in attesa di una connessione non
+ * parte e il client riceve subito un 503. Una chiamata già partita risponde
+ * sempre con il proprio risultato, anche oltre il timeout: potrebbe aver già
+ * scritto nel database (una segnalazione, una missione) e un 503 farebbe
+ * ripetere al client un'operazione riuscita. Per lo stesso motivo non viene
+ * interrotta, neppure se il client si disconnette.
+ */
+public class ApiExecutor {
+
+    private static final Logger logger = Logger.getLogger(ApiExecutor.class.getName());
+
+    // Chiamate pubbliche: segnalazioni, convalide, login
+    public static final ApiExecutor INTAKE = new ApiExecutor("api-intake", 100, 10, 2000, 15);
+
+    // Letture autenticate: liste e dettagli per amministratori e operatori
+    public static final ApiExecutor QUERY = new ApiExecutor("api-query", 100, 30, 2000, 30);
+
+    // Scritture degli amministratori: missioni, annullamenti
+    public static final ApiExecutor WRITE = new ApiExecutor("api-write", 20, 10, 200, 30);
+
+    // Secondi suggeriti al client (Retry-After) quando la coda è piena
+    private static final int RETRY_AFTER_SECONDS = 2;
+
+    // Stati di una chiamata: in attesa (in coda o di una connessione), in esecuzione, abbandonata
+    // prima di partire (timeout o disconnessione)
+    private static final int WAITING = 0;
+    private static final int RUNNING = 1;
+    private static final int ABANDONED = 2;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore connections;
+    private final long timeoutSeconds;
+
+    /**
+     * @param threads Thread che eseguono le chiamate
+     * @param connections Connessioni del pool riservate alle chiamate di
+     * questo executor
+     * @param queueSize Chiamate in attesa di un thread oltre le quali si
+     * risponde 503
+     * @param timeoutSeconds Attesa massima prima che la chiamata parta
+     */
+    private ApiExecutor(String name, int threads, int connections, int queueSize, long timeoutSeconds) {
+        this.name = name;
+        this.connections = new Semaphore(connections, true);
+        this.timeoutSeconds = timeoutSeconds;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        // I thread vengono creati al bisogno e rilasciati dopo un minuto di inattività
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Esegue task su questo executor e riprende la richiesta sospesa con la
+     * Response restituita; un'eccezione viene passata agli exception mapper
+     * come per le risorse sincrone.
+     */
+    public void submit(AsyncResponse asyncResponse, Callable<Response> task) {
+        AtomicInteger state = new AtomicInteger(WAITING);
+        AtomicBoolean permit = new AtomicBoolean();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+
+        FutureTask<Void> job = new FutureTask<>(() -> {
+            if (state.get() != WAITING) {
+                // Abbandonata mentre era in coda: la risposta è già partita
+                return;
+            }
+            // Attende una connessione libera fino allo scadere del timeout
+            try {
+                if (!connections.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    if (state.compareAndSet(WAITING, ABANDONED)) {
+                        logger.warning("Nessuna connessione libera entro il timeout (" + name + ", " + timeoutSeconds + "s)");
+                        asyncResponse.resume(unavailable("Tempo di risposta scaduto", "TIMEOUT", RETRY_AFTER_SECONDS));
+                    }
+                    return;
+                }
+            } catch (InterruptedException ex) {
+                // Applicazione in arresto
+                if (state.compareAndSet(WAITING, ABANDONED)) {
+                    asyncResponse.resume(unavailable("Servizio in arresto", "SHUTDOWN", null));
+                }
+                return;
+            }
+            permit.set(true);
+            if (!state.compareAndSet(WAITING, RUNNING)) {
+                // Abbandonata mentre attendeva: la risposta è già partita
+                release(permit);
+                return;
+            }
+            Object result;
+            try {
+                result = task.call();
+            } catch (Throwable t) {
+                result = t;
+            }
+            boolean resumed = (result instanceof Throwable)
+                    ? asyncResponse.resume((Throwable) result)
+                    : asyncResponse.resume(result);
+            if (!resumed) {
+                // La richiesta non è più sospesa (ad esempio il container l'ha chiusa): la
+                // CompletionCallback potrebbe non arrivare più
+                release(permit);
+            }
+        }, null);
+
+        asyncResponse.setTimeoutHandler(ar -> {
+            if (abandon(job, state)) {
+                logger.warning("Chiamata REST annullata per timeout (" + name + ", " + timeoutSeconds + "s)");
+                ar.resume(unavailable("Tempo di risposta scaduto", "TIMEOUT", RETRY_AFTER_SECONDS));
+            } else {
+                // Già partita: risponde il lavoro stesso con il suo risultato quando termina,
+                // intanto Jersey non deve chiudere la richiesta con il suo 503
+                logger.warning("Chiamata REST oltre il timeout (" + name + ", " + timeoutSeconds + "s), in attesa della fine");
+                ar.setTimeout(timeoutSeconds, TimeUnit.SECONDS);
+            }
+        });
+        asyncResponse.register((ConnectionCallback) ar -> {
+            if (abandon(job, state)) {
+                ar.resume(unavailable("Client disconnesso", "DISCONNECTED", null));
+            }
+        });
+        // La connessione della richiesta viene restituita al pool a risposta scritta (vedi
+        // DataLayerFactory.dispose): solo allora il permesso torna libero
+        asyncResponse.register((CompletionCallback) t -> release(permit));
+        asyncResponse.setTimeout(timeoutSeconds, TimeUnit.SECONDS);
+
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException ex) {
+            state.set(ABANDONED);
+            logger.warning("Coda " + name + " piena: chiamata REST rifiutata");
+            asyncResponse.resume(unavailable("Servizio momentaneamente sovraccarico, riprovare", "SERVER_BUSY", RETRY_AFTER_SECONDS));
+        }
+    }
+
+    /**
+     * Abbandona una chiamata non ancora partita (in coda o in attesa di una
+     * connessione) e restituisce true: il chiamante risponde subito. Una
+     * chiamata già partita non viene toccata (restituisce false): risponderà
+     * lei stessa alla fine.
+     */
+    private boolean abandon(FutureTask<Void> job, AtomicInteger state) {
+        if (state.compareAndSet(WAITING, ABANDONED)) {
+            executor.remove(job);
+            return true;
+        }
+        return false;
+    }
+
+    private void release(AtomicBoolean permit) {
+        if (permit.compareAndSet(true, false)) {
+            connections.release();
+        }
+    }
+
+    /**
+     * Chiamato da JerseyConfig allo spegnimento dell'applicazione.
+     */
+    public static void shutdownAll() {
+        INTAKE.executor.shutdownNow();
+        QUERY.executor.shutdownNow();
+        WRITE.executor.shutdownNow();
+    }
+
+    private static Response unavailable(String message, String code, Integer retryAfter) {
+        Response.ResponseBuilder builder = Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity(new ErrorResponse(message, code))
+                .type(MediaType.APPLICATION_JSON);
+        if (retryAfter != null) {
+            builder.header("Retry-After", retryAfter);
+        }
+        return builder.build();
+    }
+}
@@ -2,12 +2,7 @@ package webengineering.nuovissimosoccorsoweb.rest.service;
 
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.nuovissimosoccorsoweb.service.AuthenticationService;
-import webengineering.framework.data.DataException;
 
-import javax.naming.InitialContext;
-import javax.naming.NamingException;
-import javax.sql.DataSource;
-import java.sql.SQLException;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -57,14 +52,11 @@ public class AuthService {
     }
     
     /**
-     * Autentica un utente - codice condiviso con MVC
+     * Autentica un utente - codice condiviso con MVC.
+     * Il DataLayer è quello della richiesta (vedi DataLayerFactory) e viene chiuso da Jersey.
      */
-    public UserInfo authenticateUser(String email, String password) {
-        SoccorsoDataLayer dataLayer = null;
-        
+    public UserInfo authenticateUser(String email, String password, SoccorsoDataLayer dataLayer) {
         try {
-            dataLayer = createDataLayer();
-            
             AuthenticationService.UserInfo authResult = 
                 AuthenticationService.authenticateUser(email, password, dataLayer);
             
@@ -78,25 +70,6 @@ public class AuthService {
         } catch (Exception ex) {
             logger.log(Level.SEVERE, "Errore durante autenticazione REST: " + ex.getMessage(), ex);
             return null;
-        } finally {
-            if (dataLayer != null) {
-                try {
-                    dataLayer.destroy();
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Errore chiusura DataLayer", e);
-                }
-            }
         }
     }
-    
-    /**
-     * Crea DataLayer (metodo helper).
-     */
-    private SoccorsoDataLayer createDataLayer() throws NamingException, SQLException, DataException {
-        InitialContext ctx = new InitialContext();
-        DataSource ds = (DataSource) ctx.lookup("java:comp/env/jdbc/soccorso");
-        SoccorsoDataLayer dataLayer = new SoccorsoDataLayer(ds);
-        dataLayer.init();
-        return dataLayer;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+package webengineering.nuovissimosoccorsoweb.rest.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import webengineering.framework.data.DataLayer;
+import webengineering.framework.data.ResultHandler;
+import webengineering.nuovissimosoccorsoweb.rest.dto.ErrorResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Risposte in streaming NDJSON (un oggetto JSON per riga) per le collezioni
+ * grandi: ogni DTO viene scritto appena la sua riga arriva dal database, quindi
+ * la memoria usata non dipende dal numero di elementi.
+ *
+ * Il DataLayer iniettato nella risorsa resta aperto finché il corpo della
+ * risposta non è stato scritto e viene poi chiuso da Jersey (vedi
+ * DataLayerFactory): né la risorsa né lo stream devono chiuderlo.
+ */
+public class NdjsonStreamer {
+
+    private static final Logger logger = Logger.getLogger(NdjsonStreamer.class.getName());
+
+    public static final String MEDIA_TYPE = "application/x-ndjson";
+
+    // Elementi convertiti e scritti insieme (e dopo i quali si svuota il buffer di uscita)
+    public static final int CHUNK_SIZE = 100;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    /**
+     * Corpo della risposta: scrive gli elementi su out.
+     */
+    @FunctionalInterface
+    public interface Body {
+
+        void write(Output out) throws Exception;
+    }
+
+    /**
+     * Converte un blocco di elementi nei DTO da scrivere, potendo caricare i
+     * dati collegati di tutto il blocco con poche query.
+     */
+    @FunctionalInterface
+    public interface ChunkMapper<T> {
+
+        List<?> map(List<T> chunk) throws Exception;
+    }
+
+    /**
+     * Uscita NDJSON della risposta.
+     */
+    public static class Output {
+
+        private final OutputStream os;
+        private int count;
+
+        private Output(OutputStream os) {
+            this.os = os;
+        }
+
+        public void write(Object dto) throws IOException {
+            os.write(MAPPER.writeValueAsBytes(dto));
+            os.write('\n');
+            if (++count % CHUNK_SIZE == 0) {
+                os.flush();
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Gestore per le letture in streaming dei DAO che accumula al massimo
+         * CHUNK_SIZE elementi, li converte con mapper e li scrive. Dopo ogni
+         * blocco svuota la cache di primo livello del DataLayer, che altrimenti
+         * crescerebbe con i dati collegati caricati. Alla fine della lettura
+         * va chiamato finish() per l'ultimo blocco.
+         */
+        public <T> Chunked<T> chunked(DataLayer dataLayer, ChunkMapper<T> mapper) {
+            return new Chunked<>(this, dataLayer, mapper);
+        }
+    }
+
+    public static class Chunked<T> implements ResultHandler<T> {
+
+        private final Output out;
+        private final DataLayer dataLayer;
+        private final ChunkMapper<T> mapper;
+        private final List<T> chunk;
+
+        private Chunked(Output out, DataLayer dataLayer, ChunkMapper<T> mapper) {
+            this.out = out;
+            this.dataLayer = dataLayer;
+            this.mapper = mapper;
+            this.chunk = new ArrayList<>(CHUNK_SIZE);
+        }
+
+        @Override
+        public void handle(T item) throws Exception {
+            chunk.add(item);
+            if (chunk.size() >= CHUNK_SIZE) {
+                finish();
+            }
+        }
+
+        public void finish() throws Exception {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            for (Object dto : mapper.map(chunk)) {
+                out.write(dto);
+            }
+            chunk.clear();
+            dataLayer.getCache().clearLocal();
+        }
+    }
+
+    /**
+     * Il client ha chiesto lo streaming con ?stream=true o con
+     * Accept: application/x-ndjson.
+     */
+    public static boolean isRequested(HttpHeaders headers, boolean stream) {
+        if (stream) {
+            return true;
+        }
+        if (headers != null) {
+            for (MediaType type : headers.getAcceptableMediaTypes()) {
+                if ("application".equalsIgnoreCase(type.getType()) && "x-ndjson".equalsIgnoreCase(type.getSubtype())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Risposta che esegue body mentre scrive il corpo. Lo stato HTTP è già
+     * stato inviato quando body viene eseguito: un errore durante la scrittura
+     * viene quindi segnalato con una riga ErrorResponse finale.
+     */
+    public static Response stream(Body body) {
+        StreamingOutput output = os -> {
+            Output out = new Output(os);
+            try {
+                body.write(out);
+                os.flush();
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Errore durante lo streaming della risposta dopo " + out.getCount() + " elementi", e);
+                try {
+                    out.write(new ErrorResponse("Risposta interrotta", "STREAM_ERROR"));
+                    os.flush();
+                } catch (IOException ex) {
+                    // Il client si è disconnesso: non c'è più nessuno a cui segnalarlo
+                }
+            }
+        };
+        return Response.ok(output, MEDIA_TYPE).build();
+    }
+}
@@ -0,0 +1,388 @@
+package webengineering.nuovissimosoccorsoweb.service;
+
+import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
+import webengineering.framework.data.DataException;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Indice in memoria della disponibilità di operatori, mezzi e materiali: una
+ * risorsa è impegnata se è assegnata a una missione la cui richiesta è in
+ * stato "Attiva". La verifica di una risorsa è una lookup in una mappa, senza
+ * SQL.
+ *
+ * L'indice conosce le richieste aperte ("Convalidata", in attesa di missione,
+ * e "Attiva") con le risorse assegnate alle loro missioni. Viene costruito dal
+ * database all'avvio dell'applicazione (SoccorsoContextListener), o al primo
+ * utilizzo se all'avvio non è stato possibile, e dopo invalidate(); poi viene
+ * aggiornato dai DAO a ogni creazione o cancellazione di una missione,
+ * assegnazione o rimozione di una risorsa e cambio di stato di una richiesta,
+ * sempre dopo il commit (vedi DataLayer.afterCommit), così le transazioni
+ * annullate non lo toccano.
+ *
+ * La ricostruzione legge il database con un DataLayer proprio (fuori da
+ * qualunque transazione del chiamante, quindi senza righe non confermate) e
+ * senza tenere il lock dell'indice, così gli aggiornamenti dopo il commit non
+ * restano bloccati dalle sue query. Gli eventi arrivati nel frattempo vengono
+ * registrati e riapplicati al nuovo contenuto quando lo si sostituisce; un
+ * invalidate() durante la ricostruzione (contatore di generazione) lascia
+ * l'indice da ricostruire.
+ *
+ * Gli aggiornamenti sono idempotenti (si basano su insiemi), quindi un evento
+ * già compreso in una ricostruzione non viene contato due volte. Se arriva un
+ * evento su una richiesta che l'indice non conosce (ad esempio scritta da
+ * un'altra istanza dell'applicazione) l'indice viene invalidato e ricostruito
+ * alla lettura successiva.
+ */
+public class AvailabilityIndex {
+
+    private static final Logger logger = Logger.getLogger(AvailabilityIndex.class.getName());
+
+    private static final String CONVALIDATA = "Convalidata";
+    private static final String ATTIVA = "Attiva";
+
+    private static volatile AvailabilityIndex instance;
+
+    // Risorse assegnate alla missione di una richiesta aperta
+    private static class Risorse {
+
+        final Set<Integer> operatori = new HashSet<>();
+        final Set<String> mezzi = new HashSet<>();
+        final Set<Integer> materiali = new HashSet<>();
+    }
+
+    // Contenuto dell'indice: sostituito per intero a ogni ricostruzione
+    private static class Stato {
+
+        // Richieste aperte e risorse delle loro missioni
+        final Map<Integer, Risorse> risorse = new HashMap<>();
+        // Richieste in stato Attiva
+        final Set<Integer> attive = new HashSet<>();
+        // Risorse impegnate, con il numero di missioni attive a cui sono assegnate
+        final Map<Integer, Integer> operatoriImpegnati = new ConcurrentHashMap<>();
+        final Map<String, Integer> mezziImpegnati = new ConcurrentHashMap<>();
+        final Map<Integer, Integer> materialiImpegnati = new ConcurrentHashMap<>();
+    }
+
+    private volatile Stato stato = new Stato();
+    private volatile boolean loaded;
+    // Incrementato da invalidate(): una ricostruzione iniziata prima non rende l'indice valido
+    private long generation;
+    // Eventi arrivati durante una ricostruzione, da riapplicare al nuovo contenuto (null se non ce n'è una in corso)
+    private List<Consumer<Stato>> pending;
+    // Una sola ricostruzione alla volta, senza occupare il lock dell'indice
+    private final Object buildLock = new Object();
+
+    private AvailabilityIndex() {
+    }
+
+    public static AvailabilityIndex getInstance() {
+        if (instance == null) {
+            synchronized (AvailabilityIndex.class) {
+                if (instance == null) {
+                    instance = new AvailabilityIndex();
+                }
+            }
+        }
+        return instance;
+    }
+
+    // ----- Letture -----
+
+    /**
+     * Costruisce l'indice se non è ancora stato fatto o se è stato invalidato.
+     * Da chiamare prima delle verifiche di disponibilità; la costruzione usa un
+     * DataLayer proprio sulla stessa DataSource, non quello del chiamante.
+     */
+    public void ensureLoaded(SoccorsoDataLayer dataLayer) throws DataException {
+        if (!loaded) {
+            rebuild(dataLayer.getDatasource());
+        }
+    }
+
+    public boolean isOperatoreDisponibile(int idOperatore) {
+        return !stato.operatoriImpegnati.containsKey(idOperatore);
+    }
+
+    public boolean isMezzoDisponibile(String targa) {
+        return !stato.mezziImpegnati.containsKey(targa);
+    }
+
+    public boolean isMaterialeDisponibile(int idMateriale) {
+        return !stato.materialiImpegnati.containsKey(idMateriale);
+    }
+
+    // Risorse impegnate (copie, di solito poche): i DAO le escludono nella query delle risorse disponibili
+
+    public Set<Integer> getOperatoriImpegnati() {
+        return new HashSet<>(stato.operatoriImpegnati.keySet());
+    }
+
+    public Set<String> getMezziImpegnati() {
+        return new HashSet<>(stato.mezziImpegnati.keySet());
+    }
+
+    public Set<Integer> getMaterialiImpegnati() {
+        return new HashSet<>(stato.materialiImpegnati.keySet());
+    }
+
+    // ----- Ricostruzione -----
+
+    /**
+     * Rilegge dal database richieste aperte e risorse assegnate e sostituisce
+     * il contenuto dell'indice. Le query usano un DataLayer nuovo (sul
+     * primario, in autocommit) e non tengono il lock dell'indice.
+     */
+    public void rebuild(DataSource dataSource) throws DataException {
+        synchronized (buildLock) {
+            long gen;
+            synchronized (this) {
+                if (loaded) {
+                    return;
+                }
+                gen = generation;
+                pending = new ArrayList<>();
+            }
+            Stato nuovo;
+            try {
+                nuovo = load(dataSource);
+            } catch (DataException | RuntimeException ex) {
+                synchronized (this) {
+                    pending = null;
+                }
+                throw ex;
+            }
+            synchronized (this) {
+                List<Consumer<Stato>> eventi = pending;
+                pending = null;
+                stato = nuovo;
+                loaded = true;
+                for (Consumer<Stato> evento : eventi) {
+                    evento.accept(nuovo);
+                }
+                // invalidato durante la costruzione (o dagli eventi riapplicati): va ricostruito
+                if (generation != gen) {
+                    loaded = false;
+                }
+            }
+            logger.info("Indice disponibilità costruito: " + nuovo.risorse.size() + " richieste aperte, "
+                    + nuovo.attive.size() + " attive");
+        }
+    }
+
+    private static Stato load(DataSource dataSource) throws DataException {
+        SoccorsoDataLayer dataLayer;
+        try {
+            // nessuna replica: una replica in ritardo perderebbe le ultime assegnazioni
+            dataLayer = new SoccorsoDataLayer(dataSource, null);
+        } catch (SQLException ex) {
+            throw new DataException("Impossibile creare il DataLayer per l'indice di disponibilità", ex);
+        }
+        try {
+            dataLayer.init();
+            Stato nuovo = new Stato();
+            for (Map.Entry<Integer, String> e : dataLayer.getRichiestaSoccorsoDAO().getStatiRichiesteAperte().entrySet()) {
+                nuovo.risorse.put(e.getKey(), new Risorse());
+                if (ATTIVA.equals(e.getValue())) {
+                    nuovo.attive.add(e.getKey());
+                }
+            }
+            for (Map.Entry<Integer, Set<Integer>> e : dataLayer.getMissioneDAO().getOperatoriMissioniAperte().entrySet()) {
+                risorse(nuovo, e.getKey()).operatori.addAll(e.getValue());
+            }
+            for (Map.Entry<Integer, Set<String>> e : dataLayer.getMissioneDAO().getMezziMissioniAperte().entrySet()) {
+                risorse(nuovo, e.getKey()).mezzi.addAll(e.getValue());
+            }
+            for (Map.Entry<Integer, Set<Integer>> e : dataLayer.getMissioneDAO().getMaterialiMissioniAperte().entrySet()) {
+                risorse(nuovo, e.getKey()).materiali.addAll(e.getValue());
+            }
+            for (Integer codice : nuovo.attive) {
+                impegna(nuovo, nuovo.risorse.get(codice));
+            }
+            return nuovo;
+        } finally {
+            dataLayer.destroy();
+        }
+    }
+
+    /**
+     * Scarta il contenuto dell'indice, che verrà ricostruito alla prossima
+     * lettura (ad esempio dopo modifiche fatte direttamente sul database).
+     */
+    public synchronized void invalidate() {
+        ++generation;
+        loaded = false;
+    }
+
+    private static Risorse risorse(Stato s, int codice) {
+        return s.risorse.computeIfAbsent(codice, k -> new Risorse());
+    }
+
+    // ----- Aggiornamenti chiamati dai DAO dopo il commit -----
+
+    public void statoCambiato(int codice, String vecchioStato, String nuovoStato) {
+        evento(s -> {
+            if (CONVALIDATA.equals(nuovoStato)) {
+                s.risorse.putIfAbsent(codice, new Risorse());
+            } else if (ATTIVA.equals(nuovoStato)) {
+                Risorse r = s.risorse.get(codice);
+                if (r == null) {
+                    // Le risorse della missione non sono note: meglio rileggere tutto
+                    sconosciuta();
+                } else if (s.attive.add(codice)) {
+                    impegna(s, r);
+                }
+            } else {
+                chiudi(s, codice);
+            }
+        });
+    }
+
+    public void missioneCreata(int codice) {
+        evento(s -> s.risorse.putIfAbsent(codice, new Risorse()));
+    }
+
+    // La richiesta resta aperta, ma senza risorse assegnate
+    public void missioneEliminata(int codice) {
+        evento(s -> {
+            Risorse r = s.risorse.get(codice);
+            if (r != null) {
+                if (s.attive.contains(codice)) {
+                    rilascia(s, r);
+                }
+                s.risorse.put(codice, new Risorse());
+            }
+        });
+    }
+
+    public void richiestaEliminata(int codice) {
+        evento(s -> chiudi(s, codice));
+    }
+
+    public void operatoreAssegnato(int codice, int idOperatore) {
+        evento(s -> {
+            Risorse r = noto(s, codice);
+            if (r != null && r.operatori.add(idOperatore) && s.attive.contains(codice)) {
+                s.operatoriImpegnati.merge(idOperatore, 1, Integer::sum);
+            }
+        });
+    }
+
+    public void operatoreRimosso(int codice, int idOperatore) {
+        evento(s -> {
+            Risorse r = noto(s, codice);
+            if (r != null && r.operatori.remove(idOperatore) && s.attive.contains(codice)) {
+                rilascia(s.operatoriImpegnati, idOperatore);
+            }
+        });
+    }
+
+    public void mezzoAssegnato(int codice, String targa) {
+        evento(s -> {
+            Risorse r = noto(s, codice);
+            if (r != null && r.mezzi.add(targa) && s.attive.contains(codice)) {
+                s.mezziImpegnati.merge(targa, 1, Integer::sum);
+            }
+        });
+    }
+
+    public void mezzoRimosso(int codice, String targa) {
+        evento(s -> {
+            Risorse r = noto(s, codice);
+            if (r != null && r.mezzi.remove(targa) && s.attive.contains(codice)) {
+                rilascia(s.mezziImpegnati, targa);
+            }
+        });
+    }
+
+    public void materialeAssegnato(int codice, int idMateriale) {
+        evento(s -> {
+            Risorse r = noto(s, codice);
+            if (r != null && r.materiali.add(idMateriale) && s.attive.contains(codice)) {
+                s.materialiImpegnati.merge(idMateriale, 1, Integer::sum);
+            }
+        });
+    }
+
+    public void materialeRimosso(int codice, int idMateriale) {
+        evento(s -> {
+            Risorse r = noto(s, codice);
+            if (r != null && r.materiali.remove(idMateriale) && s.attive.contains(codice)) {
+                rilascia(s.materialiImpegnati, idMateriale);
+            }
+        });
+    }
+
+    // Applica l'evento al contenuto attuale e, se è in corso una ricostruzione, lo registra
+    // per riapplicarlo al nuovo contenuto
+    private synchronized void evento(Consumer<Stato> evento) {
+        evento.accept(stato);
+        if (pending != null) {
+            pending.add(evento);
+        }
+    }
+
+    // Risorse di una richiesta aperta; se la richiesta non è nota l'indice viene invalidato
+    private Risorse noto(Stato s, int codice) {
+        Risorse r = s.risorse.get(codice);
+        if (r == null) {
+            sconosciuta();
+        }
+        return r;
+    }
+
+    // Evento su una richiesta che l'indice non conosce: solo un indice valido va invalidato (durante
+    // una ricostruzione l'evento viene riapplicato al nuovo contenuto, che la conosce se è aperta)
+    private void sconosciuta() {
+        if (loaded) {
+            invalidate();
+        }
+    }
+
+    // La richiesta non è più aperta: le sue risorse tornano disponibili
+    private static void chiudi(Stato s, int codice) {
+        Risorse r = s.risorse.remove(codice);
+        if (r != null && s.attive.remove(codice)) {
+            rilascia(s, r);
+        }
+    }
+
+    private static void impegna(Stato s, Risorse r) {
+        for (Integer id : r.operatori) {
+            s.operatoriImpegnati.merge(id, 1, Integer::sum);
+        }
+        for (String targa : r.mezzi) {
+            s.mezziImpegnati.merge(targa, 1, Integer::sum);
+        }
+        for (Integer id : r.materiali) {
+            s.materialiImpegnati.merge(id, 1, Integer::sum);
+        }
+    }
+
+    private static void rilascia(Stato s, Risorse r) {
+        for (Integer id : r.operatori) {
+            rilascia(s.operatoriImpegnati, id);
+        }
+        for (String targa : r.mezzi) {
+            rilascia(s.mezziImpegnati, targa);
+        }
+        for (Integer id : r.materiali) {
+            rilascia(s.materialiImpegnati, id);
+        }
+    }
+
+    // Una missione attiva in meno per la risorsa: a zero la chiave viene tolta (risorsa disponibile)
+    private static <K> void rilascia(Map<K, Integer> impegnati, K key) {
+        impegnati.computeIfPresent(key, (k, n) -> n > 1 ? n - 1 : null);
+    }
+}
@@ -3,6 +3,7 @@ package webengineering.nuovissimosoccorsoweb.service;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.OptimisticLockException;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -92,8 +93,13 @@ public class ConvalidaService {
                                            richiesta.getStato() + ")", "INVALID_STATE");
             }
             
-            // 5. Aggiorna lo stato della richiesta
-            dataLayer.getRichiestaSoccorsoDAO().updateStato(richiesta.getCodice(), "Convalidata");
+            // 5. Aggiorna lo stato della richiesta (solo se è ancora "Inviata")
+            try {
+                dataLayer.getRichiestaSoccorsoDAO().updateStato(richiesta.getCodice(), "Inviata", "Convalidata");
+            } catch (OptimisticLockException e) {
+                logger.warning("Richiesta modificata durante la conferma - Token: " + token + ", Codice: " + richiesta.getCodice());
+                return ConvalidaResult.error("La richiesta è stata modificata nel frattempo. Riprova.", "CONFLICT");
+            }
             
             // 6. Ricarica la richiesta per avere lo stato aggiornato
             richiesta = dataLayer.getRichiestaSoccorsoDAO().getRichiestaByCodice(richiesta.getCodice());
@@ -0,0 +1,148 @@
+package webengineering.nuovissimosoccorsoweb.service;
+
+import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
+import webengineering.framework.data.DataException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contatori della dashboard amministratore: numero di richieste per stato e di
+ * missioni concluse.
+ *
+ * I contatori restano in memoria e vengono aggiornati dai DAO, dopo il commit
+ * (vedi DataLayer.afterCommit), a ogni inserimento di una richiesta, cambio di
+ * stato e conclusione di una missione, così la dashboard non legge nessuna
+ * riga e il suo costo non cresce con le tabelle. Periodicamente (alla prima
+ * lettura dopo RECONCILE_INTERVAL) i valori vengono riallineati al database
+ * con una query GROUP BY stato e un COUNT su info_missione: questo corregge le
+ * modifiche non tracciate (cancellazioni, altre istanze dell'applicazione).
+ */
+public class DashboardStatsService {
+
+    // Ogni quanto i contatori vengono riallineati al database
+    private static final long RECONCILE_INTERVAL = TimeUnit.MINUTES.toNanos(5);
+
+    private static volatile DashboardStatsService instance;
+
+    private final Map<String, AtomicInteger> richiestePerStato = new ConcurrentHashMap<>();
+    private final AtomicInteger missioniConcluse = new AtomicInteger();
+
+    // Se c'è già stato un riallineamento e quando (System.nanoTime)
+    private volatile boolean loaded;
+    private volatile long lastReconcile;
+
+    /**
+     * Valori della dashboard in un dato momento.
+     */
+    public static class DashboardStats {
+
+        private final Map<String, Integer> richiestePerStato;
+        private final int missioniConcluse;
+        private final int totaleRichieste;
+
+        private DashboardStats(Map<String, Integer> richiestePerStato, int missioniConcluse) {
+            this.richiestePerStato = richiestePerStato;
+            this.missioniConcluse = missioniConcluse;
+            int totale = 0;
+            for (int n : richiestePerStato.values()) {
+                totale += n;
+            }
+            this.totaleRichieste = totale;
+        }
+
+        public int getRichieste(String stato) {
+            return richiestePerStato.getOrDefault(stato, 0);
+        }
+
+        public int getMissioniConcluse() {
+            return missioniConcluse;
+        }
+
+        public int getTotaleRichieste() {
+            return totaleRichieste;
+        }
+    }
+
+    private DashboardStatsService() {
+    }
+
+    public static DashboardStatsService getInstance() {
+        if (instance == null) {
+            synchronized (DashboardStatsService.class) {
+                if (instance == null) {
+                    instance = new DashboardStatsService();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Valori correnti dei contatori; se è passato RECONCILE_INTERVAL
+     * dall'ultimo riallineamento (o non ce n'è mai stato uno) vengono prima
+     * riletti dal database.
+     */
+    public DashboardStats getStats(SoccorsoDataLayer dataLayer) throws DataException {
+        if (!loaded || System.nanoTime() - lastReconcile >= RECONCILE_INTERVAL) {
+            reconcile(dataLayer);
+        }
+        Map<String, Integer> snapshot = new HashMap<>();
+        for (Map.Entry<String, AtomicInteger> e : richiestePerStato.entrySet()) {
+            snapshot.put(e.getKey(), Math.max(0, e.getValue().get()));
+        }
+        return new DashboardStats(snapshot, Math.max(0, missioniConcluse.get()));
+    }
+
+    // Riallinea i contatori al database: una sola richiesta alla volta, le altre usano i valori correnti
+    private synchronized void reconcile(SoccorsoDataLayer dataLayer) throws DataException {
+        if (loaded && System.nanoTime() - lastReconcile < RECONCILE_INTERVAL) {
+            return;
+        }
+        // Dentro una transazione o subito dopo una scrittura (replica forse in ritardo) i conteggi
+        // potrebbero non essere quelli confermati: se ci sono già dei valori si riprova alla prossima lettura
+        if (loaded && !dataLayer.isSharable()) {
+            return;
+        }
+        Map<String, Integer> perStato = dataLayer.getRichiestaSoccorsoDAO().countRichiestePerStato();
+        int concluse = dataLayer.getInfoMissioneDAO().countInfoMissioni();
+
+        for (Map.Entry<String, AtomicInteger> e : richiestePerStato.entrySet()) {
+            if (!perStato.containsKey(e.getKey())) {
+                e.getValue().set(0);
+            }
+        }
+        for (Map.Entry<String, Integer> e : perStato.entrySet()) {
+            counter(e.getKey()).set(e.getValue());
+        }
+        missioniConcluse.set(concluse);
+        lastReconcile = System.nanoTime();
+        loaded = true;
+    }
+
+    // ----- Aggiornamenti chiamati dai DAO dopo ogni scrittura riuscita -----
+
+    public void richiestaInserita(String stato) {
+        if (stato != null) {
+            counter(stato).incrementAndGet();
+        }
+    }
+
+    public void statoCambiato(String vecchioStato, String nuovoStato) {
+        if (vecchioStato != null && nuovoStato != null && !vecchioStato.equals(nuovoStato)) {
+            counter(vecchioStato).decrementAndGet();
+            counter(nuovoStato).incrementAndGet();
+        }
+    }
+
+    public void missioneConclusa() {
+        missioniConcluse.incrementAndGet();
+    }
+
+    private AtomicInteger counter(String stato) {
+        return richiestePerStato.computeIfAbsent(stato, k -> new AtomicInteger());
+    }
+}
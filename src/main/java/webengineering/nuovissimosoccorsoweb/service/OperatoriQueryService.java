@@ -79,7 +79,7 @@ public class OperatoriQueryService {
      * Recupera tutti gli operatori attualmente liberi/disponibili.
      * UNICA implementazione condivisa tra MVC e REST.
      * 
-     * Usa la query complessa esistente che verifica operatori NON impegnati in missioni attive.
+     * Il DAO filtra gli operatori con l'indice di disponibilità in memoria (vedi AvailabilityIndex).
      * 
      * @param dataLayer DataLayer per accesso database
      * @return Risultato con lista operatori liberi
@@ -88,7 +88,7 @@ public class OperatoriQueryService {
         try {
             logger.info("=== RECUPERO OPERATORI LIBERI ===");
             
-            // USA IL DAO ESISTENTE - la query complessa è già implementata!
+            // USA IL DAO ESISTENTE - il filtro sulle missioni attive è nell'indice di disponibilità
             List<Operatore> operatoriLiberi = dataLayer.getOperatoreDAO().getOperatoriDisponibili();
             
             logger.info("Trovati " + operatoriLiberi.size() + " operatori disponibili");
@@ -127,16 +127,12 @@ public class OperatoriQueryService {
             // 1. Carica tutti gli operatori
             List<Operatore> tuttiOperatori = dataLayer.getOperatoreDAO().getAllOperatori();
             
-            // 2. Carica operatori disponibili per confronto
-            List<Operatore> operatoriLiberi = dataLayer.getOperatoreDAO().getOperatoriDisponibili();
-            
-            // 3. Crea lista con informazioni dettagliate
+            // 2. Crea lista con informazioni dettagliate
             List<OperatoreInfo> operatoriConStato = new java.util.ArrayList<>();
             
             for (Operatore operatore : tuttiOperatori) {
-                // Verifica se è libero
-                boolean disponibile = operatoriLiberi.stream()
-                    .anyMatch(libero -> libero.getId() == operatore.getId());
+                // Verifica se è libero (indice in memoria, vedi AvailabilityIndex)
+                boolean disponibile = dataLayer.getOperatoreDAO().isOperatoreDisponibile(operatore.getId());
                 
                 // Conta missioni (se hai i metodi nel MissioneDAO)
                 int missioniInCorso = 0;
@@ -187,9 +183,7 @@ public class OperatoriQueryService {
             }
             
             // 2. Verifica disponibilità
-            List<Operatore> operatoriLiberi = dataLayer.getOperatoreDAO().getOperatoriDisponibili();
-            boolean disponibile = operatoriLiberi.stream()
-                .anyMatch(libero -> libero.getId() == id);
+            boolean disponibile = dataLayer.getOperatoreDAO().isOperatoreDisponibile(id);
             
             // 3. Conta missioni
             int missioniInCorso = 0;
@@ -236,10 +230,14 @@ public class OperatoriQueryService {
      */
     public static StatisticheOperatori getStatisticheOperatori(SoccorsoDataLayer dataLayer) throws DataException {
         List<Operatore> tutti = dataLayer.getOperatoreDAO().getAllOperatori();
-        List<Operatore> liberi = dataLayer.getOperatoreDAO().getOperatoriDisponibili();
         
         int totale = tutti.size();
-        int disponibili = liberi.size();
+        int disponibili = 0;
+        for (Operatore operatore : tutti) {
+            if (dataLayer.getOperatoreDAO().isOperatoreDisponibile(operatore.getId())) {
+                ++disponibili;
+            }
+        }
         int occupati = totale - disponibili;
         
         return new StatisticheOperatori(totale, disponibili, occupati);
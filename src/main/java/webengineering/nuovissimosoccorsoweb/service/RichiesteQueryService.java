@@ -3,8 +3,11 @@ package webengineering.nuovissimosoccorsoweb.service;
 import webengineering.nuovissimosoccorsoweb.SoccorsoDataLayer;
 import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
 import webengineering.framework.data.DataException;
+import webengineering.framework.data.ResultHandler;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -19,6 +22,9 @@ public class RichiesteQueryService {
 
     private static final Logger logger = Logger.getLogger(RichiesteQueryService.class.getName());
 
+    // Livello di successo di una missione conclusa in modo totalmente positivo
+    private static final int LIVELLO_SUCCESSO_POSITIVO = 5;
+
     /**
      * Risultato paginato per le richieste.
      */
@@ -72,6 +78,121 @@ public class RichiesteQueryService {
         }
     }
 
+    /**
+     * Risultato di una pagina letta con paginazione a chiave (cursore).
+     */
+    public static class CursorResult<T> {
+
+        private final List<T> content;
+        private final int pageSize;
+        private final String nextCursor;
+
+        public CursorResult(List<T> content, int pageSize, String nextCursor) {
+            this.content = content;
+            this.pageSize = pageSize;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<T> getContent() {
+            return content;
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        // null se questa è l'ultima pagina
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean isLast() {
+            return nextCursor == null;
+        }
+    }
+
+    /**
+     * Recupera richieste filtrate per stato con paginazione a chiave: il costo
+     * di ogni pagina non dipende da quante pagine la precedono.
+     *
+     * @param stato Stato delle richieste (null per tutte)
+     * @param cursor Cursore restituito dalla pagina precedente (null o vuoto
+     * per la prima pagina)
+     * @param size Elementi per pagina
+     * @param dataLayer DataLayer per accesso database
+     * @return Pagina di richieste con il cursore della successiva
+     */
+    public static CursorResult<RichiestaSoccorso> getRichiesteFiltrateAfter(
+            String stato, String cursor, int size, SoccorsoDataLayer dataLayer) throws DataException {
+
+        logger.info("Recupero richieste filtrate (cursore) - Stato: " + stato + ", Size: " + size);
+
+        String statoDb = (stato != null && !stato.trim().isEmpty()) ? mapStatoRestToDb(stato) : null;
+        Integer afterCodice = decodeCursor(cursor);
+
+        // Legge un elemento in più per sapere se esiste una pagina successiva
+        List<RichiestaSoccorso> richieste
+                = dataLayer.getRichiestaSoccorsoDAO().getRichiesteVisibiliAfter(statoDb, afterCodice, size + 1);
+
+        String nextCursor = null;
+        if (richieste.size() > size) {
+            richieste = richieste.subList(0, size);
+            nextCursor = encodeCursor(richieste.get(size - 1).getCodice());
+        }
+
+        return new CursorResult<>(richieste, size, nextCursor);
+    }
+
+    /**
+     * Scorre tutte le richieste filtrate per stato, senza paginazione e senza
+     * caricarle in memoria: ogni richiesta viene passata a handler appena
+     * letta. Usato dalle risposte in streaming.
+     *
+     * @param stato Stato delle richieste (null per tutte)
+     * @param handler Gestore chiamato per ogni richiesta
+     * @param dataLayer DataLayer per accesso database
+     * @return Numero di richieste lette
+     */
+    public static int streamRichiesteFiltrate(
+            String stato, ResultHandler<RichiestaSoccorso> handler, SoccorsoDataLayer dataLayer) throws DataException {
+
+        logger.info("Streaming richieste filtrate - Stato: " + stato);
+
+        String statoDb = (stato != null && !stato.trim().isEmpty()) ? mapStatoRestToDb(stato) : null;
+        return dataLayer.getRichiestaSoccorsoDAO().streamRichiesteVisibili(statoDb, handler);
+    }
+
+    /**
+     * Cursore opaco che punta dopo la richiesta con il codice dato.
+     */
+    public static String encodeCursor(int codice) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(("r:" + codice).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodifica un cursore prodotto da encodeCursor.
+     *
+     * @return Il codice dell'ultima richiesta già restituita, o null per la
+     * prima pagina
+     * @throws IllegalArgumentException se il cursore non è valido
+     */
+    public static Integer decodeCursor(String cursor) {
+        if (cursor == null || cursor.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+            if (!value.startsWith("r:")) {
+                throw new IllegalArgumentException("Cursore non valido");
+            }
+            return Integer.valueOf(value.substring(2));
+        } catch (IllegalArgumentException e) {
+            // include NumberFormatException e gli errori di decodifica Base64
+            throw new IllegalArgumentException("Cursore non valido", e);
+        }
+    }
+
     /**
      * Recupera richieste filtrate per stato con paginazione.
      *
@@ -90,36 +211,16 @@ public class RichiesteQueryService {
             // Mappa stati REST a stati database se necessario
             String statoDb = (stato != null && !stato.trim().isEmpty()) ? mapStatoRestToDb(stato) : null;
 
-            // 1. Recupera richieste filtrate (usa i metodi DAO esistenti)
-            List<RichiestaSoccorso> tutteRichieste;
-            if (statoDb != null) {
-                tutteRichieste = dataLayer.getRichiestaSoccorsoDAO().getRichiesteByStato(statoDb);
-            } else {
-                tutteRichieste = dataLayer.getRichiestaSoccorsoDAO().getAllRichieste();
-            }
-
-            // ✅ NUOVA LOGICA: Filtra automaticamente le richieste "Inviata"
-            List<RichiestaSoccorso> richiesteFiltrate = new ArrayList<>();
-            for (RichiestaSoccorso richiesta : tutteRichieste) {
-                // Escludi le richieste con stato "Inviata"
-                if (!"Inviata".equals(richiesta.getStato())) {
-                    richiesteFiltrate.add(richiesta);
-                }
-            }
-
-            logger.info("Richieste prima del filtro 'Inviata': " + tutteRichieste.size()
-                    + ", dopo il filtro: " + richiesteFiltrate.size());
-
-            // 2. Applica paginazione in memoria
-            int totalElements = richiesteFiltrate.size();
-            int startIndex = (page - 1) * size;
-            int endIndex = Math.min(startIndex + size, totalElements);
+            // Filtro (escluse le richieste "Inviata"), ordinamento e paginazione vengono fatti dal database:
+            // si leggono solo le righe della pagina richiesta, più un COUNT(*) per il totale
+            int totalElements = dataLayer.getRichiestaSoccorsoDAO().countRichiesteVisibili(statoDb);
+            int offset = (page - 1) * size;
 
             List<RichiestaSoccorso> richiestePagina;
-            if (startIndex >= totalElements || startIndex < 0) {
+            if (offset >= totalElements || offset < 0) {
                 richiestePagina = new ArrayList<>();
             } else {
-                richiestePagina = richiesteFiltrate.subList(startIndex, endIndex);
+                richiestePagina = dataLayer.getRichiestaSoccorsoDAO().getRichiesteVisibili(statoDb, offset, size);
             }
 
             logger.info("Trovate " + totalElements + " richieste totali (senza 'Inviata'), "
@@ -150,25 +251,17 @@ public class RichiesteQueryService {
         try {
             logger.info("Recupero richieste non positive - Pagina: " + page + ", Size: " + size);
 
-            // 1. Recupera richieste chiuse (usa metodo DAO esistente)
-            List<RichiestaSoccorso> richiesteChiuse
-                    = dataLayer.getRichiestaSoccorsoDAO().getRichiesteByStato("Chiusa");
-
-            // 2. Per ora restituisci tutte le richieste chiuse
-            // TODO: Implementare il filtro per livello di successo < 5 quando avrai il JOIN con info_missione
-            // Puoi estendere il DAO con un metodo specifico o fare un JOIN manuale
-            List<RichiestaSoccorso> richiesteNonPositive = richiesteChiuse;
-
-            // 3. Applica paginazione
-            int totalElements = richiesteNonPositive.size();
-            int startIndex = (page - 1) * size;
-            int endIndex = Math.min(startIndex + size, totalElements);
+            // Richieste chiuse con livello di successo < 5 (JOIN con info_missione), paginate dal database
+            int totalElements = dataLayer.getRichiestaSoccorsoDAO()
+                    .countRichiesteChiuseByLivelloSuccesso(LIVELLO_SUCCESSO_POSITIVO);
+            int offset = (page - 1) * size;
 
             List<RichiestaSoccorso> richiestePagina;
-            if (startIndex >= totalElements || startIndex < 0) {
+            if (offset >= totalElements || offset < 0) {
                 richiestePagina = new ArrayList<>();
             } else {
-                richiestePagina = richiesteNonPositive.subList(startIndex, endIndex);
+                richiestePagina = dataLayer.getRichiestaSoccorsoDAO()
+                        .getRichiesteChiuseByLivelloSuccesso(LIVELLO_SUCCESSO_POSITIVO, offset, size);
             }
 
             logger.info("Trovate " + totalElements + " richieste non positive, "
@@ -185,6 +278,36 @@ public class RichiesteQueryService {
         }
     }
 
+    /**
+     * Recupera richieste con livello di successo < 5 con paginazione a chiave:
+     * il costo di ogni pagina non dipende da quante pagine la precedono.
+     *
+     * @param cursor Cursore restituito dalla pagina precedente (null o vuoto
+     * per la prima pagina)
+     * @param size Elementi per pagina
+     * @param dataLayer DataLayer per accesso database
+     * @return Pagina di richieste con il cursore della successiva
+     */
+    public static CursorResult<RichiestaSoccorso> getRichiesteNonPositiveAfter(
+            String cursor, int size, SoccorsoDataLayer dataLayer) throws DataException {
+
+        logger.info("Recupero richieste non positive (cursore) - Size: " + size);
+
+        Integer afterCodice = decodeCursor(cursor);
+
+        // Legge un elemento in più per sapere se esiste una pagina successiva
+        List<RichiestaSoccorso> richieste = dataLayer.getRichiestaSoccorsoDAO()
+                .getRichiesteChiuseByLivelloSuccessoAfter(LIVELLO_SUCCESSO_POSITIVO, afterCodice, size + 1);
+
+        String nextCursor = null;
+        if (richieste.size() > size) {
+            richieste = richieste.subList(0, size);
+            nextCursor = encodeCursor(richieste.get(size - 1).getCodice());
+        }
+
+        return new CursorResult<>(richieste, size, nextCursor);
+    }
+
     /**
      * Recupera una singola richiesta per codice. Metodo di utilità per evitare
      * duplicazione.
@@ -0,0 +1,99 @@
+package webengineering.nuovissimosoccorsoweb.util;
+
+import webengineering.framework.result.AdapterObjectWrapper;
+import webengineering.framework.result.BeanAdapter;
+import webengineering.framework.result.TemplateModelAdapters;
+import webengineering.nuovissimosoccorsoweb.model.InfoMissione;
+import webengineering.nuovissimosoccorsoweb.model.Materiale;
+import webengineering.nuovissimosoccorsoweb.model.Mezzo;
+import webengineering.nuovissimosoccorsoweb.model.Missione;
+import webengineering.nuovissimosoccorsoweb.model.Operatore;
+import webengineering.nuovissimosoccorsoweb.model.PartecipazioneSquadra;
+import webengineering.nuovissimosoccorsoweb.model.RichiestaSoccorso;
+import webengineering.nuovissimosoccorsoweb.model.User;
+
+/**
+ * Adattatori per i template delle interfacce del modello: nelle liste
+ * (richieste, operatori, mezzi, materiali) ogni proprietà letta dal template è
+ * una chiamata diretta al getter invece che un accesso tramite introspezione.
+ * Registrato nel web.xml (view.model.adapters.*).
+ *
+ * Le proprietà sono quelle dichiarate nelle interfacce (le altre restano
+ * raggiungibili tramite il modello standard). Operatore va registrato prima di
+ * User.
+ */
+public class ModelTemplateAdapters implements TemplateModelAdapters {
+
+    @Override
+    public void registerAdapters(AdapterObjectWrapper wrapper) {
+        wrapper.register(RichiestaSoccorso.class, new BeanAdapter<RichiestaSoccorso>()
+                .property("codice", RichiestaSoccorso::getCodice)
+                .property("stato", RichiestaSoccorso::getStato)
+                .property("coordinate", RichiestaSoccorso::getCoordinate)
+                .property("indirizzo", RichiestaSoccorso::getIndirizzo)
+                .property("descrizione", RichiestaSoccorso::getDescrizione)
+                .property("stringa", RichiestaSoccorso::getStringa)
+                .property("nome", RichiestaSoccorso::getNome)
+                .property("foto", RichiestaSoccorso::getFoto)
+                .property("ip", RichiestaSoccorso::getIp)
+                .property("emailSegnalante", RichiestaSoccorso::getEmailSegnalante)
+                .property("nomeSegnalante", RichiestaSoccorso::getNomeSegnalante)
+                .property("idAmministratore", RichiestaSoccorso::getIdAmministratore));
+
+        wrapper.register(Missione.class, new BeanAdapter<Missione>()
+                .property("codiceRichiesta", Missione::getCodiceRichiesta)
+                .property("nome", Missione::getNome)
+                .property("obiettivo", Missione::getObiettivo)
+                .property("posizione", Missione::getPosizione)
+                .property("nota", Missione::getNota)
+                .property("idAmministratore", Missione::getIdAmministratore)
+                .property("dataOraInizio", Missione::getDataOraInizio)
+                .property("version", Missione::getVersion));
+
+        wrapper.register(InfoMissione.class, new BeanAdapter<InfoMissione>()
+                .property("codiceMissione", InfoMissione::getCodiceMissione)
+                .property("successo", InfoMissione::getSuccesso)
+                .property("commento", InfoMissione::getCommento)
+                .property("dataOraFine", InfoMissione::getDataOraFine)
+                .property("version", InfoMissione::getVersion));
+
+        wrapper.register(Operatore.class, user(new BeanAdapter<Operatore>())
+                .property("idAmministratore", Operatore::getIdAmministratore)
+                .property("codiceFiscale", Operatore::getCodiceFiscale));
+
+        wrapper.register(User.class, user(new BeanAdapter<User>()));
+
+        wrapper.register(Mezzo.class, new BeanAdapter<Mezzo>()
+                .property("targa", Mezzo::getTarga)
+                .property("nome", Mezzo::getNome)
+                .property("descrizione", Mezzo::getDescrizione)
+                .property("version", Mezzo::getVersion));
+
+        wrapper.register(Materiale.class, new BeanAdapter<Materiale>()
+                .property("id", Materiale::getId)
+                .property("nome", Materiale::getNome)
+                .property("descrizione", Materiale::getDescrizione)
+                .property("version", Materiale::getVersion));
+
+        wrapper.register(PartecipazioneSquadra.class, new BeanAdapter<PartecipazioneSquadra>()
+                .property("idOperatore", PartecipazioneSquadra::getIdOperatore)
+                .property("codiceMissione", PartecipazioneSquadra::getCodiceMissione)
+                .property("ruolo", PartecipazioneSquadra::getRuolo)
+                .property("version", PartecipazioneSquadra::getVersion));
+    }
+
+    // Proprietà comuni a tutti gli utenti (amministratori e operatori)
+    private static <T extends User> BeanAdapter<T> user(BeanAdapter<T> adapter) {
+        return adapter
+                .property("id", User::getId)
+                .property("nome", User::getNome)
+                .property("cognome", User::getCognome)
+                .property("email", User::getEmail)
+                .property("cf", User::getCf)
+                .property("ruolo", User::getRuolo)
+                .property("idCreatore", User::getIdCreatore)
+                .property("patenti", User::getPatenti)
+                .property("abilita", User::getAbilita)
+                .property("version", User::getVersion);
+    }
+}
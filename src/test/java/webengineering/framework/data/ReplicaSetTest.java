@@ -0,0 +1,194 @@
+package webengineering.framework.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Instradamento delle letture tra primario e repliche (ReplicaSet e
+ * DataLayer.getReadConnection), su due database H2 in memoria indipendenti:
+ * le scritture arrivano solo al primario, quindi la replica è sempre "in
+ * ritardo" e ogni lettura dice da quale database è stata servita.
+ *
+ * Read routing between primary and replicas (ReplicaSet and
+ * DataLayer.getReadConnection), on two independent in-memory H2 databases:
+ * writes only reach the primary, so the replica always "lags" and each read
+ * tells which database served it.
+ */
+class ReplicaSetTest {
+
+    private static final long WINDOW_MILLIS = 300;
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private DataSource primary;
+    private DataSource replica;
+
+    @BeforeEach
+    void createDatabases() throws SQLException {
+        primary = database("primary", "primario");
+        replica = database("replica", "replica");
+    }
+
+    @AfterAll
+    static void stopMonitor() {
+        DataLayerMonitor.shutdown();
+    }
+
+    @Test
+    void readsGoToTheReplicaWhenNobodyWrote() throws Exception {
+        ReplicaSet replicas = new ReplicaSet(List.of(replica), WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        try (DataLayer dl = dataLayer(replicas, "alice")) {
+            assertEquals("replica", new ValueDAO(dl).read());
+            assertTrue(dl.isReplica(dl.getReadConnection()));
+            assertTrue(dl.isSharable());
+        }
+    }
+
+    @Test
+    void writerReadsItsOwnWritesFromThePrimary() throws Exception {
+        ReplicaSet replicas = new ReplicaSet(List.of(replica), WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        try (DataLayer dl = dataLayer(replicas, "alice")) {
+            ValueDAO dao = new ValueDAO(dl);
+            dao.write("scritto");
+            //stessa richiesta: dopo la scrittura le letture restano sul primario
+            //same request: after the write the reads stay on the primary
+            assertEquals("scritto", dao.read());
+        }
+        //richiesta successiva con la stessa chiave: ancora il primario, per la finestra
+        //following request with the same key: still the primary, for the window
+        try (DataLayer dl = dataLayer(replicas, "alice")) {
+            assertEquals("scritto", new ValueDAO(dl).read());
+            assertFalse(dl.isReplica(dl.getReadConnection()));
+        }
+        //chiunque altro legge dalla replica in ritardo, ma non mette i dati nelle cache condivise
+        //anyone else reads from the lagging replica, but does not put the data in the shared caches
+        try (DataLayer dl = dataLayer(replicas, "bob")) {
+            assertEquals("replica", new ValueDAO(dl).read());
+            assertFalse(dl.isSharable());
+        }
+        try (DataLayer dl = dataLayer(replicas, null)) {
+            assertEquals("replica", new ValueDAO(dl).read());
+        }
+    }
+
+    @Test
+    void writerGoesBackToTheReplicaAfterTheWindow() throws Exception {
+        ReplicaSet replicas = new ReplicaSet(List.of(replica), WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        try (DataLayer dl = dataLayer(replicas, "alice")) {
+            new ValueDAO(dl).write("scritto");
+        }
+        Thread.sleep(WINDOW_MILLIS + 100);
+        try (DataLayer dl = dataLayer(replicas, "alice")) {
+            assertEquals("replica", new ValueDAO(dl).read());
+            assertTrue(dl.isSharable());
+        }
+    }
+
+    @Test
+    void readsInsideATransactionUseThePrimary() throws Exception {
+        ReplicaSet replicas = new ReplicaSet(List.of(replica), WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        try (DataLayer dl = dataLayer(replicas, "alice")) {
+            Connection c = dl.getConnection();
+            c.setAutoCommit(false);
+            try {
+                assertEquals("primario", new ValueDAO(dl).read());
+                assertFalse(dl.isSharable());
+            } finally {
+                c.rollback();
+                c.setAutoCommit(true);
+                dl.transactionEnded(false);
+            }
+        }
+    }
+
+    @Test
+    void readsFallBackToThePrimaryWhenTheReplicaIsDown() throws Exception {
+        ReplicaSet replicas = new ReplicaSet(List.of(unreachable()), WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        try (DataLayer dl = dataLayer(replicas, "alice")) {
+            assertEquals("primario", new ValueDAO(dl).read());
+            assertFalse(dl.isReplica(dl.getReadConnection()));
+        }
+    }
+
+    @Test
+    void readsSkipAReplicaThatIsDown() throws Exception {
+        ReplicaSet replicas = new ReplicaSet(List.of(unreachable(), replica), WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        //il turno (round robin) parte una volta da ciascuna replica: entrambe le volte risponde quella attiva
+        //the turn (round robin) starts once from each replica: both times the live one answers
+        for (int i = 0; i < 2; ++i) {
+            try (DataLayer dl = dataLayer(replicas, "alice")) {
+                assertEquals("replica", new ValueDAO(dl).read());
+                assertTrue(dl.isReplica(dl.getReadConnection()));
+            }
+        }
+    }
+
+    private DataLayer dataLayer(ReplicaSet replicas, Object consistencyKey) throws SQLException {
+        DataLayer dl = new DataLayer(primary);
+        dl.setReplicaSet(replicas);
+        dl.setConsistencyKey(consistencyKey);
+        return dl;
+    }
+
+    private static DataSource database(String name, String value) throws SQLException {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:" + name + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        ds.setUser("sa");
+        try (Connection c = ds.getConnection(); Statement s = c.createStatement()) {
+            s.executeUpdate("CREATE TABLE valore (id INT PRIMARY KEY, v VARCHAR(20))");
+            s.executeUpdate("INSERT INTO valore (id, v) VALUES (1, '" + value + "')");
+        }
+        return ds;
+    }
+
+    //un database che non esiste (e non viene creato): ogni getConnection fallisce
+    //a database that does not exist (and is not created): every getConnection fails
+    private static DataSource unreachable() {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:./target/replica-down-" + databases.incrementAndGet() + ";IFEXISTS=TRUE");
+        ds.setUser("sa");
+        return ds;
+    }
+
+    private static class ValueDAO extends DAO {
+
+        ValueDAO(DataLayer d) throws DataException {
+            super(d);
+            init();
+        }
+
+        @Override
+        public void init() throws DataException {
+            super.init();
+            registerStatement("read", "SELECT v FROM valore WHERE id = 1");
+            registerStatement("write", "UPDATE valore SET v = ? WHERE id = 1");
+        }
+
+        String read() throws SQLException {
+            try (ResultSet rs = getReadStatement("read").executeQuery()) {
+                assertTrue(rs.next());
+                return rs.getString(1);
+            }
+        }
+
+        void write(String value) throws SQLException {
+            PreparedStatement s = getStatement("write");
+            s.setString(1, value);
+            s.executeUpdate();
+        }
+    }
+}